@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of market data frames by EDecoder.processMsg(), with the String-per-field
+ * reader and with the direct reader.
+ *
+ * The frames are a captured sequence of bid, ask and last price ticks with their
+ * sizes, as TWS sends them for a futures contract. The callbacks go to a wrapper
+ * that only accumulates the values.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+	private static final int FRAMES = 64;
+
+	@Param({"false", "true"})
+	public boolean direct;
+
+	private EMessage[] frames;
+	private EDecoder decoder;
+	private Sink sink;
+
+	/**
+	 * Accumulates the callbacks so that the decoding cannot be optimised away
+	 */
+	static class Sink extends DefaultEWrapper {
+		double sum;
+
+		@Override
+		public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+			sum += price + tickerId + field;
+		}
+
+		@Override
+		public void tickSize(int tickerId, int field, int size) {
+			sum += size;
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		double last = 49.87;
+
+		frames = new EMessage[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			Builder b = new Builder(64);
+
+			if (i % 4 == 3) {
+				b.send(EDecoder.TICK_SIZE);
+				b.send(6);
+				b.send(1);
+				b.send(8);
+				b.send(1200 + i);
+			} else {
+				last += (i % 8 < 4) ? 0.01 : -0.01;
+				b.send(EDecoder.TICK_PRICE);
+				b.send(6);
+				b.send(1);
+				b.send(i % 4 == 0 ? 4 : i % 4);
+				b.send(i % 4 == 1 ? last - 0.01 : i % 4 == 2 ? last + 0.01 : last);
+				b.send(3 + i % 5);
+				b.send(1);
+			}
+			frames[i] = new EMessage(b);
+		}
+
+		sink = new Sink();
+		decoder = new EDecoder(EClient.MAX_VERSION, sink);
+		decoder.directDecode(direct);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public double processMsg() throws IOException {
+		for (EMessage m: frames) {
+			decoder.processMsg(m);
+		}
+		return(sink.sum);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ib.client.Types.Action;
+import com.ib.client.Types.SecType;
+
+/**
+ * Encoding of placeOrder() requests into a Builder, as done by EClientSocket
+ * before the frame is written to the socket. The client is connected to nothing,
+ * the finished frames are only counted.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+	private NullClient client;
+	private Contract contract;
+	private Order stop;
+	private Order trail;
+	private int id = 1;
+
+	/**
+	 * Client with the latest server version that encodes into a reused buffer
+	 */
+	static class NullClient extends EClient {
+		private final Builder buf = new Builder(1024);
+		long bytes;
+
+		NullClient() {
+			super(new DefaultEWrapper(), new EJavaSignal());
+			m_serverVersion = MAX_VERSION;
+			m_useV100Plus = true;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return(true);
+		}
+
+		@Override
+		public void eDisconnect() {
+		}
+
+		@Override
+		protected Builder prepareBuffer() {
+			buf.reset();
+			buf.allocateLengthHeader();
+			return(buf);
+		}
+
+		@Override
+		protected void closeAndSend(Builder b) throws IOException {
+			b.updateLength(0);
+			bytes += b.size();
+		}
+	}
+
+	@Setup
+	public void setup() {
+		client = new NullClient();
+
+		contract = new Contract();
+		contract.symbol("CL");
+		contract.secType(SecType.FUT);
+		contract.lastTradeDateOrContractMonth("201712");
+		contract.exchange("NYMEX");
+		contract.currency("USD");
+
+		// Entry stop and its attached trail, as placed by the news trader
+		stop = new Order();
+		stop.action(Action.BUY);
+		stop.orderType(OrderType.STP);
+		stop.totalQuantity(1);
+		stop.auxPrice(50.25);
+		stop.ocaGroup("CL-entry");
+		stop.transmit(false);
+
+		trail = new Order();
+		trail.action(Action.SELL);
+		trail.orderType(OrderType.TRAIL);
+		trail.totalQuantity(1);
+		trail.auxPrice(0.15);
+		trail.parentId(1);
+		trail.transmit(true);
+	}
+
+	@Benchmark
+	public long placeOrder() {
+		client.placeOrder(id++, contract, stop);
+		return(client.bytes);
+	}
+
+	@Benchmark
+	public long placeAttachedOrder() {
+		client.placeOrder(id++, contract, trail);
+		return(client.bytes);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package sigma.trading.news;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sigma.utils.TraderState;
+
+/**
+ * Dispatch of price ticks by the news trading Connector.tickPrice() with a number
+ * of traded instruments.
+ *
+ * The instruments are live with the adjustment throttled, so every last price goes
+ * through the price store and NewsInstrument.onPrice() of its instrument, but no
+ * orders are sent.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickPriceBenchmark {
+
+	@Param({"1", "10", "100"})
+	public int tickers;
+
+	private Connector con;
+	private int n = 0;
+	private double price = 50;
+
+	@Setup
+	public void setup() {
+		con = new Connector();
+		con.setReactive(true);
+
+		for (int i = 1; i <= tickers; i++) {
+			NewsInstrument inst = new NewsInstrument(i, "CL" + i, "FUT", "NYMEX", "201712", 1, 0.1, 0.1, 0, 0);
+
+			inst.setAdjInterval(Long.MAX_VALUE);
+			inst.setState(TraderState.LIVE);
+			con.getInst().add(inst);
+		}
+	}
+
+	/**
+	 * Bid, ask and last of the tickers in turn
+	 */
+	@Benchmark
+	public double tickPrice() {
+		int i = n++;
+		int id = 1 + (i / 3) % tickers;
+
+		switch (i % 3) {
+		case 0:
+			price += (i & 8) == 0 ? 0.01 : -0.01;
+			con.tickPrice(id, 4, price, 1);
+			break;
+		case 1:
+			con.tickPrice(id, 1, price - 0.01, 1);
+			break;
+		default:
+			con.tickPrice(id, 2, price + 0.01, 1);
+			break;
+		}
+		return(con.getPrice(id));
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Black-Scholes values and Greeks of an option chain, one Option object at a time
+ * and as an OptionBatch. The benchmarks run the whole chain and report the time
+ * per chain.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionBenchmark {
+
+	@Param({"64", "1024", "16384"})
+	public int chain;
+
+	private Option[] options;
+	private OptionBatch batch;
+
+	@Setup
+	public void setup() {
+		options = new Option[chain];
+		batch = new OptionBatch(chain);
+
+		// Strikes around the spot, calls and puts, a few expiries
+		for (int i = 0; i < chain; i++) {
+			double k = 40 + 20.0 * (i / 2 % 200) / 200;
+			double t = (1 + i % 7) / 12.0;
+			double vol = 0.2 + 0.1 * Math.abs(k - 50) / 10;
+			OptSide side = i % 2 == 0 ? OptSide.CALL : OptSide.PUT;
+
+			options[i] = new Option(k, 50, t, side, 0, 0.01);
+			options[i].setSigma(vol);
+			batch.set(i, k, 50, t, vol, 0.01, side);
+		}
+	}
+
+	@Benchmark
+	public void single(Blackhole bh) {
+		for (Option o: options) {
+			bh.consume(o.value());
+			bh.consume(o.delta());
+			bh.consume(o.gamma());
+			bh.consume(o.theta());
+			bh.consume(o.vega());
+		}
+	}
+
+	@Benchmark
+	public double[] batch() {
+		batch.compute();
+		return(batch.getDelta());
+	}
+
+	@Benchmark
+	public double[] batchParallel() {
+		batch.compute(ForkJoinPool.commonPool());
+		return(batch.getDelta());
+	}
+}
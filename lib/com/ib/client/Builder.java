@@ -3,10 +3,11 @@
 
 package com.ib.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 /** This class is used to build messages so the entire message can be
  *  sent to the socket in a single write. */
@@ -14,27 +15,59 @@ public class Builder implements ObjectOutput {
 	private static final char SEP = 0;
 	private static final int PADDING_SIZE = 1; // 1 disables padding, 4 is normal if padding is used
 	private static final byte[] EMPTY_LENGTH_HEADER = new byte[ 4 ]; 
+	private static final int MAX_DECIMALS = 10;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POW10 = new double[ MAX_DECIMALS + 1 ];
+	private static final long[] LONG_POW10 = new long[ MAX_DECIMALS + 1 ];
+
+	static {
+		POW10[0] = 1;
+		LONG_POW10[0] = 1;
+		for (int i = 1; i <= MAX_DECIMALS; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+			LONG_POW10[i] = LONG_POW10[i - 1] * 10;
+		}
+	}
 	        
 	private final ByteBuffer m_sb;
+	private final byte[] m_digits = new byte[ 20 ];
 	
 	public Builder( int size ) {
 	    m_sb = new ByteBuffer( size );
 	}	
 	
+	/** Empties the builder so it can be reused for the next message */
+	public void reset() {
+		m_sb.reset();
+	}
+	
 	public void send(int a) {
-        send( String.valueOf(a) );
+		formatLong( a);
+		m_sb.write( SEP);
 	}
 
 	public void sendMax(int a) {
-		send( a == Integer.MAX_VALUE ? "" : String.valueOf( a) );
+		if (a == Integer.MAX_VALUE) {
+			m_sb.write( SEP);
+		} else {
+			send( a);
+		}
 	}
 
 	public void send(double a) {
-        send( String.valueOf( a) );
+		if (!writeDecimal( a)) {
+			send( String.valueOf( a) );
+			return;
+		}
+		m_sb.write( SEP);
 	}
 
 	public void sendMax(double a) {
-		send( a == Double.MAX_VALUE ? "" : String.valueOf( a) );
+		if (a == Double.MAX_VALUE) {
+			m_sb.write( SEP);
+		} else {
+			send( a);
+		}
 	}
 
 	public void send( boolean a) {
@@ -47,12 +80,87 @@ public class Builder implements ObjectOutput {
 
 	public void send( String a) {
 		if (a != null) {
-		    byte[] buffer = a.getBytes();
-		    m_sb.write( buffer, 0, buffer.length );
+			if (!writeAscii( a)) {
+			    byte[] buffer = a.getBytes();
+			    m_sb.write( buffer, 0, buffer.length );
+			}
 		}
 		m_sb.write( SEP);
 	}
 
+	/** Writes a pure ASCII string byte by byte; false (nothing written) otherwise */
+	private boolean writeAscii( String a) {
+		int len = a.length();
+		for (int i = 0; i < len; i++) {
+			if (a.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		m_sb.ensureCapacity( len);
+		for (int i = 0; i < len; i++) {
+			m_sb.put( (byte)a.charAt(i));
+		}
+		return true;
+	}
+
+	/** Formats a in decimal straight into the buffer, as String.valueOf(long) would */
+	private void formatLong( long a) {
+		if (a == Long.MIN_VALUE) {
+			writeAscii( String.valueOf( a) );
+			return;
+		}
+		if (a < 0) {
+			m_sb.write( '-');
+			a = -a;
+		}
+		int pos = m_digits.length;
+		do {
+			m_digits[--pos] = (byte)('0' + a % 10);
+			a /= 10;
+		} while (a != 0);
+		m_sb.write( m_digits, pos, m_digits.length - pos);
+	}
+
+	/**
+	 * Writes a in plain notation using the fewest decimals (at most MAX_DECIMALS) that
+	 * parse back to exactly a. Covers the range where String.valueOf(double) does not use
+	 * an exponent; returns false without writing anything if a is outside it.
+	 */
+	private boolean writeDecimal( double a) {
+		double abs = Math.abs( a);
+		if (!(abs >= 1e-3 && abs < 1e7)) {
+			if (a != 0) {
+				return false;
+			}
+			writeAscii( Double.doubleToRawLongBits( a) < 0 ? "-0.0" : "0.0");
+			return true;
+		}
+		for (int k = 0; k <= MAX_DECIMALS; k++) {
+			double scaled = abs * POW10[k];
+			if (scaled >= MAX_EXACT_MANTISSA) {
+				return false;
+			}
+			long m = Math.round( scaled);
+			if (m / POW10[k] == abs) {
+				if (a < 0) {
+					m_sb.write( '-');
+				}
+				formatLong( m / LONG_POW10[k]);
+				m_sb.write( '.');
+				if (k == 0) {
+					m_sb.write( '0');
+				} else {
+					long frac = m % LONG_POW10[k];
+					for (int i = k - 1; i >= 0; i--) {
+						m_sb.write( (int)('0' + frac / LONG_POW10[i] % 10));
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void send( byte[] bytes ) {
         if ( bytes != null ) {
             m_sb.write(  bytes, 0, bytes.length );
@@ -73,6 +181,20 @@ public class Builder implements ObjectOutput {
        m_sb.writeTo( dos );
     }
 
+    /** Writes the message straight from the internal buffer, without copying it */
+    public void writeTo( OutputStream os ) throws IOException {
+       m_sb.writeTo( os );
+    }
+
+    public int size() {
+    	return m_sb.size();
+    }
+
+    /** Copies the message into dst, which must hold at least size() bytes */
+    void copyTo( byte[] dst ) {
+    	m_sb.copyTo( dst );
+    }
+
     // b[] must be at least b[position+4]
     public static void intToBytes(int val, byte b[], int position) {
         b[position+0] = (byte)(0xff & (val >> 24));
@@ -82,10 +204,44 @@ public class Builder implements ObjectOutput {
         return;
     }
     
-    /** inner class: ByteBuffer - storage for bytes and direct access to buffer. */
-    private static class ByteBuffer extends ByteArrayOutputStream {
+    /** inner class: ByteBuffer - storage for bytes and direct access to buffer.
+     *  Unsynchronized, a Builder is only ever filled by one thread at a time. */
+    private static class ByteBuffer {
+        private byte[] buf;
+        private int count;
+
         public ByteBuffer( int capacity ) {
-            super( capacity );
+            buf = new byte[ capacity ];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public void reset() {
+            count = 0;
+        }
+
+        public void ensureCapacity( int extra ) {
+            if ( count + extra > buf.length ) {
+                buf = Arrays.copyOf( buf, Math.max( buf.length * 2, count + extra ) );
+            }
+        }
+
+        // caller must have called ensureCapacity
+        public void put( byte b ) {
+            buf[ count++ ] = b;
+        }
+
+        public void write( int b ) {
+            ensureCapacity( 1 );
+            buf[ count++ ] = (byte)b;
+        }
+
+        public void write( byte[] b, int off, int len ) {
+            ensureCapacity( len );
+            System.arraycopy( b, off, buf, count, len );
+            count += len;
         }
 
         public void updateLength( int lengthHeaderPosition ) {
@@ -100,7 +256,11 @@ public class Builder implements ObjectOutput {
             intToBytes(len, this.buf, lengthHeaderPosition);
         }
         
-        public void writeTo( DataOutputStream out ) throws IOException {
+        public void copyTo( byte[] dst ) {
+            System.arraycopy( buf, 0, dst, 0, count );
+        }
+
+        public void writeTo( OutputStream out ) throws IOException {
             out.write( this.buf, 0, this.count );
         }
     }
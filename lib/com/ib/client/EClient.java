@@ -121,11 +121,11 @@ public abstract class EClient {
     private static final int REQ_MKT_DATA = 1;
     private static final int CANCEL_MKT_DATA = 2;
     protected static final int PLACE_ORDER = 3;
-    private static final int CANCEL_ORDER = 4;
+    static final int CANCEL_ORDER = 4;
     private static final int REQ_OPEN_ORDERS = 5;
     private static final int REQ_ACCOUNT_DATA = 6;
     private static final int REQ_EXECUTIONS = 7;
-    private static final int REQ_IDS = 8;
+    static final int REQ_IDS = 8;
     private static final int REQ_CONTRACT_DATA = 9;
     private static final int REQ_MKT_DEPTH = 10;
     private static final int CANCEL_MKT_DEPTH = 11;
@@ -152,7 +152,7 @@ public abstract class EClient {
     private static final int REQ_CALC_OPTION_PRICE = 55;
     private static final int CANCEL_CALC_IMPLIED_VOLAT = 56;
     private static final int CANCEL_CALC_OPTION_PRICE = 57;
-    private static final int REQ_GLOBAL_CANCEL = 58;
+    static final int REQ_GLOBAL_CANCEL = 58;
     private static final int REQ_MARKET_DATA_TYPE = 59;
     private static final int REQ_POSITIONS = 61;
     private static final int REQ_ACCOUNT_SUMMARY = 62;
@@ -164,7 +164,7 @@ public abstract class EClient {
     private static final int SUBSCRIBE_TO_GROUP_EVENTS = 68;
     private static final int UPDATE_DISPLAY_GROUP = 69;
     private static final int UNSUBSCRIBE_FROM_GROUP_EVENTS = 70;
-    private static final int START_API = 71;
+    static final int START_API = 71;
     private static final int VERIFY_AND_AUTH_REQUEST = 72;
     private static final int VERIFY_AND_AUTH_MESSAGE = 73;
     private static final int REQ_POSITIONS_MULTI = 74;
@@ -3030,6 +3030,10 @@ public abstract class EClient {
     	m_socketTransport.send(msg);
     }
 
+    protected void sendMsg(Builder buf) throws IOException {
+    	m_socketTransport.send(buf);
+    }
+
     private static boolean IsEmpty(String str) {
     	return Util.StringIsEmpty(str);
     }
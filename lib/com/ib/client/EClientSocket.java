@@ -12,8 +12,16 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
     private boolean m_allowRedirect;
     protected DataInputStream m_dis;
 	private boolean m_asyncEConnect = false;
+	private boolean m_asyncSend = false;
 	private boolean m_connected = false;
 	private Socket m_socket;
+	// one reusable send buffer per calling thread, not every request method is synchronized
+	private final ThreadLocal<Builder> m_sendBuffer = new ThreadLocal<Builder>() {
+		@Override
+		protected Builder initialValue() {
+			return new Builder( 1024 );
+		}
+	};
 		
 	public void setAsyncEConnect(boolean asyncEConnect) {
 		this.m_asyncEConnect = asyncEConnect;
@@ -23,13 +31,28 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 		return m_asyncEConnect;
 	}
 
+	/**
+	 * Sends requests through an ESendPipeline: request methods return as soon as the
+	 * message is queued, and order messages overtake queued market data requests.
+	 * The handshake up to START_API is still written synchronously.
+	 * Takes effect on the next connect.
+	 */
+	public void setAsyncSend(boolean asyncSend) {
+		this.m_asyncSend = asyncSend;
+	}
+
+	public boolean isAsyncSend() {
+		return m_asyncSend;
+	}
+
 	public EClientSocket(EWrapper eWrapper, EReaderSignal signal) {
 		super(eWrapper, signal);
 	}
 
 	@Override
 	protected Builder prepareBuffer() {
-        Builder buf = new Builder( 1024 );
+        Builder buf = m_sendBuffer.get();
+        buf.reset();
         if( m_useV100Plus ) {
             buf.allocateLengthHeader();
         }
@@ -42,14 +65,13 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
     		buf.updateLength( 0 ); // New buffer means length header position is always zero
     	}
     	
-    	EMessage msg = new EMessage(buf);
-    	
-    	sendMsg(msg);
+    	sendMsg(buf);
     }
 
 	protected synchronized void eConnect(Socket socket) throws IOException {
 	    // create io streams
-	    m_socketTransport = new ESocket(socket);
+	    ESocket transport = new ESocket(socket);
+	    m_socketTransport = m_asyncSend ? new ESendPipeline(transport, m_eWrapper, m_useV100Plus) : transport;
 	    m_dis = new DataInputStream(socket.getInputStream());
 	    m_defaultPort = socket.getPort();
 	    m_socket = socket;
@@ -210,6 +232,9 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	
 	    FilterInputStream dis = m_dis;
 	    m_dis = null;
+	    if (m_socketTransport != null) {
+	    	m_socketTransport.close();
+	    }
 	    m_socketTransport = null;
 	
 	    try {
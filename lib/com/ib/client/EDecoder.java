@@ -5,6 +5,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
@@ -73,6 +74,7 @@ class EDecoder implements ObjectInput {
 	EWrapper m_EWrapper;
 	int m_serverVersion;
 	private IMessageReader m_messageReader;
+	private DirectMessageReader m_directReader;
 
 	public EDecoder(int serverVersion, EWrapper callback) {
 		this(serverVersion, callback, null);
@@ -84,6 +86,19 @@ class EDecoder implements ObjectInput {
 		m_EWrapper = callback;
 	}
 	
+	/**
+	 * Switches between the String-per-field reader and the direct reader, which parses
+	 * numeric fields straight from the message bytes and interns repeating string fields.
+	 * Both produce the same EWrapper callbacks.
+	 */
+	void directDecode(boolean val) {
+		m_directReader = val ? new DirectMessageReader() : null;
+	}
+	
+	boolean isDirectDecode() {
+		return m_directReader != null;
+	}
+	
     protected void processFirstMsg() throws IOException {
         m_serverVersion = readInt();
         
@@ -122,7 +137,10 @@ class EDecoder implements ObjectInput {
     }
     
     public int processMsg(EMessage msg) throws IOException {
-    	if (!readMessageToInternalBuf(msg.getStream())) {
+    	if (m_directReader != null) {
+    		m_directReader.reset(msg.m_buf, msg.m_len);
+    		m_messageReader = m_directReader;
+    	} else if (!readMessageToInternalBuf(msg.getStream())) {
     		return 0;
     	}
     	
@@ -378,10 +396,10 @@ class EDecoder implements ObjectInput {
 
 	private void processSecurityDefinitionOptionalParameter() throws IOException {
 		int reqId = readInt();	
-		String exchange = readStr();
+		String exchange = readStrInterned();
 		int underlyingConId = readInt();
-		String tradingClass = readStr();
-		String multiplier = readStr();
+		String tradingClass = readStrInterned();
+		String multiplier = readStrInterned();
 		int expirationsSize = readInt();
 		Set<String> expirations = new HashSet<String>();
 		Set<Double> strikes = new HashSet<Double>();
@@ -454,7 +472,7 @@ class EDecoder implements ObjectInput {
 		CommissionReport commissionReport = new CommissionReport();
 		commissionReport.m_execId = readStr();
 		commissionReport.m_commission = readDouble();
-		commissionReport.m_currency = readStr();
+		commissionReport.m_currency = readStrInterned();
 		commissionReport.m_realizedPNL = readDouble();
 		commissionReport.m_yield = readDouble();
 		commissionReport.m_yieldRedemptionDate = readInt();
@@ -649,13 +667,13 @@ class EDecoder implements ObjectInput {
 		contract.strike(readDouble());
 		contract.right(readStr());
 		if (version >= 9) {
-		    contract.multiplier(readStr());
+		    contract.multiplier(readStrInterned());
 		}
-		contract.exchange(readStr());
-		contract.currency(readStr());
+		contract.exchange(readStrInterned());
+		contract.currency(readStrInterned());
 		contract.localSymbol(readStr());
 		if (version >= 10) {
-		    contract.tradingClass(readStr());
+		    contract.tradingClass(readStrInterned());
 		}
 
 		Execution exec = new Execution();
@@ -663,7 +681,7 @@ class EDecoder implements ObjectInput {
 		exec.execId(readStr());
 		exec.time(readStr());
 		exec.acctNumber(readStr());
-		exec.exchange(readStr());
+		exec.exchange(readStrInterned());
 		exec.side(readStr());
 		
 		if (m_serverVersion >= EClient.MIN_SERVER_VER_FRACTIONAL_POSITIONS)			
@@ -722,10 +740,10 @@ class EDecoder implements ObjectInput {
 		contract.callable(readBoolFromInt());
 		contract.putable(readBoolFromInt());
 		contract.descAppend(readStr());
-		contract.contract().exchange(readStr());
-		contract.contract().currency(readStr());
+		contract.contract().exchange(readStrInterned());
+		contract.contract().currency(readStrInterned());
 		contract.marketName(readStr());
-		contract.contract().tradingClass(readStr());
+		contract.contract().tradingClass(readStrInterned());
 		contract.contract().conid(readInt());
 		contract.minTick(readDouble());
 		contract.orderTypes(readStr());
@@ -773,14 +791,14 @@ class EDecoder implements ObjectInput {
 		contract.contract().lastTradeDateOrContractMonth(readStr());
 		contract.contract().strike(readDouble());
 		contract.contract().right(readStr());
-		contract.contract().exchange(readStr());
-		contract.contract().currency(readStr());
+		contract.contract().exchange(readStrInterned());
+		contract.contract().currency(readStrInterned());
 		contract.contract().localSymbol(readStr());
 		contract.marketName(readStr());
-		contract.contract().tradingClass(readStr());
+		contract.contract().tradingClass(readStrInterned());
 		contract.contract().conid(readInt());
 		contract.minTick(readDouble());
-		contract.contract().multiplier(readStr());
+		contract.contract().multiplier(readStrInterned());
 		contract.orderTypes(readStr());
 		contract.validExchanges(readStr());
 		if (version >= 2) {
@@ -837,11 +855,11 @@ class EDecoder implements ObjectInput {
 		    contract.contract().lastTradeDateOrContractMonth(readStr());
 		    contract.contract().strike(readDouble());
 		    contract.contract().right(readStr());
-		    contract.contract().exchange(readStr());
-		    contract.contract().currency(readStr());
+		    contract.contract().exchange(readStrInterned());
+		    contract.contract().currency(readStrInterned());
 		    contract.contract().localSymbol(readStr());
 		    contract.marketName(readStr());
-		    contract.contract().tradingClass(readStr());
+		    contract.contract().tradingClass(readStrInterned());
 		    String distance = readStr();
 		    String benchmark = readStr();
 		    String projection = readStr();
@@ -880,15 +898,15 @@ class EDecoder implements ObjectInput {
 		contract.strike(readDouble());
 		contract.right(readStr());
 		if ( version >= 32) {
-		   contract.multiplier(readStr());
+		   contract.multiplier(readStrInterned());
 		}
-		contract.exchange(readStr());
-		contract.currency(readStr());
+		contract.exchange(readStrInterned());
+		contract.currency(readStrInterned());
 		if ( version >= 2 ) {
 		    contract.localSymbol(readStr());
 		}
 		if (version >= 32) {
-		    contract.tradingClass(readStr());
+		    contract.tradingClass(readStrInterned());
 		}
 
 		// read order fields
@@ -1052,7 +1070,7 @@ class EDecoder implements ObjectInput {
 					int conId = readInt();
 					int ratio = readInt();
 					String action = readStr();
-					String exchange = readStr();
+					String exchange = readStrInterned();
 					int openClose = readInt();
 					int shortSaleSlot = readInt();
 					String designatedLocation = readStr();
@@ -1253,15 +1271,15 @@ class EDecoder implements ObjectInput {
 		contract.strike(readDouble());
 		contract.right(readStr());
 		if (version >= 7) {
-			contract.multiplier(readStr());
+			contract.multiplier(readStrInterned());
 			contract.primaryExch(readStr());
 		}
-		contract.currency(readStr());
+		contract.currency(readStrInterned());
 		if ( version >= 2 ) {
 		    contract.localSymbol(readStr());
 		}
 		if (version >= 8) {
-		    contract.tradingClass(readStr());
+		    contract.tradingClass(readStrInterned());
 		}
 
 		double position = m_serverVersion >= EClient.MIN_SERVER_VER_FRACTIONAL_POSITIONS ? readDouble() : readInt();;
@@ -1433,7 +1451,7 @@ class EDecoder implements ObjectInput {
 		String account = readStr();
 		String tag = readStr();
 		String value = readStr();
-		String currency = readStr();
+		String currency = readStrInterned();
 		m_EWrapper.accountSummary(reqId, account, tag, value, currency);
 	}
 
@@ -1453,12 +1471,12 @@ class EDecoder implements ObjectInput {
 		contract.lastTradeDateOrContractMonth(readStr());
 		contract.strike(readDouble());
 		contract.right(readStr());
-		contract.multiplier(readStr());
-		contract.exchange(readStr());
-		contract.currency(readStr());
+		contract.multiplier(readStrInterned());
+		contract.exchange(readStrInterned());
+		contract.currency(readStrInterned());
 		contract.localSymbol(readStr());
 		if (version >= 2) {
-			contract.tradingClass(readStr());
+			contract.tradingClass(readStrInterned());
 		}
 
 		double pos = m_serverVersion >= EClient.MIN_SERVER_VER_FRACTIONAL_POSITIONS ? readDouble() : readInt();
@@ -1525,11 +1543,11 @@ class EDecoder implements ObjectInput {
         contract.lastTradeDateOrContractMonth(readStr());
         contract.strike(readDouble());
         contract.right(readStr());
-        contract.multiplier(readStr());
-        contract.exchange(readStr());
-        contract.currency(readStr());
+        contract.multiplier(readStrInterned());
+        contract.exchange(readStrInterned());
+        contract.currency(readStrInterned());
         contract.localSymbol(readStr());
-        contract.tradingClass(readStr());
+        contract.tradingClass(readStrInterned());
         double pos = readDouble();
         double avgCost = readDouble();
         String modelCode = readStr();
@@ -1551,7 +1569,7 @@ class EDecoder implements ObjectInput {
         String modelCode = readStr();
         String key = readStr();
         String value = readStr();
-        String currency = readStr();
+        String currency = readStrInterned();
 
         m_EWrapper.accountUpdateMulti( reqId, account, modelCode, key, value, currency);
     }
@@ -1567,41 +1585,43 @@ class EDecoder implements ObjectInput {
     	return m_messageReader.readStr();
     }
 
+    protected String readStrInterned() throws IOException {
+    	return m_messageReader.readStrInterned();
+    }
+
     boolean readBoolFromInt() throws IOException {
-        String str = readStr();
-        return str == null ? false : (Integer.parseInt( str) != 0);
+        return m_messageReader.readInt() != 0;
     }
 
     public int readInt() throws IOException {
-        String str = readStr();
-        return str == null ? 0 : Integer.parseInt( str);
+        return m_messageReader.readInt();
     }
 
     protected int readIntMax() throws IOException {
-        String str = readStr();
-        return (str == null || str.length() == 0) ? Integer.MAX_VALUE
-        	                                      : Integer.parseInt( str);
+        return m_messageReader.readIntMax();
     }
 
     public long readLong() throws IOException {
-        String str = readStr();
-        return str == null ? 0l : Long.parseLong(str);
+        return m_messageReader.readLong();
     }
 
     public double readDouble() throws IOException {
-        String str = readStr();
-        return str == null ? 0 : Double.parseDouble( str);
+        return m_messageReader.readDouble();
     }
 
     protected double readDoubleMax() throws IOException {
-        String str = readStr();
-        return (str == null || str.length() == 0) ? Double.MAX_VALUE
-        	                                      : Double.parseDouble( str);
+        return m_messageReader.readDoubleMax();
     }
 
     /** Message reader interface */
     private interface IMessageReader extends Closeable {
     	public abstract String readStr() throws IOException;
+    	public abstract String readStrInterned() throws IOException;
+    	public abstract int readInt() throws IOException;
+    	public abstract int readIntMax() throws IOException;
+    	public abstract long readLong() throws IOException;
+    	public abstract double readDouble() throws IOException;
+    	public abstract double readDoubleMax() throws IOException;
     	public abstract int msgLength();
     }
 
@@ -1638,11 +1658,258 @@ class EDecoder implements ObjectInput {
  	        return str.length() == 0 ? null : str;    
  	    }
     	
+    	@Override public String readStrInterned() throws IOException {
+    		return readStr();
+    	}
+
+    	@Override public int readInt() throws IOException {
+    		String str = readStr();
+    		return str == null ? 0 : Integer.parseInt( str);
+    	}
+
+    	@Override public int readIntMax() throws IOException {
+    		String str = readStr();
+    		return (str == null || str.length() == 0) ? Integer.MAX_VALUE
+    				                                  : Integer.parseInt( str);
+    	}
+
+    	@Override public long readLong() throws IOException {
+    		String str = readStr();
+    		return str == null ? 0l : Long.parseLong(str);
+    	}
+
+    	@Override public double readDouble() throws IOException {
+    		String str = readStr();
+    		return str == null ? 0 : Double.parseDouble( str);
+    	}
+
+    	@Override public double readDoubleMax() throws IOException {
+    		String str = readStr();
+    		return (str == null || str.length() == 0) ? Double.MAX_VALUE
+    				                                  : Double.parseDouble( str);
+    	}
+
     	@Override public void close() {
     	    /** noop in pre-v100 */
     	}
     }
 
+    /**
+     * Reads fields in place from the message bytes. Integers and plain decimals are
+     * parsed without creating a String; anything the fast path cannot represent
+     * exactly (exponents, more than 15 significant digits, overflow) falls back to
+     * the JDK parsers so the results are identical to PreV100MessageReader.
+     */
+    private static class DirectMessageReader implements IMessageReader {
+    	private static final int INTERN_SIZE = 256;
+    	private static final int INTERN_MAX_LEN = 32;
+    	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    	private static final double[] POW10 = new double[23];
+
+    	static {
+    		POW10[0] = 1;
+    		for (int i = 1; i < POW10.length; i++) {
+    			POW10[i] = POW10[i - 1] * 10;
+    		}
+    	}
+
+    	private final String[] m_interned = new String[INTERN_SIZE];
+    	private byte[] m_buf;
+    	private int m_start;
+    	private int m_pos;
+    	private int m_end;
+
+    	void reset(byte[] buf, int len) {
+    		m_buf = buf;
+    		m_start = 0;
+    		m_pos = 0;
+    		m_end = len;
+    	}
+
+    	@Override
+    	public int msgLength() {
+    		return m_pos - m_start;
+    	}
+
+    	/** Returns the index of the terminating 0 of the current field */
+    	private int fieldEnd() throws EOFException {
+    		for (int i = m_pos; i < m_end; i++) {
+    			if (m_buf[i] == 0) {
+    				return i;
+    			}
+    		}
+    		m_pos = m_end;
+    		throw new EOFException();
+    	}
+
+    	// Latin-1 matches the byte-per-char decoding of PreV100MessageReader
+    	private String newString(int from, int to) {
+    		return new String(m_buf, from, to - from, StandardCharsets.ISO_8859_1);
+    	}
+
+    	@Override public String readStr() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+    		return end == from ? null : newString(from, end);
+    	}
+
+    	@Override public String readStrInterned() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+
+    		int len = end - from;
+    		if (len == 0) {
+    			return null;
+    		}
+    		if (len > INTERN_MAX_LEN) {
+    			return newString(from, end);
+    		}
+
+    		int hash = 0;
+    		for (int i = from; i < end; i++) {
+    			hash = 31 * hash + (m_buf[i] & 0xff);
+    		}
+    		int slot = (hash ^ (hash >>> 16)) & (INTERN_SIZE - 1);
+    		String cached = m_interned[slot];
+
+    		if (cached != null && cached.length() == len) {
+    			int i = 0;
+    			while (i < len && cached.charAt(i) == (m_buf[from + i] & 0xff)) {
+    				i++;
+    			}
+    			if (i == len) {
+    				return cached;
+    			}
+    		}
+
+    		String str = newString(from, end);
+    		m_interned[slot] = str;
+    		return str;
+    	}
+
+    	@Override public int readInt() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+    		return from == end ? 0 : parseInt(from, end);
+    	}
+
+    	@Override public int readIntMax() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+    		return from == end ? Integer.MAX_VALUE : parseInt(from, end);
+    	}
+
+    	@Override public long readLong() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+    		return from == end ? 0l : parseLong(from, end);
+    	}
+
+    	@Override public double readDouble() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+    		return from == end ? 0 : parseDouble(from, end);
+    	}
+
+    	@Override public double readDoubleMax() throws IOException {
+    		int end = fieldEnd();
+    		int from = m_pos;
+    		m_pos = end + 1;
+    		return from == end ? Double.MAX_VALUE : parseDouble(from, end);
+    	}
+
+    	private int parseInt(int from, int to) {
+    		long val = parseLongDigits(from, to, 10);
+    		if (val == Long.MIN_VALUE || val < Integer.MIN_VALUE || val > Integer.MAX_VALUE) {
+    			return Integer.parseInt(newString(from, to));
+    		}
+    		return (int) val;
+    	}
+
+    	private long parseLong(int from, int to) {
+    		long val = parseLongDigits(from, to, 18);
+    		return val == Long.MIN_VALUE ? Long.parseLong(newString(from, to)) : val;
+    	}
+
+    	/** Returns Long.MIN_VALUE if the field is not a short, plain integer */
+    	private long parseLongDigits(int from, int to, int maxDigits) {
+    		boolean neg = false;
+    		int i = from;
+    		byte c = m_buf[i];
+
+    		if (c == '-' || c == '+') {
+    			neg = c == '-';
+    			i++;
+    		}
+    		if (i == to || to - i > maxDigits) {
+    			return Long.MIN_VALUE;
+    		}
+
+    		long val = 0;
+    		for (; i < to; i++) {
+    			int d = m_buf[i] - '0';
+    			if (d < 0 || d > 9) {
+    				return Long.MIN_VALUE;
+    			}
+    			val = val * 10 + d;
+    		}
+    		return neg ? -val : val;
+    	}
+
+    	private double parseDouble(int from, int to) {
+    		boolean neg = false;
+    		boolean dot = false;
+    		int digits = 0;
+    		int scale = 0;
+    		long mantissa = 0;
+    		int i = from;
+    		byte c = m_buf[i];
+
+    		if (c == '-' || c == '+') {
+    			neg = c == '-';
+    			i++;
+    		}
+
+    		for (; i < to; i++) {
+    			c = m_buf[i];
+    			if (c == '.' && !dot) {
+    				dot = true;
+    				continue;
+    			}
+    			int d = c - '0';
+    			if (d < 0 || d > 9) {
+    				return Double.parseDouble(newString(from, to));
+    			}
+    			mantissa = mantissa * 10 + d;
+    			digits++;
+    			if (dot) {
+    				scale++;
+    			}
+    			if (mantissa >= MAX_EXACT_MANTISSA || scale >= POW10.length) {
+    				return Double.parseDouble(newString(from, to));
+    			}
+    		}
+
+    		if (digits == 0) {
+    			return Double.parseDouble(newString(from, to));
+    		}
+
+    		// Both operands are exact doubles, so the single division is correctly rounded
+    		double val = mantissa / POW10[scale];
+    		return neg ? -val : val;
+    	}
+
+    	@Override public void close() {
+    	    /** message bytes are owned by the EMessage */
+    	}
+    }
+
 	@Override
 	public int skipBytes(int arg0) throws IOException { throw new NotImplementedException(); }
 	
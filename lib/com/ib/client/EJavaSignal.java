@@ -20,8 +20,9 @@ public class EJavaSignal implements EReaderSignal {
 		          try {
 					monitor.wait();
 				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					// keep the flag so the caller's processing loop can exit
+					Thread.currentThread().interrupt();
+					return;
 				}
 		      }
 		      
@@ -5,27 +5,46 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 public class EMessage {
-	ByteArrayOutputStream m_buf;
-	
+	byte[] m_buf;
+	int m_len;
+	long m_readTime; // System.nanoTime() when the frame arrived, 0 if not stamped
+
 	public EMessage(byte[] buf, int len) throws IOException {
-		m_buf = new ByteArrayOutputStream();
-		
-		m_buf.write(buf, 0, len);
+		m_buf = Arrays.copyOf(buf, len);
+		m_len = len;
+	}
+
+	/** Empty pooled frame, see EMessagePool */
+	EMessage(int capacity) {
+		m_buf = new byte[capacity];
+		m_len = 0;
 	}
-	
+
 	public EMessage(Builder buf) throws IOException {
-		m_buf = new ByteArrayOutputStream();
-		
-			buf.writeTo(new DataOutputStream(m_buf));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			buf.writeTo(new DataOutputStream(out));
+
+		m_buf = out.toByteArray();
+		m_len = m_buf.length;
+	}
+
+	/** Prepares a pooled frame to receive len bytes into m_buf */
+	void reset(int len) {
+		if (m_buf.length < len) {
+			m_buf = new byte[len];
+		}
+		m_len = len;
 	}
-	
+
 	public InputStream getStream() {
-		return new ByteArrayInputStream(m_buf.toByteArray());
+		return new ByteArrayInputStream(m_buf, 0, m_len);
 	}
-	
-	public byte[] getRawData() {		
-		return m_buf.toByteArray();
+
+	public byte[] getRawData() {
+		return Arrays.copyOf(m_buf, m_len);
 	}
 }
@@ -0,0 +1,97 @@
+package com.ib.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of reusable receive frames. The reader thread acquires a frame for
+ * every inbound message and EReader.processMsgs() releases it once decoded, so in
+ * steady state the read side allocates no buffers.
+ *
+ * The free list is a lock-free ring for one acquiring and one releasing thread, as
+ * in ESpscMessageQueue. Callers with more than one acquiring thread must serialize
+ * acquire() themselves.
+ */
+class EMessagePool {
+	static final int FRAME_SIZE_DEFAULT = 1024;
+	static final int FRAME_SIZE_MAX = 64 * 1024; // larger frames are not kept in the pool
+
+	private final EMessage[] m_ring;
+	private final int m_mask;
+	private final int m_size;
+
+	private final AtomicLong m_head = new AtomicLong(); // next frame to acquire, written by acquire()
+	private final AtomicLong m_tail = new AtomicLong(); // next free slot, written by release()
+	private long m_headCache; // release()'s view of m_head
+	private long m_tailCache; // acquire()'s view of m_tail
+
+	EMessagePool(int size) {
+		int length = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+
+		m_ring = new EMessage[length];
+		m_mask = length - 1;
+		m_size = size;
+
+		for (int i = 0; i < size; i++) {
+			m_ring[i] = new EMessage(FRAME_SIZE_DEFAULT);
+		}
+		m_tail.set(size);
+		m_tailCache = size;
+	}
+
+	/** Returns a frame able to hold len bytes, allocating only if the pool is drained */
+	EMessage acquire(int len) {
+		EMessage msg = poll();
+
+		if (msg == null) {
+			msg = new EMessage(Math.max(len, FRAME_SIZE_DEFAULT));
+		}
+
+		msg.reset(len);
+
+		return msg;
+	}
+
+	/** Returns a frame to the pool, dropped if it has grown too large or the pool is full */
+	void release(EMessage msg) {
+		if (msg.m_buf.length > FRAME_SIZE_MAX) {
+			return;
+		}
+
+		long tail = m_tail.get();
+
+		if (tail - m_headCache >= m_size) {
+			m_headCache = m_head.get();
+
+			if (tail - m_headCache >= m_size) {
+				return;
+			}
+		}
+
+		m_ring[(int) tail & m_mask] = msg;
+		m_tail.lazySet(tail + 1);
+	}
+
+	private EMessage poll() {
+		long head = m_head.get();
+
+		if (head >= m_tailCache) {
+			m_tailCache = m_tail.get();
+
+			if (head >= m_tailCache) {
+				return null;
+			}
+		}
+
+		int slot = (int) head & m_mask;
+		EMessage msg = m_ring[slot];
+
+		m_ring[slot] = null;
+		m_head.lazySet(head + 1);
+
+		return msg;
+	}
+
+	int available() {
+		return (int) (m_tail.get() - m_head.get());
+	}
+}
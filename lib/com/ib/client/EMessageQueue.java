@@ -0,0 +1,21 @@
+package com.ib.client;
+
+/**
+ * Hand-off between the EReader thread (producer) and the thread calling
+ * EReader.processMsgs() (consumer).
+ */
+public interface EMessageQueue {
+	/**
+	 * Adds a message, waiting for space if the queue is bounded and full
+	 * @return false if the queue was closed or the caller interrupted while waiting,
+	 * the message is dropped
+	 */
+	boolean put(EMessage msg);
+
+	/** @return the oldest message or null if the queue is empty */
+	EMessage poll();
+
+	/** Stops accepting messages, a put() waiting for space returns false */
+	default void close() {
+	}
+}
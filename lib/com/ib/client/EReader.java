@@ -5,7 +5,6 @@ package com.ib.client;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Deque;
 import java.util.LinkedList;
 
@@ -26,7 +25,11 @@ public class EReader extends Thread {
     private static final int IN_BUF_SIZE_DEFAULT = 8192;
     private byte[] m_iBuf = new byte[IN_BUF_SIZE_DEFAULT];
     private int m_iBufLen = 0;
-    private Deque<EMessage> m_msgQueue = new LinkedList<EMessage>();
+    private final EMessageQueue m_msgQueue;
+    private EMessagePool m_msgPool;
+    private boolean m_timestamps = false;
+    private long m_readTime;
+    private long m_dequeueTime;
     
     protected boolean isUseV100Plus() {
 		return m_clientSocket.isUseV100Plus();
@@ -41,11 +44,79 @@ public class EReader extends Thread {
      * @param signal A callback that informs that there are messages in msg queue.
      */
     public EReader(EClientSocket parent, EReaderSignal signal) {
+    	this(parent, signal, new LinkedMessageQueue());
+    }
+
+    /**
+     * Construct the EReader with a custom hand-off queue, e.g. ESpscMessageQueue
+     * together with an ESpinSignal.
+     * @param parent An EClientSocket connected to TWS.
+     * @param signal A callback that informs that there are messages in msg queue.
+     * @param queue Queue between the reader thread and processMsgs().
+     */
+    public EReader(EClientSocket parent, EReaderSignal signal, EMessageQueue queue) {
     	m_clientSocket = parent;
         m_signal = signal;
+        m_msgQueue = queue;
         m_processMsgsDecoder = new EDecoder(parent.serverVersion(), parent.wrapper(), parent);
     }
-    
+
+    /**
+     * Enables decoding of numeric fields straight from the message bytes,
+     * without allocating a String per field.
+     * @param directDecode true to use the direct decoder in processMsgs()
+     */
+    public void setDirectDecode(boolean directDecode) {
+    	m_processMsgsDecoder.directDecode(directDecode);
+    }
+
+    public boolean isDirectDecode() {
+    	return m_processMsgsDecoder.isDirectDecode();
+    }
+
+    /**
+     * Reads inbound messages into a bounded pool of recycled frames instead of a new
+     * byte[] per message. Frames are returned to the pool by processMsgs() after decoding.
+     * Must be called before the reader thread is started.
+     * @param poolSize number of frames kept in the pool, 0 disables pooling
+     */
+    public void setMessagePool(int poolSize) {
+    	m_msgPool = poolSize > 0 ? new EMessagePool(poolSize) : null;
+    }
+
+    public boolean isMessagePool() {
+    	return m_msgPool != null;
+    }
+
+    EMessagePool messagePool() {
+    	return m_msgPool;
+    }
+
+    /**
+     * Stamps every inbound frame with System.nanoTime() when it arrives and when
+     * processMsgs() takes it from the queue. The stamps of the message being decoded
+     * are available to the callbacks through getReadTime() and getDequeueTime().
+     * Must be called before the reader thread is started.
+     * @param timestamps true to stamp the messages
+     */
+    public void setTimestamps(boolean timestamps) {
+    	m_timestamps = timestamps;
+    }
+
+    public boolean isTimestamps() {
+    	return m_timestamps;
+    }
+
+    /** @return arrival time of the message being decoded, valid on the processMsgs() thread */
+    public long getReadTime() {
+    	return m_readTime;
+    }
+
+    /** @return dequeue time of the message being decoded, valid on the processMsgs() thread */
+    public long getDequeueTime() {
+    	return m_dequeueTime;
+    }
+
     /**
      * Read and put messages to the msg queue until interrupted or TWS closes connection.
      */
@@ -79,8 +150,9 @@ public class EReader extends Thread {
 		if (msg == null)
 			return false;
 		
-		synchronized(m_msgQueue) {
-			m_msgQueue.addFirst(msg);
+		if (!m_msgQueue.put(msg)) {
+			// queue closed or reader interrupted while waiting for space
+			return false;
 		}
 		
 		m_signal.issueSignal();
@@ -88,11 +160,33 @@ public class EReader extends Thread {
 		return true;
 	}   
 
+	/**
+	 * Closes the hand-off queue, e.g. when the thread calling processMsgs() stops.
+	 * A reader thread waiting for space in a full bounded queue then stops.
+	 */
+	public void closeQueue() {
+		m_msgQueue.close();
+	}
+
 	protected EMessage getMsg() {
-    	synchronized (m_msgQueue) {
-    		return m_msgQueue.isEmpty() ? null : m_msgQueue.removeLast();
-		}
+		return m_msgQueue.poll();
     }
+
+	/** Default unbounded queue, safe for any number of producers and consumers */
+	private static class LinkedMessageQueue implements EMessageQueue {
+		private final Deque<EMessage> m_deque = new LinkedList<EMessage>();
+
+		@Override
+		public synchronized boolean put(EMessage msg) {
+			m_deque.addFirst(msg);
+			return true;
+		}
+
+		@Override
+		public synchronized EMessage poll() {
+			return m_deque.isEmpty() ? null : m_deque.removeLast();
+		}
+	}
 	
     static final int MAX_MSG_LENGTH = 0xffffff;
     
@@ -106,29 +200,75 @@ public class EReader extends Thread {
     public void processMsgs() throws IOException {
     	EMessage msg = getMsg();
     	
-    	while (msg != null && m_processMsgsDecoder.processMsg(msg) > 0) {
+    	while (msg != null && decodeAndRelease(msg) > 0) {
     		msg = getMsg();
     	}
     }
 
+    private int decodeAndRelease(EMessage msg) throws IOException {
+    	if (m_timestamps) {
+    		m_readTime = msg.m_readTime;
+    		m_dequeueTime = System.nanoTime();
+    	}
+    	try {
+    		return m_processMsgsDecoder.processMsg(msg);
+    	} finally {
+    		if (m_msgPool != null) {
+    			m_msgPool.release(msg);
+    		}
+    	}
+    }
+
+    private EMessage newMessage(byte[] buf, int len) throws IOException {
+    	if (m_msgPool == null) {
+    		return new EMessage(buf, len);
+    	}
+    	
+    	EMessage msg = m_msgPool.acquire(len);
+    	
+    	System.arraycopy(buf, 0, msg.m_buf, 0, len);
+    	
+    	return msg;
+    }
+
 	private EMessage readSingleMessage() throws IOException {
 		if (isUseV100Plus()) {
 			int msgSize = m_clientSocket.readInt();
+			long readTime = m_timestamps ? System.nanoTime() : 0;
 
 			if (msgSize > MAX_MSG_LENGTH) {
 				throw new InvalidMessageLengthException("message is too long: "
 						+ msgSize);
 			}
 			
-			byte[] buf = new byte[msgSize];
+			EMessage msg = null;
+			byte[] buf;
+			
+			if (m_msgPool != null) {
+				msg = m_msgPool.acquire(msgSize);
+				buf = msg.m_buf;
+			} else {
+				buf = new byte[msgSize];
+			}
 			
 			int offset = 0;
 			
 			while (offset < msgSize) {
-				offset += m_clientSocket.read(buf, offset, msgSize - offset);
+				int n = m_clientSocket.read(buf, offset, msgSize - offset);
+				
+				if (n < 0) {
+					throw new EOFException();
+				}
+				
+				offset += n;
+			}
+			
+			if (msg == null) {
+				msg = new EMessage(buf, msgSize);
 			}
-						
-			return new EMessage(buf, buf.length);
+			msg.m_readTime = readTime;
+			
+			return msg;
 		}
 		
 		if (m_iBufLen == 0) {
@@ -158,9 +298,14 @@ public class EReader extends Thread {
 			return null;
 		
 		
-		EMessage msg = new EMessage(m_iBuf, msgSize);
+		EMessage msg = newMessage(m_iBuf, msgSize);
+		
+		if (m_timestamps) {
+			msg.m_readTime = System.nanoTime();
+		}
 		
-		System.arraycopy(Arrays.copyOfRange(m_iBuf, msgSize, m_iBuf.length), 0, m_iBuf, 0, m_iBuf.length - msgSize);
+		// arraycopy handles the overlapping ranges, no temporary copy needed
+		System.arraycopy(m_iBuf, msgSize, m_iBuf, 0, m_iBuf.length - msgSize);
 		
 		m_iBufLen -= msgSize;
 		
@@ -0,0 +1,237 @@
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous ETransport. Request methods only encode and enqueue; a dedicated
+ * writer thread drains the queues and coalesces whatever is pending into as few
+ * socket writes as possible. Order messages (place/cancel order, global cancel,
+ * order id requests) have their own queue and always go out ahead of market data
+ * and other subscription traffic. Messages within a queue keep their order.
+ *
+ * Until START_API has been written, messages are written synchronously in call
+ * order, so the handshake cannot be overtaken by an order or an id request.
+ * close() waits a bounded time for the writer to send what is already queued.
+ * A message is either sent or reported: a full queue that does not drain within
+ * OFFER_TIMEOUT_MS, or a close() racing the enqueue, fails the request with an
+ * IOException, which EClient reports to the wrapper.
+ */
+public class ESendPipeline implements ETransport, Runnable {
+	public static final int QUEUE_SIZE_DEFAULT = 4096;
+	static final int BATCH_SIZE = 64 * 1024;
+	static final int POOL_SIZE = 256;
+	static final long CLOSE_TIMEOUT_MS = 2000;
+	static final long OFFER_TIMEOUT_MS = 1000;
+
+	private final ESocket m_socket;
+	private final EWrapper m_eWrapper;
+	private final int m_headerLen;
+	private final ArrayBlockingQueue<EMessage> m_orders;
+	private final ArrayBlockingQueue<EMessage> m_requests;
+	private final Semaphore m_pending = new Semaphore(0);
+	// Frames are acquired under the pool's lock by the calling threads and released
+	// by the writer, or by sendDirect() before the writer has any frames
+	private final EMessagePool m_pool = new EMessagePool(POOL_SIZE);
+	private final byte[] m_batch = new byte[BATCH_SIZE];
+	private final Thread m_writer;
+	private volatile boolean m_closed;
+	private volatile boolean m_started;   // START_API written, messages go through the queues
+	private volatile boolean m_abandoned; // close() gave up waiting for the writer
+
+	/**
+	 * @param socket transport the writer thread sends through
+	 * @param wrapper receives write errors
+	 * @param useV100Plus whether messages carry the 4 byte length header
+	 */
+	public ESendPipeline(ESocket socket, EWrapper wrapper, boolean useV100Plus) {
+		this(socket, wrapper, useV100Plus, QUEUE_SIZE_DEFAULT);
+	}
+
+	public ESendPipeline(ESocket socket, EWrapper wrapper, boolean useV100Plus, int queueSize) {
+		m_socket = socket;
+		m_eWrapper = wrapper;
+		m_headerLen = useV100Plus ? 4 : 0;
+		m_orders = new ArrayBlockingQueue<EMessage>(queueSize);
+		m_requests = new ArrayBlockingQueue<EMessage>(queueSize);
+		m_writer = new Thread(this, "EClient writer");
+		m_writer.setDaemon(true);
+		m_writer.start();
+	}
+
+	@Override
+	public void send(EMessage msg) throws IOException {
+		EMessage frame = acquire(msg.m_len);
+
+		System.arraycopy(msg.m_buf, 0, frame.m_buf, 0, msg.m_len);
+		enqueue(frame);
+	}
+
+	@Override
+	public void send(Builder buf) throws IOException {
+		EMessage frame = acquire(buf.size());
+
+		buf.copyTo(frame.m_buf);
+		enqueue(frame);
+	}
+
+	private EMessage acquire(int len) {
+		synchronized (m_pool) {
+			return m_pool.acquire(len);
+		}
+	}
+
+	private void enqueue(EMessage frame) throws IOException {
+		if (m_closed) {
+			throw new IOException("send pipeline is closed");
+		}
+
+		if (!m_started && sendDirect(frame)) {
+			return;
+		}
+
+		ArrayBlockingQueue<EMessage> queue = isOrderMsg(frame) ? m_orders : m_requests;
+
+		try {
+			if (!queue.offer(frame, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				throw new IOException("send queue full for " + OFFER_TIMEOUT_MS + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while queueing message");
+		}
+
+		m_pending.release();
+
+		// close() may have run meanwhile and the writer finished its last drain,
+		// a frame it has not taken will not be sent
+		if (m_closed && queue.remove(frame)) {
+			throw new IOException("send pipeline is closed");
+		}
+	}
+
+	/** Writes a handshake message on the caller's thread, false once the API is started */
+	private synchronized boolean sendDirect(EMessage frame) throws IOException {
+		if (m_started) {
+			return false;
+		}
+
+		try {
+			m_socket.send(frame.m_buf, 0, frame.m_len);
+		} finally {
+			m_pool.release(frame);
+		}
+
+		if (msgId(frame) == EClient.START_API) {
+			m_started = true;
+		}
+		return true;
+	}
+
+	private int msgId(EMessage frame) {
+		int msgId = 0;
+
+		for (int i = m_headerLen; i < frame.m_len && frame.m_buf[i] != 0; i++) {
+			msgId = msgId * 10 + frame.m_buf[i] - '0';
+		}
+		return msgId;
+	}
+
+	private boolean isOrderMsg(EMessage frame) {
+		switch (msgId(frame)) {
+			case EClient.PLACE_ORDER:
+			case EClient.CANCEL_ORDER:
+			case EClient.REQ_GLOBAL_CANCEL:
+			case EClient.REQ_IDS:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** Orders first, then everything else */
+	private EMessage next() {
+		EMessage msg = m_orders.poll();
+
+		return msg != null ? msg : m_requests.poll();
+	}
+
+	/**
+	 * Stops accepting messages and waits up to CLOSE_TIMEOUT_MS for the writer to send
+	 * what is already queued, so the socket can be closed after it. Messages left
+	 * unsent are reported to the wrapper.
+	 */
+	@Override
+	public void close() {
+		m_closed = true;
+		m_pending.release();
+
+		if (Thread.currentThread() == m_writer) {
+			return;
+		}
+
+		try {
+			m_writer.join(CLOSE_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (m_writer.isAlive()) {
+			m_abandoned = true;
+			m_eWrapper.error("Send pipeline closed with " + pending() + " messages not sent");
+		}
+	}
+
+	public int pending() {
+		return m_orders.size() + m_requests.size();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!m_closed || pending() > 0) {
+				m_pending.acquire();
+
+				EMessage msg = next();
+
+				if (msg == null) {
+					// woken up by close()
+					continue;
+				}
+
+				int len = 0;
+
+				do {
+					if (len + msg.m_len > m_batch.length) {
+						m_socket.send(m_batch, 0, len);
+						len = 0;
+					}
+
+					if (msg.m_len > m_batch.length) {
+						m_socket.send(msg.m_buf, 0, msg.m_len);
+					} else {
+						System.arraycopy(msg.m_buf, 0, m_batch, len, msg.m_len);
+						len += msg.m_len;
+					}
+
+					m_pool.release(msg);
+					msg = m_pending.tryAcquire() ? next() : null;
+				} while (msg != null);
+
+				if (len > 0) {
+					m_socket.send(m_batch, 0, len);
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (IOException e) {
+			// close() has already reported what was left if it stopped waiting
+			m_closed = true;
+			if (!m_abandoned) {
+				m_eWrapper.error(e);
+			}
+		}
+	}
+}
@@ -9,12 +9,22 @@ public class ESocket implements ETransport {
 	protected DataOutputStream m_dos;   // the socket output stream	
 
 	@Override
-	public void send(EMessage msg) throws IOException {
+	public synchronized void send(EMessage msg) throws IOException {
 		byte[] buf = msg.getRawData();
 		
 		m_dos.write(buf, 0, buf.length);		
 	}
 	
+	@Override
+	public synchronized void send(Builder buf) throws IOException {
+		buf.writeTo(m_dos);
+	}
+	
+	// Raw write of one or more complete messages, used by ESendPipeline
+	synchronized void send(byte[] buf, int off, int len) throws IOException {
+		m_dos.write(buf, off, len);
+	}
+	
 	ESocket(Socket s) throws IOException {
 		m_dos = new DataOutputStream(s.getOutputStream());
 	}
@@ -0,0 +1,56 @@
+package com.ib.client;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EReaderSignal without the monitor hand-off of EJavaSignal. The waiting thread
+ * spins, yields or parks according to its EWaitStrategy; issueSignal() is a volatile
+ * write plus, for PARK, an unpark of the waiter.
+ */
+public class ESpinSignal implements EReaderSignal {
+	private final AtomicBoolean m_open = new AtomicBoolean();
+	private final EWaitStrategy m_strategy;
+	private volatile Thread m_waiter;
+
+	public ESpinSignal(EWaitStrategy strategy) {
+		m_strategy = strategy;
+	}
+
+	public EWaitStrategy waitStrategy() {
+		return m_strategy;
+	}
+
+	@Override
+	public void issueSignal() {
+		m_open.set(true);
+
+		Thread waiter = m_waiter;
+
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/** Returns when signalled or when the calling thread is interrupted */
+	@Override
+	public void waitForSignal() {
+		if (m_strategy == EWaitStrategy.PARK) {
+			m_waiter = Thread.currentThread();
+		}
+
+		while (!m_open.compareAndSet(true, false)) {
+			if (Thread.currentThread().isInterrupted()) {
+				break;
+			}
+
+			if (m_strategy == EWaitStrategy.PARK) {
+				LockSupport.park(this);
+			} else {
+				m_strategy.idle();
+			}
+		}
+
+		m_waiter = null;
+	}
+}
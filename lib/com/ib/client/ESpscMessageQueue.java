@@ -0,0 +1,101 @@
+package com.ib.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free bounded ring for exactly one producer (the EReader thread) and one
+ * consumer (the message processing thread). Indices are published with lazySet,
+ * and each side caches the other's index so the shared counters are only read
+ * when the ring looks full or empty.
+ *
+ * put() waits for space while the ring is full. It gives up when the queue is
+ * closed, e.g. because the consumer has stopped, or the producer is interrupted.
+ */
+public class ESpscMessageQueue implements EMessageQueue {
+	public static final int CAPACITY_DEFAULT = 4096;
+
+	private final EMessage[] m_ring;
+	private final int m_mask;
+	private final EWaitStrategy m_strategy;
+
+	private final AtomicLong m_head = new AtomicLong(); // next slot to poll, written by consumer
+	private final AtomicLong m_tail = new AtomicLong(); // next slot to fill, written by producer
+	private long m_headCache; // producer's view of m_head
+	private long m_tailCache; // consumer's view of m_tail
+	private volatile boolean m_closed;
+
+	public ESpscMessageQueue(EWaitStrategy strategy) {
+		this(CAPACITY_DEFAULT, strategy);
+	}
+
+	/**
+	 * @param capacity ring size, rounded up to a power of two
+	 * @param strategy how the producer waits while the ring is full
+	 */
+	public ESpscMessageQueue(int capacity, EWaitStrategy strategy) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+		m_ring = new EMessage[size];
+		m_mask = size - 1;
+		m_strategy = strategy;
+	}
+
+	@Override
+	public boolean put(EMessage msg) {
+		long tail = m_tail.get();
+
+		while (tail - m_headCache >= m_ring.length) {
+			m_headCache = m_head.get();
+
+			if (tail - m_headCache >= m_ring.length) {
+				if (m_closed || Thread.currentThread().isInterrupted()) {
+					return false;
+				}
+				m_strategy.idle();
+			}
+		}
+
+		m_ring[(int) tail & m_mask] = msg;
+		m_tail.lazySet(tail + 1);
+
+		return true;
+	}
+
+	@Override
+	public void close() {
+		m_closed = true;
+	}
+
+	public boolean isClosed() {
+		return m_closed;
+	}
+
+	@Override
+	public EMessage poll() {
+		long head = m_head.get();
+
+		if (head >= m_tailCache) {
+			m_tailCache = m_tail.get();
+
+			if (head >= m_tailCache) {
+				return null;
+			}
+		}
+
+		int slot = (int) head & m_mask;
+		EMessage msg = m_ring[slot];
+
+		m_ring[slot] = null;
+		m_head.lazySet(head + 1);
+
+		return msg;
+	}
+
+	public int size() {
+		return (int) (m_tail.get() - m_head.get());
+	}
+
+	public int capacity() {
+		return m_ring.length;
+	}
+}
@@ -4,4 +4,13 @@ import java.io.IOException;
 
 public interface ETransport {
 	void send(EMessage msg) throws IOException;
+
+	/** Sends a finished message; implementations may write the builder's buffer directly */
+	default void send(Builder buf) throws IOException {
+		send(new EMessage(buf));
+	}
+
+	/** Releases the transport on disconnect */
+	default void close() {
+	}
 }
@@ -0,0 +1,27 @@
+package com.ib.client;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for ESpinSignal or ESpscMessageQueue. BUSY_SPIN gives the
+ * lowest hand-off latency at the cost of a core, PARK behaves like EJavaSignal
+ * without the monitor.
+ */
+public enum EWaitStrategy {
+	BUSY_SPIN, YIELD, PARK;
+
+	static final long PARK_NANOS = 50000;
+
+	/** Backs off once; the caller re-checks its condition afterwards */
+	void idle() {
+		switch (this) {
+			case BUSY_SPIN:
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			default:
+				LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
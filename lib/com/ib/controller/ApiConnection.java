@@ -6,6 +6,7 @@ package com.ib.controller;
 
 import java.io.IOException;
 
+import com.ib.client.Builder;
 import com.ib.client.Contract;
 import com.ib.client.EClientErrors;
 import com.ib.client.EClientSocket;
@@ -44,6 +45,12 @@ public class ApiConnection extends EClientSocket {
 		m_outLogger.log(new String(buf, 0, buf.length));
 	}
 
+	@Override
+	protected void sendMsg(Builder buf) throws IOException {
+		// go through sendMsg(EMessage) so outgoing messages are logged
+		sendMsg(new EMessage(buf));
+	}
+
 	@Override
 	public int readInt() throws IOException {
 		int c = super.readInt();
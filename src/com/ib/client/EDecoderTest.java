@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package com.ib.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the direct decoder: the same frames decoded with the String per
+ * field reader and the direct reader must give identical callbacks
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class EDecoderTest {
+
+	// Numbers the direct reader parses itself and ones it leaves to the JDK parsers
+	private static final String[] DOUBLES = {"0", "1", "-1", "+1.5", "0.1", ".5", "5.", "-0", "-0.0", "49.99",
+			"1234.5678", "0.30000000000000004", "9007199254740991", "9007199254740993", "12345678901234567.5",
+			"0.1234567890123456789012345", "1e-5", "2.5E10", "1.7976931348623157E308", "4.9E-324", "Infinity",
+			"NaN", ""};
+	private static final String[] INTS = {"0", "7", "+7", "-1", "2147483647", "-2147483648", "0012", ""};
+
+	private static byte[] frame(Object... fields) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (Object f: fields) {
+			byte[] b = String.valueOf(f).getBytes(StandardCharsets.ISO_8859_1);
+			out.write(b, 0, b.length);
+			out.write(0);
+		}
+		return(out.toByteArray());
+	}
+
+	/**
+	 * Decodes the frames and records every callback with its arguments, the
+	 * returned lengths and the exceptions thrown
+	 */
+	private static List<Object> decode(List<byte[]> frames, boolean direct) {
+		List<Object> calls = new ArrayList<>();
+		EWrapper w = (EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(),
+				new Class<?>[] {EWrapper.class}, (proxy, method, args) -> {
+					calls.add(method.getName());
+					calls.add(args == null ? null : Arrays.asList(args));
+					return(null);
+				});
+		EDecoder d = new EDecoder(EClient.MAX_VERSION, w);
+
+		d.directDecode(direct);
+		for (byte[] f: frames) {
+			try {
+				calls.add(d.processMsg(new EMessage(f, f.length)));
+			} catch (Exception e) {
+				calls.add(e.getClass());
+			}
+		}
+		return(calls);
+	}
+
+	@Test
+	public void testParity() {
+		List<byte[]> frames = new ArrayList<>();
+
+		for (String p: DOUBLES) {
+			frames.add(frame(EDecoder.TICK_PRICE, 6, 1, 4, p, 100, 1));
+			frames.add(frame(EDecoder.TICK_GENERIC, 6, 2, 23, p));
+			frames.add(frame(EDecoder.TICK_OPTION_COMPUTATION, 6, 3, 13, p, "0.5", p, "-1", "0.01", p, "-0.2", p));
+		}
+		for (String i: INTS) {
+			frames.add(frame(EDecoder.TICK_SIZE, 6, i, 5, i));
+			frames.add(frame(EDecoder.NEXT_VALID_ID, 1, i));
+		}
+		frames.add(frame(EDecoder.ORDER_STATUS, 6, 17, "Submitted", "1.5", "2", "49.125", 12345, 0, "49.13", 0, ""));
+		frames.add(frame(EDecoder.ERR_MSG, 2, 17, 201, "Order rejected"));
+		frames.add(frame(EDecoder.TICK_STRING, 6, 4, 45, "1500000000"));
+		frames.add(frame(EDecoder.HISTORICAL_DATA, 3, 9, "20170101", "20170102", 2,
+				"20170101  10:00:00", "50.1", "50.25", "49.9", "50", 1200, "50.05", "false", 31,
+				"20170101  10:01:00", "50", "50.5", "50", "50.4", 800, "50.3", "true", 12));
+
+		// Repeating strings come from the intern cache of the direct reader
+		for (int n = 0; n < 2; n++) {
+			frames.add(frame(EDecoder.SECURITY_DEFINITION_OPTION_PARAMETER, 5, "SMART", 756733, "SPY", "100",
+					2, "20171215", "20180119", 3, "250", "252.5", "1e2"));
+		}
+
+		// Malformed and truncated frames fail the same way
+		frames.add(frame(EDecoder.TICK_PRICE, 6, 1, 4, "1.2.3", 100, 1));
+		frames.add(frame(EDecoder.TICK_SIZE, 6, 1, 5, "12x"));
+		frames.add(frame(EDecoder.TICK_SIZE, 6, 1, 5, "99999999999"));
+		frames.add(Arrays.copyOf(frame(EDecoder.TICK_SIZE, 6, 1, 5, 10), 8));
+
+		List<Object> expected = decode(frames, false);
+		List<Object> actual = decode(frames, true);
+
+		assertTrue(expected.size() > 2 * frames.size());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("callback " + i, expected.get(i), actual.get(i));
+		}
+	}
+}
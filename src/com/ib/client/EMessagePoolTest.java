@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package com.ib.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the receive frame pool and its recycling in EReader
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class EMessagePoolTest {
+
+	private static class DequeQueue implements EMessageQueue {
+		final ArrayDeque<EMessage> deque = new ArrayDeque<>();
+
+		@Override
+		public boolean put(EMessage msg) {
+			deque.add(msg);
+			return(true);
+		}
+
+		@Override
+		public EMessage poll() {
+			return(deque.poll());
+		}
+	}
+
+	private static byte[] frame(Object... fields) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (Object f: fields) {
+			byte[] b = String.valueOf(f).getBytes(StandardCharsets.ISO_8859_1);
+			out.write(b, 0, b.length);
+			out.write(0);
+		}
+		return(out.toByteArray());
+	}
+
+	// As the reader thread does it
+	private static EMessage acquire(EMessagePool pool, byte[] f) {
+		EMessage msg = pool.acquire(f.length);
+
+		System.arraycopy(f, 0, msg.m_buf, 0, f.length);
+		return(msg);
+	}
+
+	@Test
+	public void testBound() {
+		EMessagePool pool = new EMessagePool(2);
+		EMessage a = pool.acquire(10);
+		EMessage b = pool.acquire(10);
+
+		// A drained pool allocates, but keeps no more than its size
+		assertEquals(0, pool.available());
+		EMessage c = pool.acquire(10);
+		assertNotSame(a, c);
+		assertNotSame(b, c);
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+		assertEquals(2, pool.available());
+
+		// Released frames are handed out again
+		assertSame(a, pool.acquire(20));
+		assertSame(b, pool.acquire(20));
+		assertEquals(20, b.m_len);
+	}
+
+	@Test
+	public void testLargeFrames() {
+		EMessagePool pool = new EMessagePool(1);
+
+		// A frame grown within the limit keeps its buffer
+		EMessage m = pool.acquire(4 * EMessagePool.FRAME_SIZE_DEFAULT);
+		byte[] buf = m.m_buf;
+		assertEquals(4 * EMessagePool.FRAME_SIZE_DEFAULT, buf.length);
+		pool.release(m);
+		assertSame(m, pool.acquire(100));
+		assertSame(buf, m.m_buf);
+		pool.release(m);
+
+		// A frame grown past the limit is dropped, the pool refills with a default frame
+		m = pool.acquire(EMessagePool.FRAME_SIZE_MAX + 1);
+		assertEquals(0, pool.available());
+		pool.release(m);
+		assertEquals(0, pool.available());
+		EMessage n = pool.acquire(100);
+		assertNotSame(m, n);
+		assertEquals(EMessagePool.FRAME_SIZE_DEFAULT, n.m_buf.length);
+		pool.release(n);
+		assertEquals(1, pool.available());
+	}
+
+	@Test
+	public void testThreads() throws InterruptedException {
+		EMessagePool pool = new EMessagePool(8);
+		BlockingQueue<EMessage> handOff = new ArrayBlockingQueue<>(16);
+		Set<EMessage> used = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+		boolean[] reused = new boolean[1];
+
+		// Acquired on this thread as the reader does, released on another as processMsgs() does
+		Thread releaser = new Thread(() -> {
+			try {
+				for (int i = 0; i < 100000; i++) {
+					EMessage m = handOff.take();
+					used.remove(m);
+					pool.release(m);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		releaser.start();
+		for (int i = 0; i < 100000; i++) {
+			EMessage m = pool.acquire(10);
+
+			// A frame must not be handed out while it is in use
+			if (!used.add(m)) {
+				reused[0] = true;
+			}
+			handOff.put(m);
+		}
+		releaser.join();
+
+		assertFalse(reused[0]);
+		assertTrue(pool.available() <= 8);
+	}
+
+	@Test
+	public void testReaderReleases() throws IOException {
+		final int[] ticks = new int[1];
+		EWrapper w = new DefaultEWrapper() {
+			@Override
+			public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+				ticks[0]++;
+			}
+		};
+		DequeQueue queue = new DequeQueue();
+		EReader reader = new EReader(new EClientSocket(w, new EJavaSignal()), new EJavaSignal(), queue);
+
+		reader.setMessagePool(2);
+		EMessagePool pool = reader.messagePool();
+
+		// Server version first, then more ticks than the pool holds
+		queue.put(acquire(pool, frame(EClient.MAX_VERSION, "20170101 10:00:00 EST")));
+		for (int i = 0; i < 5; i++) {
+			queue.put(acquire(pool, frame(EDecoder.TICK_PRICE, 3, 1, 4, 50 + i, 1, 0)));
+		}
+		assertEquals(0, pool.available());
+		reader.processMsgs();
+		assertEquals(5, ticks[0]);
+		assertEquals(2, pool.available());
+
+		// A frame that fails to decode is released too
+		queue.put(acquire(pool, frame(EDecoder.TICK_PRICE, 3, 1, 4, "x", 1, 0)));
+		assertEquals(1, pool.available());
+		try {
+			reader.processMsgs();
+			fail();
+		} catch (NumberFormatException e) {
+			assertEquals(2, pool.available());
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ *
+ */
+package com.ib.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the asynchronous send pipeline: handshake order, order priority
+ * and draining on close
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class ESendPipelineTest {
+	private static final int MKT_DATA = 1;
+
+	/**
+	 * Socket whose writes are recorded and can be held, slowed down or failed
+	 */
+	private static class TestSocket extends Socket {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		volatile CountDownLatch writing = new CountDownLatch(1);
+		volatile CountDownLatch gate = null;
+		volatile long delay = 0;
+		volatile boolean fail = false;
+
+		@Override
+		public OutputStream getOutputStream() {
+			return(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					writing.countDown();
+					try {
+						if (gate != null) {
+							gate.await(5, TimeUnit.SECONDS);
+						}
+						if (delay > 0) {
+							Thread.sleep(delay);
+						}
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					if (fail) {
+						throw new IOException("connection reset");
+					}
+					synchronized (written) {
+						written.write(b, off, len);
+					}
+				}
+			});
+		}
+
+		/** Second field of every message written, the messages here have two */
+		List<String> tags() {
+			List<String> t = new ArrayList<>();
+			String[] f;
+
+			synchronized (written) {
+				f = new String(written.toByteArray(), StandardCharsets.ISO_8859_1).split("\0");
+			}
+			for (int i = 1; i < f.length; i += 2) {
+				t.add(f[i]);
+			}
+			return(t);
+		}
+	}
+
+	private static class Errors extends DefaultEWrapper {
+		final List<Object> errors = new ArrayList<>();
+
+		@Override
+		public synchronized void error(Exception e) {
+			errors.add(e);
+		}
+
+		@Override
+		public synchronized void error(String str) {
+			errors.add(str);
+		}
+	}
+
+	private static EMessage msg(int id, String tag) throws IOException {
+		byte[] b = (id + "\0" + tag + "\0").getBytes(StandardCharsets.ISO_8859_1);
+
+		return(new EMessage(b, b.length));
+	}
+
+	private static ESendPipeline started(TestSocket s, Errors w) throws IOException {
+		ESendPipeline p = new ESendPipeline(new ESocket(s), w, false);
+
+		p.send(msg(EClient.START_API, "start"));
+		return(p);
+	}
+
+	@Test
+	public void testHandshakeOrder() throws IOException, InterruptedException {
+		TestSocket s = new TestSocket();
+		Errors w = new Errors();
+		ESendPipeline p = new ESendPipeline(new ESocket(s), w, false);
+
+		// Before START_API is written nothing may overtake it
+		p.send(msg(MKT_DATA, "client"));
+		p.send(msg(EClient.REQ_IDS, "ids"));
+		p.send(msg(EClient.START_API, "start"));
+		assertEquals(0, p.pending());
+		assertEquals(3, s.tags().size());
+
+		// After it orders overtake queued requests
+		s.writing = new CountDownLatch(1);
+		s.gate = new CountDownLatch(1);
+		p.send(msg(MKT_DATA, "mkt1"));
+		assertTrue(s.writing.await(5, TimeUnit.SECONDS));
+		p.send(msg(MKT_DATA, "mkt2"));
+		p.send(msg(MKT_DATA, "mkt3"));
+		p.send(msg(EClient.PLACE_ORDER, "order"));
+		p.send(msg(EClient.CANCEL_ORDER, "cancel"));
+		s.gate.countDown();
+		p.close();
+
+		assertEquals(0, p.pending());
+		assertEquals(Arrays.asList("client", "ids", "start", "mkt1", "order", "cancel", "mkt2", "mkt3"),
+				s.tags());
+		assertTrue(w.errors.isEmpty());
+	}
+
+	@Test
+	public void testDrainOnClose() throws IOException {
+		TestSocket s = new TestSocket();
+		Errors w = new Errors();
+		ESendPipeline p = started(s, w);
+
+		// A slow socket, close() returns when everything queued is written
+		s.delay = 5;
+		for (int i = 0; i < 50; i++) {
+			p.send(msg(i % 2 == 0 ? MKT_DATA : EClient.CANCEL_ORDER, "m" + i));
+		}
+		p.close();
+		assertEquals(51, s.tags().size());
+		assertTrue(w.errors.isEmpty());
+
+		try {
+			p.send(msg(MKT_DATA, "late"));
+			fail();
+		} catch (IOException e) {
+			assertEquals(51, s.tags().size());
+		}
+	}
+
+	@Test
+	public void testErrorWhileDraining() throws IOException {
+		TestSocket s = new TestSocket();
+		Errors w = new Errors();
+		ESendPipeline p = started(s, w);
+
+		s.gate = new CountDownLatch(1);
+		s.fail = true;
+		p.send(msg(EClient.CANCEL_ORDER, "cancel"));
+		s.gate.countDown();
+		p.close();
+		assertEquals(1, w.errors.size());
+		assertTrue(w.errors.get(0) instanceof IOException);
+	}
+
+	@Test
+	public void testQueueFull() throws IOException, InterruptedException {
+		TestSocket s = new TestSocket();
+		Errors w = new Errors();
+		ESendPipeline p = new ESendPipeline(new ESocket(s), w, false, 2);
+
+		p.send(msg(EClient.START_API, "start"));
+
+		// The writer holds one message, the queue two, the next one times out
+		s.writing = new CountDownLatch(1);
+		s.gate = new CountDownLatch(1);
+		p.send(msg(MKT_DATA, "m1"));
+		assertTrue(s.writing.await(5, TimeUnit.SECONDS));
+		p.send(msg(MKT_DATA, "m2"));
+		p.send(msg(MKT_DATA, "m3"));
+		long t0 = System.currentTimeMillis();
+		try {
+			p.send(msg(MKT_DATA, "m4"));
+			fail();
+		} catch (IOException e) {
+			assertTrue(System.currentTimeMillis() - t0 >= ESendPipeline.OFFER_TIMEOUT_MS);
+		}
+		s.gate.countDown();
+		p.close();
+		assertEquals(Arrays.asList("start", "m1", "m2", "m3"), s.tags());
+	}
+
+	@Test
+	public void testSendRacingClose() throws IOException, InterruptedException {
+		for (int n = 0; n < 20; n++) {
+			TestSocket s = new TestSocket();
+			Errors w = new Errors();
+			ESendPipeline p = started(s, w);
+			AtomicInteger accepted = new AtomicInteger(1);
+			Thread sender = new Thread(() -> {
+				try {
+					for (int i = 0; i < 100000; i++) {
+						p.send(msg(MKT_DATA, "m" + i));
+						accepted.incrementAndGet();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			});
+
+			// Every message accepted is written, the others failed
+			sender.start();
+			Thread.sleep(1);
+			p.close();
+			sender.join();
+			assertEquals(accepted.get(), s.tags().size());
+			assertTrue(w.errors.isEmpty());
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package com.ib.client;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the single producer, single consumer hand-off queue
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class ESpscMessageQueueTest {
+
+	private static EMessage msg() {
+		return(new EMessage(1));
+	}
+
+	/** Fills the queue and starts a producer that waits for space */
+	private static Thread blocked(ESpscMessageQueue q, AtomicReference<Boolean> result) throws InterruptedException {
+		for (int i = 0; i < q.capacity(); i++) {
+			assertTrue(q.put(msg()));
+		}
+		Thread t = new Thread(() -> result.set(q.put(msg())));
+
+		t.start();
+		Thread.sleep(20);
+		assertTrue(t.isAlive());
+		return(t);
+	}
+
+	@Test
+	public void testOrder() {
+		ESpscMessageQueue q = new ESpscMessageQueue(4, EWaitStrategy.BUSY_SPIN);
+		EMessage a = msg();
+		EMessage b = msg();
+
+		assertNull(q.poll());
+		assertTrue(q.put(a));
+		assertTrue(q.put(b));
+		assertEquals(2, q.size());
+		assertSame(a, q.poll());
+		assertSame(b, q.poll());
+		assertNull(q.poll());
+	}
+
+	@Test
+	public void testCloseWhileFull() throws InterruptedException {
+		ESpscMessageQueue q = new ESpscMessageQueue(4, EWaitStrategy.BUSY_SPIN);
+		AtomicReference<Boolean> result = new AtomicReference<>();
+		Thread t = blocked(q, result);
+
+		// The consumer stops, the producer gives up instead of spinning
+		q.close();
+		t.join(TimeUnit.SECONDS.toMillis(5));
+		assertFalse(t.isAlive());
+		assertFalse(result.get());
+		assertEquals(4, q.size());
+	}
+
+	@Test
+	public void testInterruptWhileFull() throws InterruptedException {
+		ESpscMessageQueue q = new ESpscMessageQueue(4, EWaitStrategy.PARK);
+		AtomicReference<Boolean> result = new AtomicReference<>();
+		Thread t = blocked(q, result);
+
+		t.interrupt();
+		t.join(TimeUnit.SECONDS.toMillis(5));
+		assertFalse(t.isAlive());
+		assertFalse(result.get());
+		assertFalse(q.isClosed());
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package sigma.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import sigma.utils.LatencyHistogram;
+
+/**
+ * Pipeline stage that scores the feature vectors of many instruments in micro-batches.
+ *
+ * submit() copies a feature vector into the batch being filled, a later vector of the
+ * same ticker replaces the earlier one, so a batch scores the latest features of each
+ * ticker once. The inference thread takes the batch when it is full or when the oldest
+ * vector in it has waited the longest delay, and scores it with one Model.predict()
+ * call while the next batch fills. Both batches are primitive arrays allocated once.
+ *
+ * The scores are passed to the listeners on the inference thread without allocating,
+ * listeners hand them on to the trading engine, e.g. through a price store or a queue.
+ * submit() is cheap enough for the TWS message thread: it copies under a short lock
+ * and drops the vector, instead of blocking, if the batch is full of other tickers.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class InferenceBatcher implements Runnable, AutoCloseable {
+	public static final int DEFAULT_BATCH = 64;
+	public static final long DEFAULT_DELAY = 1000000;
+
+	/**
+	 * Receives the scores, on the inference thread
+	 */
+	public interface Listener {
+		/**
+		 * Scores of one ticker
+		 * @param tickerId ticker id
+		 * @param scores output array of the batch, valid during the call only
+		 * @param offset index of the first output of the ticker
+		 * @param length number of outputs
+		 */
+		void signal(int tickerId, float[] scores, int offset, int length);
+	}
+
+	private final Model model;
+	private final int features;
+	private final int outputs;
+	private final int maxBatch;
+	private final long maxDelay;
+	private volatile Listener[] listeners = new Listener[0];
+
+	// Batch being filled, guarded by this
+	private float[] filling;
+	private int[] fillingIds;
+	private int rows = 0;
+	private long first = 0;
+
+	// Batch being scored, inference thread only
+	private float[] scoring;
+	private int[] scoringIds;
+	private final float[] scores;
+
+	private boolean open = true;
+	private Thread thread;
+	private final LatencyHistogram runTimes = new LatencyHistogram();
+	private volatile long batches = 0;
+	private volatile long scored = 0;
+	private volatile long dropped = 0;
+
+	/**
+	 * Batcher with the default batch size and delay
+	 * @param model model
+	 */
+	public InferenceBatcher(Model model) {
+		this(model, DEFAULT_BATCH, DEFAULT_DELAY);
+	}
+
+	/**
+	 * Constructor
+	 * @param model model
+	 * @param maxBatch maximal number of rows in a batch
+	 * @param maxDelay longest wait of a vector for its batch in nanoseconds
+	 */
+	public InferenceBatcher(Model model, int maxBatch, long maxDelay) {
+		this.model = model;
+		this.features = model.getFeatures();
+		this.outputs = model.getOutputs();
+		this.maxBatch = maxBatch;
+		this.maxDelay = maxDelay;
+
+		filling = new float[maxBatch * features];
+		fillingIds = new int[maxBatch];
+		scoring = new float[maxBatch * features];
+		scoringIds = new int[maxBatch];
+		scores = new float[maxBatch * outputs];
+	}
+
+	/**
+	 * Adds a listener of the scores
+	 * @param l listener
+	 */
+	public synchronized void addListener(Listener l) {
+		Listener[] a = Arrays.copyOf(listeners, listeners.length + 1);
+
+		a[a.length - 1] = l;
+		listeners = a;
+	}
+
+	/**
+	 * Starts the inference thread
+	 */
+	public void start() {
+		thread = new Thread(this, "Inference");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues the features of a ticker for scoring
+	 * @param tickerId ticker id
+	 * @param x features, getFeatures() of the model from offset
+	 * @param offset index of the first feature
+	 * @return false if the batch is full and the vector was dropped
+	 */
+	public synchronized boolean submit(int tickerId, float[] x, int offset) {
+		int r = 0;
+
+		while (r < rows && fillingIds[r] != tickerId) {
+			r++;
+		}
+		if (r == maxBatch || !open) {
+			dropped++;
+			return(false);
+		}
+		System.arraycopy(x, offset, filling, r * features, features);
+		if (r == rows) {
+			fillingIds[r] = tickerId;
+			rows++;
+
+			// The inference thread waits for the first vector and for a full batch
+			if (rows == 1) {
+				first = System.nanoTime();
+				notifyAll();
+			} else if (rows == maxBatch) {
+				notifyAll();
+			}
+		}
+		return(true);
+	}
+
+	/**
+	 * Inference loop: takes the batch when it is full or due and scores it
+	 */
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				int n;
+
+				synchronized (this) {
+					while (open && rows == 0) {
+						wait();
+					}
+					if (rows == 0) {
+						break;
+					}
+					long w;
+					while (open && rows < maxBatch && (w = first + maxDelay - System.nanoTime()) > 0) {
+						TimeUnit.NANOSECONDS.timedWait(this, w);
+					}
+					n = swap();
+				}
+				score(n);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Swaps the filled batch for scoring, called with the lock held
+	 * @return number of rows
+	 */
+	private int swap() {
+		float[] f = scoring;
+		int[] ids = scoringIds;
+		int n = rows;
+
+		scoring = filling;
+		scoringIds = fillingIds;
+		filling = f;
+		fillingIds = ids;
+		rows = 0;
+		return(n);
+	}
+
+	private void score(int n) {
+		long t = System.nanoTime();
+
+		try {
+			model.predict(scoring, n, scores);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return;
+		}
+		runTimes.record(System.nanoTime() - t);
+		batches++;
+		scored += n;
+
+		for (Listener l: listeners) {
+			for (int i = 0; i < n; i++) {
+				l.signal(scoringIds[i], scores, i * outputs, outputs);
+			}
+		}
+	}
+
+	/**
+	 * Scores the vectors still queued and stops the inference thread
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			open = false;
+			notifyAll();
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return number of batches scored
+	 */
+	public long getBatches() {
+		return(batches);
+	}
+
+	/**
+	 * @return number of vectors scored
+	 */
+	public long getScored() {
+		return(scored);
+	}
+
+	/**
+	 * @return number of vectors dropped because the batch was full
+	 */
+	public long getDropped() {
+		return(dropped);
+	}
+
+	/**
+	 * @return run times of Model.predict() per batch in nanoseconds
+	 */
+	public LatencyHistogram getRunTimes() {
+		return(runTimes);
+	}
+}
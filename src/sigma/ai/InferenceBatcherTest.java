@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package sigma.ai;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for micro-batched inference, with a model summing the features
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class InferenceBatcherTest {
+
+	private static class SumModel implements Model {
+		volatile int maxRows = 0;
+		volatile CountDownLatch gate = null;
+
+		@Override
+		public int getFeatures() {
+			return(3);
+		}
+
+		@Override
+		public int getOutputs() {
+			return(1);
+		}
+
+		@Override
+		public void predict(float[] input, int rows, float[] output) {
+			try {
+				if (gate != null) {
+					gate.await(5, TimeUnit.SECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			maxRows = Math.max(maxRows, rows);
+			for (int i = 0; i < rows; i++) {
+				output[i] = input[3 * i] + input[3 * i + 1] + input[3 * i + 2];
+			}
+		}
+	}
+
+	@Test
+	public void testBatches() throws InterruptedException {
+		SumModel m = new SumModel();
+		Map<Integer, Float> signals = new ConcurrentHashMap<>();
+		CountDownLatch all = new CountDownLatch(100);
+
+		// Long delay, batches go when full or on close
+		InferenceBatcher b = new InferenceBatcher(m, 8, TimeUnit.SECONDS.toNanos(10));
+		b.addListener((id, scores, offset, length) -> {
+			assertEquals(1, length);
+			signals.put(id, scores[offset]);
+			all.countDown();
+		});
+		b.start();
+
+		// A full batch drops, the producer here retries until the batch is taken
+		for (int i = 0; i < 100; i++) {
+			while (!b.submit(i, new float[] {0, i, 1, 2, 0}, 1)) {
+				Thread.yield();
+			}
+		}
+		b.close();
+
+		assertEquals(0, all.getCount());
+		assertEquals(100, b.getScored());
+		assertTrue(b.getBatches() >= 13);
+		assertEquals(8, m.maxRows);
+		assertEquals(53f, signals.get(50), 0);
+	}
+
+	@Test
+	public void testDeadlineAndLatest() throws InterruptedException {
+		SumModel m = new SumModel();
+		Map<Integer, Float> signals = new ConcurrentHashMap<>();
+		CountDownLatch first = new CountDownLatch(1);
+
+		try (InferenceBatcher b = new InferenceBatcher(m, 4, TimeUnit.MILLISECONDS.toNanos(5))) {
+			b.addListener((id, scores, offset, length) -> {
+				signals.put(id, scores[offset]);
+				first.countDown();
+			});
+			b.start();
+
+			// One vector goes on the deadline
+			b.submit(1, new float[] {1, 1, 1}, 0);
+			assertTrue(first.await(5, TimeUnit.SECONDS));
+			assertEquals(3f, signals.get(1), 0);
+
+			// While the model is busy, later vectors of a ticker replace earlier ones
+			// and a batch full of other tickers drops
+			m.gate = new CountDownLatch(1);
+			b.submit(9, new float[] {0, 0, 0}, 0);
+			Thread.sleep(50);
+			for (int i = 0; i < 10; i++) {
+				assertTrue(b.submit(2, new float[] {i, 0, 0}, 0));
+			}
+			b.submit(3, new float[] {0, 0, 0}, 0);
+			b.submit(4, new float[] {0, 0, 0}, 0);
+			b.submit(5, new float[] {0, 0, 0}, 0);
+			assertFalse(b.submit(6, new float[] {0, 0, 0}, 0));
+			assertEquals(1, b.getDropped());
+			m.gate.countDown();
+		}
+		assertEquals(9f, signals.get(2), 0);
+		assertFalse(signals.containsKey(6));
+	}
+}
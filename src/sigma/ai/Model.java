@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package sigma.ai;
+
+/**
+ * Model that scores a batch of feature vectors at once
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public interface Model {
+	/**
+	 * @return number of features per row
+	 */
+	int getFeatures();
+
+	/**
+	 * @return number of outputs per row
+	 */
+	int getOutputs();
+
+	/**
+	 * Scores a batch, called by one thread at a time
+	 * @param input rows * getFeatures() features, row by row
+	 * @param rows number of rows
+	 * @param output rows * getOutputs() outputs, row by row
+	 */
+	void predict(float[] input, int rows, float[] output);
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package sigma.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+
+/**
+ * Frozen TensorFlow graph as a batch model. The graph takes a float tensor of
+ * shape [rows, features] and returns a float tensor of shape [rows, outputs].
+ *
+ * The graph and the session are created once and reused for every batch, as are
+ * the input and output buffers and the shape. The TensorFlow 1.3 API cannot refill
+ * a tensor, so the input tensor is created from the reused buffer and closed right
+ * after the run. The session runs on the CPU with a fixed number of threads.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class TensorFlowModel implements Model, AutoCloseable {
+	private final Graph graph;
+	private final Session session;
+	private final String input;
+	private final String output;
+	private final int features;
+	private final int outputs;
+	private final FloatBuffer in;
+	private final FloatBuffer out;
+	private final long[] shape;
+
+	/**
+	 * Loads a frozen graph
+	 * @param file GraphDef file with the variables frozen into constants
+	 * @param input name of the input operation
+	 * @param output name of the output operation
+	 * @param features number of features per row
+	 * @param outputs number of outputs per row
+	 * @param maxBatch maximal number of rows in a batch
+	 * @param threads CPU threads of the session
+	 * @throws IOException if the file cannot be read
+	 */
+	public TensorFlowModel(File file, String input, String output, int features, int outputs, int maxBatch,
+			int threads) throws IOException {
+		this.input = input;
+		this.output = output;
+		this.features = features;
+		this.outputs = outputs;
+		this.in = FloatBuffer.allocate(maxBatch * features);
+		this.out = FloatBuffer.allocate(maxBatch * outputs);
+		this.shape = new long[] {0, features};
+
+		graph = new Graph();
+		try {
+			graph.importGraphDef(Files.readAllBytes(file.toPath()));
+			if (graph.operation(input) == null || graph.operation(output) == null) {
+				throw new IllegalArgumentException("No operation " + input + " or " + output + " in " + file);
+			}
+		} catch (IOException | RuntimeException e) {
+			graph.close();
+			throw e;
+		}
+		session = new Session(graph, cpuConfig(threads));
+	}
+
+	/**
+	 * Serialised ConfigProto for a CPU session: device_count {"GPU": 0} and the intra
+	 * and inter op thread pools of the given size
+	 * @param threads number of threads, 1 to 127
+	 * @return config
+	 */
+	static byte[] cpuConfig(int threads) {
+		if (threads < 1 || threads > 127) {
+			throw new IllegalArgumentException("Threads must be 1 to 127, is " + threads);
+		}
+		// Fields 1 (map entry "GPU" -> 0), 2 and 5 (varints)
+		return(new byte[] {0x0a, 0x07, 0x0a, 0x03, 'G', 'P', 'U', 0x10, 0x00,
+				0x10, (byte) threads, 0x28, (byte) threads});
+	}
+
+	@Override
+	public int getFeatures() {
+		return(features);
+	}
+
+	@Override
+	public int getOutputs() {
+		return(outputs);
+	}
+
+	@Override
+	public void predict(float[] x, int rows, float[] y) {
+		in.clear();
+		in.put(x, 0, rows * features);
+		in.flip();
+		shape[0] = rows;
+
+		try (Tensor t = Tensor.create(shape, in)) {
+			List<Tensor> r = session.runner().feed(input, t).fetch(output).run();
+
+			try (Tensor result = r.get(0)) {
+				out.clear();
+				result.writeTo(out);
+				out.flip();
+				out.get(y, 0, rows * outputs);
+			}
+		}
+	}
+
+	/**
+	 * Closes the session and the graph
+	 */
+	@Override
+	public void close() {
+		session.close();
+		graph.close();
+	}
+}
@@ -1,7 +1,8 @@
 /**
  * Artificial Intelligence related classes for trading.
  * The current idea is to play with RNNs to find optimal
- * trading signals 
+ * trading signals. Models score feature vectors of many
+ * instruments in micro-batches through InferenceBatcher.
  * 
  * @author Peeter Meos
  *
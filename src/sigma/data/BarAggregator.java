@@ -0,0 +1,453 @@
+/**
+ *
+ */
+package sigma.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Builds price bars of many tickers from the tick stream: time bars (e.g. 1 s, 5 s,
+ * 1 min, 5 min), tick bars of a number of trades or volume bars of a traded volume.
+ *
+ * A trade is a last price (tickPrice() field 4), its size the last size that follows
+ * it (tickSize() field 5). TWS sends a last size without a last price before it for a
+ * trade at an unchanged price, it counts as a trade at the last price. A time bar ends with the first trade after its period or with
+ * advance(), tick and volume bars end when they have the number of trades or the volume,
+ * so a volume bar may have more volume than its size. Periods without trades have no bars.
+ *
+ * There must be exactly one writer (the TWS message thread). The bar being built is
+ * kept in primitive arrays by ticker and the completed bars in a ring of the last
+ * history bars per ticker, one cache line per bar. Completed bars are passed to the
+ * listeners on the writer thread without allocating, other threads can read the ring
+ * without locks: reads are retried if the writer overwrote the bar meanwhile.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class BarAggregator {
+	public static final int TIME = 0;
+	public static final int TICKS = 1;
+	public static final int VOLUME = 2;
+
+	public static final int DEFAULT_TICKERS = 1024;
+	public static final int DEFAULT_HISTORY = 256;
+
+	// Columns of a bar in the ring, prices and volume as in BarSeries
+	public static final int COUNT = 6;
+	private static final int STRIDE = 8;
+
+	private static final int LAST = 4;
+	private static final int LAST_SIZE = 5;
+
+	/**
+	 * Receives the completed bars, on the writer thread
+	 */
+	public interface Listener {
+		/**
+		 * Completed bar
+		 * @param source aggregator of the bar
+		 * @param tickerId ticker id
+		 * @param time start of the bar in milliseconds since the epoch, for tick and
+		 * volume bars the time of its first trade
+		 * @param open open price
+		 * @param high high price
+		 * @param low low price
+		 * @param close close price
+		 * @param volume traded volume
+		 * @param count number of trades
+		 */
+		void bar(BarAggregator source, int tickerId, long time, double open, double high, double low, double close,
+				long volume, int count);
+	}
+
+	private final int type;
+	private final long size;
+	private final int capacity;
+	private final int history;
+	private final int mask;
+	private final int[] tableIds;
+	private final AtomicIntegerArray tableSlots; // slot + 1, 0 is empty
+	private final int[] ids;
+	private volatile int count = 0;
+	private volatile Listener[] listeners = new Listener[0];
+
+	// Bar being built by slot, writer only
+	private final long[] curTime;
+	private final double[] curOpen;
+	private final double[] curHigh;
+	private final double[] curLow;
+	private final double[] curClose;
+	private final long[] curVolume;
+	private final int[] curCount;
+	private final boolean[] priced; // last price seen, its size not yet
+
+	// Completed bars, ring of history + 1 bars per slot, and their number by slot
+	private final AtomicLongArray ring;
+	private final AtomicLongArray done;
+
+	/**
+	 * Aggregator for the default number of tickers and history
+	 * @param type TIME, TICKS or VOLUME
+	 * @param size period in milliseconds, trades or volume of a bar
+	 */
+	public BarAggregator(int type, long size) {
+		this(type, size, DEFAULT_TICKERS, DEFAULT_HISTORY);
+	}
+
+	/**
+	 * Constructor
+	 * @param type TIME, TICKS or VOLUME
+	 * @param size period in milliseconds, trades or volume of a bar
+	 * @param capacity maximal number of tickers
+	 * @param history completed bars kept per ticker
+	 */
+	public BarAggregator(int type, long size, int capacity, int history) {
+		if (type < TIME || type > VOLUME || size <= 0 || capacity <= 0 || history <= 0) {
+			throw new IllegalArgumentException("Invalid bar type " + type + " size " + size);
+		}
+		int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+
+		this.type = type;
+		this.size = size;
+		this.capacity = capacity;
+		this.history = history;
+		this.mask = tableSize - 1;
+		this.tableIds = new int[tableSize];
+		this.tableSlots = new AtomicIntegerArray(tableSize);
+		this.ids = new int[capacity];
+
+		curTime = new long[capacity];
+		curOpen = new double[capacity];
+		curHigh = new double[capacity];
+		curLow = new double[capacity];
+		curClose = new double[capacity];
+		curVolume = new long[capacity];
+		curCount = new int[capacity];
+		priced = new boolean[capacity];
+
+		ring = new AtomicLongArray(capacity * (history + 1) * STRIDE);
+		done = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * @param millis period in milliseconds
+	 * @return aggregator of time bars
+	 */
+	public static BarAggregator time(long millis) {
+		return(new BarAggregator(TIME, millis));
+	}
+
+	/**
+	 * @param trades trades per bar
+	 * @return aggregator of tick bars
+	 */
+	public static BarAggregator ticks(int trades) {
+		return(new BarAggregator(TICKS, trades));
+	}
+
+	/**
+	 * @param volume volume per bar
+	 * @return aggregator of volume bars
+	 */
+	public static BarAggregator volume(long volume) {
+		return(new BarAggregator(VOLUME, volume));
+	}
+
+	/**
+	 * @return TIME, TICKS or VOLUME
+	 */
+	public int getType() {
+		return(type);
+	}
+
+	/**
+	 * @return period in milliseconds, trades or volume of a bar
+	 */
+	public long getSize() {
+		return(size);
+	}
+
+	/**
+	 * @return completed bars kept per ticker
+	 */
+	public int getHistory() {
+		return(history);
+	}
+
+	/**
+	 * Adds a listener of the completed bars
+	 * @param l listener
+	 */
+	public synchronized void addListener(Listener l) {
+		Listener[] a = Arrays.copyOf(listeners, listeners.length + 1);
+
+		a[a.length - 1] = l;
+		listeners = a;
+	}
+
+	/**
+	 * Removes a listener
+	 * @param l listener
+	 */
+	public synchronized void removeListener(Listener l) {
+		Listener[] a = new Listener[listeners.length];
+		int n = 0;
+
+		for (Listener x: listeners) {
+			if (x != l) {
+				a[n++] = x;
+			}
+		}
+		listeners = Arrays.copyOf(a, n);
+	}
+
+	/**
+	 * Price tick from the tickPrice() callback, fields other than last (4) are ignored
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param price price
+	 * @param time time of the tick in milliseconds since the epoch
+	 */
+	public void price(int tickerId, int field, double price, long time) {
+		if (field != LAST || !(price > 0)) {
+			return;
+		}
+		int s = slot(tickerId, true);
+
+		trade(s, price, time);
+		priced[s] = true;
+	}
+
+	/**
+	 * Size tick from the tickSize() callback, fields other than last size (5) are ignored.
+	 * The size is added to the bar of the last trade, a size without a last price before
+	 * it is a new trade at the last price.
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param size size
+	 * @param time time of the tick in milliseconds since the epoch
+	 */
+	public void size(int tickerId, int field, int size, long time) {
+		if (field != LAST_SIZE || size <= 0) {
+			return;
+		}
+		int s = slot(tickerId, false);
+
+		// No trade price yet
+		if (s < 0) {
+			return;
+		}
+		if (!priced[s]) {
+			trade(s, curClose[s], time);
+		}
+		priced[s] = false;
+		curVolume[s] += size;
+		if (type != TIME && ended(s, time)) {
+			emit(s);
+		}
+	}
+
+	/**
+	 * Completes the time bars whose period has ended, e.g. from a timer when
+	 * there are no trades. Does nothing for tick and volume bars.
+	 * @param time current time in milliseconds since the epoch
+	 */
+	public void advance(long time) {
+		if (type != TIME) {
+			return;
+		}
+		int n = count;
+
+		for (int s = 0; s < n; s++) {
+			if (curCount[s] > 0 && ended(s, time)) {
+				emit(s);
+			}
+		}
+	}
+
+	/**
+	 * @param tickerId ticker id
+	 * @return number of bars completed, also those no longer in the history
+	 */
+	public long getCount(int tickerId) {
+		int s = slot(tickerId, false);
+
+		return(s < 0 ? 0 : done.get(s));
+	}
+
+	/**
+	 * @param tickerId ticker id
+	 * @param ago 0 for the last completed bar, 1 for the one before it etc.
+	 * @return start time of the bar or -1 if it is not in the history
+	 */
+	public long getTime(int tickerId, int ago) {
+		return(get(tickerId, BarSeries.TIME, ago, -1));
+	}
+
+	/**
+	 * @param tickerId ticker id
+	 * @param column BarSeries.OPEN, HIGH, LOW or CLOSE
+	 * @param ago 0 for the last completed bar, 1 for the one before it etc.
+	 * @return price or NaN if the bar is not in the history
+	 */
+	public double getPrice(int tickerId, int column, int ago) {
+		return(Double.longBitsToDouble(get(tickerId, column, ago, Double.doubleToRawLongBits(Double.NaN))));
+	}
+
+	/**
+	 * @param tickerId ticker id
+	 * @param ago 0 for the last completed bar, 1 for the one before it etc.
+	 * @return volume or -1 if the bar is not in the history
+	 */
+	public long getVolume(int tickerId, int ago) {
+		return(get(tickerId, BarSeries.VOLUME, ago, -1));
+	}
+
+	/**
+	 * Copies a price column of the last completed bars, oldest first, e.g. into
+	 * an array reused by an indicator
+	 * @param tickerId ticker id
+	 * @param column BarSeries.OPEN, HIGH, LOW or CLOSE
+	 * @param dst destination
+	 * @return number of bars copied to the start of dst
+	 */
+	public int read(int tickerId, int column, double[] dst) {
+		int s = slot(tickerId, false);
+
+		if (s < 0) {
+			return(0);
+		}
+		while (true) {
+			long n = done.get(s);
+			int k = (int) Math.min(Math.min(n, history), dst.length);
+
+			for (int i = 0; i < k; i++) {
+				dst[i] = Double.longBitsToDouble(ring.get(index(s, n - k + i) + column));
+			}
+			if (done.get(s) - n <= history - k) {
+				return(k);
+			}
+		}
+	}
+
+	private long get(int tickerId, int column, int ago, long none) {
+		int s = slot(tickerId, false);
+
+		if (s < 0 || ago < 0 || ago >= history) {
+			return(none);
+		}
+		while (true) {
+			long n = done.get(s);
+
+			if (ago >= n) {
+				return(none);
+			}
+			long v = ring.get(index(s, n - 1 - ago) + column);
+
+			// The ring has a spare bar, the one being written is never read
+			if (done.get(s) - n <= history - 1 - ago) {
+				return(v);
+			}
+		}
+	}
+
+	/**
+	 * Adds a trade to the bar being built, completing the bar first if it has ended
+	 */
+	private void trade(int s, double price, long time) {
+		if (curCount[s] > 0 && ended(s, time)) {
+			emit(s);
+		}
+		if (curCount[s] == 0) {
+			curTime[s] = type == TIME ? time - Math.floorMod(time, size) : time;
+			curOpen[s] = price;
+			curHigh[s] = price;
+			curLow[s] = price;
+			curVolume[s] = 0;
+		} else if (price > curHigh[s]) {
+			curHigh[s] = price;
+		} else if (price < curLow[s]) {
+			curLow[s] = price;
+		}
+		curClose[s] = price;
+		curCount[s]++;
+	}
+
+	private int index(int s, long bar) {
+		return((s * (history + 1) + (int) (bar % (history + 1))) * STRIDE);
+	}
+
+	private boolean ended(int s, long time) {
+		switch (type) {
+		case TIME:
+			return(time >= curTime[s] + size);
+		case TICKS:
+			return(curCount[s] >= size);
+		default:
+			return(curVolume[s] >= size);
+		}
+	}
+
+	/**
+	 * Moves the bar being built into the ring and passes it to the listeners
+	 */
+	private void emit(int s) {
+		long n = done.get(s);
+		int base = index(s, n);
+		int trades = curCount[s];
+
+		ring.lazySet(base + BarSeries.TIME, curTime[s]);
+		ring.lazySet(base + BarSeries.OPEN, Double.doubleToRawLongBits(curOpen[s]));
+		ring.lazySet(base + BarSeries.HIGH, Double.doubleToRawLongBits(curHigh[s]));
+		ring.lazySet(base + BarSeries.LOW, Double.doubleToRawLongBits(curLow[s]));
+		ring.lazySet(base + BarSeries.CLOSE, Double.doubleToRawLongBits(curClose[s]));
+		ring.lazySet(base + BarSeries.VOLUME, curVolume[s]);
+		ring.lazySet(base + COUNT, trades);
+		done.lazySet(s, n + 1);
+		curCount[s] = 0;
+
+		for (Listener l: listeners) {
+			l.bar(this, ids[s], curTime[s], curOpen[s], curHigh[s], curLow[s], curClose[s], curVolume[s],
+					trades);
+		}
+	}
+
+	/**
+	 * Finds the slot of a ticker, optionally creating it. Only the writer creates.
+	 * @return slot index or -1 if not found
+	 */
+	private int slot(int tickerId, boolean create) {
+		int h = (tickerId * 0x9E3779B9) & mask;
+
+		while (true) {
+			int s = tableSlots.get(h);
+
+			if (s == 0) {
+				break;
+			}
+			if (tableIds[h] == tickerId) {
+				return s - 1;
+			}
+			h = (h + 1) & mask;
+		}
+
+		if (!create) {
+			return -1;
+		}
+		if (count == capacity) {
+			throw new IllegalStateException("Bar aggregator is full, capacity " + capacity);
+		}
+
+		int s = count;
+
+		ids[s] = tickerId;
+		tableIds[h] = tickerId;
+		tableSlots.lazySet(h, s + 1);
+		count = s + 1;
+
+		return s;
+	}
+}
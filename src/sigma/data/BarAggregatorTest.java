@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package sigma.data;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the real time bar aggregator
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class BarAggregatorTest {
+	private static final long T0 = 1500000000000L;
+
+	/**
+	 * Records the completed bars as time, close, volume and count
+	 */
+	private static class Recorder implements BarAggregator.Listener {
+		final List<long[]> bars = new ArrayList<>();
+		final List<Double> close = new ArrayList<>();
+
+		@Override
+		public void bar(BarAggregator source, int tickerId, long time, double open, double high, double low,
+				double close, long volume, int count) {
+			bars.add(new long[] {tickerId, time, volume, count});
+			this.close.add(close);
+			assertTrue(low <= open && open <= high && low <= close && close <= high);
+		}
+	}
+
+	private static void trade(BarAggregator a, int id, double price, int size, long time) {
+		a.price(id, 4, price, time);
+		a.size(id, 5, size, time);
+	}
+
+	@Test
+	public void testTimeBars() {
+		BarAggregator a = BarAggregator.time(60000);
+		Recorder r = new Recorder();
+
+		a.addListener(r);
+
+		// Two tickers, bid and ask ticks are not trades
+		trade(a, 1, 50.0, 2, T0 + 1000);
+		a.price(1, 1, 49.0, T0 + 1500);
+		trade(a, 1, 50.5, 3, T0 + 2000);
+		trade(a, 1, 49.5, 1, T0 + 59999);
+		trade(a, 2, 10.0, 5, T0 + 30000);
+		assertEquals(0, r.bars.size());
+
+		// First trade of the next minute completes the bar of ticker 1 only
+		trade(a, 1, 51.0, 4, T0 + 60000);
+		assertEquals(1, r.bars.size());
+		assertArrayEquals(new long[] {1, T0, 6, 3}, r.bars.get(0));
+		assertEquals(49.5, r.close.get(0), 0);
+
+		assertEquals(T0, a.getTime(1, 0));
+		assertEquals(50.0, a.getPrice(1, BarSeries.OPEN, 0), 0);
+		assertEquals(50.5, a.getPrice(1, BarSeries.HIGH, 0), 0);
+		assertEquals(49.5, a.getPrice(1, BarSeries.LOW, 0), 0);
+		assertEquals(6, a.getVolume(1, 0));
+		assertEquals(-1, a.getTime(1, 1));
+		assertTrue(Double.isNaN(a.getPrice(3, BarSeries.CLOSE, 0)));
+
+		// Timer completes the rest
+		a.advance(T0 + 120000);
+		assertEquals(3, r.bars.size());
+		assertEquals(1, a.getCount(2));
+		assertEquals(5, a.getVolume(2, 0));
+	}
+
+	@Test
+	public void testTickAndVolumeBars() {
+		BarAggregator ticks = BarAggregator.ticks(3);
+		BarAggregator volume = BarAggregator.volume(10);
+		Recorder rt = new Recorder();
+		Recorder rv = new Recorder();
+
+		ticks.addListener(rt);
+		volume.addListener(rv);
+		for (int i = 0; i < 30; i++) {
+			trade(ticks, 7, 100 + i, 2, T0 + i);
+			trade(volume, 7, 100 + i, 2, T0 + i);
+		}
+		assertEquals(10, rt.bars.size());
+		assertEquals(6, rv.bars.size());
+		for (long[] b: rt.bars) {
+			assertEquals(3, b[3]);
+			assertEquals(6, b[2]);
+		}
+		for (long[] b: rv.bars) {
+			assertEquals(10, b[2]);
+		}
+		assertEquals(T0 + 27, ticks.getTime(7, 0));
+		assertEquals(129, ticks.getPrice(7, BarSeries.CLOSE, 0), 0);
+	}
+
+	@Test
+	public void testUnchangedPriceTrades() {
+		BarAggregator ticks = BarAggregator.ticks(3);
+		BarAggregator time = BarAggregator.time(60000);
+		Recorder rt = new Recorder();
+		Recorder r = new Recorder();
+
+		ticks.addListener(rt);
+		time.addListener(r);
+
+		// A size before any price is no trade
+		ticks.size(7, 5, 4, T0);
+		time.size(7, 5, 4, T0);
+
+		// Sizes without a price are trades at the last price
+		for (BarAggregator a: new BarAggregator[] {ticks, time}) {
+			trade(a, 7, 50, 1, T0 + 1000);
+			a.size(7, 5, 2, T0 + 2000);
+			a.size(7, 5, 3, T0 + 3000);
+			a.size(7, 5, 5, T0 + 61000);
+		}
+		assertEquals(1, rt.bars.size());
+		assertArrayEquals(new long[] {7, T0 + 1000, 6, 3}, rt.bars.get(0));
+		assertEquals(1, r.bars.size());
+		assertArrayEquals(new long[] {7, T0, 6, 3}, r.bars.get(0));
+
+		// The unchanged price trade after the minute opens the next time bar
+		time.advance(T0 + 120000);
+		assertArrayEquals(new long[] {7, T0 + 60000, 5, 1}, r.bars.get(1));
+		assertEquals(50, r.close.get(1), 0);
+	}
+
+	@Test
+	public void testHistory() {
+		BarAggregator a = new BarAggregator(BarAggregator.TICKS, 1, 4, 8);
+		double[] close = new double[10];
+
+		for (int i = 0; i < 20; i++) {
+			trade(a, 3, i + 1, 1, T0 + i);
+		}
+		assertEquals(20, a.getCount(3));
+		assertEquals(8, a.read(3, BarSeries.CLOSE, close));
+		for (int i = 0; i < 8; i++) {
+			assertEquals(13 + i, close[i], 0);
+		}
+		assertEquals(13, a.getPrice(3, BarSeries.CLOSE, 7), 0);
+		assertTrue(Double.isNaN(a.getPrice(3, BarSeries.CLOSE, 8)));
+		assertEquals(2, a.read(3, BarSeries.CLOSE, new double[2]));
+	}
+}
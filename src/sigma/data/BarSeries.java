@@ -0,0 +1,384 @@
+/**
+ *
+ */
+package sigma.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.ib.client.DefaultEWrapper;
+import com.ib.client.EWrapper;
+
+import sigma.db.ImportData;
+
+/**
+ * Price bars of one contract and bar size, stored by column in memory-mapped files.
+ *
+ * Every column is a file of primitives after a HEADER byte header: time.col (long,
+ * milliseconds since the epoch), open.col, high.col, low.col, close.col (double) and
+ * volume.col (long), little endian. The number of bars is kept in the header of
+ * time.col and written after the values, so a bar is visible once it is complete.
+ * The files are mapped with room to grow and remapped at twice the size when full.
+ *
+ * Bars are appended in time order. A bar with the time of a stored bar replaces it,
+ * e.g. the last bar while it is being updated or an overlapping import. Older bars
+ * that are not stored are ignored.
+ *
+ * Reads are index based: indexOf() finds a time by binary search over the mapped
+ * time column, and scan() copies a time range of the columns into primitive arrays
+ * in bulk. No objects are created per bar. Appends and reads are synchronized, one
+ * thread appending while others read is safe.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class BarSeries implements AutoCloseable {
+	public static final int MAGIC = 0x43424753; // "SGBC"
+	public static final int HEADER = 64;
+	public static final int INITIAL = 4096;
+
+	public static final int TIME = 0;
+	public static final int OPEN = 1;
+	public static final int HIGH = 2;
+	public static final int LOW = 3;
+	public static final int CLOSE = 4;
+	public static final int VOLUME = 5;
+
+	private static final String[] NAMES = {"time", "open", "high", "low", "close", "volume"};
+
+	private final File dir;
+	private final RandomAccessFile[] files = new RandomAccessFile[NAMES.length];
+	private final MappedByteBuffer[] cols = new MappedByteBuffer[NAMES.length];
+	private int capacity;
+	private int size;
+
+	/**
+	 * Columns of a time range, copied out of the store
+	 */
+	public static class Slice {
+		private final int start;
+		private final long[] time;
+		private final double[] open;
+		private final double[] high;
+		private final double[] low;
+		private final double[] close;
+		private final long[] volume;
+
+		Slice(int start, int length) {
+			this.start = start;
+			time = new long[length];
+			open = new double[length];
+			high = new double[length];
+			low = new double[length];
+			close = new double[length];
+			volume = new long[length];
+		}
+
+		/**
+		 * @return index of the first bar in the series
+		 */
+		public int getStart() {
+			return(start);
+		}
+
+		/**
+		 * @return number of bars
+		 */
+		public int length() {
+			return(time.length);
+		}
+
+		/**
+		 * @return bar times in milliseconds since the epoch
+		 */
+		public long[] getTime() {
+			return(time);
+		}
+
+		/**
+		 * @return open prices
+		 */
+		public double[] getOpen() {
+			return(open);
+		}
+
+		/**
+		 * @return high prices
+		 */
+		public double[] getHigh() {
+			return(high);
+		}
+
+		/**
+		 * @return low prices
+		 */
+		public double[] getLow() {
+			return(low);
+		}
+
+		/**
+		 * @return close prices
+		 */
+		public double[] getClose() {
+			return(close);
+		}
+
+		/**
+		 * @return volumes
+		 */
+		public long[] getVolume() {
+			return(volume);
+		}
+	}
+
+	/**
+	 * Opens or creates the series in a directory
+	 * @param dir directory of the column files
+	 * @throws IOException if the files cannot be opened or are not bar columns
+	 */
+	public BarSeries(File dir) throws IOException {
+		this.dir = dir;
+		dir.mkdirs();
+
+		File t = new File(dir, NAMES[TIME] + ".col");
+		boolean exists = t.length() >= HEADER;
+
+		for (int c = 0; c < NAMES.length; c++) {
+			files[c] = new RandomAccessFile(new File(dir, NAMES[c] + ".col"), "rw");
+		}
+		if (exists) {
+			ByteBuffer h = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+			files[TIME].getChannel().read(h, 0);
+			if (h.getInt(0) != MAGIC) {
+				close();
+				throw new IOException("Not a bar series " + dir);
+			}
+			size = (int) h.getLong(8);
+		}
+		map(Math.max(INITIAL, Integer.highestOneBit(Math.max(1, size)) * 2));
+	}
+
+	/**
+	 * @return directory of the column files
+	 */
+	public File getDir() {
+		return(dir);
+	}
+
+	/**
+	 * @return number of bars
+	 */
+	public synchronized int size() {
+		return(size);
+	}
+
+	/**
+	 * Appends a bar, or replaces the bar with the same time
+	 * @param time start of the bar in milliseconds since the epoch
+	 * @param open open price
+	 * @param high high price
+	 * @param low low price
+	 * @param close close price
+	 * @param volume volume
+	 * @return false if the bar is older than the last one and not stored
+	 * @throws IOException if the files cannot be grown
+	 */
+	public synchronized boolean append(long time, double open, double high, double low, double close, long volume)
+			throws IOException {
+		int i = size;
+
+		if (size > 0 && time <= getTime(size - 1)) {
+			i = indexOf(time);
+			if (i >= size || getTime(i) != time) {
+				return(false);
+			}
+		}
+		if (i == capacity) {
+			map(capacity * 2);
+		}
+
+		int p = HEADER + 8 * i;
+		cols[TIME].putLong(p, time);
+		cols[OPEN].putDouble(p, open);
+		cols[HIGH].putDouble(p, high);
+		cols[LOW].putDouble(p, low);
+		cols[CLOSE].putDouble(p, close);
+		cols[VOLUME].putLong(p, volume);
+
+		if (i == size) {
+			size++;
+			cols[TIME].putLong(8, size);
+		}
+		return(true);
+	}
+
+	/**
+	 * Index of the first bar at or after a time
+	 * @param time time in milliseconds since the epoch
+	 * @return index, size() if all bars are earlier
+	 */
+	public synchronized int indexOf(long time) {
+		int lo = 0;
+		int hi = size;
+
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+
+			if (getTime(mid) < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return(lo);
+	}
+
+	/**
+	 * @param i bar index
+	 * @return time of the bar
+	 */
+	public synchronized long getTime(int i) {
+		return(cols[TIME].getLong(HEADER + 8 * i));
+	}
+
+	/**
+	 * @param column OPEN, HIGH, LOW or CLOSE
+	 * @param i bar index
+	 * @return price of the bar
+	 */
+	public synchronized double getPrice(int column, int i) {
+		return(cols[column].getDouble(HEADER + 8 * i));
+	}
+
+	/**
+	 * @param i bar index
+	 * @return volume of the bar
+	 */
+	public synchronized long getVolume(int i) {
+		return(cols[VOLUME].getLong(HEADER + 8 * i));
+	}
+
+	/**
+	 * Copies the bars of a time range
+	 * @param from first time, inclusive
+	 * @param to last time, exclusive
+	 * @return columns of the bars in the range
+	 */
+	public synchronized Slice scan(long from, long to) {
+		int a = indexOf(from);
+		int b = Math.max(a, indexOf(to));
+		Slice s = new Slice(a, b - a);
+
+		column(TIME, a).asLongBuffer().get(s.time);
+		column(OPEN, a).asDoubleBuffer().get(s.open);
+		column(HIGH, a).asDoubleBuffer().get(s.high);
+		column(LOW, a).asDoubleBuffer().get(s.low);
+		column(CLOSE, a).asDoubleBuffer().get(s.close);
+		column(VOLUME, a).asLongBuffer().get(s.volume);
+		return(s);
+	}
+
+	/**
+	 * Copies one price column of bars by index, e.g. into a reused array
+	 * @param column OPEN, HIGH, LOW or CLOSE
+	 * @param start index of the first bar
+	 * @param dst destination, dst.length bars are copied
+	 */
+	public synchronized void read(int column, int start, double[] dst) {
+		if (start < 0 || start + dst.length > size) {
+			throw new IndexOutOfBoundsException("Bars " + start + ".." + (start + dst.length) + " of " + size);
+		}
+		column(column, start).asDoubleBuffer().get(dst);
+	}
+
+	/**
+	 * Handler that appends the bars of a historical data or real time bars request,
+	 * for TwsConnector.nextRequestId(EWrapper)
+	 * @return request handler
+	 */
+	public EWrapper handler() {
+		return(new DefaultEWrapper() {
+			@Override
+			public void historicalData(int reqId, String date, double open, double high, double low, double close,
+					int volume, int count, double WAP, boolean hasGaps) {
+				if (!date.startsWith("finished")) {
+					append(ImportData.parseTime(date), open, high, low, close, volume);
+				}
+			}
+
+			@Override
+			public void realtimeBar(int reqId, long time, double open, double high, double low, double close,
+					long volume, double wap, int count) {
+				append(time * 1000L, open, high, low, close, volume);
+			}
+
+			private void append(long time, double open, double high, double low, double close, long volume) {
+				try {
+					BarSeries.this.append(time, open, high, low, close, volume);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the mapped columns to disk
+	 */
+	public synchronized void flush() {
+		for (MappedByteBuffer b: cols) {
+			if (b != null) {
+				b.force();
+			}
+		}
+	}
+
+	/**
+	 * Flushes and closes the column files, the files keep their mapped size
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		for (int c = 0; c < NAMES.length; c++) {
+			cols[c] = null;
+			if (files[c] != null) {
+				files[c].close();
+			}
+		}
+	}
+
+	/**
+	 * Read-only view of a column from a bar index to the end of the data
+	 */
+	private ByteBuffer column(int c, int start) {
+		ByteBuffer b = cols[c].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		b.limit(HEADER + 8 * size);
+		b.position(HEADER + 8 * start);
+		return(b.slice().order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	/**
+	 * Maps all columns with room for the given number of bars
+	 */
+	private void map(int bars) throws IOException {
+		if (bars > (Integer.MAX_VALUE - HEADER) / 8) {
+			throw new IOException("Bar series full " + dir);
+		}
+		for (int c = 0; c < NAMES.length; c++) {
+			cols[c] = files[c].getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 8L * bars);
+			cols[c].order(ByteOrder.LITTLE_ENDIAN);
+			cols[c].putInt(0, MAGIC);
+			cols[c].putInt(4, c);
+		}
+		cols[TIME].putLong(8, size);
+		capacity = bars;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package sigma.data;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.EWrapper;
+
+/**
+ * Unit testing for the columnar bar store
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class BarSeriesTest {
+	private static final long T0 = 1500000000000L;
+	private static final long STEP = 300000L;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("bars").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		delete(dir);
+	}
+
+	private static void delete(File f) {
+		File[] l = f.listFiles();
+
+		if (l != null) {
+			for (File x: l) {
+				delete(x);
+			}
+		}
+		f.delete();
+	}
+
+	@Test
+	public void testAppendScan() throws IOException {
+		int n = 3 * BarSeries.INITIAL + 7;
+
+		try (BarStore store = new BarStore(dir)) {
+			BarSeries s = store.series("CL 201712", "5 mins");
+
+			for (int i = 0; i < n; i++) {
+				assertTrue(s.append(T0 + i * STEP, i, i + 1, i - 1, i + 0.5, 100 + i));
+			}
+			assertSame(s, store.series("CL 201712", "5 mins"));
+
+			// Update of the last bar and of a stored bar, unknown older bar
+			assertTrue(s.append(T0 + (n - 1) * STEP, 0, 0, 0, -1, 0));
+			assertTrue(s.append(T0 + 10 * STEP, 0, 0, 0, -2, 0));
+			assertFalse(s.append(T0 + 10 * STEP + 1, 0, 0, 0, -3, 0));
+			assertEquals(n, s.size());
+		}
+
+		try (BarStore store = new BarStore(dir)) {
+			BarSeries s = store.series("CL 201712", "5 mins");
+
+			assertEquals(n, s.size());
+			assertEquals(0, s.indexOf(0));
+			assertEquals(11, s.indexOf(T0 + 10 * STEP + 1));
+			assertEquals(n, s.indexOf(Long.MAX_VALUE));
+
+			BarSeries.Slice x = s.scan(T0 + 5 * STEP, T0 + 15 * STEP);
+			assertEquals(5, x.getStart());
+			assertEquals(10, x.length());
+			assertEquals(T0 + 5 * STEP, x.getTime()[0]);
+			assertEquals(5.5, x.getClose()[0], 0);
+			assertEquals(-2, x.getClose()[5], 0);
+			assertEquals(15, x.getHigh()[9], 0);
+			assertEquals(13, x.getLow()[9], 0);
+			assertEquals(114, x.getVolume()[9]);
+
+			assertEquals(-1, s.getPrice(BarSeries.CLOSE, n - 1), 0);
+			assertEquals(0, s.scan(T0 - STEP, T0).length());
+
+			double[] close = new double[3];
+			s.read(BarSeries.OPEN, 100, close);
+			assertEquals(102, close[2], 0);
+
+			// Appends continue after reopening
+			assertTrue(s.append(T0 + n * STEP, 1, 1, 1, 1, 1));
+			assertEquals(n + 1, s.size());
+		}
+	}
+
+	@Test
+	public void testHandler() throws IOException {
+		try (BarStore store = new BarStore(dir)) {
+			BarSeries s = store.series("ES 201712", "5 secs");
+			EWrapper h = s.handler();
+
+			h.realtimeBar(1, T0 / 1000, 1, 2, 0.5, 1.5, 10, 1.2, 3);
+			h.historicalData(2, Long.toString(T0 / 1000 + 5), 1, 2, 0.5, 1.7, 10, 3, 1.2, false);
+			h.historicalData(2, "finished-x-y", -1, -1, -1, -1, -1, -1, -1, false);
+			assertEquals(2, s.size());
+			assertEquals(1.7, s.getPrice(BarSeries.CLOSE, 1), 0);
+			assertEquals(T0 + 5000, s.getTime(1));
+		}
+	}
+}
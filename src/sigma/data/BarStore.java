@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package sigma.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local store of historical bars, a BarSeries per contract and bar size under a
+ * root directory: dir/symbol/barSize/*.col. Series are opened on first use and
+ * kept open until the store is closed.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class BarStore implements AutoCloseable {
+	private final File dir;
+	private final Map<String, BarSeries> series = new HashMap<>();
+
+	/**
+	 * Constructor
+	 * @param dir root directory of the store
+	 */
+	public BarStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Opens or creates a series
+	 * @param symbol contract, e.g. symbol and expiry "CL 201712"
+	 * @param barSize bar size as in the TWS request, e.g. "5 mins"
+	 * @return series
+	 * @throws IOException if the series cannot be opened
+	 */
+	public synchronized BarSeries series(String symbol, String barSize) throws IOException {
+		String key = name(symbol) + File.separator + name(barSize);
+		BarSeries s = series.get(key);
+
+		if (s == null) {
+			s = new BarSeries(new File(dir, key));
+			series.put(key, s);
+		}
+		return(s);
+	}
+
+	/**
+	 * Flushes all open series to disk
+	 */
+	public synchronized void flush() {
+		for (BarSeries s: series.values()) {
+			s.flush();
+		}
+	}
+
+	/**
+	 * Closes all open series
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for (BarSeries s: series.values()) {
+			s.close();
+		}
+		series.clear();
+	}
+
+	/**
+	 * File name safe form of a symbol or bar size
+	 */
+	private static String name(String s) {
+		return(s.trim().replaceAll("[^A-Za-z0-9.\\-]+", "_"));
+	}
+}
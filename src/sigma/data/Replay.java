@@ -0,0 +1,286 @@
+/**
+ *
+ */
+package sigma.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import sigma.trading.SimBroker;
+import sigma.trading.TwsConnector;
+
+/**
+ * Replays tick journal files into a connector, in place of the TWS connection.
+ *
+ * The recorded events are passed to the connector's tickPrice(), tickSize() and
+ * tickOptionComputation() on the replay thread, so the strategy code of the connector
+ * subclass runs unchanged. A SimBroker attached to the connector fills the orders
+ * placed during the replay and sends the order status and execution callbacks, and
+ * provides the replay clock through TwsConnector.currentTimeMillis().
+ *
+ * The periodic work of the connector, TwsConnector.onTimer(), is called on the replay
+ * thread whenever the replay clock has passed the timer interval, so the time bars
+ * and throttled adjustments do not depend on the wall clock or the replay speed.
+ *
+ * The speed is a multiple of the recorded pace: REAL_TIME, N times faster or
+ * AS_FAST_AS_POSSIBLE. Events, elapsed time and the largest lag behind the
+ * schedule are kept for measuring the throughput of the strategy.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class Replay implements Runnable {
+	public static final double REAL_TIME = 1;
+	public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+	private final TwsConnector con;
+	private final List<File> files;
+	private final SimBroker broker;
+	private final Map<Integer, Integer> tickerMap = new HashMap<>();
+	private double speed = AS_FAST_AS_POSSIBLE;
+	private long timerInterval = 100;
+
+	private volatile boolean running = false;
+	private Thread thread;
+	private volatile long events = 0;
+	private volatile long elapsed = 0;
+	private volatile long maxLag = 0;
+
+	/**
+	 * Constructor, attaches a simulated broker to the connector
+	 * @param con connector receiving the events
+	 * @param files journal files in replay order
+	 */
+	public Replay(TwsConnector con, List<File> files) {
+		this.con = con;
+		this.files = new ArrayList<>(files);
+		this.broker = new SimBroker(con);
+		con.setBroker(broker);
+	}
+
+	/**
+	 * Constructor, attaches a simulated broker to the connector
+	 * @param con connector receiving the events
+	 * @param files journal files in replay order
+	 */
+	public Replay(TwsConnector con, File... files) {
+		this(con, Arrays.asList(files));
+	}
+
+	/**
+	 * Journal files of a range of days, days without a file are skipped
+	 * @param dir journal directory
+	 * @param from first day
+	 * @param to last day, inclusive
+	 * @return existing files in date order
+	 */
+	public static List<File> files(File dir, LocalDate from, LocalDate to) {
+		List<File> l = new ArrayList<>();
+
+		for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+			File f = TickJournal.fileOf(dir, d);
+			if (f.exists()) {
+				l.add(f);
+			}
+		}
+		return(l);
+	}
+
+	/**
+	 * Sets the replay speed
+	 * @param speed multiple of the recorded pace, AS_FAST_AS_POSSIBLE for no pacing
+	 */
+	public void setSpeed(double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("Speed must be positive");
+		}
+		this.speed = speed;
+	}
+
+	/**
+	 * Sets the interval of the connector's onTimer() calls
+	 * @param millis interval in milliseconds of the replay clock, 0 for no timer
+	 */
+	public void setTimerInterval(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Timer interval must not be negative");
+		}
+		this.timerInterval = millis;
+	}
+
+	/**
+	 * Replays the events of a recorded ticker id under another id, e.g. the id
+	 * the strategy has requested the instrument with
+	 * @param recorded ticker id in the journal
+	 * @param id ticker id passed to the connector
+	 */
+	public void mapTicker(int recorded, int id) {
+		tickerMap.put(recorded, id);
+	}
+
+	/**
+	 * @return simulated broker attached to the connector
+	 */
+	public SimBroker getBroker() {
+		return(broker);
+	}
+
+	/**
+	 * Starts the replay on its own thread
+	 */
+	public void start() {
+		thread = new Thread(this, "Replay");
+		thread.start();
+	}
+
+	/**
+	 * Stops the replay after the current event
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Waits for the replay thread to finish
+	 * @throws InterruptedException if interrupted
+	 */
+	public void join() throws InterruptedException {
+		if (thread != null) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Replays all files on the calling thread
+	 */
+	@Override
+	public void run() {
+		long t0 = -1;
+		long w0 = 0;
+		long timer = -1;
+		long start = System.nanoTime();
+		boolean paced = !Double.isInfinite(speed);
+
+		running = true;
+		events = 0;
+		maxLag = 0;
+
+		try {
+			for (File f: files) {
+				try (TickReader r = new TickReader(f)) {
+					while (running && r.next()) {
+						long t = r.time();
+						long due = 0;
+
+						if (t0 < 0) {
+							t0 = t;
+							w0 = System.nanoTime();
+						}
+						if (paced) {
+							long wait;
+
+							due = w0 + (long) ((t - t0) / speed);
+							while ((wait = due - System.nanoTime()) > 0) {
+								LockSupport.parkNanos(wait);
+							}
+						}
+
+						broker.setTime(t);
+						broker.process();
+						timer = timer(timer, t / 1000000L);
+						dispatch(r);
+						events++;
+
+						if (paced) {
+							maxLag = Math.max(maxLag, System.nanoTime() - due);
+						}
+					}
+				}
+			}
+			broker.process();
+		} catch (IOException e) {
+			con.error(e);
+		} finally {
+			elapsed = System.nanoTime() - start;
+			running = false;
+		}
+	}
+
+	/**
+	 * Calls onTimer() if the replay clock has reached the next timer time
+	 * @param next next timer time, -1 before the first event
+	 * @param now replay time in milliseconds
+	 * @return next timer time
+	 */
+	private long timer(long next, long now) {
+		if (timerInterval == 0) {
+			return(next);
+		}
+		if (next < 0) {
+			return(now + timerInterval);
+		}
+		if (now >= next) {
+			con.onTimer(now);
+			// Quiet periods get one call, not one per interval
+			next += ((now - next) / timerInterval + 1) * timerInterval;
+		}
+		return(next);
+	}
+
+	private void dispatch(TickReader r) {
+		Integer m = tickerMap.get(r.tickerId());
+		int id = m == null ? r.tickerId() : m;
+
+		switch (r.type()) {
+		case TickJournal.PRICE:
+			con.tickPrice(id, r.field(), r.price(), r.canAutoExecute());
+			broker.onPrice(id, r.field(), r.price());
+			break;
+		case TickJournal.SIZE:
+			con.tickSize(id, r.field(), r.size());
+			break;
+		case TickJournal.OPTION:
+			con.tickOptionComputation(id, r.field(), r.option(0), r.option(1), r.option(2), r.option(3),
+					r.option(4), r.option(5), r.option(6), r.option(7));
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return true while replaying
+	 */
+	public boolean isRunning() {
+		return(running);
+	}
+
+	/**
+	 * @return number of events replayed
+	 */
+	public long getEvents() {
+		return(events);
+	}
+
+	/**
+	 * @return duration of the last replay in nanoseconds
+	 */
+	public long getElapsed() {
+		return(elapsed);
+	}
+
+	/**
+	 * @return largest delay of an event behind its schedule in nanoseconds, 0 when not paced
+	 */
+	public long getMaxLag() {
+		return(maxLag);
+	}
+}
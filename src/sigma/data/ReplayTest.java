@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package sigma.data;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Order;
+import com.ib.client.OrderType;
+import com.ib.client.Types.Action;
+import com.ib.client.Types.SecType;
+
+import sigma.trading.SimBroker;
+import sigma.trading.TwsConnector;
+import sigma.utils.LogLevel;
+
+/**
+ * Unit testing for replay and the simulated broker
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class ReplayTest {
+
+	private static class Recorder extends TwsConnector {
+		final List<Double> prices = new ArrayList<>();
+		final List<String> status = new ArrayList<>();
+		final List<Long> timers = new ArrayList<>();
+		int sizes = 0;
+
+		Recorder() {
+			super("Replay test", LogLevel.ERROR);
+		}
+
+		@Override
+		public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+			super.tickPrice(tickerId, field, price, canAutoExecute);
+			if (field == 4) {
+				prices.add(price);
+			}
+		}
+
+		@Override
+		public void tickSize(int tickerId, int field, int size) {
+			sizes++;
+		}
+
+		@Override
+		public void orderStatus(int orderId, String st, double filled, double remaining, double avgFillPrice,
+				int permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+			status.add(orderId + " " + st);
+		}
+
+		@Override
+		public void onTimer(long now) {
+			super.onTimer(now);
+			timers.add(now);
+		}
+	}
+
+	private Order order(Action a, OrderType t, double aux, int parent, String oca) {
+		Order o = new Order();
+
+		o.action(a);
+		o.orderType(t);
+		o.totalQuantity(1);
+		o.auxPrice(aux);
+		o.parentId(parent);
+		o.ocaGroup(oca);
+		return(o);
+	}
+
+	@Test
+	public void testReplay() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("replay").toFile();
+		TickJournal j = new TickJournal(dir);
+		double[] path = {50, 50.5, 51, 52.5, 53, 52, 51.5, 51, 50};
+
+		for (double p: path) {
+			j.price(7, 4, p, 0);
+			j.size(7, 5, 1);
+		}
+		j.close();
+
+		Recorder con = new Recorder();
+		Replay r = new Replay(con, Replay.files(dir, LocalDate.now(ZoneOffset.UTC).minusDays(1),
+				LocalDate.now(ZoneOffset.UTC)));
+		SimBroker b = r.getBroker();
+		Contract c = new Contract();
+
+		c.symbol("CL");
+		c.secType(SecType.FUT);
+		con.reqMktData(7, c);
+		assertTrue(con.isConnected());
+
+		// Breakout entries in one OCA group, trailing exit attached to the long entry
+		con.placeOrder(1, c, order(Action.BUY, OrderType.STP, 52, 0, "oca"));
+		con.placeOrder(2, c, order(Action.SELL, OrderType.STP, 49, 0, "oca"));
+		con.placeOrder(3, c, order(Action.SELL, OrderType.TRAIL, 1, 1, ""));
+
+		r.start();
+		r.join();
+
+		assertEquals(path.length * 2, r.getEvents());
+		assertEquals(path.length, con.prices.size());
+		assertEquals(path.length, con.sizes);
+		assertEquals("Filled", b.getStatus(1));
+		assertEquals(52.5, b.getFillPrice(1), 0);
+		assertEquals("Cancelled", b.getStatus(2));
+
+		// Trail stop follows the high of 53 and fills at 52 or below
+		assertEquals("Filled", b.getStatus(3));
+		assertEquals(52, b.getFillPrice(3), 0);
+		assertEquals("3 PreSubmitted", con.status.get(2));
+		assertTrue(con.status.indexOf("1 Filled") < con.status.indexOf("3 Submitted"));
+
+		delete(dir);
+	}
+
+	@Test
+	public void testTimer() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("replay").toFile();
+		TickJournal j = new TickJournal(dir);
+
+		// Trades with gaps longer than the timer interval and the bar period
+		for (int i = 0; i < 3; i++) {
+			j.price(7, 4, 50 + i, 0);
+			j.size(7, 5, 1);
+			Thread.sleep(60);
+		}
+		j.close();
+
+		List<Long> first = null;
+		for (double speed: new double[] {Replay.AS_FAST_AS_POSSIBLE, 2}) {
+			Recorder con = new Recorder();
+			BarAggregator bars = BarAggregator.time(50);
+			Replay r = new Replay(con, Replay.files(dir, LocalDate.now(ZoneOffset.UTC).minusDays(1),
+					LocalDate.now(ZoneOffset.UTC)));
+
+			con.addBarAggregator(bars);
+			r.setSpeed(speed);
+			r.setTimerInterval(20);
+			r.start();
+			r.join();
+
+			// Timer on the replay clock, once per quiet period, completing the bars
+			assertEquals(2, con.timers.size());
+			assertTrue(con.timers.get(1) - con.timers.get(0) >= 50);
+			assertEquals(2, bars.getCount(7));
+			if (first == null) {
+				first = con.timers;
+			} else {
+				assertEquals(first, con.timers);
+			}
+		}
+		delete(dir);
+	}
+
+	private static void delete(File dir) {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+}
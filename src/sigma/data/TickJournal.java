@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package sigma.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Append-only binary journal of market data events.
+ *
+ * Every tickPrice(), tickSize() and tickOptionComputation() is written as a fixed size
+ * record with a nanosecond wall clock timestamp into a memory-mapped file, so appending
+ * is a few stores into the page cache with no system calls. The file is mapped in chunks,
+ * a new chunk is mapped when the current one is full, and a new file is started at
+ * midnight. Files are named yyyyMMdd.ticks; reopening the file of the current day
+ * continues after its last record.
+ *
+ * File layout, little endian: a HEADER byte header (magic, version, chunk size, day)
+ * followed by records. Records never cross a chunk boundary, the rest of a chunk is
+ * skipped when its next record is PAD. A zero record type marks the end of the data.
+ *
+ * Record layout:
+ * <pre>
+ *  0 byte   type (PRICE, SIZE, OPTION)
+ *  1 byte   field (tick type)
+ *  4 int    ticker id
+ *  8 long   timestamp, nanoseconds since the epoch
+ * 16        PRICE:  double price, int canAutoExecute
+ *           SIZE:   long size
+ *           OPTION: double impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice
+ * </pre>
+ *
+ * The journal expects a single writing thread, the TWS message thread, appends
+ * are synchronized so that occasional writes from other threads are safe.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class TickJournal implements AutoCloseable {
+	public static final int MAGIC = 0x4a544753; // "SGTJ"
+	public static final short VERSION = 1;
+	public static final int HEADER = 64;
+	public static final int DEFAULT_CHUNK = 64 << 20;
+
+	public static final byte END = 0;
+	public static final byte PRICE = 1;
+	public static final byte SIZE = 2;
+	public static final byte OPTION = 3;
+	public static final byte PAD = 4;
+
+	public static final int PRICE_LENGTH = 32;
+	public static final int SIZE_LENGTH = 32;
+	public static final int OPTION_LENGTH = 80;
+
+	public static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+	private final File dir;
+	private final ZoneId zone;
+	private final int chunkSize;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer buf;
+	private int chunk;
+	private int pos;
+	private long records;
+
+	// Wall clock in nanoseconds is base + System.nanoTime(), calibrated at every roll
+	private long base;
+	private long rollAt;
+
+	/**
+	 * Journal in the directory, rolling at midnight UTC
+	 * @param dir directory of the journal files
+	 * @throws IOException if the file of the day cannot be opened
+	 */
+	public TickJournal(File dir) throws IOException {
+		this(dir, ZoneOffset.UTC, DEFAULT_CHUNK);
+	}
+
+	/**
+	 * Constructor
+	 * @param dir directory of the journal files
+	 * @param zone time zone of the daily roll
+	 * @param chunkSize size of the mapped chunks in bytes, multiple of 16
+	 * @throws IOException if the file of the day cannot be opened
+	 */
+	public TickJournal(File dir, ZoneId zone, int chunkSize) throws IOException {
+		if (chunkSize < HEADER + OPTION_LENGTH || chunkSize % 16 != 0) {
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+		}
+		this.dir = dir;
+		this.zone = zone;
+		this.chunkSize = chunkSize;
+
+		dir.mkdirs();
+		calibrate();
+		open(nanoTime());
+	}
+
+	/**
+	 * @param dir directory of the journal files
+	 * @param day day
+	 * @return journal file of the day
+	 */
+	public static File fileOf(File dir, LocalDate day) {
+		return(new File(dir, day.format(DAY) + ".ticks"));
+	}
+
+	/**
+	 * @param type record type
+	 * @return record length in bytes, 0 for END and PAD
+	 */
+	public static int length(byte type) {
+		switch (type) {
+		case PRICE:
+			return(PRICE_LENGTH);
+		case SIZE:
+			return(SIZE_LENGTH);
+		case OPTION:
+			return(OPTION_LENGTH);
+		default:
+			return(0);
+		}
+	}
+
+	/**
+	 * @return current time in nanoseconds since the epoch, as used for the records
+	 */
+	public long nanoTime() {
+		return(base + System.nanoTime());
+	}
+
+	/**
+	 * Records a tickPrice() event
+	 */
+	public synchronized void price(int tickerId, int field, double price, int canAutoExecute) {
+		long t = nanoTime();
+		int p = reserve(t, PRICE_LENGTH);
+
+		if (p < 0) {
+			return;
+		}
+		buf.putInt(p + 4, tickerId);
+		buf.putLong(p + 8, t);
+		buf.putDouble(p + 16, price);
+		buf.putInt(p + 24, canAutoExecute);
+		commit(p, PRICE, field, PRICE_LENGTH);
+	}
+
+	/**
+	 * Records a tickSize() event
+	 */
+	public synchronized void size(int tickerId, int field, int size) {
+		long t = nanoTime();
+		int p = reserve(t, SIZE_LENGTH);
+
+		if (p < 0) {
+			return;
+		}
+		buf.putInt(p + 4, tickerId);
+		buf.putLong(p + 8, t);
+		buf.putLong(p + 16, size);
+		commit(p, SIZE, field, SIZE_LENGTH);
+	}
+
+	/**
+	 * Records a tickOptionComputation() event
+	 */
+	public synchronized void option(int tickerId, int field, double impliedVol, double delta, double optPrice,
+			double pvDividend, double gamma, double vega, double theta, double undPrice) {
+		long t = nanoTime();
+		int p = reserve(t, OPTION_LENGTH);
+
+		if (p < 0) {
+			return;
+		}
+		buf.putInt(p + 4, tickerId);
+		buf.putLong(p + 8, t);
+		buf.putDouble(p + 16, impliedVol);
+		buf.putDouble(p + 24, delta);
+		buf.putDouble(p + 32, optPrice);
+		buf.putDouble(p + 40, pvDividend);
+		buf.putDouble(p + 48, gamma);
+		buf.putDouble(p + 56, vega);
+		buf.putDouble(p + 64, theta);
+		buf.putDouble(p + 72, undPrice);
+		commit(p, OPTION, field, OPTION_LENGTH);
+	}
+
+	/**
+	 * @return number of records written since the journal was opened
+	 */
+	public synchronized long getRecords() {
+		return(records);
+	}
+
+	/**
+	 * Writes the mapped data to disk
+	 */
+	public synchronized void flush() {
+		if (buf != null) {
+			buf.force();
+		}
+	}
+
+	/**
+	 * Flushes and closes the journal
+	 */
+	@Override
+	public synchronized void close() {
+		flush();
+		buf = null;
+		closeFile();
+	}
+
+	/**
+	 * Returns the position for a record, rolling the file or the chunk as needed
+	 * @return position in buf or -1 if the journal is closed or failed
+	 */
+	private int reserve(long t, int length) {
+		try {
+			if (t >= rollAt && buf != null) {
+				buf.force();
+				closeFile();
+				calibrate();
+				t = nanoTime();
+				open(t);
+			}
+			if (buf != null && pos + length > chunkSize) {
+				if (pos < chunkSize) {
+					buf.put(pos, PAD);
+				}
+				map(chunk + 1);
+				pos = 0;
+			}
+		} catch (IOException e) {
+			// Journal is lost for the rest of the session, trading goes on
+			e.printStackTrace();
+			buf = null;
+			closeFile();
+		}
+		return(buf == null ? -1 : pos);
+	}
+
+	/**
+	 * Type is written last, so that a record is complete once its type is set
+	 */
+	private void commit(int p, byte type, int field, int length) {
+		buf.put(p + 1, (byte) field);
+		buf.put(p, type);
+		pos += length;
+		records++;
+	}
+
+	private void calibrate() {
+		base = System.currentTimeMillis() * 1000000L - System.nanoTime();
+	}
+
+	/**
+	 * Opens or creates the file of the day of t and moves to its end
+	 */
+	private void open(long t) throws IOException {
+		Instant now = Instant.ofEpochSecond(t / 1000000000L, t % 1000000000L);
+		LocalDate day = now.atZone(zone).toLocalDate();
+		File f = fileOf(dir, day);
+		boolean exists = f.length() >= HEADER;
+
+		rollAt = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() * 1000000L;
+		file = new RandomAccessFile(f, "rw");
+		channel = file.getChannel();
+		map(0);
+
+		if (!exists) {
+			buf.putInt(0, MAGIC);
+			buf.putShort(4, VERSION);
+			buf.putInt(8, chunkSize);
+			buf.putInt(12, Integer.parseInt(day.format(DAY)));
+			pos = HEADER;
+			return;
+		}
+
+		if (buf.getInt(0) != MAGIC || buf.getInt(8) != chunkSize) {
+			closeFile();
+			throw new IOException("Incompatible tick journal " + f);
+		}
+
+		// Find the end of the data
+		pos = HEADER;
+		while (true) {
+			byte type = pos < chunkSize ? buf.get(pos) : PAD;
+
+			if (type == PAD) {
+				if ((long) (chunk + 1) * chunkSize >= channel.size()) {
+					// Nothing written past this chunk
+					break;
+				}
+				map(chunk + 1);
+				pos = 0;
+			} else if (length(type) == 0) {
+				break;
+			} else {
+				pos += length(type);
+			}
+		}
+	}
+
+	private void map(int c) throws IOException {
+		buf = channel.map(FileChannel.MapMode.READ_WRITE, (long) c * chunkSize, chunkSize);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		chunk = c;
+	}
+
+	private void closeFile() {
+		try {
+			if (file != null) {
+				file.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file = null;
+		channel = null;
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package sigma.data;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the tick journal
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class TickJournalTest {
+
+	@Test
+	public void testAppend() throws IOException {
+		File dir = Files.createTempDirectory("journal").toFile();
+		int chunk = 1024;
+
+		// Enough records for several chunks
+		TickJournal j = new TickJournal(dir, ZoneOffset.UTC, chunk);
+		for (int i = 0; i < 50; i++) {
+			j.price(1, 4, 50 + i, 0);
+			j.option(2, 13, 0.3, 0.5, 1.2, 0, 0.01, 0.1, -0.02, 50);
+		}
+		j.close();
+
+		// Reopening continues after the last record
+		j = new TickJournal(dir, ZoneOffset.UTC, chunk);
+		j.size(1, 5, 7);
+		j.close();
+
+		File f = TickJournal.fileOf(dir, LocalDate.now(ZoneOffset.UTC));
+		ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(f.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		int prices = 0, options = 0, sizes = 0;
+		int pos = TickJournal.HEADER;
+		long last = 0;
+
+		assertEquals(TickJournal.MAGIC, b.getInt(0));
+		while (pos < b.limit()) {
+			byte type = pos % chunk + 16 > chunk ? TickJournal.PAD : b.get(pos);
+
+			if (type == TickJournal.PAD) {
+				pos = (pos / chunk + 1) * chunk;
+				continue;
+			}
+			if (type == TickJournal.END) {
+				break;
+			}
+			assertTrue(b.getLong(pos + 8) >= last);
+			last = b.getLong(pos + 8);
+
+			if (type == TickJournal.PRICE) {
+				assertEquals(50 + prices++, b.getDouble(pos + 16), 0);
+			} else if (type == TickJournal.OPTION) {
+				assertEquals(0.5, b.getDouble(pos + 24), 0);
+				options++;
+			} else {
+				assertEquals(7, b.getLong(pos + 16));
+				sizes++;
+			}
+			pos += TickJournal.length(type);
+		}
+		assertEquals(50, prices);
+		assertEquals(50, options);
+		assertEquals(1, sizes);
+		assertTrue(Math.abs(last / 1000000 - System.currentTimeMillis()) < 60000);
+
+		f.delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package sigma.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of a tick journal file. The reader is a cursor over the
+ * mapped file: next() moves to the following record and the accessors return
+ * the fields of the current record, nothing is allocated per record.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class TickReader implements AutoCloseable {
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int chunkSize;
+	private MappedByteBuffer buf;
+	private int chunk;
+	private int pos;
+	private int next;
+	private byte type;
+
+	/**
+	 * Opens the journal file
+	 * @param f journal file
+	 * @throws IOException if the file cannot be read or is not a tick journal
+	 */
+	public TickReader(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+
+		MappedByteBuffer h = channel.map(FileChannel.MapMode.READ_ONLY, 0, TickJournal.HEADER);
+		h.order(ByteOrder.LITTLE_ENDIAN);
+		if (h.getInt(0) != TickJournal.MAGIC) {
+			file.close();
+			throw new IOException("Not a tick journal " + f);
+		}
+		chunkSize = h.getInt(8);
+		map(0);
+		next = TickJournal.HEADER;
+	}
+
+	/**
+	 * Moves to the next record
+	 * @return false at the end of the data
+	 * @throws IOException if the next chunk cannot be mapped
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			if (buf == null) {
+				return(false);
+			}
+			byte t = next < buf.limit() ? buf.get(next) : TickJournal.PAD;
+
+			if (t == TickJournal.PAD) {
+				map(chunk + 1);
+				next = 0;
+				continue;
+			}
+			if (TickJournal.length(t) == 0) {
+				return(false);
+			}
+			type = t;
+			pos = next;
+			next += TickJournal.length(t);
+			return(true);
+		}
+	}
+
+	/**
+	 * @return record type, TickJournal.PRICE, SIZE or OPTION
+	 */
+	public byte type() {
+		return(type);
+	}
+
+	/**
+	 * @return tick type
+	 */
+	public int field() {
+		return(buf.get(pos + 1));
+	}
+
+	/**
+	 * @return ticker id
+	 */
+	public int tickerId() {
+		return(buf.getInt(pos + 4));
+	}
+
+	/**
+	 * @return timestamp in nanoseconds since the epoch
+	 */
+	public long time() {
+		return(buf.getLong(pos + 8));
+	}
+
+	/**
+	 * @return price of a PRICE record
+	 */
+	public double price() {
+		return(buf.getDouble(pos + 16));
+	}
+
+	/**
+	 * @return canAutoExecute flag of a PRICE record
+	 */
+	public int canAutoExecute() {
+		return(buf.getInt(pos + 24));
+	}
+
+	/**
+	 * @return size of a SIZE record
+	 */
+	public int size() {
+		return((int) buf.getLong(pos + 16));
+	}
+
+	/**
+	 * Value i of an OPTION record, in the order of tickOptionComputation():
+	 * impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice
+	 * @param i value index 0..7
+	 * @return value
+	 */
+	public double option(int i) {
+		return(buf.getDouble(pos + 16 + 8 * i));
+	}
+
+	@Override
+	public void close() throws IOException {
+		buf = null;
+		file.close();
+	}
+
+	private void map(int c) throws IOException {
+		long start = (long) c * chunkSize;
+		long len = Math.min(chunkSize, channel.size() - start);
+
+		if (len <= 0) {
+			buf = null;
+			return;
+		}
+		buf = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		chunk = c;
+	}
+}
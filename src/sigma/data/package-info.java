@@ -0,0 +1,9 @@
+/**
+ * Market data recording and replay: binary tick journal
+ * and tools for reading it back.
+ * 
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+package sigma.data;
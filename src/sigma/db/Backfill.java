@@ -0,0 +1,618 @@
+/**
+ *
+ */
+package sigma.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ib.client.Contract;
+import com.ib.client.DefaultEWrapper;
+import com.ib.client.TagValue;
+
+import sigma.data.BarSeries;
+import sigma.data.BarStore;
+import sigma.trading.TwsConnector;
+import sigma.utils.Bar;
+import sigma.utils.Helper;
+import sigma.utils.Logger;
+
+/**
+ * Backfills historical bars of many contracts over long ranges.
+ *
+ * Every contract and bar size is a job. Its range is split into chunks of the longest
+ * duration TWS serves in one request for the bar size, and a scheduler thread keeps
+ * several chunk requests in flight within the TWS historical data pacing rules: at most
+ * 60 requests in 10 minutes, fewer than 6 requests of a contract in 2 seconds and no
+ * identical request within 15 seconds, which is how long a retry waits. Pacing
+ * violations, request errors and timed out requests are retried.
+ *
+ * The bars of a chunk are collected by its request handler on the message thread. The
+ * scheduler thread commits the finished chunks of a job in time order: appends the bars
+ * to the bar store, queues them to the database writer and saves the end of the
+ * committed range in the checkpoint file. A backfill restarted with the same checkpoint
+ * file continues every job from its checkpoint. When a chunk fails for good the rest of
+ * its job is dropped, so the store gets no gaps, and a rerun starts from the failed chunk.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class Backfill implements Runnable {
+	public static final int TWS_REQUESTS = 60;
+	public static final long TWS_WINDOW = 600000;
+	public static final int TWS_CONTRACT_REQUESTS = 5;
+	public static final long TWS_CONTRACT_WINDOW = 2000;
+	public static final long TWS_RETRY_WAIT = 15000;
+	public static final int DEFAULT_IN_FLIGHT = 6;
+	public static final long DEFAULT_TIMEOUT = 120000;
+	public static final int DEFAULT_RETRIES = 3;
+
+	// Longest request duration in seconds by bar size in seconds
+	private static final long[] BAR = {1, 5, 15, 30, 60, 120, 300, 900, 3600, 86400};
+	private static final long[] CHUNK = {1800, 7200, 14400, 28800, 86400, 2 * 86400, 7 * 86400, 14 * 86400,
+			30 * 86400, 365 * 86400};
+
+	private static final DateTimeFormatter END_TIME = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss 'GMT'")
+			.withZone(ZoneOffset.UTC);
+
+	private final TwsConnector con;
+	private final BarStore store;
+	private final File checkpoint;
+	private final Logger logger;
+	private final Properties checkpoints = new Properties();
+	private BarWriter writer = null;
+
+	private int maxInFlight = DEFAULT_IN_FLIGHT;
+	private int maxRequests = TWS_REQUESTS;
+	private long window = TWS_WINDOW;
+	private int maxContractRequests = TWS_CONTRACT_REQUESTS;
+	private long contractWindow = TWS_CONTRACT_WINDOW;
+	private long retryWait = TWS_RETRY_WAIT;
+	private long timeout = DEFAULT_TIMEOUT;
+	private int retries = DEFAULT_RETRIES;
+
+	// Scheduler state, guarded by this
+	private final List<Job> jobs = new ArrayList<>();
+	private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+	private final Set<Chunk> inFlight = new HashSet<>();
+	private final ArrayDeque<Long> sent = new ArrayDeque<>();
+	private final Map<String, ArrayDeque<Long>> contractSent = new HashMap<>();
+	private long pausedUntil = 0;
+	private boolean stopped = false;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private Thread thread;
+	private volatile long requests = 0;
+	private volatile long completed = 0;
+	private volatile long failed = 0;
+	private volatile long bars = 0;
+
+	/**
+	 * Bars of one contract and bar size
+	 */
+	private static class Job {
+		final Contract contract;
+		final String symbol;
+		final String barSize;
+		final String key;
+		final BarSeries series;
+		final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+		long committed;
+
+		Job(Contract contract, String symbol, String barSize, BarSeries series) {
+			this.contract = contract;
+			this.symbol = symbol;
+			this.barSize = barSize;
+			this.key = symbol + " " + barSize;
+			this.series = series;
+		}
+	}
+
+	/**
+	 * One request of a job and the handler of its callbacks
+	 */
+	private class Chunk extends DefaultEWrapper {
+		final Job job;
+		final long start;
+		final long end;
+		final List<Bar> bars = new ArrayList<>();
+		volatile int id = -1;
+		int attempts = 0;
+		long notBefore = 0;
+		long deadline = 0;
+		boolean done = false;
+		boolean failed = false;
+
+		Chunk(Job job, long start, long end) {
+			this.job = job;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void historicalData(int reqId, String date, double open, double high, double low, double close,
+				int volume, int count, double WAP, boolean hasGaps) {
+			if (date.startsWith("finished")) {
+				finished(this, reqId);
+			} else if (reqId == id) {
+				bars.add(new Bar(job.symbol, ImportData.parseTime(date), open, high, low, close, volume,
+						count, WAP));
+			}
+		}
+
+		@Override
+		public void error(int reqId, int errorCode, String errorMsg) {
+			if (errorCode == 162 && errorMsg.contains("returned no data")) {
+				finished(this, reqId);
+			} else if (TwsConnector.endsRequest(errorCode)) {
+				retry(this, reqId, errorCode + " " + errorMsg, errorMsg.contains("pacing violation"));
+			}
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param con connector to TWS, passes the callbacks of the requests on
+	 * @param store bar store the bars are appended to, or null
+	 * @param checkpoint checkpoint file, created if missing, or null
+	 * @param logger logger for progress and errors
+	 * @throws IOException if the checkpoint file cannot be read
+	 */
+	public Backfill(TwsConnector con, BarStore store, File checkpoint, Logger logger) throws IOException {
+		this.con = con;
+		this.store = store;
+		this.checkpoint = checkpoint;
+		this.logger = logger;
+
+		if (checkpoint != null && checkpoint.exists()) {
+			try (InputStream in = new FileInputStream(checkpoint)) {
+				checkpoints.load(in);
+			}
+		}
+	}
+
+	/**
+	 * Sets the database writer the bars are queued to. The writer stores the bars with
+	 * its own bar size, so it suits jobs of that bar size.
+	 * @param writer started bar writer or null
+	 */
+	public void setWriter(BarWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * @param n maximal number of requests in flight
+	 */
+	public synchronized void setMaxInFlight(int n) {
+		maxInFlight = n;
+	}
+
+	/**
+	 * Sets the request pacing, by default that of TWS
+	 * @param requests requests allowed per window
+	 * @param window window in milliseconds
+	 * @param contractRequests requests of one contract allowed per contract window
+	 * @param contractWindow contract window in milliseconds
+	 */
+	public synchronized void setPacing(int requests, long window, int contractRequests, long contractWindow) {
+		this.maxRequests = requests;
+		this.window = window;
+		this.maxContractRequests = contractRequests;
+		this.contractWindow = contractWindow;
+	}
+
+	/**
+	 * Sets the handling of failed requests
+	 * @param retries retries of a chunk before its job is dropped
+	 * @param retryWait wait in milliseconds before a retry, also after a pacing violation
+	 * @param timeout longest wait in milliseconds for the end of a request
+	 */
+	public synchronized void setRetries(int retries, long retryWait, long timeout) {
+		this.retries = retries;
+		this.retryWait = retryWait;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Adds a job, from its checkpoint if there is one. Bars of a series are appended in
+	 * time order, so a series is backfilled from its start.
+	 * @param c contract
+	 * @param barSize bar size, e.g. "5 mins"
+	 * @param from first bar time in milliseconds since the epoch
+	 * @param to end of the range in milliseconds since the epoch
+	 * @throws IOException if the series of the job cannot be opened
+	 */
+	public synchronized void add(Contract c, String barSize, long from, long to) throws IOException {
+		String symbol = c.symbol() + " " + c.lastTradeDateOrContractMonth();
+		Job j = new Job(c, symbol, barSize, store == null ? null : store.series(symbol, barSize));
+		long chunk = chunkSeconds(barSize) * 1000L;
+
+		j.committed = Math.max(from, Long.parseLong(checkpoints.getProperty(j.key, "0")));
+		for (long t = j.committed; t < to; t += chunk) {
+			Chunk k = new Chunk(j, t, Math.min(to, t + chunk));
+
+			j.chunks.add(k);
+			queue.add(k);
+		}
+		jobs.add(j);
+		logger.verbose("Backfill {} from {}, {} requests", j.key, Instant.ofEpochMilli(j.committed), j.chunks.size());
+		notifyAll();
+	}
+
+	/**
+	 * Starts the scheduler thread
+	 */
+	public void start() {
+		thread = new Thread(this, "Backfill");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Waits for the backfill to finish
+	 * @param timeout longest wait
+	 * @param unit unit of the timeout
+	 * @return true if all jobs are done or dropped
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return(done.await(timeout, unit));
+	}
+
+	/**
+	 * Stops the scheduler and cancels the requests in flight. The committed bars
+	 * are kept and the checkpoints saved.
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopped = true;
+			for (Chunk c: inFlight) {
+				cancel(c);
+			}
+			inFlight.clear();
+			notifyAll();
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Scheduler loop: sends the chunks as the pacing allows, retries the timed out
+	 * requests and commits the finished chunks, until all jobs are done
+	 */
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				synchronized (this) {
+					long now = System.currentTimeMillis();
+
+					expire(now);
+					if (stopped || (queue.isEmpty() && inFlight.isEmpty() && !committable())) {
+						break;
+					}
+					long wait = send(now);
+
+					if (!committable()) {
+						wait(Math.max(1, Math.min(wait, timeout)));
+					}
+				}
+				commit();
+			}
+			commit();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.error(e);
+		} finally {
+			logger.log("Backfill requests {}, chunks completed {}, failed {}, bars {}", requests, completed,
+					failed, bars);
+			done.countDown();
+		}
+	}
+
+	/**
+	 * @return number of requests sent, including retries
+	 */
+	public long getRequests() {
+		return(requests);
+	}
+
+	/**
+	 * @return number of chunks committed
+	 */
+	public long getCompleted() {
+		return(completed);
+	}
+
+	/**
+	 * @return number of chunks that failed for good
+	 */
+	public long getFailed() {
+		return(failed);
+	}
+
+	/**
+	 * @return number of bars committed
+	 */
+	public long getBars() {
+		return(bars);
+	}
+
+	/**
+	 * @return number of chunks waiting to be sent
+	 */
+	public synchronized int getPending() {
+		return(queue.size());
+	}
+
+	/**
+	 * Longest request duration TWS allows for a bar size
+	 * @param barSize bar size, e.g. "5 mins"
+	 * @return duration in seconds
+	 */
+	public static long chunkSeconds(String barSize) {
+		long bar = Helper.seconds(barSize);
+
+		for (int i = 0; i < BAR.length; i++) {
+			if (bar <= BAR[i]) {
+				return(CHUNK[i]);
+			}
+		}
+		return(CHUNK[CHUNK.length - 1]);
+	}
+
+	/**
+	 * Request duration covering a number of seconds, in seconds up to a day and in
+	 * whole days above that
+	 * @param seconds length of the range
+	 * @return duration setting, e.g. "3600 S" or "7 D"
+	 */
+	public static String duration(long seconds) {
+		if (seconds <= 86400) {
+			return(seconds + " S");
+		}
+		return((seconds + 86399) / 86400 + " D");
+	}
+
+	/**
+	 * Sends the next chunks the pacing allows
+	 * @return milliseconds until the next chunk may be sent
+	 */
+	private long send(long now) {
+		if (now < pausedUntil) {
+			return(pausedUntil - now);
+		}
+		while (inFlight.size() < maxInFlight && !queue.isEmpty()) {
+			long wait = delay(sent, maxRequests, window, now);
+
+			if (wait > 0) {
+				return(wait);
+			}
+
+			// First chunk that is not waiting for a retry or for its contract's pacing
+			Chunk c = null;
+			wait = Long.MAX_VALUE;
+			for (Iterator<Chunk> i = queue.iterator(); i.hasNext() && c == null; ) {
+				Chunk k = i.next();
+				long w = Math.max(k.notBefore - now, delay(contract(k.job), maxContractRequests,
+						contractWindow, now));
+
+				if (w <= 0) {
+					c = k;
+					i.remove();
+				} else {
+					wait = Math.min(wait, w);
+				}
+			}
+			if (c == null) {
+				return(wait);
+			}
+
+			long to = c.end / 1000;
+			List<TagValue> options = null;
+
+			c.bars.clear();
+			c.attempts++;
+			c.deadline = now + timeout;
+			c.id = con.nextRequestId(c);
+			inFlight.add(c);
+			sent.addLast(now);
+			contract(c.job).addLast(now);
+			requests++;
+			con.getTws().reqHistoricalData(c.id, c.job.contract, END_TIME.format(Instant.ofEpochSecond(to)),
+					duration(to - c.start / 1000), c.job.barSize, "TRADES", 0, 2, options);
+		}
+		return(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Retries the requests that have not ended in time
+	 */
+	private void expire(long now) {
+		List<Chunk> expired = new ArrayList<>();
+
+		for (Chunk c: inFlight) {
+			if (c.deadline <= now) {
+				expired.add(c);
+			}
+		}
+		for (Chunk c: expired) {
+			cancel(c);
+			retry(c, c.id, "request timed out", false);
+		}
+	}
+
+	private void cancel(Chunk c) {
+		if (con.isConnected()) {
+			con.getTws().cancelHistoricalData(c.id);
+		}
+		con.releaseRequestId(c.id);
+	}
+
+	/**
+	 * End of the data of a chunk, called on the message thread
+	 */
+	private synchronized void finished(Chunk c, int reqId) {
+		if (reqId == c.id && inFlight.remove(c)) {
+			c.done = true;
+			c.id = -1;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Failed request of a chunk, queued again or its job dropped after too many attempts
+	 */
+	private synchronized void retry(Chunk c, int reqId, String reason, boolean pacing) {
+		if (reqId != c.id || !inFlight.remove(c)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+
+		c.id = -1;
+		if (pacing) {
+			pausedUntil = now + retryWait;
+		}
+		if (c.attempts > retries) {
+			logger.error("Backfill {} {} failed: {}", c.job.key, Instant.ofEpochMilli(c.start), reason);
+			c.done = true;
+			c.failed = true;
+			queue.removeIf(k -> k.job == c.job);
+		} else {
+			logger.verbose("Backfill {} {} retry: {}", c.job.key, Instant.ofEpochMilli(c.start), reason);
+			c.notBefore = now + retryWait;
+			queue.addFirst(c);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return true if the first uncommitted chunk of a job is done
+	 */
+	private boolean committable() {
+		for (Job j: jobs) {
+			if (!j.chunks.isEmpty() && j.chunks.peekFirst().done) {
+				return(true);
+			}
+		}
+		return(false);
+	}
+
+	/**
+	 * Writes the finished chunks at the start of every job and saves the checkpoints
+	 */
+	private void commit() throws IOException, InterruptedException {
+		boolean changed = false;
+
+		for (Job j: jobs()) {
+			List<Chunk> l = new ArrayList<>();
+
+			synchronized (this) {
+				while (!j.chunks.isEmpty() && j.chunks.peekFirst().done) {
+					Chunk c = j.chunks.pollFirst();
+
+					if (c.failed) {
+						failed++;
+						j.chunks.clear();
+						break;
+					}
+					l.add(c);
+				}
+			}
+			for (Chunk c: l) {
+				for (Bar b: c.bars) {
+					if (b.getTime() < c.start || b.getTime() >= c.end) {
+						continue;
+					}
+					if (j.series != null) {
+						j.series.append(b.getTime(), b.getOpen(), b.getHigh(), b.getLow(), b.getClose(),
+								b.getVolume());
+					}
+					if (writer != null) {
+						writer.put(b);
+					}
+					bars++;
+				}
+				j.committed = c.end;
+				completed++;
+			}
+			if (!l.isEmpty()) {
+				if (j.series != null) {
+					j.series.flush();
+				}
+				checkpoints.setProperty(j.key, Long.toString(j.committed));
+				changed = true;
+			}
+		}
+		if (changed) {
+			save();
+		}
+	}
+
+	private synchronized List<Job> jobs() {
+		return(new ArrayList<>(jobs));
+	}
+
+	/**
+	 * Writes the checkpoints to a temporary file and moves it over the checkpoint file
+	 */
+	private void save() throws IOException {
+		if (checkpoint == null) {
+			return;
+		}
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			checkpoints.store(out, "Backfill checkpoints, end of the committed range in ms since the epoch");
+		}
+		Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private ArrayDeque<Long> contract(Job j) {
+		return(contractSent.computeIfAbsent(j.contract.symbol() + " " + j.contract.lastTradeDateOrContractMonth()
+				+ " " + j.contract.exchange(), k -> new ArrayDeque<>()));
+	}
+
+	/**
+	 * Time until a request fits a sliding window
+	 * @param times send times in the window, the expired ones are removed
+	 * @return 0 if a request may be sent now, otherwise milliseconds to wait
+	 */
+	private static long delay(ArrayDeque<Long> times, int max, long window, long now) {
+		while (!times.isEmpty() && times.peekFirst() <= now - window) {
+			times.pollFirst();
+		}
+		if (times.size() < max) {
+			return(0);
+		}
+		return(times.peekFirst() + window - now);
+	}
+}
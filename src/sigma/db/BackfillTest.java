@@ -0,0 +1,161 @@
+/**
+ *
+ */
+package sigma.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Types.SecType;
+
+import sigma.data.BarSeries;
+import sigma.data.BarStore;
+import sigma.trading.TwsConnector;
+import sigma.trading.TwsSimulator;
+import sigma.utils.LogLevel;
+import sigma.utils.Logger;
+
+/**
+ * Unit testing for the historical data backfill, against the TWS simulator
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class BackfillTest {
+	private static final long T0 = 1500000000000L;
+	private static final long DAY = 86400000L;
+	private static final long BAR = 300000L;
+
+	private File dir;
+	private TwsSimulator sim;
+	private Client con;
+
+	private static class Client extends TwsConnector {
+		final CountDownLatch ready = new CountDownLatch(1);
+
+		Client() {
+			super("Backfill test", LogLevel.ERROR);
+		}
+
+		@Override
+		public void nextValidId(int orderId) {
+			super.nextValidId(orderId);
+			ready.countDown();
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("backfill").toFile();
+		sim = new TwsSimulator(0);
+		sim.start();
+		con = new Client();
+		con.twsConnect("127.0.0.1", sim.getPort());
+		assertTrue(con.ready.await(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void tearDown() {
+		con.twsDisconnect();
+		sim.close();
+		delete(dir);
+	}
+
+	private static void delete(File f) {
+		File[] l = f.listFiles();
+
+		if (l != null) {
+			for (File x: l) {
+				delete(x);
+			}
+		}
+		f.delete();
+	}
+
+	private static Contract contract(String expiry) {
+		Contract c = new Contract();
+
+		c.symbol("CL");
+		c.secType(SecType.FUT);
+		c.exchange("NYMEX");
+		c.currency("USD");
+		c.lastTradeDateOrContractMonth(expiry);
+		return(c);
+	}
+
+	private Backfill backfill(BarStore store, File checkpoint) throws IOException {
+		Backfill b = new Backfill(con, store, checkpoint, new Logger(LogLevel.ERROR));
+
+		b.setPacing(100, 1000, 100, 1000);
+		b.setRetries(20, 50, 5000);
+		return(b);
+	}
+
+	@Test
+	public void testBackfill() throws Exception {
+		File checkpoint = new File(dir, "backfill.properties");
+
+		// Pacing of the simulator is stricter than that of the backfill
+		sim.setHistoricalPacing(3, 200);
+
+		try (BarStore store = new BarStore(new File(dir, "bars"))) {
+			Backfill b = backfill(store, checkpoint);
+
+			b.add(contract("201712"), "5 mins", T0, T0 + 30 * DAY);
+			b.add(contract("201801"), "5 mins", T0, T0 + 30 * DAY);
+			b.start();
+			assertTrue(b.await(20, TimeUnit.SECONDS));
+
+			assertEquals(0, b.getFailed());
+			assertEquals(10, b.getCompleted());
+			assertEquals(2 * 30 * 288, b.getBars());
+			assertTrue(b.getRequests() >= 10);
+
+			for (String expiry: new String[] {"201712", "201801"}) {
+				BarSeries s = store.series("CL " + expiry, "5 mins");
+
+				assertEquals(30 * 288, s.size());
+				for (int i = 0; i < s.size(); i++) {
+					assertEquals(T0 + i * BAR, s.getTime(i));
+				}
+			}
+		}
+
+		// A rerun continues from the checkpoints
+		sim.setHistoricalPacing(0, 0);
+		long before = sim.getHistoricalRequests();
+
+		try (BarStore store = new BarStore(new File(dir, "bars"))) {
+			Backfill b = backfill(store, checkpoint);
+
+			b.add(contract("201712"), "5 mins", T0, T0 + 31 * DAY);
+			b.start();
+			assertTrue(b.await(20, TimeUnit.SECONDS));
+
+			assertEquals(1, b.getRequests());
+			assertEquals(1, sim.getHistoricalRequests() - before);
+			assertEquals(31 * 288, store.series("CL 201712", "5 mins").size());
+			assertEquals(30 * 288, store.series("CL 201801", "5 mins").size());
+		}
+	}
+
+	@Test
+	public void testDuration() {
+		assertEquals(7 * 86400, Backfill.chunkSeconds("5 mins"));
+		assertEquals(1800, Backfill.chunkSeconds("1 secs"));
+		assertEquals(365 * 86400, Backfill.chunkSeconds("1 day"));
+		assertEquals("3600 S", Backfill.duration(3600));
+		assertEquals("2 D", Backfill.duration(86401));
+	}
+}
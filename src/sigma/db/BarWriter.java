@@ -0,0 +1,317 @@
+/**
+ *
+ */
+package sigma.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import sigma.utils.Bar;
+import sigma.utils.Logger;
+
+/**
+ * Writes price bars to the database in batches.
+ *
+ * Bars are put into a bounded queue, e.g. from the historicalData() callbacks, and
+ * a writer thread inserts them with PreparedStatement batches, one transaction per
+ * batch. A batch is written when it is full or when the flush interval has passed
+ * since its first bar. put() blocks while the queue is full, which holds back the
+ * TWS message thread until the database catches up. If the writer thread stops on
+ * a database error, put() fails instead of blocking and the bars left in the queue
+ * are counted as failed.
+ *
+ * Bars already in the table are updated, so overlapping imports can be repeated.
+ * With MySQL, rewriteBatchedStatements=true in the connection URL sends a batch as
+ * one multi-row INSERT.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class BarWriter implements Runnable, AutoCloseable {
+	public static final int DEFAULT_CAPACITY = 65536;
+	public static final int DEFAULT_BATCH = 1000;
+	public static final long DEFAULT_FLUSH = 1000;
+	// How often a blocked put() checks that the writer thread is still running, ms
+	private static final long PUT_CHECK = 100;
+
+	public static final String CREATE = "CREATE TABLE IF NOT EXISTS bars ("
+			+ "symbol VARCHAR(32) NOT NULL, "
+			+ "bar_size VARCHAR(16) NOT NULL, "
+			+ "time DATETIME NOT NULL, "
+			+ "open DOUBLE, high DOUBLE, low DOUBLE, close DOUBLE, "
+			+ "volume BIGINT, count INT, wap DOUBLE, "
+			+ "PRIMARY KEY (symbol, bar_size, time))";
+
+	public static final String INSERT = "INSERT INTO bars "
+			+ "(symbol, bar_size, time, open, high, low, close, volume, count, wap) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+			+ "ON DUPLICATE KEY UPDATE open = VALUES(open), high = VALUES(high), low = VALUES(low), "
+			+ "close = VALUES(close), volume = VALUES(volume), count = VALUES(count), wap = VALUES(wap)";
+
+	private final Connection conn;
+	private final String barSize;
+	private final Logger logger;
+	private final BlockingQueue<Bar> queue;
+	private int batchSize = DEFAULT_BATCH;
+	private long flushInterval = DEFAULT_FLUSH;
+
+	private volatile boolean closing = false;
+	private volatile boolean stopped = false;
+	private Thread thread;
+	private volatile long written = 0;
+	private volatile long failed = 0;
+	private volatile long batches = 0;
+
+	/**
+	 * Writer with the default queue capacity
+	 * @param conn database connection, used only by the writer thread
+	 * @param barSize bar size stored with the bars, e.g. "5 mins"
+	 * @param logger logger for database errors
+	 */
+	public BarWriter(Connection conn, String barSize, Logger logger) {
+		this(conn, barSize, logger, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param conn database connection, used only by the writer thread
+	 * @param barSize bar size stored with the bars, e.g. "5 mins"
+	 * @param logger logger for database errors
+	 * @param capacity number of bars the queue holds
+	 */
+	public BarWriter(Connection conn, String barSize, Logger logger, int capacity) {
+		this.conn = conn;
+		this.barSize = barSize;
+		this.logger = logger;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Creates the bars table if it does not exist
+	 * @param conn database connection
+	 * @throws SQLException on database error
+	 */
+	public static void createTable(Connection conn) throws SQLException {
+		try (Statement s = conn.createStatement()) {
+			s.execute(CREATE);
+		}
+	}
+
+	/**
+	 * @param batchSize maximum number of bars per batch and transaction
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param flushInterval longest time in milliseconds a bar waits for its batch to fill
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Starts the writer thread
+	 */
+	public void start() {
+		thread = new Thread(this, "Bar writer");
+		thread.start();
+	}
+
+	/**
+	 * Queues a bar, waits while the queue is full
+	 * @param b bar
+	 * @throws IOException if the writer thread has stopped
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void put(Bar b) throws IOException, InterruptedException {
+		if (closing) {
+			throw new IllegalStateException("Bar writer is closed");
+		}
+		do {
+			if (stopped) {
+				throw new IOException("Bar writer has stopped");
+			}
+		} while (!queue.offer(b, PUT_CHECK, TimeUnit.MILLISECONDS));
+
+		// The writer may have stopped and drained the queue meanwhile
+		if (stopped && queue.remove(b)) {
+			throw new IOException("Bar writer has stopped");
+		}
+	}
+
+	/**
+	 * Writes the queued bars and stops the writer thread
+	 */
+	@Override
+	public void close() {
+		closing = true;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Writer loop, runs until closed and the queue is empty
+	 */
+	@Override
+	public void run() {
+		List<Bar> drained = new ArrayList<>(batchSize);
+		boolean autoCommit = true;
+		int pending = 0;
+
+		try {
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+		} catch (SQLException e) {
+			logger.error(e);
+			stop(0);
+			return;
+		}
+
+		try (PreparedStatement ps = conn.prepareStatement(INSERT)) {
+			long deadline = 0;
+
+			while (!closing || !queue.isEmpty() || pending > 0) {
+				long wait = pending == 0 ? flushInterval : deadline - System.currentTimeMillis();
+				Bar b = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+
+				if (b != null) {
+					if (pending == 0) {
+						deadline = System.currentTimeMillis() + flushInterval;
+					}
+					add(ps, b);
+					pending++;
+
+					drained.clear();
+					queue.drainTo(drained, batchSize - pending);
+					for (Bar d: drained) {
+						add(ps, d);
+					}
+					pending += drained.size();
+				}
+
+				if (pending > 0 && (pending >= batchSize || closing || System.currentTimeMillis() >= deadline)) {
+					flush(ps, pending);
+					pending = 0;
+				}
+			}
+		} catch (SQLException e) {
+			logger.error(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			stop(pending);
+			try {
+				conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				logger.error(e);
+			}
+		}
+	}
+
+	/**
+	 * Marks the writer stopped and counts the bars it did not write as failed
+	 * @param pending bars added to the batch but not flushed
+	 */
+	private void stop(int pending) {
+		stopped = true;
+
+		int lost = pending;
+		while (queue.poll() != null) {
+			lost++;
+		}
+		if (lost > 0) {
+			failed += lost;
+			logger.error("Bar writer stopped, {} bars not written", lost);
+		}
+	}
+
+	private void add(PreparedStatement ps, Bar b) throws SQLException {
+		ps.setString(1, b.getSymbol());
+		ps.setString(2, barSize);
+		ps.setTimestamp(3, new Timestamp(b.getTime()));
+		ps.setDouble(4, b.getOpen());
+		ps.setDouble(5, b.getHigh());
+		ps.setDouble(6, b.getLow());
+		ps.setDouble(7, b.getClose());
+		ps.setLong(8, b.getVolume());
+		ps.setInt(9, b.getCount());
+		ps.setDouble(10, b.getWap());
+		ps.addBatch();
+	}
+
+	/**
+	 * Executes and commits the batch, a failed batch is rolled back and dropped
+	 */
+	private void flush(PreparedStatement ps, int n) {
+		try {
+			ps.executeBatch();
+			conn.commit();
+			written += n;
+			batches++;
+		} catch (SQLException e) {
+			logger.error("Batch of {} bars failed: {}", n, e.getMessage());
+			failed += n;
+			try {
+				ps.clearBatch();
+				conn.rollback();
+			} catch (SQLException ex) {
+				logger.error(ex);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the writer thread has finished, after close() or on an error
+	 */
+	public boolean isStopped() {
+		return(stopped);
+	}
+
+	/**
+	 * @return number of bars waiting in the queue
+	 */
+	public int getQueued() {
+		return(queue.size());
+	}
+
+	/**
+	 * @return number of bars committed
+	 */
+	public long getWritten() {
+		return(written);
+	}
+
+	/**
+	 * @return number of bars in failed batches
+	 */
+	public long getFailed() {
+		return(failed);
+	}
+
+	/**
+	 * @return number of batches committed
+	 */
+	public long getBatches() {
+		return(batches);
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package sigma.db;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import sigma.utils.Bar;
+import sigma.utils.LogLevel;
+import sigma.utils.Logger;
+
+/**
+ * Unit testing for batched bar writes, against a recording stand-in for the JDBC
+ * connection
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class BarWriterTest {
+
+	/**
+	 * Records the calls of the writer thread
+	 */
+	private static class Recorder {
+		final List<Integer> batches = new ArrayList<>();
+		int rows = 0;
+		int commits = 0;
+		int rollbacks = 0;
+		boolean autoCommit = true;
+		boolean fail = false;
+		boolean failAutoCommit = false;
+
+		Connection connection() {
+			PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {PreparedStatement.class}, (p, m, a) -> {
+						switch (m.getName()) {
+						case "addBatch":
+							rows++;
+							return(null);
+						case "executeBatch":
+							if (fail) {
+								throw new SQLException("Fail");
+							}
+							batches.add(rows);
+							int[] r = new int[rows];
+							rows = 0;
+							return(r);
+						case "clearBatch":
+							rows = 0;
+							return(null);
+						default:
+							return(null);
+						}
+					});
+
+			return((Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {Connection.class}, (p, m, a) -> {
+						switch (m.getName()) {
+						case "prepareStatement":
+							assertEquals(BarWriter.INSERT, a[0]);
+							return(ps);
+						case "getAutoCommit":
+							return(autoCommit);
+						case "setAutoCommit":
+							if (failAutoCommit) {
+								throw new SQLException("Connection lost");
+							}
+							autoCommit = (Boolean) a[0];
+							return(null);
+						case "commit":
+							assertFalse(autoCommit);
+							commits++;
+							return(null);
+						case "rollback":
+							rollbacks++;
+							return(null);
+						default:
+							return(null);
+						}
+					}));
+		}
+	}
+
+	private static Bar bar(int i) {
+		return(new Bar("CL 201712", 1500000000000L + i * 300000L, 50, 51, 49, 50.5, 100, 10, 50.2));
+	}
+
+	@Test
+	public void testBatches() throws IOException, InterruptedException {
+		Recorder rec = new Recorder();
+		BarWriter w = new BarWriter(rec.connection(), "5 mins", new Logger(LogLevel.ERROR), 100);
+
+		w.setBatchSize(40);
+		w.setFlushInterval(60000);
+		w.start();
+		for (int i = 0; i < 1000; i++) {
+			w.put(bar(i));
+		}
+		w.close();
+
+		assertEquals(1000, w.getWritten());
+		assertEquals(0, w.getQueued());
+		assertEquals(w.getBatches(), rec.commits);
+		assertEquals(rec.commits, rec.batches.size());
+		for (int n: rec.batches) {
+			assertTrue(n > 0 && n <= 40);
+		}
+		assertTrue(rec.autoCommit);
+	}
+
+	@Test
+	public void testFlushInterval() throws IOException, InterruptedException {
+		Recorder rec = new Recorder();
+		BarWriter w = new BarWriter(rec.connection(), "5 mins", new Logger(LogLevel.ERROR));
+
+		w.setFlushInterval(20);
+		w.start();
+		w.put(bar(0));
+		w.put(bar(1));
+
+		long end = System.currentTimeMillis() + 5000;
+		while (w.getWritten() < 2 && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+		assertEquals(2, w.getWritten());
+		w.close();
+	}
+
+	@Test
+	public void testFailedBatch() throws IOException, InterruptedException {
+		Recorder rec = new Recorder();
+		BarWriter w = new BarWriter(rec.connection(), "5 mins", new Logger(LogLevel.ERROR));
+
+		rec.fail = true;
+		w.start();
+		w.put(bar(0));
+		w.close();
+
+		assertEquals(0, w.getWritten());
+		assertEquals(1, w.getFailed());
+		assertEquals(1, rec.rollbacks);
+	}
+
+	@Test
+	public void testWriterStops() throws IOException, InterruptedException {
+		Recorder rec = new Recorder();
+		BarWriter w = new BarWriter(rec.connection(), "5 mins", new Logger(LogLevel.ERROR), 2);
+
+		// The writer thread dies at once, put() must not block on the full queue
+		rec.failAutoCommit = true;
+		w.put(bar(0));
+		w.put(bar(1));
+		w.start();
+		try {
+			w.put(bar(2));
+			fail();
+		} catch (IOException e) {
+			assertTrue(w.isStopped());
+		}
+		w.close();
+		assertEquals(2, w.getFailed());
+		assertEquals(0, w.getQueued());
+	}
+
+	@Test
+	public void testParseTime() {
+		assertEquals(1500000000000L, ImportData.parseTime("1500000000"));
+		assertEquals(ImportData.parseTime("20170714"), ImportData.parseTime("20170714  00:00:00"));
+	}
+}
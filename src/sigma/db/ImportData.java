@@ -3,34 +3,57 @@
  */
 package sigma.db;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.ib.client.Contract;
 import com.ib.client.TagValue;
 import com.ib.client.Types.SecType;
 
+import sigma.data.BarSeries;
+import sigma.data.BarStore;
 import sigma.trading.TwsConnector;
+import sigma.utils.Bar;
 
 /**
- * Loads historic data from TWS into database
+ * Loads historic data from TWS into database.
+ * 
+ * The historicalData() callbacks queue the bars to a BarWriter, which inserts
+ * them in batched transactions on its own thread, and append them to the local
+ * bar store if one is set. Long ranges of many contracts are loaded with
+ * backfill(), in chunks and with several requests at a time.
  * 
  * @author Peeter Meos
- * @version 0.1
+ * @version 0.2
  */
 public class ImportData extends TwsConnector {
+	private static final DateTimeFormatter BAR_TIME = DateTimeFormatter.ofPattern("yyyyMMdd  HH:mm:ss");
 
 	// TWS stuff
 	protected Contract c = null;
+	protected String duration = "1 M";
+	protected String barSize = "5 mins";
+	protected CountDownLatch finished = null;
 	
 	// MySQL stuff
 	protected Connection conn = null;
-	protected Statement stmt = null;
-	protected ResultSet rs = null;
+	protected BarWriter writer = null;
+	protected int batchSize = BarWriter.DEFAULT_BATCH;
+	protected long flushInterval = BarWriter.DEFAULT_FLUSH;
+	
+	// Local columnar store, off when null
+	protected BarStore store = null;
+	protected BarSeries series = null;
 	
 	private String server = "sigma-db.cq2omyeocnub.us-east-1.rds.amazonaws.com";
 	private String db = "trading";
@@ -52,14 +75,36 @@ public class ImportData extends TwsConnector {
 	
 	
 	/**
-	 * Historical data request from tws
+	 * Sets the batching of the database writes, takes effect on dbConnect()
+	 * @param batchSize bars per batch and transaction
+	 * @param flushInterval longest time in milliseconds a bar waits for its batch
+	 */
+	public void setBatching(int batchSize, long flushInterval) {
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+	}
+	
+	/**
+	 * Sets the local bar store the imported bars are appended to
+	 * @param store bar store or null
+	 * @throws IOException if the series of the contract cannot be opened
+	 */
+	public void setStore(BarStore store) throws IOException {
+		this.store = store;
+		series = store == null ? null : store.series(c.symbol() + " " + c.lastTradeDateOrContractMonth(), barSize);
+	}
+	
+	/**
+	 * Historical data request from tws, bar times are requested in epoch seconds
 	 */
 	public void reqData() {
 		String endDateTime = "";
-		int formatDate = 0;
+		int formatDate = 2;
 		List<TagValue> chartOptions = null;
 		
-		this.getTws().reqHistoricalData(1, c, endDateTime, "! M", "5 min", "MID", 0, formatDate, chartOptions);
+		finished = new CountDownLatch(1);
+		this.getTws().reqHistoricalData(nextRequestId(), c, endDateTime, duration, barSize, "TRADES", 0, 
+				formatDate, chartOptions);
 	}
 	
 	/**
@@ -68,55 +113,143 @@ public class ImportData extends TwsConnector {
 	@Override
 	public void historicalData(int reqId, String date, double open, double high, double low, double close, int volume,
 			int count, double WAP, boolean hasGaps) {
-		logger.log("Historical data received: " + date + " : " + close);		
+		// Backfill requests have handlers of their own
+		if (requests.get(reqId) != null) {
+			super.historicalData(reqId, date, open, high, low, close, volume, count, WAP, hasGaps);
+			return;
+		}
+		if (date.startsWith("finished")) {
+			logger.log("Historical data finished: {}", date);
+			releaseRequestId(reqId);
+			if (finished != null) {
+				finished.countDown();
+			}
+			return;
+		}
+		
+		long time = parseTime(date);
+		
+		try {
+			if (series != null) {
+				series.append(time, open, high, low, close, volume);
+			}
+			if (writer != null) {
+				writer.put(new Bar(c.symbol() + " " + c.lastTradeDateOrContractMonth(), time, 
+						open, high, low, close, volume, count, WAP));
+			}
+		} catch (IOException e) {
+			logger.error(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Parses the time of a historical bar
+	 * @param date epoch seconds (formatDate 2), yyyyMMdd for daily bars or yyyyMMdd  HH:mm:ss
+	 * @return time in milliseconds since the epoch
+	 */
+	public static long parseTime(String date) {
+		if (date.length() == 8) {
+			return(LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE)
+					.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+		}
+		if (date.indexOf(' ') < 0) {
+			return(Long.parseLong(date) * 1000L);
+		}
+		return(LocalDateTime.parse(date, BAR_TIME).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
 	}
 	
 	/**
-	 * Simple database connection
+	 * Simple database connection, starts the bar writer
 	 */
 	public void dbConnect() {
 	    try {
 			conn = DriverManager.getConnection("jdbc:mysql://" + server + "/" + db + "?" +
-				                               "user=" + uid + "&password=" + pwd);
+				                               "user=" + uid + "&password=" + pwd +
+				                               "&rewriteBatchedStatements=true");
+			BarWriter.createTable(conn);
+			
+			writer = new BarWriter(conn, barSize, logger);
+			writer.setBatchSize(batchSize);
+			writer.setFlushInterval(flushInterval);
+			writer.start();
 		} catch (SQLException e) {
 			logger.error(e);
 		}
 	}
 	
 	/**
-	 * Data injection into database
+	 * Data injection into database, requests the data and waits for all of it
+	 * to arrive. The bars are written by the bar writer meanwhile.
+	 * @param timeout longest wait in seconds
+	 * @return true if the request finished in time
 	 */
-	public void importData() {
+	public boolean importData(long timeout) {
+		if (writer == null && series == null) {
+			logger.error("Cannot import data, no database or bar store.");
+			return(false);
+		}
+		
+		reqData();
 		try {
-		    // Do something with the Connection
-		    stmt = conn.createStatement();
-		    rs = stmt.executeQuery("INSERT INTO foo FROM bar");
-		} catch (SQLException e) {
+			return(finished.await(timeout, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return(false);
+		}
+	}
+	
+	/**
+	 * Backfills the bars of contracts over a range, continuing from the checkpoints of
+	 * an earlier run. The bars go to the database and the bar store that are set.
+	 * @param contracts contracts, e.g. the expiries of a future
+	 * @param from first bar time in milliseconds since the epoch
+	 * @param to end of the range in milliseconds since the epoch
+	 * @param checkpoint checkpoint file
+	 * @param timeout longest wait in seconds
+	 * @return true if the backfill finished in time
+	 */
+	public boolean backfill(List<Contract> contracts, long from, long to, File checkpoint, long timeout) {
+		try {
+			Backfill b = new Backfill(this, store, checkpoint, logger);
+			
+			b.setWriter(writer);
+			for (Contract x: contracts) {
+				b.add(x, barSize, from, to);
+			}
+			b.start();
+			if (!b.await(timeout, TimeUnit.SECONDS)) {
+				b.stop();
+				return(false);
+			}
+			return(b.getFailed() == 0);
+		} catch (IOException e) {
 			logger.error(e);
-		} finally {
-		    if (rs != null) {
-		        try {
-		            rs.close();
-		        } catch (SQLException sqlEx) { } // ignore
-
-		        rs = null;
-		    }
-
-		    if (stmt != null) {
-		        try {
-		            stmt.close();
-		        } catch (SQLException sqlEx) { } // ignore
-
-		        stmt = null;
-		    }			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		return(false);
 	}
 	
 	/**
-	 * Release resources
+	 * Release resources, writes the bars still queued
 	 */
 	public void dbDisconnect() {
-		// Do stuff here
+		if (writer != null) {
+			writer.close();
+			logger.log("Bars written {} in {} batches, failed {}", writer.getWritten(), 
+					writer.getBatches(), writer.getFailed());
+			writer = null;
+		}
+		if (conn != null) {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				logger.error(e);
+			}
+			conn = null;
+		}
 	}
 	
 	/** 
@@ -133,13 +266,11 @@ public class ImportData extends TwsConnector {
 		// Open database
 		t.dbConnect();
 		
-		// Request data 
-		
-		// Save results to database
-		t.importData();
+		// Request data and save results to database
+		t.importData(600);
 		
-		// Loop until finished
 		// Close database
+		t.dbDisconnect();
 		
 		t.twsDisconnect();
 	}
@@ -1,6 +1,7 @@
 package sigma.gui;
 
 import sigma.trading.Instrument;
+import sigma.trading.LatencyMonitor;
 import sigma.trading.TwsConnector;
 import sigma.utils.Ticker;
 import sigma.utils.TraderState;
@@ -21,6 +22,8 @@ import javax.swing.JTextArea;
 import javax.swing.JLabel;
 import javax.swing.JButton;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +45,7 @@ public class NewsTrader {
 	private Thread procThread;
 	
 	private List<Instrument> portfolio = null; 
+	private List<Integer> tickerIds = new ArrayList<>();
 
 	String[] columnNames = {"Contract", "Bid", "Ask", "Last", "Status"};
 	
@@ -130,6 +134,10 @@ public class NewsTrader {
 		
 		con = new Connector("Sigma News Trader");	
 		
+		// Latency snapshot every 10 seconds, shown with the Latency button
+		con.setLatencyMonitor(new LatencyMonitor());
+		con.getLatencyMonitor().start(10000, null);
+		
 	    // Start message thread
 	    //Task myTask = new Task();
 	    //procThread = new Thread(myTask, "T1");
@@ -211,6 +219,18 @@ public class NewsTrader {
 		gbcLblTraderStatus.gridy = 2;
 		frame.getContentPane().add(lblTraderStatus, gbcLblTraderStatus);
 		
+		// Latency button
+		JButton btnLatency = new JButton("Latency");
+		btnLatency.setActionCommand("Latency");
+		btnLatency.addActionListener(new ButtonClickListener());
+		
+		GridBagConstraints gbcBtnLatency = new GridBagConstraints();
+		gbcBtnLatency.anchor = GridBagConstraints.EAST;
+		gbcBtnLatency.insets = new Insets(0, 0, 5, 0);
+		gbcBtnLatency.gridx = 3;
+		gbcBtnLatency.gridy = 2;
+		frame.getContentPane().add(btnLatency, gbcBtnLatency);
+		
 		// Portfolio table
 		JScrollPane scrollPaneStatusTable = new JScrollPane();
 		GridBagConstraints gbcScrollPaneStatusTable = new GridBagConstraints();
@@ -296,11 +316,25 @@ public class NewsTrader {
 	    		for(int i=0; i < portfolio.size(); i++) {
 	    			portfolio.get(i).createContract();
 	    			con.log(portfolio.get(i).toString());
-	    			con.reqMktData(i, portfolio.get(i).getInst());
+	    			int id = con.nextRequestId();
+	    			tickerIds.add(id);
+	    			con.reqMktData(id, portfolio.get(i).getInst());
 	    		}
 	         } else if( command.equals( "Disconnect" ) )  {
 	        	 // Order cancellations need to go here
+	    		for(int id: tickerIds) {
+	    			con.cancelMktData(id);
+	    		}
+	    		tickerIds.clear();
 	    		con.twsDisconnect();
+	         } else if( command.equals( "Latency" ) )  {
+	        	 // Show the last snapshot and keep it for later analysis
+	        	 con.log("Tick-to-order latency\n" + con.getLatencyMonitor().report());
+	        	 try {
+	        		 con.getLatencyMonitor().export(new File("latency.csv"));
+	        	 } catch (IOException ex) {
+	        		 ex.printStackTrace();
+	        	 }
 	         } else if( command.equals( "Exit" ) )  {
 	        	 // Order cancellations need to be added here
 	        	 if(con.getTws().isConnected()) {	    		   
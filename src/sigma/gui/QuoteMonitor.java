@@ -42,6 +42,7 @@ public class QuoteMonitor {
 	private JScrollPane scrollPane;
 	
 	private List<Instrument> portfolio;
+	private List<Integer> tickerIds = new ArrayList<>();
 	
 	private PrintStream printStream;
 	
@@ -113,9 +114,10 @@ public class QuoteMonitor {
 	       @Override
 	       public void windowClosing(WindowEvent windowEvent){
 	    	   if(con.getTws().isConnected()) {
-	    		   for(int i = 0; i < portfolio.size(); i++) {
-	    			   con.getTws().cancelMktData(i + 1);
+	    		   for(int id: tickerIds) {
+	    			   con.cancelMktData(id);
 	    		   }
+	    		   tickerIds.clear();
 	    		   
 	    		   con.twsDisconnect();   
 	    	   }
@@ -193,9 +195,11 @@ public class QuoteMonitor {
 				}
 				
 				// request contract id
-				con.getTws().reqContractDetails(con.getOrderID(), c);
+				con.getTws().reqContractDetails(con.nextRequestId(), c);
 				// request live data
-				con.getTws().reqMktData(portfolio.indexOf(i) + 1, c, genericTickList, false, mktDataOptions);
+				int id = con.nextRequestId();
+				tickerIds.add(id);
+				con.getTws().reqMktData(id, c, genericTickList, false, mktDataOptions);
 				
 			}
 		}
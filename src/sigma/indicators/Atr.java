@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Average true range with Wilder's smoothing. The true range of a bar is its range
+ * extended to the previous close: max(high, prevClose) - min(low, prevClose).
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class Atr implements Indicator {
+	private final Ema ema;
+	private double prevClose = Double.NaN;
+
+	/**
+	 * Constructor
+	 * @param period number of bars, e.g. 14
+	 */
+	public Atr(int period) {
+		ema = new Ema(period, 1.0 / period);
+	}
+
+	/**
+	 * Adds a bar
+	 * @param high high price
+	 * @param low low price
+	 * @param close close price
+	 * @return average true range
+	 */
+	public double update(double high, double low, double close) {
+		double tr = Double.isNaN(prevClose) ? high - low : Math.max(high, prevClose) - Math.min(low, prevClose);
+
+		prevClose = close;
+		return(ema.update(tr));
+	}
+
+	@Override
+	public double getValue() {
+		return(ema.getValue());
+	}
+
+	@Override
+	public boolean isReady() {
+		return(ema.isReady());
+	}
+
+	@Override
+	public void reset() {
+		ema.reset();
+		prevClose = Double.NaN;
+	}
+}
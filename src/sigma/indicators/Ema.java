@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Exponential moving average. Starts from the mean of the first period values,
+ * then each value x updates ema += alpha * (x - ema).
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class Ema implements Indicator {
+	private final int period;
+	private final double alpha;
+	private double value = Double.NaN;
+	private double sum = 0;
+	private long n = 0;
+
+	/**
+	 * EMA with alpha = 2 / (period + 1)
+	 * @param period number of values
+	 */
+	public Ema(int period) {
+		this(period, 2.0 / (period + 1));
+	}
+
+	/**
+	 * Constructor
+	 * @param period number of values averaged before the first value
+	 * @param alpha weight of a new value, 0 &lt; alpha &lt;= 1
+	 */
+	public Ema(int period, double alpha) {
+		if (period < 1 || !(alpha > 0 && alpha <= 1)) {
+			throw new IllegalArgumentException("Invalid EMA period " + period + " alpha " + alpha);
+		}
+		this.period = period;
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Adds a value
+	 * @param x value
+	 * @return average
+	 */
+	public double update(double x) {
+		n++;
+		if (n < period) {
+			sum += x;
+		} else if (n == period) {
+			value = (sum + x) / period;
+		} else {
+			value += alpha * (x - value);
+		}
+		return(value);
+	}
+
+	@Override
+	public double getValue() {
+		return(value);
+	}
+
+	@Override
+	public boolean isReady() {
+		return(n >= period);
+	}
+
+	@Override
+	public void reset() {
+		value = Double.NaN;
+		sum = 0;
+		n = 0;
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Streaming indicator. Indicators are updated one value or bar at a time in
+ * O(1) and keep constant memory, they are not thread safe and are meant to be
+ * updated and read by one thread, e.g. the TWS message thread.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public interface Indicator {
+	/**
+	 * @return current value, NaN until there is enough data
+	 */
+	double getValue();
+
+	/**
+	 * @return true once the indicator has seen enough data
+	 */
+	boolean isReady();
+
+	/**
+	 * Forgets all data
+	 */
+	void reset();
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the streaming indicators, against recomputation over the
+ * whole window
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class IndicatorTest {
+	private static final double EPS = 1e-9;
+
+	private static double[] walk(int n) {
+		SplittableRandom rnd = new SplittableRandom(7);
+		double[] x = new double[n];
+
+		x[0] = 1000;
+		for (int i = 1; i < n; i++) {
+			x[i] = x[i - 1] + rnd.nextDouble(-1, 1);
+		}
+		return(x);
+	}
+
+	private static double mean(double[] x, int from, int to) {
+		double s = 0;
+
+		for (int i = from; i < to; i++) {
+			s += x[i];
+		}
+		return(s / (to - from));
+	}
+
+	private static double stdDev(double[] x, int from, int to) {
+		double m = mean(x, from, to);
+		double s = 0;
+
+		for (int i = from; i < to; i++) {
+			s += (x[i] - m) * (x[i] - m);
+		}
+		return(Math.sqrt(s / (to - from - 1)));
+	}
+
+	@Test
+	public void testEma() {
+		Ema e = new Ema(3);
+
+		assertTrue(Double.isNaN(e.update(1)));
+		e.update(2);
+		assertFalse(e.isReady());
+		assertEquals(2, e.update(3), EPS);
+		assertTrue(e.isReady());
+		assertEquals(2 + 0.5 * (5 - 2), e.update(5), EPS);
+		e.reset();
+		assertTrue(Double.isNaN(e.getValue()));
+	}
+
+	@Test
+	public void testRollingStats() {
+		double[] x = walk(100000);
+		RollingStats s = new RollingStats(50);
+		ZScore z = new ZScore(50);
+
+		for (int i = 0; i < x.length; i++) {
+			double score = z.update(x[i]);
+
+			if (i >= 50) {
+				assertEquals((x[i] - mean(x, i - 50, i)) / stdDev(x, i - 50, i), score, 1e-6);
+			}
+			s.update(x[i]);
+			if (i >= 49 && i % 1000 == 0) {
+				assertEquals(mean(x, i - 49, i + 1), s.getMean(), EPS);
+				assertEquals(stdDev(x, i - 49, i + 1), s.getStdDev(), 1e-7);
+			}
+		}
+		assertTrue(s.isReady());
+
+		RollingStats flat = new RollingStats(2);
+		flat.update(1);
+		flat.update(1);
+		assertEquals(0, flat.zScore(1), 0);
+	}
+
+	@Test
+	public void testAtr() {
+		Atr a = new Atr(2);
+
+		a.update(11, 9, 10);
+		assertEquals(2, a.update(12, 10.5, 12), EPS);
+		// Gap down, true range from the previous close
+		assertEquals(2 + 0.5 * (12 - 9 - 2), a.update(10, 9, 9.5), EPS);
+	}
+
+	@Test
+	public void testVwap() {
+		Vwap session = new Vwap();
+		Vwap window = new Vwap(2);
+
+		for (double[] t: new double[][] {{10, 1}, {11, 2}, {12, 3}}) {
+			session.update(t[0], t[1]);
+			window.update(t[0], t[1]);
+		}
+		assertEquals((10 + 22 + 36) / 6.0, session.getValue(), EPS);
+		assertEquals((22 + 36) / 5.0, window.getValue(), EPS);
+		session.reset();
+		assertFalse(session.isReady());
+	}
+
+	@Test
+	public void testRealizedVol() {
+		double[] x = walk(200);
+		double[] r = new double[x.length - 1];
+		RealizedVol v = new RealizedVol(20, 252);
+
+		for (int i = 1; i < x.length; i++) {
+			r[i - 1] = Math.log(x[i] / x[i - 1]);
+		}
+		for (double p: x) {
+			v.update(p);
+		}
+		assertEquals(stdDev(r, r.length - 20, r.length) * Math.sqrt(252), v.getValue(), 1e-9);
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Realised volatility: standard deviation of the log returns between consecutive
+ * prices (e.g. bar closes) over a sliding window, optionally annualised
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class RealizedVol implements Indicator {
+	private final RollingStats returns;
+	private final double scale;
+	private double prev = Double.NaN;
+
+	/**
+	 * Volatility per period
+	 * @param size number of returns in the window
+	 */
+	public RealizedVol(int size) {
+		this(size, 1);
+	}
+
+	/**
+	 * Constructor
+	 * @param size number of returns in the window
+	 * @param periodsPerYear periods per year for annualising, e.g. 252 for daily
+	 * bars, 1 for the volatility per period
+	 */
+	public RealizedVol(int size, double periodsPerYear) {
+		returns = new RollingStats(size);
+		scale = Math.sqrt(periodsPerYear);
+	}
+
+	/**
+	 * Adds a price
+	 * @param price positive price
+	 * @return volatility
+	 */
+	public double update(double price) {
+		if (price > 0) {
+			if (prev > 0) {
+				returns.update(Math.log(price / prev));
+			}
+			prev = price;
+		}
+		return(getValue());
+	}
+
+	@Override
+	public double getValue() {
+		return(isReady() ? returns.getStdDev() * scale : Double.NaN);
+	}
+
+	@Override
+	public boolean isReady() {
+		return(returns.isReady());
+	}
+
+	@Override
+	public void reset() {
+		returns.reset();
+		prev = Double.NaN;
+	}
+}
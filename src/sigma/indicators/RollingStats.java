@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Mean, variance and z-score over a sliding window of the last values.
+ *
+ * The window is a primitive ring buffer. Mean and sum of squared deviations are
+ * updated in O(1) with Welford's method when a value enters and the oldest one
+ * leaves, which does not lose precision the way running sums of squares do.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class RollingStats implements Indicator {
+	private final double[] window;
+	private int pos = 0;
+	private int n = 0;
+	private double mean = 0;
+	private double m2 = 0;
+
+	/**
+	 * Constructor
+	 * @param size number of values in the window, at least 2
+	 */
+	public RollingStats(int size) {
+		if (size < 2) {
+			throw new IllegalArgumentException("Window must be at least 2, is " + size);
+		}
+		window = new double[size];
+	}
+
+	/**
+	 * Adds a value, removing the oldest one if the window is full
+	 * @param x value
+	 */
+	public void update(double x) {
+		if (n < window.length) {
+			n++;
+			double d = x - mean;
+			mean += d / n;
+			m2 += d * (x - mean);
+		} else {
+			double y = window[pos];
+			double m = mean + (x - y) / n;
+
+			m2 += (x - y) * (x - m + y - mean);
+			mean = m;
+			if (m2 < 0) {
+				m2 = 0;
+			}
+		}
+		window[pos] = x;
+		pos = pos + 1 == window.length ? 0 : pos + 1;
+	}
+
+	/**
+	 * @return mean of the window
+	 */
+	public double getMean() {
+		return(n > 0 ? mean : Double.NaN);
+	}
+
+	/**
+	 * @return sample variance of the window
+	 */
+	public double getVariance() {
+		return(n > 1 ? m2 / (n - 1) : Double.NaN);
+	}
+
+	/**
+	 * @return sample standard deviation of the window
+	 */
+	public double getStdDev() {
+		return(Math.sqrt(getVariance()));
+	}
+
+	/**
+	 * @param x value
+	 * @return deviations of x from the mean of the window, 0 if the window is flat
+	 */
+	public double zScore(double x) {
+		double sd = getStdDev();
+
+		return(sd > 0 ? (x - mean) / sd : sd == 0 ? 0 : Double.NaN);
+	}
+
+	/**
+	 * @return number of values in the window
+	 */
+	public int size() {
+		return(n);
+	}
+
+	/**
+	 * @return standard deviation
+	 */
+	@Override
+	public double getValue() {
+		return(getStdDev());
+	}
+
+	@Override
+	public boolean isReady() {
+		return(n == window.length);
+	}
+
+	@Override
+	public void reset() {
+		pos = 0;
+		n = 0;
+		mean = 0;
+		m2 = 0;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Volume weighted average price, over the session (until reset()) or over
+ * a sliding window of the last trades or bars
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class Vwap implements Indicator {
+	private final double[] pv;
+	private final double[] vol;
+	private int pos = 0;
+	private int n = 0;
+	private double sumPv = 0;
+	private double sumVol = 0;
+
+	/**
+	 * Session VWAP
+	 */
+	public Vwap() {
+		this(0);
+	}
+
+	/**
+	 * Constructor
+	 * @param size number of trades or bars in the window, 0 for the session
+	 */
+	public Vwap(int size) {
+		pv = new double[size];
+		vol = new double[size];
+	}
+
+	/**
+	 * Adds a trade, or a bar with its typical or average price
+	 * @param price price
+	 * @param volume volume
+	 * @return VWAP
+	 */
+	public double update(double price, double volume) {
+		double x = price * volume;
+
+		if (pv.length > 0) {
+			if (n == pv.length) {
+				sumPv -= pv[pos];
+				sumVol -= vol[pos];
+			} else {
+				n++;
+			}
+			pv[pos] = x;
+			vol[pos] = volume;
+			pos = pos + 1 == pv.length ? 0 : pos + 1;
+		}
+		sumPv += x;
+		sumVol += volume;
+		return(getValue());
+	}
+
+	@Override
+	public double getValue() {
+		return(sumVol > 0 ? sumPv / sumVol : Double.NaN);
+	}
+
+	@Override
+	public boolean isReady() {
+		return(sumVol > 0);
+	}
+
+	@Override
+	public void reset() {
+		pos = 0;
+		n = 0;
+		sumPv = 0;
+		sumVol = 0;
+	}
+}
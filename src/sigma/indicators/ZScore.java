@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package sigma.indicators;
+
+/**
+ * Z-score of the latest value against the window of values before it, e.g. of
+ * prices, spreads or bar volumes
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class ZScore implements Indicator {
+	private final RollingStats stats;
+	private double value = Double.NaN;
+
+	/**
+	 * Constructor
+	 * @param size number of values in the window
+	 */
+	public ZScore(int size) {
+		stats = new RollingStats(size);
+	}
+
+	/**
+	 * Scores a value and adds it to the window
+	 * @param x value
+	 * @return z-score, NaN until the window is full
+	 */
+	public double update(double x) {
+		value = stats.isReady() ? stats.zScore(x) : Double.NaN;
+		stats.update(x);
+		return(value);
+	}
+
+	@Override
+	public double getValue() {
+		return(value);
+	}
+
+	@Override
+	public boolean isReady() {
+		return(!Double.isNaN(value));
+	}
+
+	@Override
+	public void reset() {
+		stats.reset();
+		value = Double.NaN;
+	}
+}
@@ -0,0 +1,9 @@
+/**
+ * Streaming technical indicators. Every indicator is updated from
+ * the tick or bar stream in constant time and memory.
+ * 
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+package sigma.indicators;
@@ -3,9 +3,12 @@
  */
 package sigma.optimiser;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import com.joptimizer.exception.JOptimizerException;
 
-import sigma.utils.Helper;
 import sigma.utils.VolSurface;
 
 /**
@@ -13,6 +16,9 @@ import sigma.utils.VolSurface;
  * @version 0.1
  */
 public class Optimiser {
+	// Longest wait for the snapshots of the whole surface in seconds
+	public static final long SURFACE_TIMEOUT = 300;
+	
 	public MaximiseTheta problem;
 	public VolSurface surface;
 
@@ -33,9 +39,14 @@ public class Optimiser {
 		
 		o = new Optimiser();
 		
-		// Get data
-		o.surface.reqSurface();
-		Helper.sleep(60000);
+		// Get data, waits until all snapshots have arrived
+		try {
+			o.surface.reqSurface().get(SURFACE_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			o.surface.log("Volatility surface not received: " + e);
+			o.surface.twsDisconnect();
+			return;
+		}
 		o.surface.twsDisconnect();
 
 		// Optimise
@@ -0,0 +1,361 @@
+package sigma.trading;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import com.ib.client.Contract;
+import com.ib.client.ContractDetails;
+import com.ib.client.DefaultEWrapper;
+import com.ib.client.EWrapper;
+
+import sigma.utils.TokenBucket;
+
+/**
+ * Discovers option chains and subscribes to their market data at the rate TWS pacing allows.
+ *
+ * Requests are sent by a background thread through a token bucket (50 messages per second
+ * by default) and with a limit on the market data lines in use. Completion is signalled
+ * by futures, for snapshots when every tickSnapshotEnd() (or a request error) has arrived.
+ * A snapshot that has not ended by its deadline is cancelled and counted as ended, so
+ * its market data line is not lost.
+ *
+ * Request ids come from the connector, which routes the callbacks of each request to
+ * its handler here and recycles the id when the request ends. Subclasses of the
+ * connector must call super for the callbacks they override.
+ *
+ * @author Peeter Meos
+ * @version 0.2
+ *
+ */
+public class ChainScheduler {
+	public static final double TWS_MSG_RATE = 50;
+	public static final int TWS_MKT_DATA_LINES = 100;
+	public static final long SNAPSHOT_TIMEOUT = 15000; // TWS ends snapshots within 11 seconds
+	private static final long POLL_MS = 1000;
+
+	private final TwsConnector con;
+	private final TokenBucket bucket;
+	private final Semaphore lines;
+	private final long timeout;
+
+	/**
+	 * Scheduler with TWS default pacing
+	 * @param con connector to TWS
+	 */
+	public ChainScheduler(TwsConnector con) {
+		this(con, TWS_MSG_RATE, TWS_MKT_DATA_LINES);
+	}
+
+	/**
+	 * Constructor
+	 * @param con connector to TWS
+	 * @param rate requests per second
+	 * @param maxLines maximal number of snapshots in flight
+	 */
+	public ChainScheduler(TwsConnector con, double rate, int maxLines) {
+		this(con, rate, maxLines, SNAPSHOT_TIMEOUT);
+	}
+
+	/**
+	 * Constructor
+	 * @param con connector to TWS
+	 * @param rate requests per second
+	 * @param maxLines maximal number of snapshots in flight
+	 * @param timeout milliseconds after which a snapshot that has not ended is cancelled
+	 */
+	public ChainScheduler(TwsConnector con, double rate, int maxLines, long timeout) {
+		this.con = con;
+		this.bucket = new TokenBucket(rate, (int) Math.max(1, rate / 10));
+		this.lines = new Semaphore(maxLines);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set of snapshot requests
+	 */
+	public class Batch {
+		private final AtomicInteger remaining;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Batch(int n) {
+			remaining = new AtomicInteger(n);
+			if (n == 0) {
+				done.complete(null);
+			}
+		}
+
+		void ended() {
+			lines.release();
+			if (remaining.decrementAndGet() == 0) {
+				done.complete(null);
+			}
+		}
+
+		/**
+		 * @return future completed when all snapshots have ended
+		 */
+		public CompletableFuture<Void> getDone() {
+			return(done);
+		}
+
+		/**
+		 * @return number of snapshots not ended yet
+		 */
+		public int getRemaining() {
+			return(remaining.get());
+		}
+	}
+
+	/**
+	 * Handler of one snapshot, passes the ticks on and counts the end.
+	 * Ends on the message thread or, past its deadline, on the sender thread.
+	 */
+	private static class Snapshot extends DefaultEWrapper {
+		private final Batch batch;
+		private final EWrapper target;
+		private final long deadline;
+		private final AtomicBoolean ended = new AtomicBoolean();
+		private int id;
+
+		Snapshot(Batch batch, EWrapper target, long deadline) {
+			this.batch = batch;
+			this.target = target;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+			if (target != null) {
+				target.tickPrice(tickerId, field, price, canAutoExecute);
+			}
+		}
+
+		@Override
+		public void tickSize(int tickerId, int field, int size) {
+			if (target != null) {
+				target.tickSize(tickerId, field, size);
+			}
+		}
+
+		@Override
+		public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta,
+				double optPrice, double pvDividend, double gamma, double vega, double theta, double undPrice) {
+			if (target != null) {
+				target.tickOptionComputation(tickerId, field, impliedVol, delta, optPrice, pvDividend,
+						gamma, vega, theta, undPrice);
+			}
+		}
+
+		@Override
+		public void tickGeneric(int tickerId, int tickType, double value) {
+			if (target != null) {
+				target.tickGeneric(tickerId, tickType, value);
+			}
+		}
+
+		@Override
+		public void tickString(int tickerId, int tickType, String value) {
+			if (target != null) {
+				target.tickString(tickerId, tickType, value);
+			}
+		}
+
+		@Override
+		public void tickSnapshotEnd(int reqId) {
+			if (target != null) {
+				target.tickSnapshotEnd(reqId);
+			}
+			end();
+		}
+
+		@Override
+		public void error(int id, int errorCode, String errorMsg) {
+			if (TwsConnector.endsRequest(errorCode)) {
+				end();
+			}
+		}
+
+		private void end() {
+			if (ended.compareAndSet(false, true)) {
+				batch.ended();
+			}
+		}
+
+		/**
+		 * Claims the end of a snapshot past its deadline
+		 * @return true if the snapshot had not ended
+		 */
+		private boolean expire() {
+			return(ended.compareAndSet(false, true));
+		}
+	}
+
+	/**
+	 * Handler of the contract details request, completes with the contract id
+	 */
+	private static class ConIdRequest extends DefaultEWrapper {
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+		@Override
+		public void contractDetails(int reqId, ContractDetails details) {
+			future.complete(details.contract().conid());
+		}
+
+		@Override
+		public void contractDetailsEnd(int reqId) {
+			future.completeExceptionally(new IllegalStateException("No contract details for request " + reqId));
+		}
+
+		@Override
+		public void error(int id, int errorCode, String errorMsg) {
+			if (TwsConnector.endsRequest(errorCode)) {
+				future.completeExceptionally(new IllegalStateException(errorCode + " " + errorMsg));
+			}
+		}
+	}
+
+	/**
+	 * Handler of reqSecDefOptParams(), accumulates the chain
+	 */
+	private static class ChainRequest extends DefaultEWrapper {
+		final String exchange;
+		final CompletableFuture<OptionChain> future = new CompletableFuture<>();
+		OptionChain chain;
+
+		ChainRequest(String exchange) {
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void securityDefinitionOptionalParameter(int reqId, String exch, int underlyingConId,
+				String tradingClass, String multiplier, Set<String> expirations, Set<Double> strikes) {
+			if (exchange != null && !exchange.equals(exch)) {
+				return;
+			}
+			if (chain == null) {
+				chain = new OptionChain(exchange != null ? exchange : exch, underlyingConId);
+			}
+			chain.add(tradingClass, multiplier, expirations, strikes);
+		}
+
+		@Override
+		public void securityDefinitionOptionalParameterEnd(int reqId) {
+			if (chain == null) {
+				future.completeExceptionally(new IllegalStateException("Empty option chain for request " + reqId));
+			} else {
+				future.complete(chain);
+			}
+		}
+
+		@Override
+		public void error(int id, int errorCode, String errorMsg) {
+			if (TwsConnector.endsRequest(errorCode)) {
+				future.completeExceptionally(new IllegalStateException(errorCode + " " + errorMsg));
+			}
+		}
+	}
+
+	/**
+	 * Discovers the option chain of an underlying: contract details for the
+	 * contract id, then reqSecDefOptParams(). Does not block.
+	 *
+	 * @param underlying underlying contract, the first matching contract is used
+	 * @param exchange option exchange, null to merge all exchanges
+	 * @return future of the chain
+	 */
+	public CompletableFuture<OptionChain> discover(Contract underlying, String exchange) {
+		ConIdRequest cd = new ConIdRequest();
+
+		con.getTws().reqContractDetails(con.nextRequestId(cd), underlying);
+
+		return(cd.future.thenCompose(id -> {
+			ChainRequest req = new ChainRequest(exchange);
+
+			con.getTws().reqSecDefOptParams(con.nextRequestId(req), underlying.symbol(),
+					underlying.secType().name().equals("FUT") ? underlying.exchange() : "",
+					underlying.secType().name(), id);
+			return(req.future);
+		}));
+	}
+
+	/**
+	 * Requests market data snapshots for the contracts, paced on a background thread.
+	 * Ticker ids are allocated as the requests are sent and recycled when they end,
+	 * so the number of ids in use is bounded by the market data lines. The thread
+	 * stays until every snapshot has ended or been cancelled at its deadline.
+	 *
+	 * @param contracts contracts to request
+	 * @param genericTicks generic tick list
+	 * @param handlers handler for the ticks of contract i, may return null
+	 * @return batch with completion
+	 */
+	public Batch subscribe(List<Contract> contracts, String genericTicks, IntFunction<EWrapper> handlers) {
+		Batch b = new Batch(contracts.size());
+		Thread t = new Thread(() -> send(b, contracts, genericTicks, handlers), "Chain scheduler");
+
+		t.setDaemon(true);
+		t.start();
+		return(b);
+	}
+
+	private void send(Batch b, List<Contract> contracts, String genericTicks, IntFunction<EWrapper> handlers) {
+		Deque<Snapshot> inFlight = new ArrayDeque<>();
+
+		try {
+			for (int i = 0; i < contracts.size(); i++) {
+				while (!lines.tryAcquire(expire(inFlight), TimeUnit.MILLISECONDS)) {
+					// Lines are held until a snapshot ends or its deadline passes
+				}
+				bucket.acquire();
+
+				Snapshot s = new Snapshot(b, handlers.apply(i), System.currentTimeMillis() + timeout);
+
+				s.id = con.nextRequestId(s);
+				inFlight.add(s);
+				con.reqMktData(s.id, contracts.get(i), genericTicks, true);
+			}
+			while (!inFlight.isEmpty()) {
+				try {
+					b.done.get(expire(inFlight), TimeUnit.MILLISECONDS);
+				} catch (TimeoutException | ExecutionException e) {
+					// Next deadline
+				}
+			}
+		} catch (InterruptedException e) {
+			b.done.completeExceptionally(e);
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			b.done.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Drops the ended snapshots and cancels the ones past their deadline, oldest first.
+	 * Deadlines are in the order of sending.
+	 * @param inFlight snapshots sent, oldest first
+	 * @return milliseconds to the next deadline
+	 */
+	private long expire(Deque<Snapshot> inFlight) {
+		long now = System.currentTimeMillis();
+		Snapshot s;
+
+		while ((s = inFlight.peek()) != null && (s.ended.get() || s.deadline <= now)) {
+			inFlight.poll();
+			if (s.expire()) {
+				con.cancelMktData(s.id);
+				s.batch.ended();
+			}
+		}
+		return(s == null ? POLL_MS : Math.max(1, s.deadline - now));
+	}
+}
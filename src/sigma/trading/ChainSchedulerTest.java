@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package sigma.trading;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Types.SecType;
+
+import sigma.utils.LogLevel;
+
+/**
+ * Unit testing for the option chain scheduler
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class ChainSchedulerTest {
+
+	@Test
+	public void testSnapshotTimeout() throws InterruptedException, ExecutionException, TimeoutException {
+		TwsConnector con = new TwsConnector("Scheduler test", LogLevel.ERROR);
+		List<Contract> contracts = new ArrayList<>();
+
+		// The simulated broker never ends a snapshot, the deadline has to
+		con.setBroker(new SimBroker(con));
+		for (int i = 0; i < 5; i++) {
+			Contract c = new Contract();
+
+			c.symbol("CL");
+			c.secType(SecType.FOP);
+			c.strike(50 + i);
+			contracts.add(c);
+		}
+
+		ChainScheduler s = new ChainScheduler(con, 1000, 2, 50);
+		ChainScheduler.Batch b = s.subscribe(contracts, "", i -> null);
+
+		b.getDone().get(5, TimeUnit.SECONDS);
+		assertEquals(0, b.getRemaining());
+		assertEquals(0, con.requests.inUse());
+	}
+}
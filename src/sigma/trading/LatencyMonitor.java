@@ -0,0 +1,275 @@
+package sigma.trading;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+
+import com.ib.client.EReader;
+
+import sigma.utils.LatencyHistogram;
+
+/**
+ * Latency of the path from a market data message to the orders it causes.
+ *
+ * The EReader stamps every message when it arrives from the socket and when the
+ * message thread takes it from the queue. The connector marks the entry of the
+ * price callback, the strategy marks its decision to send orders and the
+ * connector marks the return of the first placeOrder() of the tick. The
+ * intervals go into a histogram per stage:
+ * <pre>
+ * QUEUE          arrival to dequeue, waiting for the message thread
+ * DECODE         dequeue to callback entry, parsing the message
+ * STRATEGY       callback entry to decision
+ * SEND           decision to the first order encoded and handed to the socket
+ * TICK_TO_ORDER  arrival to the first order sent
+ * </pre>
+ *
+ * Marks are only taken on the message thread, decisions made by other threads,
+ * e.g. the trading loop, are not part of any tick and are not recorded. Apart
+ * from System.nanoTime() a mark costs an atomic increment.
+ *
+ * A periodic snapshot of the histograms is kept for the GUI and can be appended
+ * to a CSV file.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class LatencyMonitor {
+	/**
+	 * Stages of the tick-to-order path
+	 */
+	public enum Stage {
+		QUEUE, DECODE, STRATEGY, SEND, TICK_TO_ORDER
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final LatencyHistogram[] hist = new LatencyHistogram[STAGES.length];
+	private volatile EReader reader;
+
+	// Message being processed, touched by the message thread only
+	private Thread owner;
+	private long readTime;
+	private long dequeueTime;
+	private long callbackTime;
+	private long decisionTime;
+	private boolean sent;
+
+	// Periodic snapshots
+	private volatile LatencyHistogram[] last;
+	private volatile boolean running = false;
+	private Thread thread;
+
+	/**
+	 * Constructor
+	 */
+	public LatencyMonitor() {
+		for (int i = 0; i < hist.length; i++) {
+			hist[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Sets the reader whose message timestamps are used, the connector does this on connect
+	 * @param reader reader with timestamps enabled or null
+	 */
+	public void setReader(EReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Marks the entry of a market data callback. Only the first callback of a message
+	 * is counted.
+	 */
+	public void callback() {
+		EReader r = reader;
+
+		if (r == null) {
+			return;
+		}
+		long dq = r.getDequeueTime();
+
+		if (dq == 0 || dq == dequeueTime) {
+			return;
+		}
+		long now = System.nanoTime();
+
+		owner = Thread.currentThread();
+		readTime = r.getReadTime();
+		dequeueTime = dq;
+		callbackTime = now;
+		decisionTime = 0;
+		sent = false;
+		hist[Stage.QUEUE.ordinal()].record(dq - readTime);
+		hist[Stage.DECODE.ordinal()].record(now - dq);
+	}
+
+	/**
+	 * Marks the decision of the strategy to send orders for the current message
+	 */
+	public void decision() {
+		if (decisionTime != 0 || !isCurrent()) {
+			return;
+		}
+		decisionTime = System.nanoTime();
+		hist[Stage.STRATEGY.ordinal()].record(decisionTime - callbackTime);
+	}
+
+	/**
+	 * Marks an order sent. Only the first order after a decision is counted.
+	 */
+	public void sent() {
+		if (sent || decisionTime == 0 || !isCurrent()) {
+			return;
+		}
+		long now = System.nanoTime();
+
+		sent = true;
+		hist[Stage.SEND.ordinal()].record(now - decisionTime);
+		hist[Stage.TICK_TO_ORDER.ordinal()].record(now - readTime);
+	}
+
+	/**
+	 * The marks belong to the message being decoded by the calling thread
+	 */
+	private boolean isCurrent() {
+		EReader r = reader;
+
+		return(r != null && owner == Thread.currentThread() && r.getDequeueTime() == dequeueTime);
+	}
+
+	/**
+	 * @param stage stage
+	 * @return live histogram of the stage
+	 */
+	public LatencyHistogram getHistogram(Stage stage) {
+		return(hist[stage.ordinal()]);
+	}
+
+	/**
+	 * Copies the histograms of all stages
+	 * @param reset true to start new histograms
+	 * @return histograms indexed by Stage.ordinal()
+	 */
+	public LatencyHistogram[] snapshot(boolean reset) {
+		LatencyHistogram[] s = new LatencyHistogram[hist.length];
+
+		for (int i = 0; i < hist.length; i++) {
+			s[i] = hist[i].snapshot(reset);
+		}
+		return(s);
+	}
+
+	/**
+	 * Takes a snapshot every period, the histograms start anew for each period
+	 * @param period period in milliseconds
+	 * @param file CSV file the snapshots are appended to, null for none
+	 */
+	public void start(long period, File file) {
+		running = true;
+		thread = new Thread(() -> {
+			while (running) {
+				try {
+					Thread.sleep(period);
+				} catch (InterruptedException e) {
+					break;
+				}
+				last = snapshot(true);
+				if (file != null) {
+					try {
+						export(file, last);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "Latency monitor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the periodic snapshots
+	 */
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * @return histograms of the last period or null before the first one
+	 */
+	public LatencyHistogram[] getLast() {
+		return(last);
+	}
+
+	/**
+	 * Text table of the last period, or of everything so far if not started
+	 * @return count, p50, p99, p99.9 and max per stage in microseconds
+	 */
+	public String report() {
+		LatencyHistogram[] s = last;
+
+		return(report(s != null ? s : snapshot(false)));
+	}
+
+	/**
+	 * Text table of histograms
+	 * @param s histograms indexed by Stage.ordinal()
+	 * @return count, p50, p99, p99.9 and max per stage in microseconds
+	 */
+	public static String report(LatencyHistogram[] s) {
+		StringBuilder b = new StringBuilder();
+
+		b.append(String.format("%-14s %10s %10s %10s %10s %10s%n", "Stage (us)", "Count", "p50", "p99", "p99.9", "Max"));
+		for (Stage st: STAGES) {
+			LatencyHistogram h = s[st.ordinal()];
+
+			b.append(String.format("%-14s %10d %10.1f %10.1f %10.1f %10.1f%n", st, h.getCount(),
+					h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(99) / 1e3,
+					h.getValueAtPercentile(99.9) / 1e3, h.getMax() / 1e3));
+		}
+		return(b.toString());
+	}
+
+	/**
+	 * Appends the last period, or everything so far if not started, to a CSV file
+	 * @param file file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void export(File file) throws IOException {
+		LatencyHistogram[] s = last;
+
+		export(file, s != null ? s : snapshot(false));
+	}
+
+	/**
+	 * Appends histograms to a CSV file, one line per stage, values in nanoseconds.
+	 * A header is written to a new file.
+	 * @param file file
+	 * @param s histograms indexed by Stage.ordinal()
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void export(File file, LatencyHistogram[] s) throws IOException {
+		boolean header = !file.exists() || file.length() == 0;
+
+		try (PrintWriter w = new PrintWriter(new FileWriter(file, true))) {
+			String time = Instant.now().toString();
+
+			if (header) {
+				w.println("time,stage,count,p50,p99,p99.9,max");
+			}
+			for (Stage st: STAGES) {
+				LatencyHistogram h = s[st.ordinal()];
+
+				w.println(time + "," + st + "," + h.getCount() + "," + h.getValueAtPercentile(50) + ","
+						+ h.getValueAtPercentile(99) + "," + h.getValueAtPercentile(99.9) + "," + h.getMax());
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package sigma.trading;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Order;
+import com.ib.client.OrderType;
+import com.ib.client.Types.Action;
+import com.ib.client.Types.SecType;
+
+import sigma.trading.LatencyMonitor.Stage;
+import sigma.utils.LogLevel;
+
+/**
+ * Unit testing for the tick-to-order latency monitor
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class LatencyMonitorTest {
+
+	/**
+	 * Sends a limit order on every tenth last price
+	 */
+	private static class Client extends TwsConnector {
+		final AtomicInteger orders = new AtomicInteger();
+		final Contract c = new Contract();
+		int n = 0;
+
+		Client() {
+			super("Latency test", LogLevel.WARN);
+			c.symbol("CL");
+			c.secType(SecType.FUT);
+			c.lastTradeDateOrContractMonth("201712");
+			c.exchange("NYMEX");
+			c.currency("USD");
+		}
+
+		@Override
+		public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+			super.tickPrice(tickerId, field, price, canAutoExecute);
+
+			if (field == 4 && n++ % 10 == 0) {
+				Order o = new Order();
+
+				o.action(Action.BUY);
+				o.orderType(OrderType.LMT);
+				o.lmtPrice(price - 1);
+				o.totalQuantity(1);
+				markDecision();
+				placeOrder(1000 + orders.incrementAndGet(), c, o);
+			}
+		}
+	}
+
+	@Test
+	public void testTickToOrder() throws Exception {
+		LatencyMonitor m = new LatencyMonitor();
+
+		try (TwsSimulator sim = new TwsSimulator(0)) {
+			Client con = new Client();
+
+			sim.setTickRate(3000);
+			sim.start();
+			con.setLatencyMonitor(m);
+			con.twsConnect("127.0.0.1", sim.getPort());
+			con.setSimulated(false);
+			con.reqMktData(7, con.c);
+
+			long end = System.currentTimeMillis() + 5000;
+			while (con.orders.get() < 20 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			con.twsDisconnect();
+		}
+
+		assertTrue(m.getHistogram(Stage.QUEUE).getCount() >= 200);
+		assertEquals(m.getHistogram(Stage.QUEUE).getCount(), m.getHistogram(Stage.DECODE).getCount());
+		assertTrue(m.getHistogram(Stage.SEND).getCount() >= 20);
+		assertEquals(m.getHistogram(Stage.SEND).getCount(), m.getHistogram(Stage.TICK_TO_ORDER).getCount());
+		assertTrue(m.getHistogram(Stage.TICK_TO_ORDER).getValueAtPercentile(50)
+				>= m.getHistogram(Stage.SEND).getValueAtPercentile(50) / 2);
+
+		// Decisions off the message thread are not counted
+		long strategy = m.getHistogram(Stage.STRATEGY).getCount();
+		m.decision();
+		assertEquals(strategy, m.getHistogram(Stage.STRATEGY).getCount());
+
+		File f = File.createTempFile("latency", ".csv");
+		f.delete();
+		m.export(f);
+		List<String> lines = Files.readAllLines(f.toPath());
+		assertEquals(1 + Stage.values().length, lines.size());
+		assertTrue(lines.get(5).contains(",TICK_TO_ORDER,"));
+		assertTrue(m.report().contains("TICK_TO_ORDER"));
+		f.delete();
+	}
+}
@@ -0,0 +1,93 @@
+package sigma.trading;
+
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Option chain parameters as returned by reqSecDefOptParams()
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class OptionChain {
+	private final String exchange;
+	private final int underConId;
+	private String tradingClass;
+	private String multiplier;
+	private final TreeSet<String> expirations = new TreeSet<>();
+	private final TreeSet<Double> strikes = new TreeSet<>();
+
+	/**
+	 * Constructor
+	 * @param exchange exchange
+	 * @param underConId contract id of the underlying
+	 */
+	public OptionChain(String exchange, int underConId) {
+		this.exchange = exchange;
+		this.underConId = underConId;
+	}
+
+	/**
+	 * Adds parameters of one securityDefinitionOptionalParameter() callback
+	 */
+	void add(String tradingClass, String multiplier, Set<String> exp, Set<Double> k) {
+		if (this.tradingClass == null) {
+			this.tradingClass = tradingClass;
+			this.multiplier = multiplier;
+		}
+		expirations.addAll(exp);
+		strikes.addAll(k);
+	}
+
+	/**
+	 * @return exchange
+	 */
+	public String getExchange() {
+		return(exchange);
+	}
+
+	/**
+	 * @return contract id of the underlying
+	 */
+	public int getUnderConId() {
+		return(underConId);
+	}
+
+	/**
+	 * @return trading class
+	 */
+	public String getTradingClass() {
+		return(tradingClass);
+	}
+
+	/**
+	 * @return contract multiplier
+	 */
+	public String getMultiplier() {
+		return(multiplier);
+	}
+
+	/**
+	 * @return expirations as yyyyMMdd in ascending order
+	 */
+	public NavigableSet<String> getExpirations() {
+		return(Collections.unmodifiableNavigableSet(expirations));
+	}
+
+	/**
+	 * @return strikes in ascending order
+	 */
+	public NavigableSet<Double> getStrikes() {
+		return(Collections.unmodifiableNavigableSet(strikes));
+	}
+
+	/**
+	 * @return number of expirations
+	 */
+	public int size() {
+		return(expirations.size());
+	}
+}
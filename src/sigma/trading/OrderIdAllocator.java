@@ -0,0 +1,77 @@
+package sigma.trading;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local order id allocator. TWS sends the next valid order id on connect
+ * (and on reqIds()), after that the ids are handed out from a local counter,
+ * so any number of threads can reserve contiguous blocks of ids without a
+ * round trip to TWS.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class OrderIdAllocator {
+	private final AtomicInteger next = new AtomicInteger(-1);
+	private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+	/**
+	 * Updates the allocator from nextValidId() callback. The counter never
+	 * moves backwards, ids already handed out stay reserved.
+	 *
+	 * @param orderId next valid order id from TWS
+	 */
+	public void update(int orderId) {
+		int cur;
+
+		do {
+			cur = next.get();
+			if (cur >= orderId) {
+				break;
+			}
+		} while (!next.compareAndSet(cur, orderId));
+
+		ready.complete(null);
+	}
+
+	/**
+	 * Reserves a contiguous block of order ids. Completes right away if the
+	 * first id from TWS has already arrived, otherwise when it does.
+	 *
+	 * @param n number of ids
+	 * @return future of the first id of the block
+	 */
+	public CompletableFuture<Integer> reserve(int n) {
+		return(ready.thenApply(v -> next.getAndAdd(n)));
+	}
+
+	/**
+	 * Reserves a contiguous block of order ids without waiting
+	 *
+	 * @param n number of ids
+	 * @return first id of the block or -1 if no id has been received from TWS yet
+	 */
+	public int tryReserve(int n) {
+		if (!ready.isDone()) {
+			return(-1);
+		}
+		return(next.getAndAdd(n));
+	}
+
+	/**
+	 * Returns the next id that would be handed out
+	 * @return next order id or -1 if not known yet
+	 */
+	public int peek() {
+		return(next.get());
+	}
+
+	/**
+	 * @return true once the first id from TWS has arrived
+	 */
+	public boolean isReady() {
+		return(ready.isDone());
+	}
+}
@@ -0,0 +1,172 @@
+package sigma.trading;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free allocator for TWS ticker and request ids, with a handler per id.
+ *
+ * Ids are taken from the range [base, base + capacity). The handler of an id is kept
+ * in an array indexed by id - base, so routing a callback to its handler is a single
+ * array read. Released ids go to the back of a bounded multi-producer multi-consumer
+ * queue of free ids, so an id is reused as late as possible and stray callbacks for
+ * a cancelled request are unlikely to reach the next owner.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ * @param <H> handler type
+ */
+public class RequestIdAllocator<H> {
+	private final int base;
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<H> handlers;
+	private final AtomicIntegerArray used;
+
+	// Free id queue: sequence numbers and slots as in Vyukov's bounded queue
+	private final AtomicLongArray seq;
+	private final int[] slots;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param base first id
+	 * @param capacity number of ids, rounded up to a power of two
+	 */
+	public RequestIdAllocator(int base, int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+
+		this.base = base;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.handlers = new AtomicReferenceArray<>(size);
+		this.used = new AtomicIntegerArray(size);
+		this.seq = new AtomicLongArray(size);
+		this.slots = new int[size];
+
+		// All ids start free, in ascending order
+		for (int i = 0; i < size; i++) {
+			slots[i] = i;
+			seq.set(i, i + 1);
+		}
+		tail.set(size);
+	}
+
+	/**
+	 * Allocates an id
+	 * @param handler handler for the callbacks of the id, may be null
+	 * @return id
+	 * @throws IllegalStateException if all ids are in use
+	 */
+	public int allocate(H handler) {
+		int i = poll();
+
+		if (i < 0) {
+			throw new IllegalStateException("All " + capacity + " request ids are in use");
+		}
+		handlers.set(i, handler);
+		used.set(i, 1);
+		return(base + i);
+	}
+
+	/**
+	 * Returns the handler of an id
+	 * @param id ticker or request id
+	 * @return handler or null if the id is not allocated or has no handler
+	 */
+	public H get(int id) {
+		int i = id - base;
+
+		if (i < 0 || i >= capacity) {
+			return(null);
+		}
+		return(handlers.get(i));
+	}
+
+	/**
+	 * Releases an id for reuse. Releasing an id that is not allocated does nothing,
+	 * so end and cancel paths can both release.
+	 * @param id ticker or request id
+	 * @return true if the id was released
+	 */
+	public boolean release(int id) {
+		int i = id - base;
+
+		if (i < 0 || i >= capacity || !used.compareAndSet(i, 1, 0)) {
+			return(false);
+		}
+		handlers.set(i, null);
+		offer(i);
+		return(true);
+	}
+
+	/**
+	 * @param id ticker or request id
+	 * @return true if the id belongs to this allocator's range
+	 */
+	public boolean contains(int id) {
+		return(id >= base && id - base < capacity);
+	}
+
+	/**
+	 * @return number of ids in use
+	 */
+	public int inUse() {
+		return(capacity - (int) (tail.get() - head.get()));
+	}
+
+	private int poll() {
+		long pos = head.get();
+
+		while (true) {
+			int idx = (int) pos & mask;
+			long s = seq.get(idx);
+			long dif = s - (pos + 1);
+
+			if (dif == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					int v = slots[idx];
+
+					seq.lazySet(idx, pos + mask + 1);
+					return(v);
+				}
+				pos = head.get();
+			} else if (dif < 0) {
+				if (tail.get() == pos) {
+					return(-1);
+				}
+				// A release has taken the slot but not published it yet
+				Thread.yield();
+				pos = head.get();
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	private void offer(int v) {
+		long pos = tail.get();
+
+		while (true) {
+			int idx = (int) pos & mask;
+			long s = seq.get(idx);
+			long dif = s - pos;
+
+			if (dif == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					slots[idx] = v;
+					seq.lazySet(idx, pos + 1);
+					return;
+				}
+				pos = tail.get();
+			} else {
+				// Cannot be full, there are never more free ids than slots
+				pos = tail.get();
+			}
+		}
+	}
+}
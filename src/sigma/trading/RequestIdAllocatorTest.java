@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package sigma.trading;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for request id allocation
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class RequestIdAllocatorTest {
+
+	@Test
+	public void testAllocate() {
+		RequestIdAllocator<String> a = new RequestIdAllocator<>(100, 3);
+		int x = a.allocate("x");
+		int y = a.allocate("y");
+
+		assertEquals(100, x);
+		assertEquals(101, y);
+		assertEquals("y", a.get(y));
+		assertNull(a.get(99));
+		assertEquals(2, a.inUse());
+
+		// Released ids go to the back of the queue
+		assertTrue(a.release(x));
+		assertFalse(a.release(x));
+		assertNull(a.get(x));
+		assertEquals(102, a.allocate(null));
+		assertEquals(103, a.allocate(null));
+		assertEquals(x, a.allocate("z"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testExhausted() {
+		RequestIdAllocator<String> a = new RequestIdAllocator<>(0, 2);
+
+		a.allocate(null);
+		a.allocate(null);
+		a.allocate(null);
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		RequestIdAllocator<Integer> a = new RequestIdAllocator<>(1000, 64);
+		Set<Integer> held = ConcurrentHashMap.newKeySet();
+		CountDownLatch done = new CountDownLatch(4);
+		AtomicInteger errors = new AtomicInteger();
+
+		for (int t = 0; t < 4; t++) {
+			new Thread(() -> {
+				try {
+					for (int i = 0; i < 100000; i++) {
+						int id = a.allocate(i);
+
+						// No id may be handed out twice
+						if (!held.add(id)) {
+							errors.incrementAndGet();
+						}
+						held.remove(id);
+						a.release(id);
+					}
+				} catch (IllegalStateException e) {
+					errors.incrementAndGet();
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		assertEquals(0, errors.get());
+		assertEquals(0, a.inUse());
+	}
+}
@@ -0,0 +1,339 @@
+package sigma.trading;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.ib.client.Contract;
+import com.ib.client.EWrapper;
+import com.ib.client.Execution;
+import com.ib.client.Order;
+import com.ib.client.OrderType;
+import com.ib.client.Types.Action;
+
+/**
+ * Simulated broker for replaying recorded market data. Orders placed through the
+ * connector are matched against the last prices of the replay and the resulting
+ * orderStatus() and execDetails() callbacks are sent to the connector.
+ *
+ * Supports market, limit, stop, stop limit and trailing orders, attached orders
+ * (active once the parent is filled) and OCA groups. Fills are at the last price
+ * that triggers the order, for the full quantity.
+ *
+ * Orders and cancels may come from any thread, they are queued and applied by the
+ * replay thread before the next tick. The callbacks are made on the replay thread,
+ * as TWS would make them on the message thread. getStatus() and getFillPrice() may
+ * be called from any thread.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class SimBroker {
+	private static final DateTimeFormatter EXEC_TIME = DateTimeFormatter.ofPattern("yyyyMMdd  HH:mm:ss")
+			.withZone(ZoneOffset.UTC);
+
+	private final EWrapper target;
+	private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+
+	// State of the replay thread, other threads only look up orders, under the map's lock
+	private final Map<String, Integer> tickers = new HashMap<>();
+	private final Map<Integer, SimOrder> orders = new LinkedHashMap<>();
+	private int nextPermId = 1;
+	private int nextExecId = 1;
+	private volatile long time = -1;
+
+	/**
+	 * Working or finished order
+	 */
+	private static class SimOrder {
+		int id;
+		Contract contract;
+		Order order;
+		int tickerId = -1;
+		volatile String status;
+		int permId;
+		boolean triggered = false;
+		double stop = Double.NaN;
+		volatile double fillPrice = 0;
+	}
+
+	/**
+	 * Constructor
+	 * @param target receiver of the order callbacks, normally the connector
+	 */
+	public SimBroker(EWrapper target) {
+		this.target = target;
+	}
+
+	/**
+	 * Registers the ticker id of a contract, prices of the ticker are used to fill its orders
+	 * @param tickerId ticker id
+	 * @param c contract
+	 */
+	public void subscribe(int tickerId, Contract c) {
+		String key = key(c);
+
+		commands.add(() -> {
+			tickers.put(key, tickerId);
+			for (SimOrder o: orders.values()) {
+				if (o.tickerId < 0 && key.equals(key(o.contract))) {
+					o.tickerId = tickerId;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Places a new order or modifies a working one
+	 * @param id order id
+	 * @param c contract
+	 * @param o order
+	 */
+	public void placeOrder(int id, Contract c, Order o) {
+		commands.add(() -> place(id, c, o));
+	}
+
+	/**
+	 * Cancels an order and its attached orders
+	 * @param id order id
+	 */
+	public void cancelOrder(int id) {
+		commands.add(() -> {
+			SimOrder o = orders.get(id);
+
+			if (o != null && !isDone(o)) {
+				cancel(o);
+			}
+		});
+	}
+
+	/**
+	 * Applies the queued orders and cancels. Called by the replay thread.
+	 */
+	public void process() {
+		Runnable r;
+
+		while ((r = commands.poll()) != null) {
+			r.run();
+		}
+	}
+
+	/**
+	 * Sets the replay clock
+	 * @param nanos time of the current event in nanoseconds since the epoch
+	 */
+	public void setTime(long nanos) {
+		time = nanos / 1000000L;
+	}
+
+	/**
+	 * @return replay time in milliseconds since the epoch, wall clock before the first event
+	 */
+	public long currentTimeMillis() {
+		long t = time;
+
+		return(t >= 0 ? t : System.currentTimeMillis());
+	}
+
+	/**
+	 * Matches the working orders of the ticker against a price tick. Only last
+	 * prices (field 4) trade.
+	 * @param tickerId ticker id
+	 * @param field tick type
+	 * @param price price
+	 */
+	public void onPrice(int tickerId, int field, double price) {
+		if (field != 4 || price <= 0) {
+			return;
+		}
+
+		// Orders activated by fills on this tick are matched from the next tick on
+		List<SimOrder> active = new ArrayList<>();
+		for (SimOrder o: orders.values()) {
+			if (o.tickerId == tickerId && isActive(o)) {
+				active.add(o);
+			}
+		}
+
+		for (SimOrder o: active) {
+			if (isActive(o) && matches(o, price)) {
+				fill(o, price);
+			}
+		}
+	}
+
+	/**
+	 * @param id order id
+	 * @return last status of the order or null if unknown
+	 */
+	public String getStatus(int id) {
+		SimOrder o;
+
+		synchronized (orders) {
+			o = orders.get(id);
+		}
+
+		return(o == null ? null : o.status);
+	}
+
+	/**
+	 * @param id order id
+	 * @return fill price of the order, 0 if not filled
+	 */
+	public double getFillPrice(int id) {
+		SimOrder o;
+
+		synchronized (orders) {
+			o = orders.get(id);
+		}
+
+		return(o == null ? 0 : o.fillPrice);
+	}
+
+	private void place(int id, Contract c, Order order) {
+		SimOrder o = orders.get(id);
+
+		if (o != null) {
+			// Modification, the new prices apply from the next tick
+			if (!isDone(o)) {
+				o.order = order;
+				o.stop = Double.NaN;
+				status(o, o.status);
+			}
+			return;
+		}
+
+		o = new SimOrder();
+		o.id = id;
+		o.contract = c;
+		o.order = order;
+		o.permId = nextPermId++;
+		o.tickerId = tickers.getOrDefault(key(c), -1);
+		synchronized (orders) {
+			orders.put(id, o);
+		}
+		status(o, isActive(o) ? "Submitted" : "PreSubmitted");
+	}
+
+	/**
+	 * An order is active when it is working and its parent, if any, is filled
+	 */
+	private boolean isActive(SimOrder o) {
+		if (isDone(o)) {
+			return(false);
+		}
+		int parent = o.order.parentId();
+
+		if (parent == 0) {
+			return(true);
+		}
+		SimOrder p = orders.get(parent);
+		return(p != null && "Filled".equals(p.status));
+	}
+
+	private boolean isDone(SimOrder o) {
+		return("Filled".equals(o.status) || "Cancelled".equals(o.status));
+	}
+
+	private boolean matches(SimOrder o, double price) {
+		Order order = o.order;
+		boolean buy = order.action() == Action.BUY;
+		OrderType type = order.orderType();
+
+		switch (type) {
+		case MKT:
+			return(true);
+		case LMT:
+			return(buy ? price <= order.lmtPrice() : price >= order.lmtPrice());
+		case STP:
+			return(buy ? price >= order.auxPrice() : price <= order.auxPrice());
+		case STP_LMT:
+			if (!o.triggered) {
+				o.triggered = buy ? price >= order.auxPrice() : price <= order.auxPrice();
+			}
+			return(o.triggered && (buy ? price <= order.lmtPrice() : price >= order.lmtPrice()));
+		case TRAIL:
+		case TRAIL_LIMIT:
+			// Trailing amount in auxPrice, the initial stop is trailStopPrice if given
+			double amt = order.auxPrice();
+
+			if (Double.isNaN(o.stop)) {
+				double init = order.trailStopPrice();
+				o.stop = (init > 0 && init != Double.MAX_VALUE) ? init : (buy ? price + amt : price - amt);
+			}
+			if (buy) {
+				o.stop = Math.min(o.stop, price + amt);
+				return(price >= o.stop);
+			}
+			o.stop = Math.max(o.stop, price - amt);
+			return(price <= o.stop);
+		default:
+			return(false);
+		}
+	}
+
+	private void fill(SimOrder o, double price) {
+		double q = o.order.totalQuantity();
+		Execution e = new Execution();
+
+		o.fillPrice = price;
+		e.orderId(o.id);
+		e.execId("sim." + nextExecId++);
+		e.time(EXEC_TIME.format(Instant.ofEpochMilli(currentTimeMillis())));
+		e.acctNumber("SIM");
+		e.exchange(o.contract.exchange());
+		e.side(o.order.action() == Action.BUY ? "BOT" : "SLD");
+		e.shares(q);
+		e.price(price);
+		e.permId(o.permId);
+		e.cumQty((int) q);
+		e.avgPrice(price);
+
+		o.status = "Filled";
+		target.execDetails(-1, o.contract, e);
+		target.orderStatus(o.id, "Filled", q, 0, price, o.permId, o.order.parentId(), price, 0, null);
+
+		// One cancels all
+		String oca = o.order.ocaGroup();
+		if (oca != null && !oca.isEmpty()) {
+			for (SimOrder x: new ArrayList<>(orders.values())) {
+				if (x != o && !isDone(x) && oca.equals(x.order.ocaGroup())) {
+					cancel(x);
+				}
+			}
+		}
+
+		// Attached orders go live
+		for (SimOrder x: orders.values()) {
+			if (x.order.parentId() == o.id && !isDone(x)) {
+				status(x, "Submitted");
+			}
+		}
+	}
+
+	private void cancel(SimOrder o) {
+		status(o, "Cancelled");
+		for (SimOrder x: new ArrayList<>(orders.values())) {
+			if (x.order.parentId() == o.id && !isDone(x)) {
+				cancel(x);
+			}
+		}
+	}
+
+	private void status(SimOrder o, String status) {
+		o.status = status;
+		target.orderStatus(o.id, status, 0, o.order.totalQuantity(), 0, o.permId, o.order.parentId(), 0, 0, null);
+	}
+
+	private static String key(Contract c) {
+		return(c.symbol() + "|" + c.secType() + "|" + c.lastTradeDateOrContractMonth() + "|" + c.strike() + "|" + c.right());
+	}
+}
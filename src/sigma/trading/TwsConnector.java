@@ -1,5 +1,6 @@
 package sigma.trading;
 
+import java.util.Arrays;
 import java.util.Set;
 import java.util.Vector;
 
@@ -10,15 +11,22 @@ import com.ib.client.DeltaNeutralContract;
 import com.ib.client.EClientSocket;
 import com.ib.client.EJavaSignal;
 import com.ib.client.EReader;
+import com.ib.client.EReaderSignal;
+import com.ib.client.ESpinSignal;
+import com.ib.client.ESpscMessageQueue;
+import com.ib.client.EWaitStrategy;
 import com.ib.client.EWrapper;
 import com.ib.client.Execution;
 import com.ib.client.Order;
 import com.ib.client.OrderState;
 import com.ib.client.TagValue;
 
+import sigma.data.BarAggregator;
+import sigma.data.TickJournal;
 import sigma.utils.Helper;
 import sigma.utils.LogLevel;
 import sigma.utils.Logger;
+import sigma.utils.PriceStore;
 
 /**
  * 
@@ -27,21 +35,51 @@ import sigma.utils.Logger;
  *
  */
 public class TwsConnector implements EWrapper {
+	// Ticker and request ids are allocated above this, well clear of order ids
+	public static final int REQ_ID_BASE = 1 << 24;
+	public static final int REQ_ID_CAPACITY = 8192;
+	
 	// Safety switch
 	protected boolean simulated; 
 	
 	// TWS internals
-	protected EJavaSignal m_signal;
+	protected EReaderSignal m_signal;
 	protected EReader m_reader;
 	protected EClientSocket tws;
     
 	protected int nextOrderID = 0;
+	protected OrderIdAllocator orderIds = new OrderIdAllocator();
+	protected RequestIdAllocator<EWrapper> requests = new RequestIdAllocator<>(REQ_ID_BASE, REQ_ID_CAPACITY);
+	protected boolean directDecode = true;
+	protected int msgPoolSize = 256;
+	protected EWaitStrategy waitStrategy = null;
+	protected boolean asyncSend = true;
     protected String myName = "Sigma Trader";
     
+    // Latest quotes by ticker id
+    protected PriceStore priceStore = new PriceStore();
+    
+    // Recording of inbound market data, off when null
+    protected TickJournal journal = null;
+    
+    // Bars built from the ticks of all tickers
+    protected volatile BarAggregator[] aggregators = new BarAggregator[0];
+    
+    // Simulated broker during replay, orders go to TWS when null
+    protected SimBroker broker = null;
+    
+    // Tick-to-order latency measurement, off when null
+    protected LatencyMonitor latency = null;
+    
     // Threads
     protected Logger logger;
     protected Thread msgThread;
     
+    // Interval of the onTimer() calls on the message thread, 0 for no timer
+    protected long timerInterval = 100;
+    protected Thread timerThread;
+    private long nextTimer = 0;
+    
     /**
      * Simple message processor
      * 
@@ -50,8 +88,18 @@ public class TwsConnector implements EWrapper {
      */
     protected class Task implements Runnable {
         public void run(){
-          while (!Thread.currentThread().isInterrupted()){
-            processMessages();    
+          try {
+            while (!Thread.currentThread().isInterrupted()){
+              m_signal.waitForSignal();
+              processMessages();    
+              timer();
+            }
+          } finally {
+            // A reader waiting for space in a full queue stops instead of spinning
+            EReader r = m_reader;
+            if (r != null) {
+              r.closeQueue();
+            }
           }
         }
     }
@@ -91,6 +139,7 @@ public class TwsConnector implements EWrapper {
 	 */
 	public TwsConnector(String name, LogLevel ll, String fname) {
 		logger = new Logger(fname, ll);
+		logger.setAsync();
 		logger.log(myName + " init.");
 		
 		this.myName = name;	
@@ -107,6 +156,7 @@ public class TwsConnector implements EWrapper {
 	 */
 	public void twsConnect(String host, int port) {
 
+	    tws.setAsyncSend(asyncSend);
 	    tws.eConnect(host, port, (int) (Math.round((Math.random() * 100))));
 
 	    while (! tws.isConnected()) {
@@ -116,7 +166,17 @@ public class TwsConnector implements EWrapper {
 	    logger.log("Connected");
 
 	    // Start reader thread
-	    m_reader = new EReader(tws, m_signal);
+	    if (waitStrategy == null) {
+	    	m_reader = new EReader(tws, m_signal);
+	    } else {
+	    	m_reader = new EReader(tws, m_signal, new ESpscMessageQueue(waitStrategy));
+	    }
+	    m_reader.setDirectDecode(directDecode);
+	    m_reader.setMessagePool(msgPoolSize);
+	    if (latency != null) {
+	    	m_reader.setTimestamps(true);
+	    	latency.setReader(m_reader);
+	    }
 	    m_reader.start();
 	    
 	    // Start message thread
@@ -124,6 +184,13 @@ public class TwsConnector implements EWrapper {
 	    msgThread = new Thread(myTask, "T1");
 	    msgThread.start();
 	    
+	    // Start timer, it only wakes the message thread which then calls onTimer()
+	    if (timerInterval > 0) {
+	    	timerThread = new Thread(this::signalTimer, "Timer");
+	    	timerThread.setDaemon(true);
+	    	timerThread.start();
+	    }
+	    
 		// For safety
 		simulated = true;
 	}
@@ -146,20 +213,35 @@ public class TwsConnector implements EWrapper {
 		
 
 		logger.log("Stopping message processessor");
-		msgThread.interrupt();
-		Helper.sleep(100);
-		msgThread = null;
+		if (timerThread != null) {
+			timerThread.interrupt();
+			timerThread = null;
+		}
+		if (msgThread != null) {
+			msgThread.interrupt();
+			Helper.sleep(100);
+			msgThread = null;
+		}
 		
 		logger.log("Stopping reader");
-		m_reader.interrupt();
-		Helper.sleep(100);
+		if (m_reader != null) {
+			m_reader.interrupt();
+			Helper.sleep(100);
+		}
 
 		logger.log("Closing socket");
 		Helper.sleep(100);
 		tws.eDisconnect();
 		
+		if (latency != null) {
+			latency.setReader(null);
+		}
 		m_reader = null;
 		
+		if (journal != null) {
+			journal.flush();
+		}
+		
 		// Shut down the logger
 		logger.close();
 	}
@@ -191,6 +273,236 @@ public class TwsConnector implements EWrapper {
 		return(nextOrderID);
 	}
 	
+	/**
+	 * Accessor for the local order id allocator. Reserving ids from it
+	 * needs no reqId() round trip once TWS has sent the first valid id.
+	 * @return OrderIdAllocator
+	 */
+	public OrderIdAllocator getOrderIds() {
+		return(orderIds);
+	}
+	
+	/**
+	 * Sets the journal that records every tickPrice(), tickSize() and
+	 * tickOptionComputation() event
+	 * @param journal journal or null to stop recording
+	 */
+	public void setJournal(TickJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * @return tick journal or null if not recording
+	 */
+	public TickJournal getJournal() {
+		return(journal);
+	}
+	
+	/**
+	 * Adds a bar aggregator, fed with the tickPrice() and tickSize() events of all
+	 * tickers on the message thread, at the connector's (or replay) time
+	 * @param a aggregator
+	 */
+	public synchronized void addBarAggregator(BarAggregator a) {
+		BarAggregator[] n = Arrays.copyOf(aggregators, aggregators.length + 1);
+		
+		n[n.length - 1] = a;
+		aggregators = n;
+	}
+	
+	/**
+	 * Removes a bar aggregator
+	 * @param a aggregator
+	 */
+	public synchronized void removeBarAggregator(BarAggregator a) {
+		aggregators = Arrays.stream(aggregators).filter(x -> x != a).toArray(BarAggregator[]::new);
+	}
+	
+	/**
+	 * Passes a price tick to the bar aggregators
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param price price
+	 */
+	protected void aggregatePrice(int tickerId, int field, double price) {
+		BarAggregator[] a = aggregators;
+		
+		if (a.length > 0) {
+			long t = currentTimeMillis();
+			
+			for (BarAggregator x: a) {
+				x.price(tickerId, field, price, t);
+			}
+		}
+	}
+	
+	/**
+	 * Passes a size tick to the bar aggregators
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param size size
+	 */
+	protected void aggregateSize(int tickerId, int field, int size) {
+		BarAggregator[] a = aggregators;
+		
+		if (a.length > 0) {
+			long t = currentTimeMillis();
+			
+			for (BarAggregator x: a) {
+				x.size(tickerId, field, size, t);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the interval of the onTimer() calls when connected to TWS, takes effect
+	 * on the next connect
+	 * @param millis interval in milliseconds, 0 for no timer
+	 */
+	public void setTimerInterval(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Timer interval must not be negative");
+		}
+		this.timerInterval = millis;
+	}
+	
+	/**
+	 * Wakes the message thread at the timer interval, so onTimer() runs even
+	 * when no messages arrive
+	 */
+	private void signalTimer() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(timerInterval);
+				m_signal.issueSignal();
+			}
+		} catch (InterruptedException e) {
+			// Disconnecting
+		}
+	}
+	
+	/**
+	 * Calls onTimer() on the message thread once the interval has passed
+	 */
+	private void timer() {
+		if (timerInterval == 0) {
+			return;
+		}
+		
+		long now = currentTimeMillis();
+		
+		if (now >= nextTimer) {
+			onTimer(now);
+			nextTimer = now + timerInterval;
+		}
+	}
+	
+	/**
+	 * Periodic work between ticks, completes the time bars whose period has ended.
+	 * Must be called on the thread that delivers the ticks. When connected to TWS
+	 * the message thread calls it every timer interval, between messages. Replay
+	 * calls it on the replay thread at a fixed interval of the replay clock, so the
+	 * timer work of a replay is as repeatable as the tick callbacks.
+	 * 
+	 * @param now current time in milliseconds, currentTimeMillis() of the caller
+	 */
+	public void onTimer(long now) {
+		for (BarAggregator x: aggregators) {
+			x.advance(now);
+		}
+	}
+	
+	/**
+	 * Sets the tick-to-order latency monitor, takes effect on the next connect
+	 * @param latency monitor or null to stop measuring
+	 */
+	public void setLatencyMonitor(LatencyMonitor latency) {
+		this.latency = latency;
+	}
+	
+	/**
+	 * @return latency monitor or null if not measuring
+	 */
+	public LatencyMonitor getLatencyMonitor() {
+		return(latency);
+	}
+	
+	/**
+	 * Marks the decision of the strategy to send orders for the current tick,
+	 * for the latency monitor
+	 */
+	public void markDecision() {
+		if (latency != null) {
+			latency.decision();
+		}
+	}
+	
+	/**
+	 * Attaches a simulated broker, e.g. for replay. Orders, cancels and market
+	 * data requests go to the broker instead of TWS and the connector counts
+	 * as connected.
+	 * @param broker broker or null to detach
+	 */
+	public void setBroker(SimBroker broker) {
+		this.broker = broker;
+	}
+	
+	/**
+	 * @return simulated broker or null
+	 */
+	public SimBroker getBroker() {
+		return(broker);
+	}
+	
+	/**
+	 * Current time for strategy decisions, the replay clock when replaying
+	 * @return time in milliseconds since the epoch
+	 */
+	public long currentTimeMillis() {
+		SimBroker b = broker;
+		
+		return(b == null ? System.currentTimeMillis() : b.currentTimeMillis());
+	}
+	
+	/**
+	 * Allocates a ticker or request id that is not routed to a handler
+	 * @return id
+	 */
+	public int nextRequestId() {
+		return(requests.allocate(null));
+	}
+	
+	/**
+	 * Allocates a ticker or request id. Callbacks carrying the id are passed to the
+	 * handler, the id is recycled after the end callback of the request (snapshot end,
+	 * contract details end etc.), a request error or cancelMktData().
+	 * 
+	 * @param handler handler for the callbacks, e.g. a DefaultEWrapper subclass
+	 * @return id
+	 */
+	public int nextRequestId(EWrapper handler) {
+		return(requests.allocate(handler));
+	}
+	
+	/**
+	 * Returns id for reuse, for requests that have no end callback
+	 * @param id ticker or request id
+	 */
+	public void releaseRequestId(int id) {
+		requests.release(id);
+	}
+	
+	/**
+	 * Cancels market data subscription and recycles its ticker id
+	 * @param id ticker id
+	 */
+	public void cancelMktData(int id) {
+		if (tws.isConnected()) {
+			tws.cancelMktData(id);
+		}
+		requests.release(id);
+	}
+	
 	/**
 	 * Sets simulation mode of the connector.
 	 * @param sim
@@ -212,6 +524,49 @@ public class TwsConnector implements EWrapper {
 		return(simulated);
 	}
 	
+	/**
+	 * Selects whether incoming messages are decoded directly from the
+	 * message bytes (no String per field). Takes effect on next connect.
+	 * @param direct
+	 */
+	public void setDirectDecode(boolean direct) {
+		directDecode = direct;
+	}
+	
+	/**
+	 * Sets the number of recycled receive buffers used by the reader,
+	 * 0 allocates a new buffer per message. Takes effect on next connect.
+	 * @param size
+	 */
+	public void setMsgPoolSize(int size) {
+		msgPoolSize = size;
+	}
+	
+	/**
+	 * Selects whether requests are queued to a writer thread, with orders
+	 * sent ahead of market data requests. Takes effect on next connect.
+	 * @param async
+	 */
+	public void setAsyncSend(boolean async) {
+		asyncSend = async;
+	}
+	
+	/**
+	 * Replaces the monitor based hand-off between the reader and the message
+	 * thread with a lock-free queue and a spinning, yielding or parking signal.
+	 * Must be called before twsConnect(), null restores the default.
+	 * @param ws wait strategy of the message thread
+	 */
+	public void setWaitStrategy(EWaitStrategy ws) {
+		if (tws.isConnected()) {
+			logger.error("Cannot change wait strategy while connected to TWS.");
+			return;
+		}
+		waitStrategy = ws;
+		m_signal = (ws == null) ? new EJavaSignal() : new ESpinSignal(ws);
+		tws = new EClientSocket(this, m_signal);
+	}
+	
 	/**
 	 * Places bracket order set to the market.
 	 *
@@ -220,29 +575,59 @@ public class TwsConnector implements EWrapper {
 	 * @param o Order
 	 */
 	public void placeOrder(int i, Contract c, Order o) {
-		if (tws.isConnected()) {
+		if (broker != null) {
+			broker.placeOrder(i, c, o);
+		} else if (tws.isConnected()) {
 			if (getSimulated()) {
 				logger.log("Placing simulated order for " + c.symbol());
 			} else {
 				tws.placeOrder(i, c, o);
+				if (latency != null) {
+					latency.sent();
+				}
 			}
 		} else {
 			logger.error("Cannot place order, not connected to TWS.");
 		}
 	}
 	
+	/**
+	 * Cancels an order
+	 * @param id order id
+	 */
+	public void cancelOrder(int id) {
+		if (broker != null) {
+			broker.cancelOrder(id);
+		} else if (tws.isConnected()) {
+			tws.cancelOrder(id);
+		} else {
+			logger.error("Cannot cancel order, not connected to TWS.");
+		}
+	}
+	
 	/**
 	 * Request market data for given contract.
 	 * @param c
 	 */
 	public void reqMktData(int id, Contract c) {
+		reqMktData(id, c, null, false);
+	}
+	
+	/**
+	 * Request market data or a snapshot for given contract. A simulated broker
+	 * streams the ticks it replays and never ends a snapshot.
+	 * @param id ticker id
+	 * @param c contract
+	 * @param genericTickList generic tick list or null
+	 * @param snapshot true for a snapshot
+	 */
+	public void reqMktData(int id, Contract c, String genericTickList, boolean snapshot) {
 		Vector<TagValue> mktDataOptions = new Vector<>();
 		
-		if (tws.isConnected()) {
-			String genericTickList = null;
-			
-			//tws.reqMktData(nextOrderID, c, genericTickList, false, mktDataOptions);
-			tws.reqMktData(id, c, genericTickList, false, mktDataOptions);
+		if (broker != null) {
+			broker.subscribe(id, c);
+		} else if (tws.isConnected()) {
+			tws.reqMktData(id, c, genericTickList, snapshot, mktDataOptions);
 		} else {
 			logger.error("Cannot request data, not connected to TWS.");
 		}	
@@ -263,10 +648,10 @@ public class TwsConnector implements EWrapper {
 	/**
 	 * Check whether the connector is in fact connected to the TWS
 	 * 
-	 * @return true if the connection to TWS is established
+	 * @return true if the connection to TWS is established or a simulated broker is attached
 	 */
 	public boolean isConnected() {
-		return(tws.isConnected());
+		return(broker != null || tws.isConnected());
 	}
     
 	/** 
@@ -277,8 +662,47 @@ public class TwsConnector implements EWrapper {
 		return(tws);
 	}
 	
+	/**
+	 * Accessor for the quote store, safe to read from any thread
+	 * @return PriceStore latest quotes by ticker id
+	 */
+	public PriceStore getPriceStore() {
+		return(priceStore);
+	}
+	
+	/**
+	 * Price tick: measures latency, journals, aggregates bars and passes the tick to the
+	 * handler of its request, or updates the price store and calls priceTick().
+	 * Subclasses override priceTick() rather than this method.
+	 */
 	@Override
 	public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+		EWrapper h = requests.get(tickerId);
+		
+		if (latency != null) {
+			latency.callback();
+		}
+		if (journal != null) {
+			journal.price(tickerId, field, price, canAutoExecute);
+		}
+		aggregatePrice(tickerId, field, price);
+		if (h != null) {
+			h.tickPrice(tickerId, field, price, canAutoExecute);
+			return;
+		}
+		
+		priceStore.updatePrice(tickerId, field, price);
+		priceTick(tickerId, field, price);
+	}
+	
+	/**
+	 * Price tick of a ticker without a request handler, after the price store is updated.
+	 * Logs bid, ask and last prices at verbose level.
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param price price
+	 */
+	protected void priceTick(int tickerId, int field, double price) {
 		String tckType = null;
 		
 		switch(field) {
@@ -295,30 +719,62 @@ public class TwsConnector implements EWrapper {
 			tckType = null;
 		}
 		if (tckType != null) {
-			logger.log("Price ticker " + tickerId + " field " + tckType + " price " + price);	
+			logger.verbose("Price ticker {} field {} price {}", tickerId, tckType, price);	
 		}
 			
 	}
 
 	@Override
 	public void tickSize(int tickerId, int field, int size) {
-		logger.verbose("Size ticker " + tickerId + " field " + field + " size " + size);	
+		EWrapper h = requests.get(tickerId);
+		
+		if (journal != null) {
+			journal.size(tickerId, field, size);
+		}
+		aggregateSize(tickerId, field, size);
+		if (h != null) {
+			h.tickSize(tickerId, field, size);
+			return;
+		}
+		priceStore.updateSize(tickerId, field, size);
+		logger.verbose("Size ticker {} field {} size {}", tickerId, field, size);	
 	}
 
 	@Override
 	public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta, double optPrice,
 			double pvDividend, double gamma, double vega, double theta, double undPrice) {
+		EWrapper h = requests.get(tickerId);
+		
+		if (journal != null) {
+			journal.option(tickerId, field, impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice);
+		}
+		if (h != null) {
+			h.tickOptionComputation(tickerId, field, impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice);
+			return;
+		}
 		logger.log("Tick option computation");		
 	}
 
 	@Override
 	public void tickGeneric(int tickerId, int tickType, double value) {
-		logger.verbose("Generic ticker " + tickerId + " type " + tickType + " value " + value);		
+		EWrapper h = requests.get(tickerId);
+		
+		if (h != null) {
+			h.tickGeneric(tickerId, tickType, value);
+			return;
+		}
+		logger.verbose("Generic ticker {} type {} value {}", tickerId, tickType, value);		
 	}
 
 	@Override
 	public void tickString(int tickerId, int tickType, String value) {
-		logger.verbose("String ticker " + tickerId + " type " + tickType + " value " + value);		
+		EWrapper h = requests.get(tickerId);
+		
+		if (h != null) {
+			h.tickString(tickerId, tickType, value);
+			return;
+		}
+		logger.verbose("String ticker {} type {} value {}", tickerId, tickType, value);		
 	}
 
 	@Override
@@ -374,21 +830,34 @@ public class TwsConnector implements EWrapper {
 	public void nextValidId(int orderId) {
 		logger.log("Updating order ID to:" + orderId);
 		nextOrderID = orderId;
+		orderIds.update(orderId);
 	}
 
 	@Override
 	public void contractDetails(int reqId, ContractDetails contractDetails) {
-		logger.verbose("Contract details req: " + reqId + " " + contractDetails.toString());
+		EWrapper h = requests.get(reqId);
+		
+		if (h != null) {
+			h.contractDetails(reqId, contractDetails);
+			return;
+		}
+		logger.verbose("Contract details req: {} {}", reqId, contractDetails);
 	}
 
 	@Override
 	public void bondContractDetails(int reqId, ContractDetails contractDetails) {
-		logger.verbose("Bond contract details req: " + reqId + " " + contractDetails.toString());		
+		logger.verbose("Bond contract details req: {} {}", reqId, contractDetails);		
 	}
 
 	@Override
 	public void contractDetailsEnd(int reqId) {
+		EWrapper h = requests.get(reqId);
+		
 		logger.verbose("End of contract details for req: " + reqId);		
+		if (h != null) {
+			h.contractDetailsEnd(reqId);
+		}
+		requests.release(reqId);
 	}
 
 	@Override
@@ -431,7 +900,18 @@ public class TwsConnector implements EWrapper {
 	@Override
 	public void historicalData(int reqId, String date, double open, double high, double low, double close, int volume,
 			int count, double WAP, boolean hasGaps) {
-		logger.verbose("Historical data received.");		
+		EWrapper h = requests.get(reqId);
+		
+		if (h != null) {
+			h.historicalData(reqId, date, open, high, low, close, volume, count, WAP, hasGaps);
+		} else {
+			logger.verbose("Historical data received.");
+		}
+		
+		// End of data is marked by a "finished" row
+		if (date.startsWith("finished")) {
+			requests.release(reqId);
+		}
 	}
 
 	@Override
@@ -453,6 +933,12 @@ public class TwsConnector implements EWrapper {
 	@Override
 	public void realtimeBar(int reqId, long time, double open, double high, double low, double close, long volume,
 			double wap, int count) {
+		EWrapper h = requests.get(reqId);
+		
+		if (h != null) {
+			h.realtimeBar(reqId, time, open, high, low, close, volume, wap, count);
+			return;
+		}
 		logger.verbose("Realtime bar received.");		
 	}
 
@@ -473,7 +959,13 @@ public class TwsConnector implements EWrapper {
 
 	@Override
 	public void tickSnapshotEnd(int reqId) {
-		logger.verbose("End of snapshot tick data for req: " + reqId);		
+		EWrapper h = requests.get(reqId);
+		
+		logger.verbose("End of snapshot tick data for req: {}", reqId);		
+		if (h != null) {
+			h.tickSnapshotEnd(reqId);
+		}
+		requests.release(reqId);
 	}
 
 	@Override
@@ -550,7 +1042,43 @@ public class TwsConnector implements EWrapper {
 
 	@Override
 	public void error(int id, int errorCode, String errorMsg) {
+		EWrapper h = requests.get(id);
+		
 		logger.error(id + " " + errorCode + " " + errorMsg);
+		if (h != null) {
+			h.error(id, errorCode, errorMsg);
+		}
+		
+		if (endsRequest(errorCode)) {
+			requests.release(id);
+		}
+	}
+	
+	/**
+	 * Whether a request error means the request is dead and its id can be reused.
+	 * Errors such as 300 (unknown ticker id), 322 (duplicate ticker id) or 366 (no
+	 * query for the id) refer to a request that is still live or already gone, so
+	 * they do not end it.
+	 * 
+	 * @param errorCode TWS error code
+	 * @return true if the request has ended
+	 */
+	public static boolean endsRequest(int errorCode) {
+		switch(errorCode) {
+		case 101: // max number of tickers reached
+		case 162: // historical data service error, incl. pacing violation and no data
+		case 200: // no security definition found
+		case 203: // security not available or allowed
+		case 309: // max number of market depth requests reached
+		case 321: // error validating request
+		case 354: // market data not subscribed
+		case 420: // invalid real time query
+		case 430: // fundamental data not available
+		case 504: // not connected
+			return(true);
+		default:
+			return(false);
+		}
 	}
 
 	@Override
@@ -590,12 +1118,24 @@ public class TwsConnector implements EWrapper {
 	@Override
 	public void securityDefinitionOptionalParameter(int reqId, String exchange, int underlyingConId,
 			String tradingClass, String multiplier, Set<String> expirations, Set<Double> strikes) {
+		EWrapper h = requests.get(reqId);
+		
+		if (h != null) {
+			h.securityDefinitionOptionalParameter(reqId, exchange, underlyingConId, tradingClass, multiplier, expirations, strikes);
+			return;
+		}
 		logger.log("Security defition optional parameter");		
 	}
 
 	@Override
 	public void securityDefinitionOptionalParameterEnd(int reqId) {
+		EWrapper h = requests.get(reqId);
+		
 		logger.verbose("Securoty defition optional parameter end.");		
+		if (h != null) {
+			h.securityDefinitionOptionalParameterEnd(reqId);
+		}
+		requests.release(reqId);
 	}
 
 }
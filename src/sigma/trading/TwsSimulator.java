@@ -0,0 +1,631 @@
+package sigma.trading;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ib.client.Builder;
+import com.ib.client.Contract;
+import com.ib.client.DefaultEWrapper;
+import com.ib.client.EClient;
+import com.ib.client.Order;
+
+import sigma.utils.Helper;
+
+/**
+ * Local stand-in for TWS or IB Gateway that speaks the V100+ socket protocol, for load
+ * and latency testing of the whole client stack without a TWS connection.
+ *
+ * The simulator does the connection handshake, answers START_API and reqIds() with
+ * nextValidId(), streams random walk quotes for every reqMktData() at the configured
+ * rate (snapshots get one quote and tickSnapshotEnd()), and acknowledges and fills
+ * orders through a SimBroker, which sees the simulated last prices. Historical data
+ * requests are answered at once with bars whose prices depend only on the bar time,
+ * and can be limited to a number of requests per time window, beyond which they get
+ * the pacing violation error. Other requests are ignored.
+ *
+ * Each connection has a reader thread for the requests and a generator thread that
+ * writes the ticks and order status messages in batches.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class TwsSimulator implements AutoCloseable {
+	public static final int SERVER_VERSION = EClient.MAX_VERSION;
+
+	// Message ids
+	private static final int IN_REQ_MKT_DATA = 1;
+	private static final int IN_CANCEL_MKT_DATA = 2;
+	private static final int IN_PLACE_ORDER = 3;
+	private static final int IN_CANCEL_ORDER = 4;
+	private static final int IN_REQ_IDS = 8;
+	private static final int IN_REQ_HISTORICAL_DATA = 20;
+	private static final int IN_START_API = 71;
+	private static final int OUT_TICK_PRICE = 1;
+	private static final int OUT_ORDER_STATUS = 3;
+	private static final int OUT_ERR_MSG = 4;
+	private static final int OUT_NEXT_VALID_ID = 9;
+	private static final int OUT_MANAGED_ACCTS = 15;
+	private static final int OUT_HISTORICAL_DATA = 17;
+	private static final int OUT_TICK_SNAPSHOT_END = 57;
+
+	private static final int BATCH = 32 * 1024;
+	private static final DateTimeFormatter BAR_TIME = DateTimeFormatter.ofPattern("yyyyMMdd  HH:mm:ss");
+	private static final DateTimeFormatter END_TIME = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+
+	private final ServerSocket server;
+	private final List<Session> sessions = new CopyOnWriteArrayList<>();
+	private final AtomicLong ticksSent = new AtomicLong();
+	private final AtomicLong historicalRequests = new AtomicLong();
+	private final ArrayDeque<Long> historicalTimes = new ArrayDeque<>();
+	private int historicalLimit = 0;
+	private long historicalWindow = 0;
+	private volatile boolean running = false;
+	private volatile double tickRate = 10;
+	private volatile double startPrice = 50;
+	private volatile double priceStep = 0.01;
+	private Thread acceptor;
+
+	/**
+	 * Simulator listening on the loopback interface
+	 * @param port port, 0 for any free port
+	 * @throws IOException if the port cannot be opened
+	 */
+	public TwsSimulator(int port) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * @return port the simulator listens on
+	 */
+	public int getPort() {
+		return(server.getLocalPort());
+	}
+
+	/**
+	 * Sets the tick rate, applies from the next subscription. Every tick is one price
+	 * message, in turn last, bid and ask. The last price moves by one step per last tick.
+	 * @param rate ticks per second per market data subscription
+	 */
+	public void setTickRate(double rate) {
+		if (!(rate > 0)) {
+			throw new IllegalArgumentException("Tick rate must be positive");
+		}
+		tickRate = rate;
+	}
+
+	/**
+	 * @param price first price of a subscription
+	 */
+	public void setStartPrice(double price) {
+		startPrice = price;
+	}
+
+	/**
+	 * @param step price change per last tick, also the bid-ask half spread
+	 */
+	public void setPriceStep(double step) {
+		priceStep = step;
+	}
+
+	/**
+	 * @return number of price ticks sent to all clients
+	 */
+	public long getTicksSent() {
+		return(ticksSent.get());
+	}
+
+	/**
+	 * Limits historical data requests, as the TWS pacing rules do
+	 * @param requests requests allowed per window, 0 for no limit
+	 * @param window window in milliseconds
+	 */
+	public synchronized void setHistoricalPacing(int requests, long window) {
+		historicalLimit = requests;
+		historicalWindow = window;
+		historicalTimes.clear();
+	}
+
+	/**
+	 * @return number of historical data requests received, including the rejected ones
+	 */
+	public long getHistoricalRequests() {
+		return(historicalRequests.get());
+	}
+
+	/**
+	 * Counts a historical data request against the pacing limit
+	 * @return false if the request violates the pacing
+	 */
+	private synchronized boolean paceHistorical() {
+		long now = System.currentTimeMillis();
+
+		historicalRequests.incrementAndGet();
+		if (historicalLimit <= 0) {
+			return(true);
+		}
+		while (!historicalTimes.isEmpty() && historicalTimes.peekFirst() <= now - historicalWindow) {
+			historicalTimes.pollFirst();
+		}
+		if (historicalTimes.size() >= historicalLimit) {
+			return(false);
+		}
+		historicalTimes.addLast(now);
+		return(true);
+	}
+
+	/**
+	 * Starts accepting connections
+	 */
+	public void start() {
+		running = true;
+		acceptor = new Thread(() -> {
+			while (running) {
+				try {
+					Session s = new Session(server.accept());
+
+					sessions.add(s);
+					s.start();
+				} catch (IOException e) {
+					if (running) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "TWS simulator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Stops the simulator and closes all connections
+	 */
+	@Override
+	public void close() {
+		running = false;
+		try {
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Session s: sessions) {
+			s.close();
+		}
+	}
+
+	/**
+	 * Random walk quote of one subscription, touched only by the generator thread
+	 */
+	private static class Quote {
+		final int tickerId;
+		final boolean snapshot;
+		double last;
+		long n = 0;
+
+		Quote(int tickerId, boolean snapshot, double price) {
+			this.tickerId = tickerId;
+			this.snapshot = snapshot;
+			this.last = price;
+		}
+	}
+
+	/**
+	 * One client connection
+	 */
+	private class Session {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final OutputStream out;
+		private final Map<Integer, Quote> quotes = new ConcurrentHashMap<>();
+		private final SimBroker broker;
+		private final Builder gen = new Builder(BATCH + 1024);
+		private final SplittableRandom rnd = new SplittableRandom(42);
+		private final double rate = tickRate;
+		private volatile boolean open = true;
+		private int nextOrderId = 1;
+
+		Session(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+
+			// Order callbacks are made on the generator thread and go into its batch
+			broker = new SimBroker(new DefaultEWrapper() {
+				@Override
+				public void orderStatus(int orderId, String status, double filled, double remaining,
+						double avgFillPrice, int permId, int parentId, double lastFillPrice, int clientId,
+						String whyHeld) {
+					int p = gen.allocateLengthHeader();
+
+					gen.send(OUT_ORDER_STATUS);
+					gen.send(6);
+					gen.send(orderId);
+					gen.send(status);
+					gen.send(filled);
+					gen.send(remaining);
+					gen.send(avgFillPrice);
+					gen.send(permId);
+					gen.send(parentId);
+					gen.send(lastFillPrice);
+					gen.send(clientId);
+					gen.send(whyHeld);
+					gen.updateLength(p);
+				}
+			});
+		}
+
+		void start() {
+			Thread r = new Thread(this::read, "TWS simulator reader");
+			Thread g = new Thread(this::generate, "TWS simulator generator");
+
+			r.setDaemon(true);
+			g.setDaemon(true);
+			r.start();
+			g.start();
+		}
+
+		void close() {
+			open = false;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Handshake, then requests until the client disconnects
+		 */
+		private void read() {
+			try {
+				byte[] api = new byte[4];
+
+				in.readFully(api);
+				if (!"API\0".equals(new String(api, StandardCharsets.US_ASCII))) {
+					throw new IOException("Client does not use the V100+ protocol");
+				}
+				readFields();
+
+				Builder b = new Builder(256);
+				int p = b.allocateLengthHeader();
+				b.send(SERVER_VERSION);
+				b.send(new SimpleDateFormat("yyyyMMdd HH:mm:ss z").format(new Date()));
+				b.updateLength(p);
+				write(b);
+
+				while (open) {
+					handle(readFields());
+				}
+			} catch (EOFException e) {
+				// Client disconnected
+			} catch (IOException e) {
+				if (open) {
+					e.printStackTrace();
+				}
+			} finally {
+				close();
+				sessions.remove(this);
+			}
+		}
+
+		private void handle(String[] f) throws IOException {
+			switch (Integer.parseInt(f[0])) {
+			case IN_START_API:
+				Builder b = new Builder(256);
+				int p = b.allocateLengthHeader();
+
+				b.send(OUT_NEXT_VALID_ID);
+				b.send(1);
+				b.send(nextOrderId);
+				b.updateLength(p);
+				p = b.allocateLengthHeader();
+				b.send(OUT_MANAGED_ACCTS);
+				b.send(1);
+				b.send("SIM");
+				b.updateLength(p);
+				write(b);
+				break;
+			case IN_REQ_IDS:
+				b = new Builder(64);
+				p = b.allocateLengthHeader();
+				b.send(OUT_NEXT_VALID_ID);
+				b.send(1);
+				b.send(nextOrderId);
+				b.updateLength(p);
+				write(b);
+				break;
+			case IN_REQ_MKT_DATA:
+				reqMktData(f);
+				break;
+			case IN_CANCEL_MKT_DATA:
+				quotes.remove(Integer.parseInt(f[2]));
+				break;
+			case IN_PLACE_ORDER:
+				placeOrder(f);
+				break;
+			case IN_CANCEL_ORDER:
+				broker.cancelOrder(Integer.parseInt(f[2]));
+				break;
+			case IN_REQ_HISTORICAL_DATA:
+				reqHistoricalData(f);
+				break;
+			default:
+				break;
+			}
+		}
+
+		private Contract contract(String[] f) {
+			Contract c = new Contract();
+
+			c.symbol(f[4]);
+			c.secType(f[5]);
+			c.lastTradeDateOrContractMonth(f[6]);
+			c.strike(number(f[7], 0));
+			c.right(f[8]);
+			c.multiplier(f[9]);
+			c.exchange(f[10]);
+			c.currency(f[12]);
+			return(c);
+		}
+
+		private void reqMktData(String[] f) {
+			int id = Integer.parseInt(f[2]);
+			int i = 15;
+
+			// Combo legs and delta neutral contract come before the generic ticks
+			if ("BAG".equals(f[5])) {
+				i += 1 + 4 * Integer.parseInt(f[i]);
+			}
+			if ("1".equals(f[i++])) {
+				i += 3;
+			}
+			boolean snapshot = "1".equals(f[i + 1]);
+
+			broker.subscribe(id, contract(f));
+			quotes.put(id, new Quote(id, snapshot, startPrice));
+		}
+
+		private void placeOrder(String[] f) {
+			int id = Integer.parseInt(f[2]);
+			Order o = new Order();
+
+			o.orderId(id);
+			o.action(f[17]);
+			o.totalQuantity(number(f[18], 0));
+			o.orderType(f[19]);
+			o.lmtPrice(number(f[20], Double.MAX_VALUE));
+			o.auxPrice(number(f[21], Double.MAX_VALUE));
+			o.ocaGroup(f[23]);
+			o.transmit("1".equals(f[28]));
+			o.parentId((int) number(f[29], 0));
+
+			synchronized (this) {
+				nextOrderId = Math.max(nextOrderId, id + 1);
+			}
+			broker.placeOrder(id, contract(f), o);
+		}
+
+		/**
+		 * Answers a historical data request with all bars of the duration before the end time
+		 */
+		private void reqHistoricalData(String[] f) throws IOException {
+			int id = Integer.parseInt(f[2]);
+			Builder b = new Builder(4096);
+			int p = b.allocateLengthHeader();
+
+			if (!paceHistorical()) {
+				b.send(OUT_ERR_MSG);
+				b.send(2);
+				b.send(id);
+				b.send(162);
+				b.send("Historical Market Data Service error message:Historical data request pacing violation");
+				b.updateLength(p);
+				write(b);
+				return;
+			}
+
+			// End time "yyyyMMdd HH:mm:ss [zone]", empty for now
+			long end = System.currentTimeMillis() / 1000;
+			if (!f[16].isEmpty()) {
+				String[] e = f[16].trim().split("\\s+");
+				ZoneId zone = e.length > 2 ? ZoneId.of(e[2], ZoneId.SHORT_IDS) : ZoneId.systemDefault();
+
+				end = LocalDateTime.parse(e[0] + " " + e[1], END_TIME).atZone(zone).toEpochSecond();
+			}
+			long bar = Helper.seconds(f[17]);
+			long start = end - Helper.seconds(f[18]);
+			long first = (start + bar - 1) / bar * bar;
+			boolean epoch = "2".equals(f[21]);
+
+			b.send(OUT_HISTORICAL_DATA);
+			b.send(3);
+			b.send(id);
+			b.send(time(start, epoch));
+			b.send(time(end, epoch));
+			b.send((int) Math.max(0, (end - first + bar - 1) / bar));
+			for (long t = first; t < end; t += bar) {
+				double close = startPrice + priceStep * (t / bar % 200);
+
+				b.send(time(t, epoch));
+				b.send(close - priceStep);
+				b.send(close + priceStep);
+				b.send(close - 2 * priceStep);
+				b.send(close);
+				b.send(100);
+				b.send(close);
+				b.send("false");
+				b.send(10);
+			}
+			b.updateLength(p);
+			write(b);
+		}
+
+		private String time(long t, boolean epoch) {
+			if (epoch) {
+				return(Long.toString(t));
+			}
+			return(BAR_TIME.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(t), ZoneId.systemDefault())));
+		}
+
+		/**
+		 * Writes the quotes at the session's rate, in batches of all ticks that are due
+		 */
+		private void generate() {
+			long start = System.nanoTime();
+			long rounds = 0;
+
+			while (open) {
+				long now = System.nanoTime();
+				long due = (long) ((now - start) * rate / 1e9);
+
+				if (due <= rounds) {
+					LockSupport.parkNanos(Math.max(1000, (long) ((rounds + 1 - due) * 1e9 / rate)));
+					continue;
+				}
+				// Do not burst to catch up after a long stall
+				if (due - rounds > rate) {
+					rounds = due - 1;
+				}
+
+				broker.setTime(System.currentTimeMillis() * 1000000L);
+				broker.process();
+				for (; rounds < due && gen.size() < BATCH; rounds++) {
+					for (Quote q: quotes.values()) {
+						tick(q);
+					}
+				}
+				try {
+					if (gen.size() > 0) {
+						write(gen);
+						gen.reset();
+					}
+				} catch (IOException e) {
+					close();
+				}
+			}
+		}
+
+		private void tick(Quote q) {
+			if (q.snapshot) {
+				price(q.tickerId, 1, q.last - priceStep);
+				price(q.tickerId, 2, q.last + priceStep);
+				price(q.tickerId, 4, q.last);
+
+				int p = gen.allocateLengthHeader();
+				gen.send(OUT_TICK_SNAPSHOT_END);
+				gen.send(1);
+				gen.send(q.tickerId);
+				gen.updateLength(p);
+				quotes.remove(q.tickerId);
+				return;
+			}
+
+			switch ((int) (q.n++ % 3)) {
+			case 0:
+				q.last = Math.max(priceStep, q.last + (rnd.nextBoolean() ? priceStep : -priceStep));
+				price(q.tickerId, 4, q.last);
+				broker.onPrice(q.tickerId, 4, q.last);
+				break;
+			case 1:
+				price(q.tickerId, 1, q.last - priceStep);
+				break;
+			default:
+				price(q.tickerId, 2, q.last + priceStep);
+				break;
+			}
+		}
+
+		private void price(int tickerId, int field, double price) {
+			int p = gen.allocateLengthHeader();
+
+			// Version 6 carries the size, the client also reports it with tickSize()
+			gen.send(OUT_TICK_PRICE);
+			gen.send(6);
+			gen.send(tickerId);
+			gen.send(field);
+			gen.send(Math.round(price / priceStep) * priceStep);
+			gen.send(1);
+			gen.send(0);
+			gen.updateLength(p);
+			ticksSent.incrementAndGet();
+		}
+
+		private synchronized void write(Builder b) throws IOException {
+			b.writeTo(out);
+			out.flush();
+		}
+
+		private String[] readFields() throws IOException {
+			int len = in.readInt();
+			byte[] buf = new byte[len];
+			List<String> f = new ArrayList<>();
+			int s = 0;
+
+			in.readFully(buf);
+			for (int i = 0; i < len; i++) {
+				if (buf[i] == 0) {
+					f.add(new String(buf, s, i - s, StandardCharsets.UTF_8));
+					s = i + 1;
+				}
+			}
+			if (s < len) {
+				f.add(new String(buf, s, len - s, StandardCharsets.UTF_8));
+			}
+			return(f.toArray(new String[0]));
+		}
+	}
+
+	private static double number(String s, double empty) {
+		return(s == null || s.isEmpty() ? empty : Double.parseDouble(s));
+	}
+
+	/**
+	 * Runs the simulator until killed
+	 * @param args port (default 4001) and ticks per second per subscription (default 1000)
+	 * @throws IOException if the port cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 4001;
+		TwsSimulator sim = new TwsSimulator(port);
+
+		if (args.length > 1) {
+			sim.setTickRate(Double.parseDouble(args[1]));
+		} else {
+			sim.setTickRate(1000);
+		}
+		sim.start();
+		System.out.println("TWS simulator on port " + sim.getPort());
+
+		long last = 0;
+		while (true) {
+			Helper.sleep(1000);
+			long n = sim.getTicksSent();
+			System.out.println((n - last) + " ticks/s");
+			last = n;
+		}
+	}
+}
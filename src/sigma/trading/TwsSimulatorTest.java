@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package sigma.trading;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Order;
+import com.ib.client.OrderType;
+import com.ib.client.Types.Action;
+import com.ib.client.Types.SecType;
+
+import sigma.utils.LogLevel;
+
+/**
+ * Unit testing for the TWS protocol simulator
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class TwsSimulatorTest {
+
+	private static class Client extends TwsConnector {
+		final AtomicInteger ticks = new AtomicInteger();
+		final CountDownLatch ready = new CountDownLatch(1);
+		final CountDownLatch filled = new CountDownLatch(1);
+		final Map<Integer, String> status = new ConcurrentHashMap<>();
+		final AtomicInteger timers = new AtomicInteger();
+		volatile String timerThread;
+
+		Client() {
+			super("Simulator test", LogLevel.WARN);
+		}
+
+		@Override
+		public void nextValidId(int orderId) {
+			super.nextValidId(orderId);
+			ready.countDown();
+		}
+
+		@Override
+		public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+			if (tickerId == 7 && price > 0) {
+				ticks.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void orderStatus(int orderId, String s, double filled, double remaining, double avgFillPrice,
+				int permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+			status.put(orderId, s);
+			if ("Filled".equals(s)) {
+				this.filled.countDown();
+			}
+		}
+
+		@Override
+		public void onTimer(long now) {
+			super.onTimer(now);
+			timerThread = Thread.currentThread().getName();
+			timers.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void testSession() throws Exception {
+		try (TwsSimulator sim = new TwsSimulator(0)) {
+			Client con = new Client();
+			Contract c = new Contract();
+			Order o = new Order();
+
+			sim.setTickRate(1000);
+			sim.start();
+			con.twsConnect("127.0.0.1", sim.getPort());
+			assertTrue(con.ready.await(5, TimeUnit.SECONDS));
+
+			c.symbol("CL");
+			c.secType(SecType.FUT);
+			c.lastTradeDateOrContractMonth("201712");
+			c.exchange("NYMEX");
+			c.currency("USD");
+			con.reqMktData(7, c);
+
+			long end = System.currentTimeMillis() + 5000;
+			while (con.ticks.get() < 100 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			assertTrue(con.ticks.get() >= 100);
+
+			o.action(Action.BUY);
+			o.orderType(OrderType.MKT);
+			o.totalQuantity(1);
+			con.setSimulated(false);
+			con.placeOrder(100, c, o);
+			assertTrue(con.filled.await(5, TimeUnit.SECONDS));
+			assertEquals("Filled", con.status.get(100));
+			assertTrue(sim.getTicksSent() >= con.ticks.get());
+
+			con.twsDisconnect();
+		}
+	}
+
+	@Test
+	public void testTimer() throws Exception {
+		try (TwsSimulator sim = new TwsSimulator(0)) {
+			Client con = new Client();
+
+			sim.start();
+			con.setTimerInterval(20);
+			con.twsConnect("127.0.0.1", sim.getPort());
+			assertTrue(con.ready.await(5, TimeUnit.SECONDS));
+
+			// No market data requested, the timer still runs on the message thread
+			long end = System.currentTimeMillis() + 5000;
+			while (con.timers.get() < 10 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			assertTrue(con.timers.get() >= 10);
+			assertEquals("T1", con.timerThread);
+
+			con.twsDisconnect();
+		}
+	}
+}
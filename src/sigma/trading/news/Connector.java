@@ -5,9 +5,16 @@ package sigma.trading.news;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import sigma.ai.InferenceBatcher;
+import sigma.data.BarAggregator;
 import sigma.trading.TwsConnector;
 import sigma.utils.LogLevel;
-import sigma.utils.Ticker;
+import sigma.utils.PriceStore;
+import sigma.utils.TickerIndex;
 import sigma.utils.Trade;
 import sigma.utils.TraderState;
 
@@ -21,16 +28,24 @@ import sigma.utils.TraderState;
 public class Connector extends TwsConnector {
 	
 	protected List<NewsInstrument> instList;
-	protected List<Ticker> prices;
 	protected List<Trade> trades;
 	
+	// Instruments by ticker id, for routing the ticks, bars and scores
+	protected final TickerIndex<NewsInstrument> instIndex = new TickerIndex<>();
+	
+	// Instruments with an adjustment held back by throttling
+	protected final Set<NewsInstrument> adjPending = ConcurrentHashMap.newKeySet();
+	
+	// Adjust orders from tickPrice() instead of the trading loop
+	protected boolean reactive = true;
+	
 	/**
 	 * Constructor just adds record keeping of ticker prices to twsConnector
 	 */
 	public Connector() {
 		super("Sigma News Trader", LogLevel.INFO);
-		instList = new ArrayList<>();
-		prices = new ArrayList<>();
+		// Iterated by the TWS message thread
+		instList = new CopyOnWriteArrayList<>();
 		trades = new ArrayList<>();
 	}
 	
@@ -39,7 +54,7 @@ public class Connector extends TwsConnector {
 	 * @return connection status
 	 */
 	public boolean isConnected() {
-		return tws.isConnected();
+		return super.isConnected();
 	}
 	
 	/**
@@ -50,19 +65,36 @@ public class Connector extends TwsConnector {
 		for(int i=0; i < instList.size(); i++) {
 			// If item is live cancel stops, trails cancel automatically
 			if (instList.get(i).getState().equals(TraderState.LIVE)) {
-				this.tws.cancelOrder(instList.get(i).getLongStop().orderId());	
-				this.tws.cancelOrder(instList.get(i).getShortStop().orderId());
+				cancelOrder(instList.get(i).getLongStop().orderId());	
+				cancelOrder(instList.get(i).getShortStop().orderId());
 			}
 			// If item is exec, only trails need to be cancelled
 			if (instList.get(i).getState().equals(TraderState.EXEC)) {
-				this.tws.cancelOrder(instList.get(i).getLongTrail().orderId());
-				this.tws.cancelOrder(instList.get(i).getShortTrail().orderId());				
+				cancelOrder(instList.get(i).getLongTrail().orderId());
+				cancelOrder(instList.get(i).getShortTrail().orderId());				
 			}			
 		}
 		
 		twsDisconnect();
 	}
 	
+	/**
+	 * Sets whether the orders are adjusted to the market directly from
+	 * price ticks (default) or by polling in the trading loop
+	 * @param reactive true for tick driven adjustment
+	 */
+	public void setReactive(boolean reactive) {
+		this.reactive = reactive;
+	}
+	
+	/**
+	 * Returns whether the orders are adjusted directly from price ticks
+	 * @return true if tick driven
+	 */
+	public boolean isReactive() {
+		return(reactive);
+	}
+	
 	/**
 	 * Returns list of instruments traded
 	 * @return Instrument list 
@@ -72,11 +104,29 @@ public class Connector extends TwsConnector {
 	}
 	
 	/**
-	 * Returns prices list for tickers traded
-	 * @return list of price Tickers 
+	 * Routes the ticks, bars and scores of the instrument's ticker id to it.
+	 * Called when the instrument requests its market data.
+	 * @param item instrument with its ticker id set
+	 */
+	public void index(NewsInstrument item) {
+		instIndex.put(item.getID(), item);
+	}
+	
+	/**
+	 * Marks an instrument as having an adjustment held back by throttling,
+	 * onTimer() makes it once the interval has passed
+	 * @param item instrument
 	 */
-	public List<Ticker> getPrices() {
-		return(prices);
+	void adjustLater(NewsInstrument item) {
+		adjPending.add(item);
+	}
+	
+	/**
+	 * Returns prices for tickers traded
+	 * @return price store indexed by ticker id
+	 */
+	public PriceStore getPrices() {
+		return(priceStore);
 	}
 	
 	/**
@@ -87,6 +137,62 @@ public class Connector extends TwsConnector {
 		return(trades);
 	}
 	
+	/**
+	 * Builds time bars of the instruments from their ticks and passes them to
+	 * NewsInstrument.onBar() for volatility sizing
+	 * 
+	 * @param millis bar period in milliseconds
+	 * @return aggregator of the bars
+	 */
+	public BarAggregator enableBars(long millis) {
+		BarAggregator bars = BarAggregator.time(millis);
+		
+		bars.addListener((src, tickerId, time, open, high, low, close, volume, count) -> {
+			NewsInstrument item = instIndex.get(tickerId);
+			
+			if (item != null) {
+				item.onBar(high, low, close);
+			}
+		});
+		addBarAggregator(bars);
+		return(bars);
+	}
+	
+	/**
+	 * Passes the model scores of the instruments to NewsInstrument.onSignal(). The
+	 * feature vectors are submitted to the batcher by the caller, they depend on
+	 * the model.
+	 * 
+	 * @param batcher started or not yet started batcher
+	 */
+	public void enableInference(InferenceBatcher batcher) {
+		batcher.addListener((tickerId, scores, offset, length) -> {
+			NewsInstrument item = instIndex.get(tickerId);
+			
+			if (item != null) {
+				item.onSignal(scores[offset]);
+			}
+		});
+	}
+	
+	/**
+	 * Timer work: completes the time bars and, in reactive mode, makes the
+	 * adjustments held back by throttling
+	 * 
+	 * @param now current time in milliseconds
+	 */
+	@Override
+	public void onTimer(long now) {
+		super.onTimer(now);
+		if (reactive && !adjPending.isEmpty()) {
+			for (NewsInstrument item: adjPending) {
+				if (item.flushAdjust(this, now)) {
+					adjPending.remove(item);
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Returns last known price of the instrument
 	 * 
@@ -94,63 +200,27 @@ public class Connector extends TwsConnector {
 	 * @return Last price of the instrument
 	 */
 	public double getPrice(int id) {
-		
-		for (int i = 0; i < prices.size(); i++) { 
-			if (prices.get(i).getId() == id) {
-				return(prices.get(i).getPrice());
-			}
-		}
-		return(-1);
+		return(priceStore.getLast(id));
 	}
 	
 	/**
-	 * Overriden tickPrice method that updates current spot price of the instrument and
-	 * if needed, adjusts the orders.
+	 * Overriden price tick that, if needed, adjusts the orders of the instrument
+	 * on its last price.
 	 */
 	@Override
-	public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
-		String tckType = null;
-		boolean found = false;
-		
-		// Currently assumes only one instrument and ticker id.
-		// If we trade many, then many ticker IDs are needed.
-		
-		switch(field) {
-		case 1: 
-			tckType = "bid";
-			break;
-		case 2:
-			tckType = "ask";
-			break;
-		case 4:
-			tckType = "last";
+	protected void priceTick(int tickerId, int field, double price) {
+		if (field == 4) {
+			logger.verbose("Price ticker {} field last price {}", tickerId, price);	
 			
-			// Try to update existing ticker data
-			for (int i = 0; i < prices.size(); i++) {
-				logger.verbose("Checking ticker " + prices.get(i).getId());
-				if(prices.get(i).getId() == tickerId) {
-					found = true;
-					logger.verbose("Updating ticker " + prices.get(i).getId());
-					prices.get(i).setPrice(price);
+			// Adjust the orders of the instrument right away
+			if (reactive) {
+				NewsInstrument item = instIndex.get(tickerId);
+				
+				if (item != null) {
+					item.onPrice(this, price, currentTimeMillis());
 				}
 			}
-			
-			// If not found add new ticker
-			if (!found) {
-				logger.verbose("Adding new ticker");
-				prices.add(new Ticker(tickerId, price));
-			}
-			break;
-		default:
-			tckType = null;
 		}
-		
-		// Adjustment needs to be done here
-		
-		if (tckType == "last") {
-			logger.verbose("Price ticker " + tickerId + " field " + tckType + " price " + price);	
-		}
-			
 	}
 	
 
@@ -3,7 +3,13 @@
  */
 package sigma.trading.news;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.ib.client.Contract;
 import com.ib.client.Order;
@@ -11,8 +17,8 @@ import com.ib.client.OrderType;
 import com.ib.client.Types.Action;
 import com.ib.client.Types.SecType;
 
+import sigma.indicators.Atr;
 import sigma.trading.Instrument;
-import sigma.utils.Helper;
 import sigma.utils.OptSide;
 import sigma.utils.TraderState;
 
@@ -25,8 +31,11 @@ import sigma.utils.TraderState;
  *
  */
 public class NewsInstrument extends Instrument {
-	// State
-	TraderState state;
+	// Longest wait in ms for the first price and order ids of an order set
+	public static final long ORDER_TIMEOUT = 60000;
+	
+	// State, read by the TWS message thread
+	volatile TraderState state;
 	
 	// Orders
     protected Order longStop;
@@ -43,8 +52,26 @@ public class NewsInstrument extends Instrument {
     protected double target = 0;
     protected double q = 0;
     
+    // Volatility sizing, the parameters above are used until the ATR is ready
+    protected Atr atr = null;
+    protected double deltaAtr = 0;
+    protected double trailAtr = 0;
+    protected double adjAtr = 0;
+    
     protected int oid = 0;
     
+    // Throttling of order adjustments
+    protected long adjInterval = 250;
+    protected long lastAdjTime = 0;
+    protected boolean adjPending = false;
+    
+    // Order set being created and when it was requested, wall clock
+    protected volatile CompletableFuture<Void> pending = null;
+    protected volatile long pendSince = 0;
+    
+    // Last model score, written by the inference thread
+    protected volatile float signal = Float.NaN;
+    
     /**
      * Constructor for news trader instrument class.
      * 
@@ -89,8 +116,8 @@ public class NewsInstrument extends Instrument {
     	inst.exchange(m_exchange);
     	inst.lastTradeDateOrContractMonth(m_expiry);
     	
-    	// id = (int) (Math.round(Math.random() * 1000));
-    	id = new Random().nextInt(1000);
+    	// Ticker id is allocated by the connector when data is requested
+    	id = -1;
     	state = TraderState.WAIT;
     }
     
@@ -161,7 +188,7 @@ public class NewsInstrument extends Instrument {
     	inst.strike(m_strike);
     	inst.right(m_side.toString());
     	
-    	id = new Random().nextInt(1000);
+    	id = -1;
     	state = TraderState.WAIT;
     }
     
@@ -188,34 +215,136 @@ public class NewsInstrument extends Instrument {
     }
     
     /**
-     * Creates order set for the instrument and submits them via API
+     * Creates order set for the instrument and submits them via API.
+     * Blocks until the orders have been submitted or ORDER_TIMEOUT has passed.
+     * 
+     * @param con Connector to TWS
+     * @return true if the orders were submitted
+     */
+    public boolean createOrders(Connector con) {
+    	List<CompletableFuture<Void>> created = new ArrayList<>();
+    	
+    	created.add(createOrdersAsync(con));
+    	return(awaitOrders(created, ORDER_TIMEOUT));
+    }
+    
+    /**
+     * Waits for order sets created by createOrdersAsync(). The ones not submitted
+     * within the timeout are failed, which returns their instruments to WAIT.
+     * 
+     * @param created futures of createOrdersAsync()
+     * @param timeout timeout in ms
+     * @return true if all order sets were submitted
+     */
+    public static boolean awaitOrders(List<CompletableFuture<Void>> created, long timeout) {
+    	long end = System.currentTimeMillis() + timeout;
+    	boolean ok = true;
+    	
+    	for (CompletableFuture<Void> f: created) {
+    		try {
+    			f.get(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    		} catch (ExecutionException e) {
+    			// Reported by the instrument, which is back in WAIT
+    			ok = false;
+    		} catch (TimeoutException e) {
+    			ok = false;
+    			f.completeExceptionally(e);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			ok = false;
+    			f.completeExceptionally(e);
+    		}
+    	}
+    	return(ok);
+    }
+    
+    /**
+     * Fails the order set being created if it has been pending for longer than
+     * the timeout, which returns the instrument to WAIT. Called from the trading loop.
+     * 
+     * @param timeout timeout in ms
+     * @return true if the order set creation was failed
+     */
+    public boolean expire(long timeout) {
+    	CompletableFuture<Void> f = pending;
+    	
+    	if (f == null || f.isDone() || System.currentTimeMillis() - pendSince < timeout) {
+    		return(false);
+    	}
+    	return(f.completeExceptionally(new TimeoutException("No price or order ids in " + timeout + " ms")));
+    }
+    
+    /**
+     * Requests market data and reserves a block of order ids, the orders are
+     * submitted as soon as the first price has arrived. Does not block, so the
+     * orders for many instruments can be created in parallel.
+     * 
+     * The returned future is completed just before the orders are submitted, so
+     * either the submission or a timeout failing the future wins, never both. If
+     * the future is failed, by a timeout before the price has arrived or by a
+     * failed request, the instrument goes back to WAIT.
      * 
      * @param con Connector to TWS
+     * @return future completed when the orders are submitted
      */
-    public void createOrders(Connector con) {
- 	
+    public CompletableFuture<Void> createOrdersAsync(Connector con) {
+    	state = TraderState.PEND;
+    	if (id < 0) {
+    		id = con.nextRequestId();
+    	}
+    	con.index(this);
+    	
     	con.log("Requesting instrument data for " + this.getSymbol());
+    	CompletableFuture<Double> price = con.getPriceStore().awaitLast(this.getID());
+    	
     	// First request data for the instrument
     	con.reqMktData(this.getID(), inst);
-    	
-    	// Wait for the data to arrive
     	con.log("Waiting for data for " + this.getSymbol() + " with ticker id " + this.getID());
-    	while (con.getPrice(id) <= 0) {
-    		Helper.sleep(10);
-    	}
-    	last = con.getPrice(id);
     	
-    	con.log("Price for " + this.getSymbol() + " received: " + last);
-    	    	
-    	// Update order ID
-    	oid = con.getOrderID();
-    	con.reqId();
-    	con.log("Waiting for next order id"); 	
-   		Helper.sleep(10);
-
-    	oid = con.getOrderID();
-    	con.log("Order ID received");
+    	// Six ids: stops, trails and targets
+    	CompletableFuture<Integer> ids = con.getOrderIds().reserve(6);
+    	
+    	CompletableFuture<Void> done = new CompletableFuture<>();
     	
+    	pendSince = System.currentTimeMillis();
+    	pending = done;
+    	price.thenCombine(ids, (p, o) -> {
+    		// Claims the attempt, fails if it has been given up on already
+    		if (!done.complete(null)) {
+    			return(null);
+    		}
+    		last = p;
+    		oid = o;
+    		con.log("Price for " + this.getSymbol() + " received: " + last + ", order ID " + oid);
+    		try {
+    			submitOrders(con);
+    		} catch (RuntimeException e) {
+    			state = TraderState.WAIT;
+    			con.error("Orders for " + this.getSymbol() + " not submitted: " + e);
+    		}
+    		return(null);
+    	}).whenComplete((v, e) -> {
+    		// Price or order id request failed
+    		if (e != null) {
+    			done.completeExceptionally(e);
+    		}
+    	});
+    	
+    	done.whenComplete((v, e) -> {
+    		if (e != null && state == TraderState.PEND) {
+    			state = TraderState.WAIT;
+    			con.error("Orders for " + this.getSymbol() + " not created: " + e);
+    		}
+    	});
+    	return(done);
+    }
+    
+    /**
+     * Creates order set from last price and oid and submits it
+     * 
+     * @param con Connector to TWS
+     */
+    private void submitOrders(Connector con) {
     	// Create orders
     	longStop = new Order();
     	shortStop = new Order();
@@ -314,28 +443,72 @@ public class NewsInstrument extends Instrument {
     }
        
     
+    /**
+     * Reacts to a new last price from tickPrice(). If the price has moved more than
+     * adjLimit the orders are adjusted right away, unless they were already adjusted
+     * less than adjInterval ago. In that case the adjustment is left pending
+     * and flushAdjust() will do it once the interval has passed.
+     * 
+     * @param con Connector to TWS
+     * @param spot Last price
+     * @param now Current time in milliseconds
+     */
+    public synchronized void onPrice(Connector con, double spot, long now) {
+    	if (state != TraderState.LIVE || Math.abs(spot - last) <= getAdjLimit()) {
+    		return;
+    	}
+    	
+    	if (now - lastAdjTime < adjInterval) {
+    		adjPending = true;
+    		con.adjustLater(this);
+    		return;
+    	}
+    	adjustOrders(con);
+    }
+    
+    /**
+     * Performs the pending adjustment if the throttling interval has passed.
+     * Called from the housekeeping loop.
+     * 
+     * @param con Connector to TWS
+     * @param now Current time in milliseconds
+     * @return true if no adjustment is pending any more
+     */
+    public synchronized boolean flushAdjust(Connector con, long now) {
+    	if (!adjPending) {
+    		return(true);
+    	}
+    	if (now - lastAdjTime < adjInterval) {
+    		return(false);
+    	}
+    	adjPending = false;
+    	
+    	if (state == TraderState.LIVE) {
+    		adjustOrders(con);
+    	}
+    	return(true);
+    }
+    
     /**
      * Adjust order set to the market
      * 
      * @param con Connector to TWS
      */
-    public void adjustOrders(Connector con) {
+    public synchronized void adjustOrders(Connector con) {
     	// Check if price differs enough
     	double spot = -1;
 
     	con.log("Adjusting price for " + getSymbol());
     	
     	// Find last price
-    	for (int i=0;i < con.prices.size(); i++) {
-    		if (con.prices.get(i).getId() == id) {
-    			spot = con.prices.get(i).getPrice();
-    			
-    		}
-    	}
+    	spot = con.getPrice(id);
     	
     	// Is the difference significant?
     	if (Math.abs(spot - last) > getAdjLimit() && spot != -1) {
+    		con.markDecision();
     		last = spot;
+    		lastAdjTime = con.currentTimeMillis();
+    		adjPending = false;
     		
         	// Update order details
         	longStop.lmtPrice(last + delta);
@@ -349,10 +522,12 @@ public class NewsInstrument extends Instrument {
         	shortStop.transmit(true);
         	
         	longTrail.trailStopPrice(last);
+        	longTrail.auxPrice(trailAmt);
         	longTrail.outsideRth(true);
         	longTrail.transmit(true);
         	
     		shortTrail.trailStopPrice(last);
+    		shortTrail.auxPrice(trailAmt);
         	shortTrail.outsideRth(true);
         	shortTrail.transmit(true);
         	
@@ -376,6 +551,68 @@ public class NewsInstrument extends Instrument {
     	}    	
     }
     
+    /**
+     * Sizes delta, trailAmt and adjLimit from live volatility, as multiples of the
+     * average true range of the instrument's bars. The values given to the
+     * constructor are used until period bars have been seen.
+     * 
+     * @param period ATR period in bars
+     * @param deltaAtr delta in ATRs
+     * @param trailAtr trailing amount in ATRs
+     * @param adjAtr adjustment limit in ATRs
+     */
+    public synchronized void setVolatilitySizing(int period, double deltaAtr, double trailAtr, double adjAtr) {
+    	this.atr = new Atr(period);
+    	this.deltaAtr = deltaAtr;
+    	this.trailAtr = trailAtr;
+    	this.adjAtr = adjAtr;
+    }
+    
+    /**
+     * Completed bar of the instrument, updates the volatility sizing.
+     * The new sizes apply from the next order adjustment.
+     * 
+     * @param high High price
+     * @param low Low price
+     * @param close Close price
+     */
+    public synchronized void onBar(double high, double low, double close) {
+    	if (atr == null) {
+    		return;
+    	}
+    	double a = atr.update(high, low, close);
+    	
+    	if (atr.isReady() && a > 0) {
+    		delta = deltaAtr * a;
+    		trailAmt = trailAtr * a;
+    		adjLimit = adjAtr * a;
+    	}
+    }
+    
+    /**
+     * @return average true range of the bars or NaN if not sized by volatility
+     */
+    public synchronized double getAtr() {
+    	return(atr == null ? Double.NaN : atr.getValue());
+    }
+    
+    /**
+     * Model score of the instrument, from the inference thread. Kept for the
+     * trading decisions, the order logic does not use it yet.
+     * 
+     * @param score first output of the model for the instrument
+     */
+    public void onSignal(float score) {
+    	signal = score;
+    }
+    
+    /**
+     * @return last model score or NaN if none
+     */
+    public float getSignal() {
+    	return(signal);
+    }
+    
     /**
      * Processes trades, checks executions adjusts system state accordingly
      * 
@@ -409,6 +646,21 @@ public class NewsInstrument extends Instrument {
 	public void setAdjLimit(double adjLimit) {
 		this.adjLimit = adjLimit;
 	}
+	/**
+	 * Returns minimal time between two order adjustments
+	 * @return adjInterval in milliseconds
+	 */
+	public long getAdjInterval() {
+		return(adjInterval);
+	}
+	/**
+	 * Sets minimal time between two order adjustments. Keeps the
+	 * order modifications within TWS pacing limits on fast markets.
+	 * @param adjInterval interval in milliseconds, 0 disables throttling
+	 */
+	public void setAdjInterval(long adjInterval) {
+		this.adjInterval = adjInterval;
+	}
 	/**
 	 * @return the trailAmt
 	 */
@@ -5,7 +5,13 @@
  */
 package sigma.trading.news;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import sigma.trading.LatencyMonitor;
 import sigma.utils.TraderState;
 
 /**
@@ -14,6 +20,10 @@ import sigma.utils.TraderState;
  * 1) Checks whether live orders need to be adjusted to the market
  * 2) If set of orders have fully executed, enters a new set of orders 
  * 
+ * In reactive mode (default) the orders are adjusted from the tickPrice() callbacks
+ * and onTimer() makes the adjustments held back by throttling, on the message thread
+ * when live and on the replay clock when replaying. The loop only enters new orders.
+ * 
  * The trading system can be used for arbitrary number of instruments in parallel.
  * 
  * @author Peeter Meos
@@ -22,6 +32,17 @@ import sigma.utils.TraderState;
  */
 public class Trader extends Connector {
 	
+	// Housekeeping loop interval in ms
+	protected long loopInterval = 100;
+	
+	/**
+	 * Sets the trading loop interval
+	 * @param loopInterval interval in milliseconds
+	 */
+	public void setLoopInterval(long loopInterval) {
+		this.loopInterval = loopInterval;
+	}
+	
 	/**
 	 * The main trading loop
 	 */
@@ -38,20 +59,28 @@ public class Trader extends Connector {
 		try {
 			// Infinite loop until keypress
 			while (System.in.available() == 0) {
-				Thread.sleep(1000);
+				Thread.sleep(loopInterval);
 				
 				// Get last prices, adjust prices if needed
 				for(NewsInstrument item: instList) {
 					// Create new order if there are none
 					if (item.getState() == TraderState.WAIT) {
 						logger.log("Creating order for " + item.getSymbol());
-						item.createOrders(this);
+						item.createOrdersAsync(this);
+					} else if (item.getState() == TraderState.PEND && item.expire(NewsInstrument.ORDER_TIMEOUT)) {
+						// No price or order ids in time, back to WAIT for the next pass
+						logger.log("Order creation for " + item.getSymbol() + " timed out");
+					}
+					
+					// Reactive mode adjusts from ticks and onTimer()
+					if (reactive) {
+						continue;
 					}
 					
 					// Check whether order needs to be adjusted
 					if (item.getState() == TraderState.LIVE) {
 						diff = getPrice(item.getID()) - item.getLast();
-						logger.verbose("Diff  for " + item.getSymbol() + " is " + diff);
+						logger.verbose("Diff  for {} is {}", item.getSymbol(), diff);
 						if (Math.abs(diff) > item.getAdjLimit() ) {
 							// Adjust orders
 							item.adjustOrders(this);
@@ -80,27 +109,46 @@ public class Trader extends Connector {
 		// New object
 		trader = new Trader();
 		
+		// Tick-to-order latency, a snapshot a minute
+		trader.setLatencyMonitor(new LatencyMonitor());
+		trader.getLatencyMonitor().start(60000, new File("latency.csv"));
+		
 		// Connect
 		trader.twsConnect();
 		trader.setSimulated(true);
 		
+		// One minute bars size the orders from volatility once 14 bars are in
+		trader.enableBars(60000);
+		
 		// Instrument add CL
 		trader.log("Adding CL");
-		trader.instList.add(new NewsInstrument("CL", "FUT", "NYMEX",  "201710", 1, 0.1, 0.05, 0, 0.05));
+		NewsInstrument cl = new NewsInstrument("CL", "FUT", "NYMEX",  "201710", 1, 0.1, 0.05, 0, 0.05);
+		cl.setVolatilitySizing(14, 2, 1, 1);
+		trader.instList.add(cl);
 		
 		// Instrument add E7
 		trader.log("Adding EURO");
-		trader.instList.add(new NewsInstrument("E7", "FUT", "GLOBEX", "201712", 1, 0.0010, 0.0005, 0, 0.0002));
+		NewsInstrument e7 = new NewsInstrument("E7", "FUT", "GLOBEX", "201712", 1, 0.0010, 0.0005, 0, 0.0002);
+		e7.setVolatilitySizing(14, 5, 2.5, 1);
+		trader.instList.add(e7);
 
-		// Create and submit orders
+		// Create and submit orders for all instruments in parallel
+		List<CompletableFuture<Void>> created = new ArrayList<>();
 		for(NewsInstrument item: trader.instList) {
 			trader.log("Creating order for " + item.getSymbol());
-			item.createOrders(trader);
+			created.add(item.createOrdersAsync(trader));
+		}
+		if (!NewsInstrument.awaitOrders(created, NewsInstrument.ORDER_TIMEOUT)) {
+			trader.log("Not all orders were created, the trading loop retries");
 		}
 		
 		// Trade
 		trader.trade();
 		
+		// Latency of the last period
+		trader.getLatencyMonitor().stop();
+		trader.log(trader.getLatencyMonitor().report());
+		
 		// Disconnect
 		trader.disconnect();
 	}
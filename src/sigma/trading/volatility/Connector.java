@@ -6,14 +6,16 @@ package sigma.trading.volatility;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.ib.client.Contract;
 import com.ib.client.ContractDetails;
 import com.ib.client.TagValue;
 import com.ib.client.Types.SecType;
 
-import sigma.utils.Helper;
+import sigma.trading.ChainScheduler;
 import sigma.trading.Instrument;
+import sigma.trading.OptionChain;
 import sigma.trading.TwsConnector;;
 
 /**
@@ -25,6 +27,7 @@ public class Connector extends TwsConnector {
 	
 	private Contract inst;
 	private int underConID = -1;
+	private ChainScheduler scheduler;
 	
 
 	/**
@@ -33,6 +36,7 @@ public class Connector extends TwsConnector {
 	 */
 	public Connector() {
 		super("TWS Volatility Optimizer Connector");
+		scheduler = new ChainScheduler(this);
 	}
 	
 	/**
@@ -70,36 +74,31 @@ public class Connector extends TwsConnector {
 		boolean snapshot = true;
 		List<TagValue> mktDataOptions = null;
 		
-		// TODO ticker ID needs to be automatic.
-		int tickerId = 12;
+		// Recycled after the snapshot ends
+		int tickerId = nextRequestId();
 		
 		tws.reqMktData(tickerId, inst.getInst(), genericTickList, snapshot, mktDataOptions);
 	};
 	
 	/**
-	 * Requests option chain contract details
+	 * Requests option chain of the underlying via contract details and reqSecDefOptParams
+	 * @return future of the chain, null if not connected
 	 */
-	public void getOptionChain(List<Instrument> hedgeInst) {
-		// TODO option chain parameters need to be added.
-		// Such as - range of strikes and expiries
-		// or reqSecDefOptParams
+	public CompletableFuture<OptionChain> getOptionChain(List<Instrument> hedgeInst) {
+		// TODO range of strikes and expiries
 		
-		logger.log("Requesting contract details for underlying");
+		logger.log("Requesting option chain for underlying");
 		if (inst != null && tws.isConnected()) {
-			
-			tws.reqContractDetails(nextOrderID, inst);
-			// wait until we have contract ID for underlying
-			logger.log("Waiting for underlying contract ID");
-			while (underConID < 0) {
-				Helper.sleep(100);
-			}
-			
-			//tws.reqMktData(tickerId, contract, genericTickList, snapshot, mktDataOptions);
-			
-			logger.log("Contract ID received, proceeding.");
-			logger.log("Retrieving option chain");
-			//tws.reqSecDefOptParams(nextOrderID, inst.symbol(), inst.exchange(), inst.secType().toString(), underConID);
+			return(scheduler.discover(inst, inst.exchange()));
 		}
+		return(null);
+	}
+	
+	/**
+	 * @return scheduler for option chain requests
+	 */
+	public ChainScheduler getScheduler() {
+		return(scheduler);
 	}
 	
 	/**
@@ -136,6 +135,7 @@ public class Connector extends TwsConnector {
 		//	contractDetails.contract().secIdType() == inst.secIdType()) {
 		this.underConID = contractDetails.contract().conid();	
 		//}
+		super.contractDetails(reqId, contractDetails);
 	}
 	
 	@Override
@@ -148,5 +148,7 @@ public class Connector extends TwsConnector {
         		   " \n");
         logger.log("Expirations: " + expirations.toString());
         logger.log("Strikes: " + strikes.toString());
+        super.securityDefinitionOptionalParameter(reqId, exchange, underlyingConId, tradingClass,
+        		multiplier, expirations, strikes);
     }
 }
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package sigma.utils;
+
+/**
+ * Price bar (OHLC) of an instrument, as received from historical data requests
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class Bar {
+	private final String symbol;
+	private final long time;
+	private final double open;
+	private final double high;
+	private final double low;
+	private final double close;
+	private final long volume;
+	private final int count;
+	private final double wap;
+
+	/**
+	 * Constructor
+	 * @param symbol instrument, e.g. symbol and expiry
+	 * @param time start of the bar in milliseconds since the epoch
+	 * @param open open price
+	 * @param high high price
+	 * @param low low price
+	 * @param close close price
+	 * @param volume traded volume
+	 * @param count number of trades
+	 * @param wap volume weighted average price
+	 */
+	public Bar(String symbol, long time, double open, double high, double low, double close, long volume,
+			int count, double wap) {
+		this.symbol = symbol;
+		this.time = time;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+		this.volume = volume;
+		this.count = count;
+		this.wap = wap;
+	}
+
+	/**
+	 * @return instrument
+	 */
+	public String getSymbol() {
+		return(symbol);
+	}
+
+	/**
+	 * @return start of the bar in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return(time);
+	}
+
+	/**
+	 * @return open price
+	 */
+	public double getOpen() {
+		return(open);
+	}
+
+	/**
+	 * @return high price
+	 */
+	public double getHigh() {
+		return(high);
+	}
+
+	/**
+	 * @return low price
+	 */
+	public double getLow() {
+		return(low);
+	}
+
+	/**
+	 * @return close price
+	 */
+	public double getClose() {
+		return(close);
+	}
+
+	/**
+	 * @return traded volume
+	 */
+	public long getVolume() {
+		return(volume);
+	}
+
+	/**
+	 * @return number of trades
+	 */
+	public int getCount() {
+		return(count);
+	}
+
+	/**
+	 * @return volume weighted average price
+	 */
+	public double getWap() {
+		return(wap);
+	}
+
+	@Override
+	public String toString() {
+		return(symbol + " " + time + " O " + open + " H " + high + " L " + low + " C " + close + " V " + volume);
+	}
+}
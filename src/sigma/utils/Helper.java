@@ -21,4 +21,44 @@ public class Helper {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Length of a TWS bar size or duration setting, e.g. "5 mins", "1 hour", "3600 S", "2 W"
+	 * 
+	 * @param setting number and unit, months and years are counted as 30 and 365 days
+	 * @return length in seconds
+	 */
+	public static long seconds(String setting) {
+		String[] s = setting.trim().split("\\s+");
+		long n = Long.parseLong(s[0]);
+		
+		switch (s.length > 1 ? s[1] : "") {
+		case "S":
+		case "sec":
+		case "secs":
+			return(n);
+		case "min":
+		case "mins":
+			return(n * 60);
+		case "hour":
+		case "hours":
+			return(n * 3600);
+		case "D":
+		case "day":
+		case "days":
+			return(n * 86400);
+		case "W":
+		case "week":
+		case "weeks":
+			return(n * 7 * 86400);
+		case "M":
+		case "month":
+		case "months":
+			return(n * 30 * 86400);
+		case "Y":
+			return(n * 365 * 86400);
+		default:
+			throw new IllegalArgumentException("Unknown TWS time setting " + setting);
+		}
+	}
 }
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for implied volatility solver
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class ImpliedVolTest {
+
+	@Test
+	public void testRoundTrip() {
+		int n = 0;
+		OptionBatch b = new OptionBatch(2 * 21 * 6 * 5);
+
+		for (int side = 0; side < 2; side++) {
+			for (double k = 30; k <= 70; k += 2) {
+				for (double t: new double[] {0.02, 0.1, 0.25, 0.5, 1, 3}) {
+					for (double vol: new double[] {0.05, 0.2, 0.4, 0.8, 1.5}) {
+						b.set(n++, k, 50, t, vol, 0.03, side == 0 ? OptSide.CALL : OptSide.PUT);
+					}
+				}
+			}
+		}
+		b.compute();
+
+		double[] price = b.getValue().clone();
+		double[] expected = b.getSigma().clone();
+
+		// Cold start
+		java.util.Arrays.fill(b.getSigma(), 0);
+		ImpliedVol.solve(b, price);
+		checkSolved(b, price, expected);
+
+		// Warm start from previous solution after a small move
+		for (int i = 0; i < n; i++) {
+			price[i] *= 1.001;
+		}
+		ImpliedVol.solve(b, price);
+		b.compute();
+		for (int i = 0; i < n; i++) {
+			if (!Double.isNaN(b.getSigma()[i])) {
+				assertEquals("Repriced " + i, price[i], b.getValue()[i], 1e-9 * 50);
+			}
+		}
+	}
+
+	private void checkSolved(OptionBatch b, double[] price, double[] expected) {
+		for (int i = 0; i < b.size(); i++) {
+			double vol = b.getSigma()[i];
+
+			// Deep out of the money prices carry no information on volatility
+			if (b.getVega()[i] > 1e-3) {
+				assertEquals("Volatility " + i, expected[i], vol, 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testBounds() {
+		assertTrue(Double.isNaN(ImpliedVol.solve(0.5, 40, 50, 0.5, 0, 0, true, 0)));
+		assertTrue(Double.isNaN(ImpliedVol.solve(51, 40, 50, 0.5, 0, 0, true, 0)));
+		assertEquals(2.5, ImpliedVol.quote(2, 3, 2.7), 0);
+		assertEquals(2.7, ImpliedVol.quote(3, 2, 2.7), 0);
+	}
+}
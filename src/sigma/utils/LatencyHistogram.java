@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, in the manner of
+ * HdrHistogram. Values below 256 have a bucket each, above that every power of two
+ * is split into 128 buckets, so a recorded value is known to within 1% over the
+ * whole range of a long. The buckets take 57 kB.
+ *
+ * Recording is one atomic increment and is safe from any number of threads,
+ * snapshots can be taken while recording goes on.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 7;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int LINEAR = 2 * SUB;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Records a latency
+	 * @param nanos latency in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		counts.getAndIncrement(index(Math.max(0, nanos)));
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		long n = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			n += counts.get(i);
+		}
+		return(n);
+	}
+
+	/**
+	 * Value at a percentile, as the highest value of its bucket
+	 * @param percentile percentile 0..100, e.g. 99.9
+	 * @return latency in nanoseconds, 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = getCount();
+
+		if (total == 0) {
+			return(0);
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long n = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			n += counts.get(i);
+			if (n >= rank) {
+				return(highest(i));
+			}
+		}
+		return(getMax());
+	}
+
+	/**
+	 * @return largest recorded latency, as the highest value of its bucket, 0 if empty
+	 */
+	public long getMax() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (counts.get(i) > 0) {
+				return(highest(i));
+			}
+		}
+		return(0);
+	}
+
+	/**
+	 * Copies the histogram
+	 * @param reset true to clear this histogram, values recorded during the copy
+	 * go to either of the two
+	 * @return copy of the counts
+	 */
+	public LatencyHistogram snapshot(boolean reset) {
+		LatencyHistogram h = new LatencyHistogram();
+
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = reset ? counts.getAndSet(i, 0) : counts.get(i);
+
+			if (c != 0) {
+				h.counts.lazySet(i, c);
+			}
+		}
+		return(h);
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one
+	 * @param h histogram
+	 */
+	public void add(LatencyHistogram h) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = h.counts.get(i);
+
+			if (c != 0) {
+				counts.getAndAdd(i, c);
+			}
+		}
+	}
+
+	/**
+	 * Clears the histogram
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.lazySet(i, 0);
+		}
+	}
+
+	private static int index(long v) {
+		if (v < LINEAR) {
+			return((int) v);
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+
+		return(LINEAR + (shift - 1) * SUB + (int) (v >>> shift) - SUB);
+	}
+
+	private static long highest(int i) {
+		if (i < LINEAR) {
+			return(i);
+		}
+		int shift = (i - LINEAR) / SUB + 1;
+		long top = (i - LINEAR) % SUB + SUB;
+
+		return(((top + 1) << shift) - 1);
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for latency histograms
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+
+		assertEquals(0, h.getValueAtPercentile(50));
+		for (long v = 1; v <= 100000; v++) {
+			h.record(v * 1000);
+		}
+		assertEquals(100000, h.getCount());
+		assertEquals(50e6, h.getValueAtPercentile(50), 50e6 * 0.01);
+		assertEquals(99e6, h.getValueAtPercentile(99), 99e6 * 0.01);
+		assertEquals(99.9e6, h.getValueAtPercentile(99.9), 99.9e6 * 0.01);
+		assertEquals(100e6, h.getMax(), 100e6 * 0.01);
+		assertTrue(h.getMax() >= 100000000L);
+	}
+
+	@Test
+	public void testRange() {
+		LatencyHistogram h = new LatencyHistogram();
+
+		h.record(-5);
+		h.record(0);
+		h.record(255);
+		h.record(Long.MAX_VALUE);
+		assertEquals(4, h.getCount());
+		assertEquals(0, h.getValueAtPercentile(50));
+		assertEquals(255, h.getValueAtPercentile(75));
+		assertEquals(Long.MAX_VALUE, h.getMax());
+	}
+
+	@Test
+	public void testSnapshot() {
+		LatencyHistogram h = new LatencyHistogram();
+
+		h.record(1000);
+		h.record(2000);
+
+		LatencyHistogram s = h.snapshot(true);
+		assertEquals(2, s.getCount());
+		assertEquals(0, h.getCount());
+
+		h.record(3000);
+		h.add(s);
+		assertEquals(3, h.getCount());
+		h.reset();
+		assertEquals(0, h.getMax());
+	}
+}
@@ -9,53 +9,90 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
 import sigma.utils.LogLevel;
 
 /**
  * Logger class for general log generation to either stdout or text file.
- * 
+ *
+ * In asynchronous mode the callers only fill a pre-allocated record in a ring buffer,
+ * a background thread formats the records and writes them in batches. Messages can
+ * be given as format strings with {} placeholders or as suppliers, neither is
+ * evaluated when the level is disabled. Format arguments are converted to strings
+ * on the logging thread, so they should not be mutated after the call.
+ *
  * @author Peeter Meos
- * @version 1.2
+ * @version 1.3
  *
  */
 public class Logger {
-	
-	protected LogLevel logLevel = LogLevel.INFO;
+	public static final int DEFAULT_CAPACITY = 8192;
+	private static final String NL = System.lineSeparator();
+
+	protected volatile LogLevel logLevel = LogLevel.INFO;
 	protected Writer f = null;
 
+	// Asynchronous mode
+	private volatile boolean async = false;
+	private Record[] ring;
+	private AtomicLongArray seq;
+	private int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+	private Thread writer;
+
+	// Writer thread state
+	private final StringBuilder sb = new StringBuilder(1024);
+	private long lastSecond = -1;
+	private String lastDate;
+
+	/**
+	 * Pre-allocated log record
+	 */
+	private static class Record {
+		LogLevel level;
+		long time;
+		String fmt;
+		Object[] args;
+	}
+
 	/**
-	 * Constructor for Logger 
-	 * 
+	 * Constructor for Logger
+	 *
 	 * @param logLevel Logging level (ERROR, WARN, INFO, VERBOSE)
 	 */
 	public Logger(LogLevel logLevel) {
 		this.logLevel = logLevel;
 	}
-	
+
 	/**
 	 * Constructor for Logger (stdout, logging level INFO)
 	 */
 	public Logger() {
 	}
-	
+
 	/**
 	 * Constructor for Logger
-	 * 
+	 *
 	 * @param fname Filename for text file
 	 */
 	public Logger(String fname) {
 		this(fname, LogLevel.INFO);
 	}
-	
+
 	/**
 	 * Constructor for Logger
-	 * 
+	 *
 	 * @param fname Filename for text file
 	 * @param logLevel Logging level (ERROR, WARN, INFO, VERBOSE)
 	 */
 	public Logger(String fname, LogLevel logLevel) {
 		this.logLevel = logLevel;
-		
+
 		if (fname != null) {
 			try {
 				f = new BufferedWriter(
@@ -63,14 +100,87 @@ public class Logger {
 								new FileOutputStream(fname + ".log"), "utf-8"));
 			} catch (UnsupportedEncodingException | FileNotFoundException e) {
 				e.printStackTrace();
-			}		
+			}
+		}
+	}
+
+	/**
+	 * Switches to asynchronous logging with the default ring buffer size
+	 */
+	public void setAsync() {
+		setAsync(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Switches to asynchronous logging. When the ring buffer is full the
+	 * callers wait for the writer thread.
+	 *
+	 * @param capacity number of records in the ring buffer, rounded up to a power of two
+	 */
+	public synchronized void setAsync(int capacity) {
+		if (async) {
+			return;
+		}
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+
+		ring = new Record[size];
+		seq = new AtomicLongArray(size);
+		mask = size - 1;
+		head = tail.get();
+		for (int i = 0; i < size; i++) {
+			ring[i] = new Record();
+			seq.set((int) (head + i) & mask, head + i);
 		}
+
+		writer = new Thread(this::drain, "Logger");
+		writer.setDaemon(true);
+		async = true;
+		writer.start();
+	}
+
+	/**
+	 * @return true if logging is asynchronous
+	 */
+	public boolean isAsync() {
+		return(async);
 	}
-	
+
+	/**
+	 * @param level logging level
+	 */
+	public void setLevel(LogLevel level) {
+		this.logLevel = level;
+	}
+
+	/**
+	 * @param level logging level
+	 * @return true if messages of the level are logged
+	 */
+	public boolean isEnabled(LogLevel level) {
+		return(level.ordinal() <= logLevel.ordinal());
+	}
+
 	/*
-	 * Closes the logfile
+	 * Writes out the pending records and closes the logfile. Records logged
+	 * concurrently with close() may be lost.
 	 */
 	public void close() {
+		Thread w = null;
+
+		synchronized (this) {
+			if (async) {
+				async = false;
+				w = writer;
+			}
+		}
+		if (w != null) {
+			try {
+				w.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
 		if (f != null)
 		{
 			try {
@@ -78,68 +188,122 @@ public class Logger {
 			} catch (IOException e) {
 
 				e.printStackTrace();
-			}		
+			}
 		}
 	}
-	
+
 	/**
 	 * Logging method
-	 * 
+	 *
 	 * @param str String to be logged (log level INFO)
 	 */
 	public void log(String str) {
 		this.log(LogLevel.INFO, str);
 	}
-	
+
 	/**
 	 * Logging method
-	 * 
+	 *
 	 * @param level logging level
 	 * @param str string to be logged
 	 */
 	public void log(LogLevel level, String str) {
-		Date dtg = new Date();
-		
-		if (level.ordinal() <= logLevel.ordinal()) {
-			if (f == null) {
-				System.out.println(dtg.toString() + ": " + level.toString() + ":" + str);
-			} else {
-				try {
-					f.write(dtg.toString() + ": " + level.toString() + ":" + str);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+		if (isEnabled(level)) {
+			append(level, str, null);
+		}
+	}
+
+	/**
+	 * Logging method with {} placeholders, the message is formatted only if the level is enabled
+	 *
+	 * @param level logging level
+	 * @param fmt message format
+	 * @param args arguments for the placeholders
+	 */
+	public void log(LogLevel level, String fmt, Object... args) {
+		if (isEnabled(level)) {
+			append(level, fmt, args);
+		}
+	}
+
+	/**
+	 * Logging method, the message is built only if the level is enabled
+	 *
+	 * @param level logging level
+	 * @param msg message supplier
+	 */
+	public void log(LogLevel level, Supplier<String> msg) {
+		if (isEnabled(level)) {
+			append(level, msg.get(), null);
 		}
 	}
-	
+
+	/**
+	 * Logging method with {} placeholders (log level INFO)
+	 *
+	 * @param fmt message format
+	 * @param args arguments for the placeholders
+	 */
+	public void log(String fmt, Object... args) {
+		this.log(LogLevel.INFO, fmt, args);
+	}
+
 	/**
 	 * Error logging method
-	 * 
+	 *
 	 * @param str Error text to be logged
 	 */
 	public void error(String str) {
 		this.log(LogLevel.ERROR, str);
 	}
-	
+
+	/**
+	 * Error logging method with {} placeholders
+	 *
+	 * @param fmt message format
+	 * @param args arguments for the placeholders
+	 */
+	public void error(String fmt, Object... args) {
+		this.log(LogLevel.ERROR, fmt, args);
+	}
+
 	/**
 	 * Warning logging method
-	 * 
+	 *
 	 * @param str Warning text to be logged
 	 */
 	public void warning(String str) {
 		this.log(LogLevel.WARN, str);
 	}
-	
+
 	/**
 	 * Verbose debugging logging method
-	 * 
+	 *
 	 * @param str Debug text to be logged
 	 */
 	public void verbose(String str) {
 		this.log(LogLevel.VERBOSE, str);
 	}
-	
+
+	/**
+	 * Verbose debugging logging method with {} placeholders
+	 *
+	 * @param fmt message format
+	 * @param args arguments for the placeholders
+	 */
+	public void verbose(String fmt, Object... args) {
+		this.log(LogLevel.VERBOSE, fmt, args);
+	}
+
+	/**
+	 * Verbose debugging logging method, the message is built only if verbose logging is on
+	 *
+	 * @param msg message supplier
+	 */
+	public void verbose(Supplier<String> msg) {
+		this.log(LogLevel.VERBOSE, msg);
+	}
+
 	/**
 	 * Stack trace exception printout
 	 * @param e exception
@@ -148,4 +312,129 @@ public class Logger {
 		this.log(LogLevel.ERROR, Arrays.toString(e.getStackTrace()));
 	}
 
+	/**
+	 * Queues the record, or writes it directly when not asynchronous
+	 */
+	private void append(LogLevel level, String fmt, Object[] args) {
+		long time = System.currentTimeMillis();
+
+		if (!async) {
+			StringBuilder line = new StringBuilder();
+
+			format(line, new Date(time).toString(), level, fmt, args);
+			if (f == null) {
+				System.out.print(line);
+			} else {
+				try {
+					f.write(line.toString());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			return;
+		}
+
+		long pos = tail.getAndIncrement();
+		int idx = (int) pos & mask;
+
+		// Wait for the writer to free the slot if the buffer is full
+		while (seq.get(idx) != pos) {
+			Thread.yield();
+		}
+		Record r = ring[idx];
+
+		r.level = level;
+		r.time = time;
+		r.fmt = fmt;
+		r.args = args;
+		seq.lazySet(idx, pos + 1);
+	}
+
+	/**
+	 * Writer thread: formats the published records and writes them in batches
+	 */
+	private void drain() {
+		while (true) {
+			boolean running = async;
+			int n = 0;
+
+			sb.setLength(0);
+			while (true) {
+				int idx = (int) head & mask;
+
+				if (seq.get(idx) != head + 1) {
+					// Stop at the first unpublished record, unless it is being written
+					if (head < tail.get() && !running) {
+						Thread.yield();
+						continue;
+					}
+					break;
+				}
+				Record r = ring[idx];
+
+				if (r.time / 1000 != lastSecond) {
+					lastSecond = r.time / 1000;
+					lastDate = new Date(r.time).toString();
+				}
+				format(sb, lastDate, r.level, r.fmt, r.args);
+				r.fmt = null;
+				r.args = null;
+				seq.lazySet(idx, head + mask + 1);
+				head++;
+
+				if (++n >= 256) {
+					break;
+				}
+			}
+
+			if (n > 0) {
+				write(n < 256);
+			} else if (!running) {
+				return;
+			} else {
+				LockSupport.parkNanos(1000000);
+			}
+		}
+	}
+
+	private void write(boolean flush) {
+		try {
+			if (f == null) {
+				System.out.print(sb);
+				if (flush) {
+					System.out.flush();
+				}
+			} else {
+				f.write(sb.toString());
+				if (flush) {
+					f.flush();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Formats one line, replacing the {} placeholders with the arguments
+	 */
+	private static void format(StringBuilder sb, String date, LogLevel level, String fmt, Object[] args) {
+		sb.append(date).append(": ").append(level.toString()).append(":");
+
+		if (args == null) {
+			sb.append(fmt);
+		} else {
+			int a = 0;
+			int start = 0;
+			int p;
+
+			while (a < args.length && (p = fmt.indexOf("{}", start)) >= 0) {
+				sb.append(fmt, start, p).append(args[a++]);
+				start = p + 2;
+			}
+			sb.append(fmt, start, fmt.length());
+		}
+		sb.append(NL);
+	}
+
 }
@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for asynchronous logging
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class LoggerTest {
+
+	@Test
+	public void testAsync() throws IOException, InterruptedException {
+		File f = File.createTempFile("logger", "");
+		Logger l = new Logger(f.getPath(), LogLevel.INFO);
+		Thread[] t = new Thread[4];
+
+		l.setAsync(64);
+		for (int i = 0; i < t.length; i++) {
+			final int n = i;
+
+			t[i] = new Thread(() -> {
+				for (int j = 0; j < 1000; j++) {
+					l.log("Thread {} line {}", n, j);
+				}
+			});
+			t[i].start();
+		}
+		for (Thread x: t) {
+			x.join();
+		}
+
+		// Disabled levels are not evaluated
+		l.verbose(() -> {
+			throw new IllegalStateException();
+		});
+		l.close();
+
+		List<String> lines = Files.readAllLines(new File(f.getPath() + ".log").toPath());
+		int[] next = new int[t.length];
+
+		assertEquals(4000, lines.size());
+		for (String s: lines) {
+			String[] w = s.substring(s.indexOf("INFO:")).split(" ");
+			int n = Integer.parseInt(w[1]);
+
+			// Each thread's lines are in order
+			assertEquals(next[n]++, Integer.parseInt(w[3]));
+		}
+		new File(f.getPath() + ".log").delete();
+		f.delete();
+	}
+}
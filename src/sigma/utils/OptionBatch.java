@@ -0,0 +1,427 @@
+package sigma.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Black-Scholes values and Greeks for a batch of options, such as a full option chain.
+ *
+ * Inputs and outputs are kept in primitive arrays (structure of arrays). d1, d2,
+ * the discount factors and the densities are calculated once per option and shared
+ * by all the Greeks. The calculation runs in several passes over the arrays, the pure
+ * arithmetic passes contain no calls or branches so the JIT can unroll and
+ * vectorise them, the passes with Math.log/Math.exp are kept separate.
+ *
+ * Maturities and volatilities must be positive. Dividend yield is zero unless set.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class OptionBatch {
+	// Options per fork-join task
+	private static final int CHUNK = 1024;
+	private static final double INV_SQRT_2PI = 0.3989422804014327;
+
+	private final int size;
+
+	// Inputs
+	private final double[] strike;
+	private final double[] spot;
+	private final double[] maturity;
+	private final double[] sigma;
+	private final double[] rate;
+	private final boolean[] call;
+	private double[] div;
+
+	// Shared intermediates
+	private final double[] sqrtT;
+	private final double[] sst;
+	private final double[] dq;
+	private final double[] dr;
+	private final double[] d1;
+	private final double[] d2;
+	private final double[] nd1;
+	private final double[] cd1;
+	private final double[] cd2;
+
+	// Outputs
+	private final double[] value;
+	private final double[] delta;
+	private final double[] gamma;
+	private final double[] theta;
+	private final double[] vega;
+	private final double[] rho;
+	private final double[] vanna;
+	private final double[] charm;
+	private final double[] vomma;
+	private final double[] veta;
+
+	/**
+	 * Creates a batch with its own input arrays, to be filled with set()
+	 * @param size number of options
+	 */
+	public OptionBatch(int size) {
+		this(new double[size], new double[size], new double[size], new double[size], new double[size], new boolean[size]);
+	}
+
+	/**
+	 * Creates a batch on top of caller's input arrays. The arrays are not copied,
+	 * so they can be updated in place between calls to compute().
+	 *
+	 * @param strike strikes
+	 * @param spot spot prices
+	 * @param maturity maturities in years
+	 * @param sigma volatilities
+	 * @param rate risk free rates
+	 * @param call true for calls, false for puts
+	 */
+	public OptionBatch(double[] strike, double[] spot, double[] maturity, double[] sigma, double[] rate, boolean[] call) {
+		size = strike.length;
+		if (spot.length != size || maturity.length != size || sigma.length != size
+				|| rate.length != size || call.length != size) {
+			throw new IllegalArgumentException("Input arrays must be of equal length");
+		}
+
+		this.strike = strike;
+		this.spot = spot;
+		this.maturity = maturity;
+		this.sigma = sigma;
+		this.rate = rate;
+		this.call = call;
+		this.div = new double[size];
+
+		sqrtT = new double[size];
+		sst = new double[size];
+		dq = new double[size];
+		dr = new double[size];
+		d1 = new double[size];
+		d2 = new double[size];
+		nd1 = new double[size];
+		cd1 = new double[size];
+		cd2 = new double[size];
+
+		value = new double[size];
+		delta = new double[size];
+		gamma = new double[size];
+		theta = new double[size];
+		vega = new double[size];
+		rho = new double[size];
+		vanna = new double[size];
+		charm = new double[size];
+		vomma = new double[size];
+		veta = new double[size];
+	}
+
+	/**
+	 * Sets inputs of one option
+	 * @param i index
+	 * @param k strike
+	 * @param s spot
+	 * @param t maturity in years
+	 * @param vol volatility
+	 * @param r risk free rate
+	 * @param side call or put
+	 */
+	public void set(int i, double k, double s, double t, double vol, double r, OptSide side) {
+		strike[i] = k;
+		spot[i] = s;
+		maturity[i] = t;
+		sigma[i] = vol;
+		rate[i] = r;
+		call[i] = side == OptSide.CALL;
+	}
+
+	/**
+	 * Sets annual dividend yields, the array is not copied
+	 * @param q dividend yields
+	 */
+	public void setDividend(double[] q) {
+		if (q.length != size) {
+			throw new IllegalArgumentException("Dividend array must be of length " + size);
+		}
+		this.div = q;
+	}
+
+	/**
+	 * Calculates all options in the calling thread
+	 */
+	public void compute() {
+		compute(0, size);
+	}
+
+	/**
+	 * Calculates all options, splitting the batch over the fork-join pool
+	 * @param pool pool to use, e.g. ForkJoinPool.commonPool()
+	 */
+	public void compute(ForkJoinPool pool) {
+		if (size <= CHUNK) {
+			compute(0, size);
+		} else {
+			pool.invoke(new Task(0, size));
+		}
+	}
+
+	/**
+	 * Calculates options from index from (inclusive) to to (exclusive)
+	 * @param from first index
+	 * @param to last index + 1
+	 */
+	public void compute(int from, int to) {
+		double[] q = div;
+
+		// Arithmetic only
+		for (int i = from; i < to; i++) {
+			sqrtT[i] = Math.sqrt(maturity[i]);
+			sst[i] = sigma[i] * sqrtT[i];
+		}
+
+		// Logarithms and discount factors
+		for (int i = from; i < to; i++) {
+			d1[i] = Math.log(spot[i] / strike[i]);
+			dq[i] = Math.exp(-q[i] * maturity[i]);
+			dr[i] = Math.exp(-rate[i] * maturity[i]);
+		}
+
+		// Arithmetic only
+		for (int i = from; i < to; i++) {
+			d1[i] = (d1[i] + (rate[i] - q[i] + 0.5 * sigma[i] * sigma[i]) * maturity[i]) / sst[i];
+			d2[i] = d1[i] - sst[i];
+		}
+
+		// Densities and distributions
+		for (int i = from; i < to; i++) {
+			nd1[i] = Math.exp(-0.5 * d1[i] * d1[i]) * INV_SQRT_2PI;
+			cd1[i] = cdf(d1[i]);
+			cd2[i] = cdf(d2[i]);
+		}
+
+		// Greeks, arithmetic only. Puts via N(-x) = N(x) - 1
+		for (int i = from; i < to; i++) {
+			double p = call[i] ? 0.0 : 1.0;
+			double s = spot[i];
+			double k = strike[i];
+			double t = maturity[i];
+			double r = rate[i];
+			double qi = q[i];
+			double vol = sigma[i];
+			double sdq = s * dq[i];
+			double kdr = k * dr[i];
+			double n1 = cd1[i] - p;
+			double n2 = cd2[i] - p;
+			double pdf = nd1[i];
+			double a = d1[i];
+			double b = d2[i];
+			double v = sdq * pdf * sqrtT[i];
+			double c = (2 * (r - qi) * t - b * sst[i]) / (2 * t * sst[i]);
+
+			value[i] = sdq * n1 - kdr * n2;
+			delta[i] = dq[i] * n1;
+			gamma[i] = dq[i] * pdf / (s * sst[i]);
+			vega[i] = v;
+			theta[i] = -sdq * pdf * vol / (2 * sqrtT[i]) - r * kdr * n2 + qi * sdq * n1;
+			rho[i] = kdr * t * n2;
+			vanna[i] = -dq[i] * pdf * b / vol;
+			charm[i] = qi * dq[i] * n1 - dq[i] * pdf * c;
+			vomma[i] = v * a * b / vol;
+			veta[i] = -v * (qi + (r - qi) * a / sst[i] - (1 + a * b) / (2 * t));
+		}
+	}
+
+	/**
+	 * Standard normal cumulative distribution, Hart's double precision
+	 * algorithm as given by West (2005). Absolute error below 1e-14.
+	 *
+	 * @param x
+	 * @return Phi(x)
+	 */
+	public static double cdf(double x) {
+		double z = Math.abs(x);
+		double c = 0;
+
+		if (z < 37) {
+			double e = Math.exp(-0.5 * z * z);
+
+			if (z < 7.07106781186547) {
+				double n = (((((3.52624965998911e-02 * z + 0.700383064443688) * z + 6.37396220353165) * z
+						+ 33.912866078383) * z + 112.079291497871) * z + 221.213596169931) * z + 220.206867912376;
+				double d = ((((((8.83883476483184e-02 * z + 1.75566716318264) * z + 16.064177579207) * z
+						+ 86.7807322029461) * z + 296.564248779674) * z + 637.333633378831) * z
+						+ 793.826512519948) * z + 440.413735824752;
+				c = e * n / d;
+			} else {
+				double b = z + 0.65;
+				b = z + 4 / b;
+				b = z + 3 / b;
+				b = z + 2 / b;
+				b = z + 1 / b;
+				c = e / b / 2.506628274631;
+			}
+		}
+		return(x > 0 ? 1 - c : c);
+	}
+
+	/**
+	 * Fork-join split of the batch
+	 */
+	@SuppressWarnings("serial")
+	private class Task extends RecursiveAction {
+		private final int from;
+		private final int to;
+
+		Task(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CHUNK) {
+				OptionBatch.this.compute(from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Task(from, mid), new Task(mid, to));
+			}
+		}
+	}
+
+	/**
+	 * @return number of options in the batch
+	 */
+	public int size() {
+		return(size);
+	}
+
+	/**
+	 * @return strikes
+	 */
+	public double[] getStrike() {
+		return(strike);
+	}
+
+	/**
+	 * @return spot prices
+	 */
+	public double[] getSpot() {
+		return(spot);
+	}
+
+	/**
+	 * @return maturities in years
+	 */
+	public double[] getMaturity() {
+		return(maturity);
+	}
+
+	/**
+	 * @return volatilities
+	 */
+	public double[] getSigma() {
+		return(sigma);
+	}
+
+	/**
+	 * @return risk free rates
+	 */
+	public double[] getRate() {
+		return(rate);
+	}
+
+	/**
+	 * @return true for calls, false for puts
+	 */
+	public boolean[] getCall() {
+		return(call);
+	}
+
+	/**
+	 * @return dividend yields
+	 */
+	public double[] getDividend() {
+		return(div);
+	}
+
+	/**
+	 * @return Black-Scholes d1 values
+	 */
+	public double[] getD1() {
+		return(d1);
+	}
+
+	/**
+	 * @return Black-Scholes d2 values
+	 */
+	public double[] getD2() {
+		return(d2);
+	}
+
+	/**
+	 * @return option values
+	 */
+	public double[] getValue() {
+		return(value);
+	}
+
+	/**
+	 * @return deltas
+	 */
+	public double[] getDelta() {
+		return(delta);
+	}
+
+	/**
+	 * @return gammas
+	 */
+	public double[] getGamma() {
+		return(gamma);
+	}
+
+	/**
+	 * @return thetas, per year
+	 */
+	public double[] getTheta() {
+		return(theta);
+	}
+
+	/**
+	 * @return vegas, per unit of volatility
+	 */
+	public double[] getVega() {
+		return(vega);
+	}
+
+	/**
+	 * @return rhos
+	 */
+	public double[] getRho() {
+		return(rho);
+	}
+
+	/**
+	 * @return vannas (change of delta over volatility)
+	 */
+	public double[] getVanna() {
+		return(vanna);
+	}
+
+	/**
+	 * @return charms (delta decay)
+	 */
+	public double[] getCharm() {
+		return(charm);
+	}
+
+	/**
+	 * @return vommas (change of vega over volatility)
+	 */
+	public double[] getVomma() {
+		return(vomma);
+	}
+
+	/**
+	 * @return vetas (change of vega over time)
+	 */
+	public double[] getVeta() {
+		return(veta);
+	}
+}
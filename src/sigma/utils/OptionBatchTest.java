@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import cern.jet.stat.tdouble.Probability;
+
+/**
+ * Unit testing for batched option Greeks
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class OptionBatchTest {
+
+	@Test
+	public void testCdf() {
+		for (double x = -40; x <= 40; x += 0.01) {
+			assertEquals("Normal distribution at " + x, Probability.normal(0, 1, x), OptionBatch.cdf(x), 1e-14);
+		}
+	}
+
+	@Test
+	public void testGreeks() {
+		double h = 1e-4;
+		OptionBatch b = new OptionBatch(5);
+
+		// Base option, then spot, time and volatility bumped up
+		for (OptSide side: new OptSide[] {OptSide.CALL, OptSide.PUT}) {
+			b.set(0, 50, 48, 0.5, 0.3, 0.02, side);
+			b.set(1, 50, 48 + h, 0.5, 0.3, 0.02, side);
+			b.set(2, 50, 48 - h, 0.5, 0.3, 0.02, side);
+			b.set(3, 50, 48, 0.5 + h, 0.3, 0.02, side);
+			b.set(4, 50, 48, 0.5, 0.3 + h, 0.02, side);
+			b.compute();
+
+			double[] v = b.getValue();
+			double[] d = b.getDelta();
+
+			assertEquals("Delta", (v[1] - v[2]) / (2 * h), d[0], 1e-6);
+			assertEquals("Gamma", (d[1] - d[2]) / (2 * h), b.getGamma()[0], 1e-6);
+			assertEquals("Theta", -(v[3] - v[0]) / h, b.getTheta()[0], 1e-3);
+			assertEquals("Vega", (v[4] - v[0]) / h, b.getVega()[0], 1e-3);
+			assertEquals("Vanna", (d[4] - d[0]) / h, b.getVanna()[0], 1e-3);
+			assertEquals("Charm", -(d[3] - d[0]) / h, b.getCharm()[0], 1e-3);
+		}
+
+		// Put-call parity
+		b.set(0, 50, 48, 0.5, 0.3, 0.02, OptSide.CALL);
+		b.set(1, 50, 48, 0.5, 0.3, 0.02, OptSide.PUT);
+		b.compute();
+		assertEquals("Parity", 48 - 50 * Math.exp(-0.02 * 0.5), b.getValue()[0] - b.getValue()[1], 1e-12);
+	}
+
+	@Test
+	public void testForkJoin() {
+		int n = 10000;
+		OptionBatch serial = new OptionBatch(n);
+
+		for (int i = 0; i < n; i++) {
+			serial.set(i, 20 + i * 0.01, 60, 0.1 + (i % 50) * 0.02, 0.2 + (i % 7) * 0.05, 0.01,
+					i % 2 == 0 ? OptSide.CALL : OptSide.PUT);
+		}
+
+		OptionBatch parallel = new OptionBatch(serial.getStrike(), serial.getSpot(), serial.getMaturity(),
+				serial.getSigma(), serial.getRate(), serial.getCall());
+
+		serial.compute();
+		parallel.compute(ForkJoinPool.commonPool());
+
+		assertArrayEquals(serial.getValue(), parallel.getValue(), 0.0);
+		assertArrayEquals(serial.getVeta(), parallel.getVeta(), 0.0);
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Price store indexed by ticker id. Lookups are O(1) through an open addressing
+ * table and the quotes are kept as primitive longs, one cache line per ticker.
+ *
+ * There must be exactly one writer (the TWS message thread). Any number of
+ * readers, such as the trading loop or the GUI, can read without locks: every
+ * ticker has a sequence counter that is odd while an update is in progress,
+ * and read() retries until it sees a consistent quote.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class PriceStore {
+	// Layout of one ticker slot
+	private static final int SEQ = 0;
+	private static final int BID = 1;
+	private static final int ASK = 2;
+	private static final int LAST = 3;
+	private static final int BID_SIZE = 4;
+	private static final int ASK_SIZE = 5;
+	private static final int LAST_SIZE = 6;
+	private static final int ID = 7;
+	private static final int STRIDE = 8;
+
+	private static final long NO_PRICE = Double.doubleToRawLongBits(Double.NaN);
+
+	private final int capacity;
+	private final int mask;
+	private final int[] tableIds;
+	private final AtomicIntegerArray tableSlots; // slot + 1, 0 is empty
+	private final AtomicLongArray data;
+	private volatile int count = 0;
+	
+	// Callers waiting for the first last price of a ticker
+	private final ConcurrentHashMap<Integer, CompletableFuture<Double>> waiters = new ConcurrentHashMap<>();
+
+	/**
+	 * Store for up to 1024 tickers
+	 */
+	public PriceStore() {
+		this(1024);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity maximal number of tickers
+	 */
+	public PriceStore(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+
+		this.capacity = capacity;
+		this.mask = size - 1;
+		this.tableIds = new int[size];
+		this.tableSlots = new AtomicIntegerArray(size);
+		this.data = new AtomicLongArray(capacity * STRIDE);
+	}
+
+	/**
+	 * Updates price from tickPrice() callback. Fields other than
+	 * bid (1), ask (2) and last (4) are ignored.
+	 *
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param price price
+	 */
+	public void updatePrice(int tickerId, int field, double price) {
+		switch(field) {
+		case 1:
+			write(tickerId, BID, Double.doubleToRawLongBits(price));
+			break;
+		case 2:
+			write(tickerId, ASK, Double.doubleToRawLongBits(price));
+			break;
+		case 4:
+			write(tickerId, LAST, Double.doubleToRawLongBits(price));
+			if (price > 0 && !waiters.isEmpty()) {
+				CompletableFuture<Double> f = waiters.remove(tickerId);
+				
+				if (f != null) {
+					f.complete(price);
+				}
+			}
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Updates size from tickSize() callback. Fields other than
+	 * bid size (0), ask size (3) and last size (5) are ignored.
+	 *
+	 * @param tickerId ticker id
+	 * @param field TWS tick type
+	 * @param size size
+	 */
+	public void updateSize(int tickerId, int field, int size) {
+		switch(field) {
+		case 0:
+			write(tickerId, BID_SIZE, size);
+			break;
+		case 3:
+			write(tickerId, ASK_SIZE, size);
+			break;
+		case 5:
+			write(tickerId, LAST_SIZE, size);
+			break;
+		default:
+		}
+	}
+
+	private void write(int tickerId, int field, long value) {
+		int base = slot(tickerId, true) * STRIDE;
+		long seq = data.get(base + SEQ);
+
+		data.set(base + SEQ, seq + 1);
+		data.lazySet(base + field, value);
+		data.lazySet(base + SEQ, seq + 2);
+	}
+
+	/**
+	 * Finds the slot of a ticker, optionally creating it. Only the writer creates.
+	 * @return slot index or -1 if not found
+	 */
+	private int slot(int tickerId, boolean create) {
+		int h = (tickerId * 0x9E3779B9) & mask;
+
+		while (true) {
+			int s = tableSlots.get(h);
+
+			if (s == 0) {
+				break;
+			}
+			if (tableIds[h] == tickerId) {
+				return s - 1;
+			}
+			h = (h + 1) & mask;
+		}
+
+		if (!create) {
+			return -1;
+		}
+		if (count == capacity) {
+			throw new IllegalStateException("Price store is full, capacity " + capacity);
+		}
+
+		int s = count;
+		int base = s * STRIDE;
+
+		data.lazySet(base + BID, NO_PRICE);
+		data.lazySet(base + ASK, NO_PRICE);
+		data.lazySet(base + LAST, NO_PRICE);
+		data.lazySet(base + ID, tickerId);
+
+		// Publishing the slot makes the initialised quote visible to readers
+		tableIds[h] = tickerId;
+		tableSlots.lazySet(h, s + 1);
+		count = s + 1;
+
+		return s;
+	}
+
+	private double price(int tickerId, int field) {
+		int s = slot(tickerId, false);
+
+		if (s < 0) {
+			return(-1);
+		}
+
+		double p = Double.longBitsToDouble(data.get(s * STRIDE + field));
+		return(Double.isNaN(p) ? -1 : p);
+	}
+
+	/**
+	 * Returns last traded price
+	 * @param tickerId ticker id
+	 * @return last price or -1 if not received yet
+	 */
+	public double getLast(int tickerId) {
+		return(price(tickerId, LAST));
+	}
+
+	/**
+	 * Returns the first positive last price of the ticker. Completes right away
+	 * if the price is already known, otherwise from the tickPrice() callback.
+	 * Completion runs on the TWS message thread, dependent actions should be short.
+	 * 
+	 * @param tickerId ticker id
+	 * @return future of last price
+	 */
+	public CompletableFuture<Double> awaitLast(int tickerId) {
+		double p = getLast(tickerId);
+		
+		if (p > 0) {
+			return(CompletableFuture.completedFuture(p));
+		}
+		
+		CompletableFuture<Double> f = waiters.computeIfAbsent(tickerId, k -> new CompletableFuture<>());
+		
+		// The price may have arrived while registering
+		p = getLast(tickerId);
+		if (p > 0 && f.complete(p)) {
+			waiters.remove(tickerId, f);
+		}
+		return(f);
+	}
+	
+	/**
+	 * Returns bid price
+	 * @param tickerId ticker id
+	 * @return bid or -1 if not received yet
+	 */
+	public double getBid(int tickerId) {
+		return(price(tickerId, BID));
+	}
+
+	/**
+	 * Returns ask price
+	 * @param tickerId ticker id
+	 * @return ask or -1 if not received yet
+	 */
+	public double getAsk(int tickerId) {
+		return(price(tickerId, ASK));
+	}
+
+	/**
+	 * Reads a consistent quote of one ticker into a caller supplied Ticker.
+	 * Prices not received yet are reported as 0.
+	 *
+	 * @param tickerId ticker id
+	 * @param out Ticker to fill
+	 * @return false if the ticker is unknown
+	 */
+	public boolean read(int tickerId, Ticker out) {
+		int s = slot(tickerId, false);
+
+		if (s < 0) {
+			return(false);
+		}
+		readSlot(s, out);
+		return(true);
+	}
+
+	private void readSlot(int s, Ticker out) {
+		int base = s * STRIDE;
+		long seq;
+		long bid, ask, last, bidSize, askSize, lastSize;
+
+		do {
+			seq = data.get(base + SEQ);
+			bid = data.get(base + BID);
+			ask = data.get(base + ASK);
+			last = data.get(base + LAST);
+			bidSize = data.get(base + BID_SIZE);
+			askSize = data.get(base + ASK_SIZE);
+			lastSize = data.get(base + LAST_SIZE);
+		} while ((seq & 1) != 0 || seq != data.get(base + SEQ));
+
+		out.setId((int) data.get(base + ID));
+		out.setBid(orZero(bid));
+		out.setAsk(orZero(ask));
+		out.setPrice(orZero(last));
+		out.setBidSize((int) bidSize);
+		out.setAskSize((int) askSize);
+		out.setLastSize((int) lastSize);
+	}
+
+	private static double orZero(long bits) {
+		double p = Double.longBitsToDouble(bits);
+		return(Double.isNaN(p) ? 0 : p);
+	}
+
+	/**
+	 * Snapshot of all tickers in the order they were first seen.
+	 * Allocates, meant for the GUI rather than the tick path.
+	 *
+	 * @return list of Tickers
+	 */
+	public List<Ticker> getTickers() {
+		int n = count;
+		List<Ticker> list = new ArrayList<>(n);
+
+		for (int i = 0; i < n; i++) {
+			Ticker t = new Ticker(0, 0);
+			readSlot(i, t);
+			list.add(t);
+		}
+		return(list);
+	}
+
+	/**
+	 * @return number of tickers in the store
+	 */
+	public int size() {
+		return(count);
+	}
+}
@@ -12,6 +12,9 @@ public class Ticker {
 	private double price;
 	private double bid;
 	private double ask;
+	private int bidSize;
+	private int askSize;
+	private int lastSize;
 	
 	private int id;
 	
@@ -77,4 +80,46 @@ public class Ticker {
 	public void setAsk(double ask) {
 		this.ask = ask;
 	}
+
+	/**
+	 * @return the bid size
+	 */
+	public int getBidSize() {
+		return bidSize;
+	}
+
+	/**
+	 * @param bidSize the bid size to set
+	 */
+	public void setBidSize(int bidSize) {
+		this.bidSize = bidSize;
+	}
+
+	/**
+	 * @return the ask size
+	 */
+	public int getAskSize() {
+		return askSize;
+	}
+
+	/**
+	 * @param askSize the ask size to set
+	 */
+	public void setAskSize(int askSize) {
+		this.askSize = askSize;
+	}
+
+	/**
+	 * @return the last trade size
+	 */
+	public int getLastSize() {
+		return lastSize;
+	}
+
+	/**
+	 * @param lastSize the last trade size to set
+	 */
+	public void setLastSize(int lastSize) {
+		this.lastSize = lastSize;
+	}
 }
@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Index of objects by ticker id, e.g. the instrument a price tick belongs to.
+ * Lookups are O(1) through an open addressing table as in PriceStore, without
+ * boxing the id.
+ *
+ * Changes are rare (an instrument is requested) and rebuild the table, which is
+ * then published whole, so any thread can look up without locks.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ * @param <T> indexed type
+ */
+public class TickerIndex<T> {
+
+	/**
+	 * Immutable open addressing table, at most half full
+	 */
+	private static class Table {
+		final int mask;
+		final int[] ids;
+		final Object[] values;
+
+		Table(int entries) {
+			int size = Integer.highestOneBit(Math.max(2, entries) * 2 - 1) << 1;
+
+			mask = size - 1;
+			ids = new int[size];
+			values = new Object[size];
+		}
+	}
+
+	// Guarded by this
+	private final Map<Integer, T> entries = new LinkedHashMap<>();
+	private volatile Table table = new Table(0);
+
+	/**
+	 * Indexes an object under a ticker id, replacing the one indexed before
+	 * @param tickerId ticker id
+	 * @param value object, not null
+	 */
+	public synchronized void put(int tickerId, T value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null value for ticker " + tickerId);
+		}
+		entries.put(tickerId, value);
+		rebuild();
+	}
+
+	/**
+	 * Removes the object of a ticker id
+	 * @param tickerId ticker id
+	 */
+	public synchronized void remove(int tickerId) {
+		if (entries.remove(tickerId) != null) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * @param tickerId ticker id
+	 * @return object of the ticker or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int tickerId) {
+		Table t = table;
+		int h = (tickerId * 0x9E3779B9) & t.mask;
+
+		while (t.values[h] != null) {
+			if (t.ids[h] == tickerId) {
+				return((T) t.values[h]);
+			}
+			h = (h + 1) & t.mask;
+		}
+		return(null);
+	}
+
+	/**
+	 * @return number of tickers indexed
+	 */
+	public synchronized int size() {
+		return(entries.size());
+	}
+
+	private void rebuild() {
+		Table t = new Table(entries.size());
+
+		for (Map.Entry<Integer, T> e: entries.entrySet()) {
+			int h = (e.getKey() * 0x9E3779B9) & t.mask;
+
+			while (t.values[h] != null) {
+				h = (h + 1) & t.mask;
+			}
+			t.ids[h] = e.getKey();
+			t.values[h] = e.getValue();
+		}
+		table = t;
+	}
+}
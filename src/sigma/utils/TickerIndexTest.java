@@ -0,0 +1,45 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the ticker id index
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class TickerIndexTest {
+
+	@Test
+	public void testIndex() {
+		TickerIndex<String> index = new TickerIndex<>();
+
+		assertNull(index.get(1));
+
+		// Request ids and small ids, colliding or not
+		for (int i = 0; i < 100; i++) {
+			index.put((1 << 24) + i, "r" + i);
+			index.put(i, "t" + i);
+		}
+		assertEquals(200, index.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("r" + i, index.get((1 << 24) + i));
+			assertEquals("t" + i, index.get(i));
+		}
+		assertNull(index.get(-1));
+
+		// Replace and remove
+		index.put(5, "x");
+		assertEquals("x", index.get(5));
+		index.remove(5);
+		assertNull(index.get(5));
+		assertEquals("t6", index.get(6));
+		assertEquals(199, index.size());
+	}
+}
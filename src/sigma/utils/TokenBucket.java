@@ -0,0 +1,65 @@
+package sigma.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket rate limiter. Tokens are refilled continuously at the given
+ * rate up to the bucket size, which allows short bursts.
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class TokenBucket {
+	private final double perNano;
+	private final double size;
+	private double tokens;
+	private long last;
+
+	/**
+	 * Constructor
+	 * @param rate tokens per second
+	 * @param size maximal burst
+	 */
+	public TokenBucket(double rate, int size) {
+		if (rate <= 0 || size < 1) {
+			throw new IllegalArgumentException("Rate and size must be positive");
+		}
+		this.perNano = rate / 1e9;
+		this.size = size;
+		this.tokens = size;
+		this.last = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token if one is available
+	 * @return 0 if the token was taken, otherwise nanoseconds until one is available
+	 */
+	public synchronized long tryAcquire() {
+		long now = System.nanoTime();
+
+		tokens = Math.min(size, tokens + (now - last) * perNano);
+		last = now;
+
+		if (tokens >= 1) {
+			tokens -= 1;
+			return(0);
+		}
+		return((long) Math.ceil((1 - tokens) / perNano));
+	}
+
+	/**
+	 * Blocks until a token is available and takes it
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+		long wait;
+
+		while ((wait = tryAcquire()) > 0) {
+			LockSupport.parkNanos(this, wait);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+}
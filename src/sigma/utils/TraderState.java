@@ -3,6 +3,7 @@ package sigma.utils;
 /**
  * Possible states of trader algorithm
  * WAIT - no live orders, waiting for trigger
+ * PEND - orders are being created, waiting for price and order ids
  * LIVE - orders are live, nothing has executed
  * EXEC - post execution stage with at least one order
  *        executed, some cancelled and some live (like trail stop)
@@ -12,7 +13,7 @@ package sigma.utils;
  *
  */
 public enum TraderState {
-	WAIT, LIVE, EXEC;
+	WAIT, PEND, LIVE, EXEC;
 	
 	/**
 	 * @return String value of enum
@@ -22,6 +23,8 @@ public enum TraderState {
 		switch(this) {
 		case WAIT:
 			return("WAIT");
+		case PEND:
+			return("PEND");
 		case LIVE:
 			return("LIVE");
 		case EXEC:
@@ -0,0 +1,592 @@
+package sigma.utils;
+
+import java.nio.DoubleBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Option surface indexed by (expiry, strike, right).
+ *
+ * Cells are laid out expiry major, so all the options of one expiry (a smile slice)
+ * are contiguous in the underlying OptionBatch arrays. Updates mark their cell and
+ * slice dirty, refresh() then recomputes only the dirty slices: optionally the local
+ * implied volatilities and Greeks, and the cached smile and ATM term structure.
+ *
+ * Updates and refresh() must run on one thread, the TWS message thread. refresh()
+ * ends by publishing a Snapshot, a copy of the Greeks and curves that is never
+ * modified afterwards. The getters read the latest snapshot and are safe from any
+ * thread, they do not see updates before the next refresh().
+ *
+ * @author Peeter Meos
+ * @version 0.1
+ *
+ */
+public class VolGrid {
+	private final String[] expiry;
+	private final double[] strike;
+	private final int nExp;
+	private final int nStrike;
+
+	private final OptionBatch batch;
+	private final double[] bid;
+	private final double[] ask;
+	private final double[] last;
+	private final double[] optPrice;
+
+	private final BitSet dirty;
+	private final boolean[] sliceDirty;
+	private boolean localVol = false;
+
+	// Cached smile per expiry and strike and ATM volatility per expiry
+	private final double[] smile;
+	private final double[] atm;
+
+	private volatile Snapshot snapshot;
+	private long generation = 0;
+
+	/**
+	 * Greeks and curves of the grid as of one refresh(), exposed as read-only views.
+	 * Each refresh() copies the whole grid, so callers refresh once per batch of
+	 * updates rather than per update.
+	 */
+	public final class Snapshot {
+		private final long generation;
+		private final double[] delta;
+		private final double[] gamma;
+		private final double[] theta;
+		private final double[] vega;
+		private final double[] vol;
+		private final double[] price;
+		private final double[] spot;
+		private final double[] smile;
+		private final double[] atm;
+
+		private Snapshot(long generation) {
+			this.generation = generation;
+			this.delta = batch.getDelta().clone();
+			this.gamma = batch.getGamma().clone();
+			this.theta = batch.getTheta().clone();
+			this.vega = batch.getVega().clone();
+			this.vol = batch.getSigma().clone();
+			this.price = optPrice.clone();
+			this.spot = batch.getSpot().clone();
+			this.smile = VolGrid.this.smile.clone();
+			this.atm = VolGrid.this.atm.clone();
+		}
+
+		/**
+		 * @return number of the refresh() that published the snapshot
+		 */
+		public long getGeneration() {
+			return(generation);
+		}
+
+		/**
+		 * @param e expiry index
+		 * @return expiry as yyyyMMdd
+		 */
+		public String getExpiry(int e) {
+			return(expiry[e]);
+		}
+
+		/**
+		 * @param k strike index
+		 * @return strike
+		 */
+		public double getStrike(int k) {
+			return(strike[k]);
+		}
+
+		/**
+		 * Interpolated smile volatility, flat outside the strike range
+		 * @param e expiry index
+		 * @param k strike
+		 * @return volatility or NaN if the slice has no data
+		 */
+		public double getVol(int e, double k) {
+			return(interpolate(smile, e * nStrike, k));
+		}
+
+		/**
+		 * @param e expiry index
+		 * @return smile of one expiry, one value per strike
+		 */
+		public DoubleBuffer getSmile(int e) {
+			return(DoubleBuffer.wrap(smile, e * nStrike, nStrike).slice().asReadOnlyBuffer());
+		}
+
+		/**
+		 * @return ATM volatility term structure, one value per expiry
+		 */
+		public DoubleBuffer getTermStructure() {
+			return(view(atm));
+		}
+
+		/**
+		 * @return deltas by cell
+		 */
+		public DoubleBuffer getDelta() {
+			return(view(delta));
+		}
+
+		/**
+		 * @return gammas by cell
+		 */
+		public DoubleBuffer getGamma() {
+			return(view(gamma));
+		}
+
+		/**
+		 * @return thetas by cell
+		 */
+		public DoubleBuffer getTheta() {
+			return(view(theta));
+		}
+
+		/**
+		 * @return vegas by cell
+		 */
+		public DoubleBuffer getVega() {
+			return(view(vega));
+		}
+
+		/**
+		 * @return implied volatilities by cell
+		 */
+		public DoubleBuffer getImpliedVol() {
+			return(view(vol));
+		}
+
+		/**
+		 * @param cell cell index
+		 * @return last option price from TWS computation
+		 */
+		public double getOptPrice(int cell) {
+			return(price[cell]);
+		}
+
+		/**
+		 * @param cell cell index
+		 * @return underlying price
+		 */
+		public double getSpot(int cell) {
+			return(spot[cell]);
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param expiry expiries as yyyyMMdd, in ascending order
+	 * @param strike strikes in ascending order
+	 */
+	public VolGrid(String[] expiry, double[] strike) {
+		this.expiry = expiry.clone();
+		this.strike = strike.clone();
+		this.nExp = expiry.length;
+		this.nStrike = strike.length;
+
+		int n = nExp * nStrike * 2;
+
+		batch = new OptionBatch(n);
+		bid = new double[n];
+		ask = new double[n];
+		last = new double[n];
+		optPrice = new double[n];
+		dirty = new BitSet(n);
+		sliceDirty = new boolean[nExp];
+		smile = new double[nExp * nStrike];
+		atm = new double[nExp];
+
+		Arrays.fill(batch.getSigma(), Double.NaN);
+		Arrays.fill(smile, Double.NaN);
+		Arrays.fill(atm, Double.NaN);
+
+		LocalDate today = LocalDate.now();
+
+		for (int e = 0; e < nExp; e++) {
+			double t = yearsTo(today, expiry[e]);
+
+			for (int k = 0; k < nStrike; k++) {
+				batch.set(cell(e, k, OptSide.CALL), strike[k], 0, t, Double.NaN, 0, OptSide.CALL);
+				batch.set(cell(e, k, OptSide.PUT), strike[k], 0, t, Double.NaN, 0, OptSide.PUT);
+			}
+		}
+
+		snapshot = new Snapshot(generation);
+	}
+
+	private static DoubleBuffer view(double[] x) {
+		return(DoubleBuffer.wrap(x).asReadOnlyBuffer());
+	}
+
+	private static double yearsTo(LocalDate today, String exp) {
+		LocalDate d = LocalDate.parse(exp, DateTimeFormatter.BASIC_ISO_DATE);
+
+		// Expiring options keep a small positive maturity
+		return(Math.max(ChronoUnit.DAYS.between(today, d), 0.5) / 365.0);
+	}
+
+	/**
+	 * Cell index of an option
+	 * @param e expiry index
+	 * @param k strike index
+	 * @param side CALL or PUT
+	 * @return cell index
+	 */
+	public int cell(int e, int k, OptSide side) {
+		return((e * nStrike + k) * 2 + (side == OptSide.CALL ? 0 : 1));
+	}
+
+	/**
+	 * @param cell cell index
+	 * @return expiry index of the cell
+	 */
+	public int expiryOf(int cell) {
+		return(cell / (nStrike * 2));
+	}
+
+	/**
+	 * @param cell cell index
+	 * @return strike index of the cell
+	 */
+	public int strikeOf(int cell) {
+		return((cell / 2) % nStrike);
+	}
+
+	/**
+	 * @param cell cell index
+	 * @return CALL or PUT
+	 */
+	public OptSide sideOf(int cell) {
+		return((cell & 1) == 0 ? OptSide.CALL : OptSide.PUT);
+	}
+
+	private void touch(int cell) {
+		dirty.set(cell);
+		sliceDirty[cell / (nStrike * 2)] = true;
+	}
+
+	/**
+	 * Stores option computation from TWS (tickOptionComputation)
+	 *
+	 * @param cell cell index
+	 * @param impliedVol implied volatility
+	 * @param delta delta
+	 * @param price option model price
+	 * @param gamma gamma
+	 * @param vega vega
+	 * @param theta theta
+	 * @param undPrice underlying price
+	 */
+	public void setComputation(int cell, double impliedVol, double delta, double price,
+			double gamma, double vega, double theta, double undPrice) {
+		if (undPrice > 0) {
+			batch.getSpot()[cell] = undPrice;
+		}
+		optPrice[cell] = price;
+
+		// With local volatility the Greeks are calculated in refresh()
+		if (!localVol) {
+			batch.getSigma()[cell] = impliedVol;
+			batch.getDelta()[cell] = delta;
+			batch.getGamma()[cell] = gamma;
+			batch.getVega()[cell] = vega;
+			batch.getTheta()[cell] = theta;
+		}
+		touch(cell);
+	}
+
+	/**
+	 * Stores option quote (tickPrice). Fields other than bid (1),
+	 * ask (2) and last (4) are ignored.
+	 *
+	 * @param cell cell index
+	 * @param field TWS tick type
+	 * @param price price
+	 */
+	public void setQuote(int cell, int field, double price) {
+		switch(field) {
+		case 1:
+			bid[cell] = price;
+			break;
+		case 2:
+			ask[cell] = price;
+			break;
+		case 4:
+			last[cell] = price;
+			break;
+		default:
+			return;
+		}
+		touch(cell);
+	}
+
+	/**
+	 * Sets underlying price of all options of one expiry
+	 * @param e expiry index
+	 * @param spot underlying price
+	 */
+	public void setSpot(int e, double spot) {
+		int from = e * nStrike * 2;
+
+		Arrays.fill(batch.getSpot(), from, from + nStrike * 2, spot);
+		dirty.set(from, from + nStrike * 2);
+		sliceDirty[e] = true;
+	}
+
+	/**
+	 * Sets risk free rate of all options
+	 * @param r rate
+	 */
+	public void setRate(double r) {
+		Arrays.fill(batch.getRate(), r);
+		dirty.set(0, batch.size());
+		Arrays.fill(sliceDirty, true);
+	}
+
+	/**
+	 * Selects whether implied volatilities and Greeks are solved locally from
+	 * option quotes instead of taken from TWS option computations
+	 * @param local true to solve locally
+	 */
+	public void setLocalVol(boolean local) {
+		this.localVol = local;
+	}
+
+	/**
+	 * @return true if volatilities are solved locally
+	 */
+	public boolean isLocalVol() {
+		return(localVol);
+	}
+
+	/**
+	 * @return true if any cell has changed since last refresh, message thread only
+	 */
+	public boolean isDirty() {
+		return(!dirty.isEmpty());
+	}
+
+	/**
+	 * Recomputes dirty slices and publishes a new snapshot if any changed.
+	 * Message thread only.
+	 * @return number of slices recomputed
+	 */
+	public int refresh() {
+		int n = 0;
+
+		for (int e = 0; e < nExp; e++) {
+			if (sliceDirty[e]) {
+				refreshSlice(e);
+				n++;
+			}
+		}
+		if (n > 0) {
+			snapshot = new Snapshot(++generation);
+		}
+		return(n);
+	}
+
+	private void refreshSlice(int e) {
+		int from = e * nStrike * 2;
+		int to = from + nStrike * 2;
+
+		if (localVol) {
+			double[] vol = batch.getSigma();
+			double[] s = batch.getSpot();
+			double[] t = batch.getMaturity();
+			double[] r = batch.getRate();
+			boolean[] call = batch.getCall();
+
+			// Only cells with new inputs are solved, the rest keep their solution
+			for (int c = dirty.nextSetBit(from); c >= 0 && c < to; c = dirty.nextSetBit(c + 1)) {
+				double p = ImpliedVol.quote(bid[c], ask[c], last[c]);
+				double prev = vol[c];
+
+				vol[c] = ImpliedVol.solve(p, strike[strikeOf(c)], s[c], t[c], r[c], 0, call[c], prev == prev ? prev : 0);
+			}
+			batch.compute(from, to);
+		}
+
+		// Smile: mean of call and put volatility, gaps filled linearly
+		int base = e * nStrike;
+		double[] vol = batch.getSigma();
+
+		for (int k = 0; k < nStrike; k++) {
+			double vc = vol[from + 2 * k];
+			double vp = vol[from + 2 * k + 1];
+
+			if (vc > 0 && vp > 0) {
+				smile[base + k] = 0.5 * (vc + vp);
+			} else if (vc > 0) {
+				smile[base + k] = vc;
+			} else if (vp > 0) {
+				smile[base + k] = vp;
+			} else {
+				smile[base + k] = Double.NaN;
+			}
+		}
+		fillGaps(base);
+
+		// ATM from the smile at the underlying of the slice
+		double spot = 0;
+		for (int c = from; c < to && spot <= 0; c++) {
+			spot = batch.getSpot()[c];
+		}
+		atm[e] = spot > 0 ? interpolate(smile, base, spot) : Double.NaN;
+
+		dirty.clear(from, to);
+		sliceDirty[e] = false;
+	}
+
+	private void fillGaps(int base) {
+		int prev = -1;
+
+		for (int k = 0; k < nStrike; k++) {
+			if (Double.isNaN(smile[base + k])) {
+				continue;
+			}
+			if (prev < 0) {
+				Arrays.fill(smile, base, base + k, smile[base + k]);
+			} else {
+				for (int j = prev + 1; j < k; j++) {
+					double w = (strike[j] - strike[prev]) / (strike[k] - strike[prev]);
+
+					smile[base + j] = (1 - w) * smile[base + prev] + w * smile[base + k];
+				}
+			}
+			prev = k;
+		}
+		if (prev >= 0) {
+			Arrays.fill(smile, base + prev + 1, base + nStrike, smile[base + prev]);
+		}
+	}
+
+	private double interpolate(double[] smile, int base, double k) {
+		int i = Arrays.binarySearch(strike, k);
+
+		if (i >= 0) {
+			return(smile[base + i]);
+		}
+		i = -i - 1;
+		if (i == 0) {
+			return(smile[base]);
+		}
+		if (i == nStrike) {
+			return(smile[base + nStrike - 1]);
+		}
+
+		double w = (k - strike[i - 1]) / (strike[i] - strike[i - 1]);
+		return((1 - w) * smile[base + i - 1] + w * smile[base + i]);
+	}
+
+	/**
+	 * @return latest published snapshot
+	 */
+	public Snapshot getSnapshot() {
+		return(snapshot);
+	}
+
+	/**
+	 * Interpolated smile volatility of the latest snapshot, flat outside the strike range
+	 *
+	 * @param e expiry index
+	 * @param k strike
+	 * @return volatility or NaN if the slice has no data
+	 */
+	public double getVol(int e, double k) {
+		return(snapshot.getVol(e, k));
+	}
+
+	/**
+	 * Smile of one expiry in the latest snapshot, one value per strike
+	 * @param e expiry index
+	 * @return read-only view
+	 */
+	public DoubleBuffer getSmile(int e) {
+		return(snapshot.getSmile(e));
+	}
+
+	/**
+	 * ATM volatility term structure of the latest snapshot, one value per expiry
+	 * @return read-only view
+	 */
+	public DoubleBuffer getTermStructure() {
+		return(snapshot.getTermStructure());
+	}
+
+	/**
+	 * @return read-only view of deltas by cell in the latest snapshot
+	 */
+	public DoubleBuffer getDelta() {
+		return(snapshot.getDelta());
+	}
+
+	/**
+	 * @return read-only view of gammas by cell in the latest snapshot
+	 */
+	public DoubleBuffer getGamma() {
+		return(snapshot.getGamma());
+	}
+
+	/**
+	 * @return read-only view of thetas by cell in the latest snapshot
+	 */
+	public DoubleBuffer getTheta() {
+		return(snapshot.getTheta());
+	}
+
+	/**
+	 * @return read-only view of vegas by cell in the latest snapshot
+	 */
+	public DoubleBuffer getVega() {
+		return(snapshot.getVega());
+	}
+
+	/**
+	 * @return read-only view of implied volatilities by cell in the latest snapshot
+	 */
+	public DoubleBuffer getImpliedVol() {
+		return(snapshot.getImpliedVol());
+	}
+
+	/**
+	 * @param cell cell index
+	 * @return last option price from TWS computation in the latest snapshot
+	 */
+	public double getOptPrice(int cell) {
+		return(snapshot.getOptPrice(cell));
+	}
+
+	/**
+	 * @param cell cell index
+	 * @return underlying price in the latest snapshot
+	 */
+	public double getSpot(int cell) {
+		return(snapshot.getSpot(cell));
+	}
+
+	/**
+	 * @return number of cells
+	 */
+	public int size() {
+		return(batch.size());
+	}
+
+	/**
+	 * @return expiries
+	 */
+	public String[] getExpiry() {
+		return(expiry.clone());
+	}
+
+	/**
+	 * @return strikes
+	 */
+	public double[] getStrike() {
+		return(strike.clone());
+	}
+}
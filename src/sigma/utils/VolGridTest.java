@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package sigma.utils;
+
+import static org.junit.Assert.*;
+
+import java.nio.DoubleBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for indexed volatility surface
+ *
+ * @author Peeter Meos
+ * @version 1.0
+ *
+ */
+public class VolGridTest {
+
+	private String[] expiries() {
+		LocalDate d = LocalDate.now();
+
+		return(new String[] {
+				d.plusDays(30).format(DateTimeFormatter.BASIC_ISO_DATE),
+				d.plusDays(90).format(DateTimeFormatter.BASIC_ISO_DATE)});
+	}
+
+	@Test
+	public void testSmile() {
+		VolGrid g = new VolGrid(expiries(), new double[] {40, 45, 50, 55});
+
+		g.setComputation(g.cell(0, 1, OptSide.CALL), 0.30, 0.8, 5, 0.01, 0.1, -0.01, 48);
+		g.setComputation(g.cell(0, 3, OptSide.PUT), 0.20, -0.8, 5, 0.01, 0.1, -0.01, 48);
+
+		// Nothing is published before refresh
+		assertTrue(Double.isNaN(g.getVol(0, 50)));
+		assertEquals(1, g.refresh());
+		assertFalse(g.isDirty());
+
+		// Flat outside, linear inside
+		assertEquals(0.30, g.getVol(0, 40), 1e-12);
+		assertEquals(0.25, g.getVol(0, 50), 1e-12);
+		assertEquals(0.20, g.getVol(0, 60), 1e-12);
+		assertEquals(0.27, g.getTermStructure().get(0), 1e-12);
+		assertTrue(Double.isNaN(g.getTermStructure().get(1)));
+
+		// Views of a snapshot do not change, the next refresh publishes a new one
+		VolGrid.Snapshot s = g.getSnapshot();
+		DoubleBuffer delta = g.getDelta();
+		g.setComputation(g.cell(1, 2, OptSide.CALL), 0.25, 0.5, 2, 0.02, 0.1, -0.01, 50);
+		assertEquals(0, delta.get(g.cell(1, 2, OptSide.CALL)), 0);
+		assertEquals(1, g.refresh());
+		assertEquals(0, g.refresh());
+		assertEquals(s.getGeneration() + 1, g.getSnapshot().getGeneration());
+		assertTrue(Double.isNaN(s.getTermStructure().get(1)));
+		assertEquals(0.5, g.getDelta().get(g.cell(1, 2, OptSide.CALL)), 0);
+		assertEquals(0.25, g.getTermStructure().get(1), 1e-12);
+		assertEquals(50, s.getStrike(2), 0);
+		assertEquals(expiries()[1], s.getExpiry(1));
+	}
+
+	@Test
+	public void testLocalVol() {
+		VolGrid g = new VolGrid(expiries(), new double[] {45, 50, 55});
+		int c = g.cell(0, 1, OptSide.CALL);
+
+		g.setLocalVol(true);
+		g.setSpot(0, 50);
+		g.setQuote(c, 1, 1.9);
+		g.setQuote(c, 2, 2.1);
+		g.refresh();
+
+		double vol = g.getImpliedVol().get(c);
+		assertEquals(2.0 / (0.4 * 50 * Math.sqrt(30 / 365.0)), vol, 0.01);
+		assertTrue(g.getDelta().get(c) > 0.5);
+	}
+}
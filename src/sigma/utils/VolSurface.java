@@ -6,33 +6,43 @@ package sigma.utils;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.DoubleBuffer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 
 import org.codehaus.jackson.map.ObjectMapper;
 
 import com.ib.client.Contract;
-import com.ib.client.TagValue;
+import com.ib.client.DefaultEWrapper;
 import com.ib.client.Types.Right;
 import com.ib.client.Types.SecType;
 
+import sigma.trading.ChainScheduler;
+import sigma.trading.OptionChain;
 import sigma.trading.TwsConnector;
 
 /**
+ * Option volatility surface. The options are kept in a VolGrid indexed by
+ * (expiry, strike, right), the ticks of each option go to a handler bound to its cell.
+ * 
  * @author Peeter Meos
- * @version 0.1
+ * @version 0.2
  *
  */
 public class VolSurface extends TwsConnector{
 
 	protected Contract inst;
-	// Currently the strikes and expiries are hardcoded
+	protected Contract underlying;
+	protected ChainScheduler scheduler;
+	protected ChainScheduler.Batch batch;
+	
+	// Strike range and number of expiries, replaced by the discovered chain
 	protected double[] k = {40, 41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51, 52, 53, 54, 55};
 	protected String[] expiry = {"20171115", "20171214", "20180117", "20180214"};
-	protected List<Option> surface;
+	protected volatile VolGrid grid;
 	
 	/**
 	 * Simple constructor
@@ -42,54 +52,77 @@ public class VolSurface extends TwsConnector{
 		this.twsConnect();
 		
 		inst = new Contract();
-		surface = new ArrayList<>();
+		underlying = new Contract();
+		grid = new VolGrid(expiry, k);
+		scheduler = new ChainScheduler(this);
+	}
+	
+	/**
+	 * Getter for the indexed option surface
+	 * @return VolGrid
+	 */
+	public VolGrid getGrid() {
+		return(grid);
 	}
 	
 	/**
-	 * Getter for option surface
+	 * Getter for option surface. One Option per cell of the latest grid snapshot,
+	 * safe to call from any thread as strikes and expiries come from the snapshot too.
 	 * @return List<Option> list of option data
 	 */
 	public List<Option> getSurface() {
+		VolGrid g = grid;
+		VolGrid.Snapshot s = g.getSnapshot();
+		List<Option> surface = new ArrayList<>(g.size());
+		DoubleBuffer vol = s.getImpliedVol();
+		DoubleBuffer delta = s.getDelta();
+		DoubleBuffer gamma = s.getGamma();
+		DoubleBuffer theta = s.getTheta();
+		DoubleBuffer vega = s.getVega();
+		
+		for (int c = 0; c < g.size(); c++) {
+			Option o = new Option(c, s.getStrike(g.strikeOf(c)), s.getSpot(c), s.getExpiry(g.expiryOf(c)), g.sideOf(c));
+			
+			o.setSigma(vol.get(c));
+			o.setPrice(s.getOptPrice(c));
+			o.setDelta(delta.get(c));
+			o.setGamma(gamma.get(c));
+			o.setTheta(theta.get(c));
+			o.setVega(vega.get(c));
+			surface.add(o);
+		}
 		return(surface);
 	}
 	
 	/**
-	 * Returns vector of gamma
+	 * Returns copy of gamma vector of the latest snapshot, see VolGrid.getGamma() for a view
 	 * @return double[] of gamma
 	 */
 	public double[] getGamma() {
-		double x[] = new double[surface.size()];
-		
-		for(int i=0; i<surface.size();i++) {
-			x[i] = surface.get(i).getGamma();
-		}
-		return(x);
+		return(toArray(grid.getGamma()));
 	}
 	
 	/**
-	 * Returns vector of theta
+	 * Returns copy of theta vector of the latest snapshot, see VolGrid.getTheta() for a view
 	 * @return double[] of theta
 	 */
 	public double[] getTheta() {
-		double x[] = new double[surface.size()];
-		
-		for(int i=0; i<surface.size();i++) {
-			x[i] = surface.get(i).getTheta();
-		}
-		return(x);		
+		return(toArray(grid.getTheta()));		
 	}
 	
 	/**
-	 * Returns vector of delta
+	 * Returns copy of delta vector of the latest snapshot, see VolGrid.getDelta() for a view
 	 * @return double[] of delta
 	 */
 	public double[] getDelta() {
-		double x[] = new double[surface.size()];
+		return(toArray(grid.getDelta()));		
+	}
+	
+	private double[] toArray(DoubleBuffer b) {
+		double[] x = new double[b.remaining()];
 		
-		for(int i=0; i<surface.size();i++) {
-			x[i] = surface.get(i).getDelta();
-		}
-		return(x);		
+		b.get(x);
+		return(x);
 	}
 	
 	/**
@@ -102,7 +135,7 @@ public class VolSurface extends TwsConnector{
 	    final ObjectMapper mapper = new ObjectMapper();
 
 	    try {
-			mapper.writeValue(out, surface);
+			mapper.writeValue(out, getSurface());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -112,76 +145,155 @@ public class VolSurface extends TwsConnector{
 	}
 	
 	/**
-	 * Volatility request. Tickers 10-13 contain volatility data
+	 * Volatility request. Discovers the option chain, keeps the first expiry.length
+	 * expiries and the strikes within the range of k, and requests snapshots of the
+	 * whole surface at the rate TWS pacing allows.
+	 * 
+	 * @return future completed when the snapshots of all options have arrived
 	 */
-	public void reqSurface() {
-		Vector<TagValue> mktDataOptions = new Vector<>();
-		int seq = 1;
+	public CompletableFuture<Void> reqSurface() {
+		underlying.symbol("CL");
+		underlying.secType(SecType.FUT);
+		underlying.exchange("NYMEX");
+		underlying.currency("USD");
 		
 		inst.symbol("CL");
 		inst.secType(SecType.FOP);
 		inst.exchange("NYMEX");
 		inst.currency("USD");
 		inst.multiplier("1000");
-
-		for(double i: k) {
-			for(String j: expiry) {
-				inst.lastTradeDateOrContractMonth(j);
-				inst.strike(i);
-				
-				// Request call
-				inst.right(Right.Call);
-				this.getTws().reqMktData(seq++, inst, "10,11,12,13", true, mktDataOptions);
-				surface.add(new Option(seq, i, 0, j, OptSide.CALL));
-				Helper.sleep(100);
+		
+		return(scheduler.discover(underlying, "NYMEX").thenCompose(this::subscribe));
+	}
+	
+	/**
+	 * Rebuilds the grid for the discovered chain and subscribes to all of its options
+	 * @param chain option chain
+	 * @return future completed when all snapshots have arrived
+	 */
+	protected CompletableFuture<Void> subscribe(OptionChain chain) {
+		List<String> exp = new ArrayList<>();
+		List<Double> strikes = new ArrayList<>(chain.getStrikes().subSet(k[0], true, k[k.length - 1], true));
+		
+		for (String e: chain.getExpirations()) {
+			if (exp.size() < expiry.length) {
+				exp.add(e);
+			}
+		}
+		logger.log("Option chain: " + exp.size() + " expiries, " + strikes.size() + " strikes");
+		
+		expiry = exp.toArray(new String[0]);
+		k = new double[strikes.size()];
+		for (int i = 0; i < k.length; i++) {
+			k[i] = strikes.get(i);
+		}
+		
+		VolGrid g = new VolGrid(expiry, k);
+		List<Contract> contracts = new ArrayList<>(g.size());
+		
+		for (int c = 0; c < g.size(); c++) {
+			Contract o = inst.clone();
+			
+			o.lastTradeDateOrContractMonth(expiry[g.expiryOf(c)]);
+			o.strike(k[g.strikeOf(c)]);
+			o.right(g.sideOf(c) == OptSide.CALL ? Right.Call : Right.Put);
+			if (chain.getTradingClass() != null) {
+				o.tradingClass(chain.getTradingClass());
+			}
+			contracts.add(o);
+		}
+		
+		grid = g;
+		batch = scheduler.subscribe(contracts, "", c -> new Cell(g, c));
+		return(batch.getDone());
+	}
+	
+	/**
+	 * Receives the ticks of one option and stores them in its grid cell
+	 */
+	protected class Cell extends DefaultEWrapper {
+		private final VolGrid g;
+		private final int cell;
+		
+		Cell(VolGrid g, int cell) {
+			this.g = g;
+			this.cell = cell;
+		}
+		
+		/**
+		 * Option value, volatility and greeks response
+		 * A field value of 13 will map to modelOptComp, etc. 10 = Bid 11 = Ask 12 = Last
+		 */
+		@Override
+		public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta, double optPrice,
+				double pvDividend, double gamma, double vega, double theta, double undPrice) {
+			NumberFormat formatter = new DecimalFormat("#0.000"); 
+			
+			if(field == 13) {
+				logger.log("Tick option computation ticker " + tickerId + 
+						" field " + field + 
+						" IV "+ formatter.format(impliedVol) + 
+						" delta " + formatter.format(delta) +
+						" gamma " + formatter.format(gamma) + 
+						" theta " + formatter.format(theta) + 
+						" vega " + formatter.format(vega));
 				
-				// Request put
-				inst.right(Right.Put);
-				this.getTws().reqMktData(seq++, inst, "13", true, mktDataOptions);
-				surface.add(new Option(seq, i, 0, j, OptSide.PUT));
-				Helper.sleep(100);
+				g.setComputation(cell, impliedVol, delta, optPrice, gamma, vega, theta, undPrice);
+			}
+		}
+		
+		/**
+		 * Option quotes, used when volatilities are solved locally
+		 */
+		@Override
+		public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+			if (g.isLocalVol()) {
+				g.setQuote(cell, field, price);
 			}
 		}
 	}
 	
 	/**
-	 * Option value, volatility and greeks response
-	 * A field value of 13 will map to modelOptComp, etc. 10 = Bid 11 = Ask 12 = Last
+	 * Snapshot of one option complete, publishes the grid if it was the last one
 	 */
 	@Override
-	public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta, double optPrice,
-			double pvDividend, double gamma, double vega, double theta, double undPrice) {
-		NumberFormat formatter = new DecimalFormat("#0.000"); 
-				
-		if(field == 13) {
-			logger.log("Tick option computation ticker " + tickerId + 
-					" field " + field + 
-					" IV "+ formatter.format(impliedVol) + 
-					" delta " + formatter.format(delta) +
-					" gamma " + formatter.format(gamma) + 
-					" theta " + formatter.format(theta) + 
-					" vega " + formatter.format(vega));
-			
-			// Add data
-			for(Option item: surface) {
-				if (item.getId() == tickerId) {
-					item.setSigma(impliedVol);
-					item.setPrice(optPrice);
-					item.setS(undPrice);
-					item.setGamma(gamma);
-					item.setTheta(theta);
-					item.setVega(vega);
-				}
-			}			
+	public void tickSnapshotEnd(int reqId) {
+		super.tickSnapshotEnd(reqId);
+		publish();
+	}
+	
+	/**
+	 * Request errors end snapshots too
+	 */
+	@Override
+	public void error(int id, int errorCode, String errorMsg) {
+		super.error(id, errorCode, errorMsg);
+		if (endsRequest(errorCode)) {
+			publish();
 		}
 	}
 	
 	/**
-	 * Tick price is not needed, we get volatility and greeks otherwise
+	 * Snapshots past their deadline end on the scheduler thread, the timer
+	 * publishes the grid for them
 	 */
 	@Override
-	public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
-		// Nothing to see here, tick price is not needed
+	public void onTimer(long now) {
+		super.onTimer(now);
+		publish();
+	}
+	
+	/**
+	 * Recomputes the changed slices and publishes them once all snapshots of the
+	 * batch have ended. A refresh copies the whole grid, so it is not done per option.
+	 * Message thread only, as the grid updates.
+	 */
+	protected void publish() {
+		ChainScheduler.Batch b = batch;
+		
+		if (b != null && b.getRemaining() == 0 && grid.isDirty()) {
+			grid.refresh();
+		}
 	}
 
-}
+}
\ No newline at end of file